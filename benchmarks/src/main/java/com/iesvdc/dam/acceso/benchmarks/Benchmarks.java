@@ -0,0 +1,20 @@
+package com.iesvdc.dam.acceso.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Punto de entrada de benchmarks.jar. Acepta las mismas opciones que el lanzador de JMH
+ * (por ejemplo un patrón con los benchmarks a ejecutar, -p filas=10000 o -rf json) y añade siempre el perfilador gc,
+ * que informa de la tasa de asignación de memoria (gc.alloc.rate y gc.alloc.rate.norm) de cada benchmark.
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
@@ -0,0 +1,112 @@
+package com.iesvdc.dam.acceso.benchmarks;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+
+/**
+ * Operaciones por celda: deducción del tipo con {@link ExcelReader#getTipoDato} (sobre celdas de POI y sobre {@link CellValue})
+ * y conversión de celda a texto. Cada operación recorre un bloque de celdas de los cinco tipos del modelo.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CellBenchmark {
+    private static final int CELDAS = 1000;
+
+    private XSSFWorkbook wb;
+    private Cell[] celdas;
+    private CellValue[] valores;
+    private final ExcelReader reader = new ExcelReader();
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        wb = new XSSFWorkbook();
+        CellStyle estiloFecha = wb.createCellStyle();
+        estiloFecha.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+        Sheet hoja = wb.createSheet("datos");
+        Row fila = hoja.createRow(0);
+        celdas = new Cell[CELDAS];
+        valores = new CellValue[CELDAS];
+        for (int i = 0; i < CELDAS; i++) {
+            Cell celda = fila.createCell(i);
+            switch (i % 5) {
+                case 0:
+                    celda.setCellValue(i);
+                    break;
+                case 1:
+                    celda.setCellValue("texto " + i);
+                    break;
+                case 2:
+                    celda.setCellValue(i * 1.25);
+                    break;
+                case 3:
+                    celda.setCellValue(LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(i));
+                    celda.setCellStyle(estiloFecha);
+                    break;
+                default:
+                    celda.setCellValue(i % 2 == 0);
+            }
+            celdas[i] = celda;
+            valores[i] = new CellValue();
+            valores[i].setFromCell(celda);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws IOException {
+        wb.close();
+    }
+
+    @Benchmark
+    public void tipoDatoCell(Blackhole bh) {
+        for (Cell celda : celdas)
+            bh.consume(reader.getTipoDato(celda));
+    }
+
+    @Benchmark
+    public void tipoDatoCellValue(Blackhole bh) {
+        for (CellValue valor : valores)
+            bh.consume(reader.getTipoDato(valor));
+    }
+
+    @Benchmark
+    public void cellValueAsString(Blackhole bh) {
+        for (CellValue valor : valores)
+            bh.consume(valor.asString());
+    }
+
+    @Benchmark
+    public void cellToString(Blackhole bh) {
+        CellValue valor = new CellValue();
+        for (Cell celda : celdas) {
+            valor.setFromCell(celda);
+            bh.consume(valor.asString());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.iesvdc.dam.acceso.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Genera los libros Excel de prueba de los benchmarks. Cada libro tiene una sola hoja con una fila de cabeceras
+ * y {@code filas} filas de datos; las columnas rotan entre los cinco tipos del modelo (entero, texto, decimal, fecha y booleano).
+ * Los ficheros se guardan en el directorio temporal y se reutilizan entre ejecuciones, porque generar el de un millón de filas
+ * lleva más que cualquier medida.
+ */
+public final class Fixtures {
+    private static final String[] TIPOS = { "id", "nombre", "importe", "fecha", "activo" };
+
+    private Fixtures() { }
+
+    /**
+     * Devuelve la ruta del libro de prueba con las dimensiones pedidas, generándolo si no existe.
+     * @param filas filas de datos
+     * @param columnas columnas de la hoja
+     * @return la ruta del fichero .xlsx
+     * @throws IOException si no se puede escribir el fichero
+     */
+    public static synchronized String libro(int filas, int columnas) throws IOException {
+        File fichero = new File(System.getProperty("java.io.tmpdir"), "excel2database-" + filas + "x" + columnas + ".xlsx");
+        if (!fichero.exists()) {
+            File parcial = new File(fichero.getPath() + ".tmp");
+            generar(parcial, filas, columnas);
+            if (!parcial.renameTo(fichero))
+                throw new IOException("No se puede crear " + fichero);
+        }
+        return fichero.getPath();
+    }
+
+    /**
+     * Nombre de la columna j de los libros de prueba ("id0", "nombre1", ...).
+     * @param j índice de la columna
+     * @return el nombre de la columna
+     */
+    public static String columna(int j) {
+        return TIPOS[j % TIPOS.length] + j;
+    }
+
+    private static void generar(File fichero, int filas, int columnas) throws IOException {
+        try (SXSSFWorkbook wb = new SXSSFWorkbook(100)) {
+            wb.setCompressTempFiles(true);
+            CellStyle estiloFecha = wb.createCellStyle();
+            estiloFecha.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+            SXSSFSheet hoja = wb.createSheet("datos");
+
+            Row cabecera = hoja.createRow(0);
+            for (int j = 0; j < columnas; j++)
+                cabecera.createCell(j).setCellValue(columna(j));
+
+            LocalDateTime base = LocalDateTime.of(2020, 1, 1, 0, 0);
+            for (int i = 1; i <= filas; i++) {
+                Row fila = hoja.createRow(i);
+                for (int j = 0; j < columnas; j++) {
+                    Cell celda = fila.createCell(j);
+                    switch (j % TIPOS.length) {
+                        case 0:
+                            celda.setCellValue(i * (j + 1));
+                            break;
+                        case 1:
+                            celda.setCellValue("texto " + i + " de la columna " + j);
+                            break;
+                        case 2:
+                            celda.setCellValue(i * 1.25 + j);
+                            break;
+                        case 3:
+                            celda.setCellValue(base.plusMinutes(i));
+                            celda.setCellStyle(estiloFecha);
+                            break;
+                        default:
+                            celda.setCellValue(i % 2 == 0);
+                    }
+                }
+            }
+            try (FileOutputStream fos = new FileOutputStream(fichero)) {
+                wb.write(fos);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.iesvdc.dam.acceso.benchmarks;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iesvdc.dam.acceso.carga.BulkMode;
+import com.iesvdc.dam.acceso.carga.CommitMode;
+import com.iesvdc.dam.acceso.carga.TableLoader;
+import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+
+/**
+ * Carga completa de un libro con {@link TableLoader} (lectura en streaming, CREATE TABLE e INSERT en batch) contra H2 en memoria
+ * en modo MySQL, que hace de MySQL local. Mide el camino del programa y no el del servidor: las cifras absolutas no son las de MySQL,
+ * pero sí sirven para comparar dos versiones del código. La tabla se borra antes de cada operación.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+    private static final String URL = "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    @Param({ "10000", "100000" })
+    public int filas;
+
+    @Param({ "5", "20" })
+    public int columnas;
+
+    @Param({ "1000" })
+    public int batchSize;
+
+    private String fichero;
+    private ExcelReader reader;
+    private Connection conexion;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException, SQLException {
+        fichero = Fixtures.libro(filas, columnas);
+        reader = new ExcelReader(true);
+        reader.loadWorkbook(fichero);
+        conexion = DriverManager.getConnection(URL);
+        conexion.setAutoCommit(false);
+    }
+
+    @Setup(Level.Invocation)
+    public void vaciar() throws SQLException {
+        try (Statement st = conexion.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS `datos`");
+        }
+        conexion.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws SQLException {
+        conexion.close();
+    }
+
+    @Benchmark
+    public long insertBatch() throws Exception {
+        TableLoader loader = new TableLoader(conexion, reader.getWbm(), batchSize, CommitMode.SHEET, BulkMode.BATCH);
+        reader.readRows(fichero, loader);
+        return loader.getFilasTotales();
+    }
+}
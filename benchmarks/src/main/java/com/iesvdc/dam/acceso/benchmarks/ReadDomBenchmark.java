@@ -0,0 +1,52 @@
+package com.iesvdc.dam.acceso.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Lectura del libro completo con {@link ExcelReader#loadWorkbook} en modo dom (XSSFWorkbook), como referencia frente al streaming.
+ * No incluye el libro de un millón de filas: en modo dom no cabe en un heap razonable.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@State(Scope.Benchmark)
+public class ReadDomBenchmark {
+    @Param({ "10000", "100000" })
+    public int filas;
+
+    @Param({ "5", "20" })
+    public int columnas;
+
+    private String fichero;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        fichero = Fixtures.libro(filas, columnas);
+    }
+
+    @Benchmark
+    public WorkbookModel loadWorkbookDom() {
+        ExcelReader reader = new ExcelReader(false);
+        reader.loadWorkbook(fichero);
+        return reader.getWbm();
+    }
+}
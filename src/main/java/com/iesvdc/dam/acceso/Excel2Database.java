@@ -4,35 +4,123 @@
 
 package com.iesvdc.dam.acceso;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
 
+import com.iesvdc.dam.acceso.carga.BulkMode;
+import com.iesvdc.dam.acceso.carga.CheckpointJournal;
+import com.iesvdc.dam.acceso.carga.CommitMode;
+import com.iesvdc.dam.acceso.carga.DeltaLoader;
+import com.iesvdc.dam.acceso.carga.DuplicateChecker;
+import com.iesvdc.dam.acceso.carga.IndexBuilder;
+import com.iesvdc.dam.acceso.carga.ParallelImporter;
+import com.iesvdc.dam.acceso.carga.PipelineLoader;
+import com.iesvdc.dam.acceso.carga.RejectsWriter;
+import com.iesvdc.dam.acceso.carga.SchemaCache;
+import com.iesvdc.dam.acceso.carga.TableLoader;
 import com.iesvdc.dam.acceso.conexion.Conexion;
 import com.iesvdc.dam.acceso.conexion.Config;
 import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+import com.iesvdc.dam.acceso.exportacion.DatabaseExporter;
+import com.iesvdc.dam.acceso.ingesta.InboxWatcher;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.metricas.ProgressReporter;
+import com.iesvdc.dam.acceso.perfil.DryRunProfiler;
+import com.iesvdc.dam.acceso.perfil.DryRunReport;
+import com.iesvdc.dam.acceso.perfil.SheetProfile;
 
 
 /**
  * Este programa genérico en java (proyecto Maven) es un ejercicio simple que vuelca un libro Excel (xlsx) a una base de datos (MySQL) y viceversa.
  * El programa lee la configuración de la base de datos de un fichero "properties" de Java y luego, con apache POI, leo las hojas, el nombre de cada hoja será
  * el nombre de las tablas,  la primera fila de cada hoja será el nombre de los atributos de  cada tabla (hoja) y para saber el tipo de dato,
- * tendré que preguntar a la segunda fila qué tipo de dato tiene. 
- * 
- * Procesamos el fichero Excel y creamos una estructura de datos con la información siguiente: La estructura principal es el libro, 
+ * se analizan las filas de datos de cada columna (todas o una muestra) ampliando el tipo cuando hace falta.
+ *
+ * Procesamos el fichero Excel y creamos una estructura de datos con la información siguiente: La estructura principal es el libro,
  * que contiene una lista de tablas y cada tabla contiene tuplas nombre del campo y tipo de dato.
  */
 public class Excel2Database {
     public static void main( String[] args ) {
         Properties props = Config.getProperties("config.properties");
+        // --dry-run equivale a action=dryrun: ensaya la carga sin tocar la base de datos
+        if (Arrays.asList(args).contains("--dry-run"))
+            props.setProperty("action", "dryrun");
+        ImportMetrics metricas = ImportMetrics.get();
+        // metricsJmx=true publica las métricas por JMX (jconsole, VisualVM) mientras dura la ejecución
+        if (Boolean.parseBoolean(props.getProperty("metricsJmx", "true")))
+            ImportMetrics.registrarJmx();
+        // progressInterval=N muestra el progreso cada N segundos (0 = nunca)
+        long intervalo = Long.parseLong(props.getProperty("progressInterval", "10"));
+        ProgressReporter progreso = intervalo > 0 ? new ProgressReporter(metricas, intervalo) : null;
+        try {
+            ejecutar(props);
+        } finally {
+            if (progreso != null)
+                progreso.close();
+        }
+        System.out.println(String.format(Locale.ROOT, "Métricas: %d filas leídas, %d escritas, %d rechazadas en %.1f s (%.0f filas/s); bloques %s; commits %s; conexiones %s; índices únicos %d en %.0f ms",
+            metricas.getFilasLeidas(), metricas.getFilasEscritas(), metricas.getFilasRechazadas(), metricas.getSegundos(), metricas.getFilasEscritasPorSegundo(),
+            metricas.getHistogramaLotes(), metricas.getHistogramaCommits(), metricas.getHistogramaConexiones(),
+            metricas.getIndices(), metricas.getIndiceTotalMs()));
+        String tamanos = metricas.getResumenTamanosLote();
+        if (!tamanos.isEmpty())
+            System.out.println("Bloques adaptativos (filas): " + tamanos);
+        // metricsFile=ruta guarda el resumen de las métricas en JSON al terminar
+        String resumen = props.getProperty("metricsFile", "");
+        // El ensayo no sobrescribe las métricas de la última carga: de ahí saca la velocidad de su previsión
+        if (!resumen.isBlank() && !"dryrun".equalsIgnoreCase(props.getProperty("action"))) {
+            try {
+                metricas.escribirResumen(resumen);
+                System.out.println("Resumen de métricas guardado en '" + resumen + "'.");
+            } catch (IOException e) {
+                System.err.println("No se puede guardar el resumen de métricas: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ejecuta la acción indicada en la configuración: save (exportar), load (cargar el libro), watch (demonio que carga los libros
+     * que llegan a una carpeta), dryrun (ensayo de la carga sin base de datos) o, si no hay ninguna, la prueba de personas.
+     * @param props propiedades de configuración
+     */
+    private static void ejecutar(Properties props) {
+        if ("dryrun".equalsIgnoreCase(props.getProperty("action"))) {
+            ensayarCarga(props);
+            return;
+        }
         Conexion.crearDatabase();
-        //TODO si la accion es LOAD
-        ExcelReader reader = new ExcelReader();
+        if ("save".equalsIgnoreCase(props.getProperty("action"))) {
+            exportarLibro(props);
+            Conexion.cerrarPool();
+            return;
+        }
+        if ("watch".equalsIgnoreCase(props.getProperty("action"))) {
+            vigilarEntrada(props);
+            Conexion.cerrarPool();
+            return;
+        }
+        if ("load".equalsIgnoreCase(props.getProperty("action"))) {
+            cargarFichero(props);
+            Conexion.cerrarPool();
+            return;
+        }
+        ExcelReader reader = crearLector(props);
         reader.loadWorkbook(props.getProperty("file"));
-        
+
         //TEST
         try (Connection conexion = Conexion.getConnection()) {
             if (conexion != null) {
-                PersonasImporter importer = new PersonasImporter();
+                PersonasImporter importer = new PersonasImporter(reader);
+                RejectsWriter rechazos = crearRechazos(props, "datos/test.xlsx");
+                importer.setRechazos(rechazos);
+                importer.setLoteAdaptativo(presupuestoLote(props), Long.parseLong(props.getProperty("batchMaxMs", "2000")));
                 try {
                     importer.importar("datos/test.xlsx", conexion);
                     com.iesvdc.dam.acceso.conexion.Conexion.commit(conexion);
@@ -42,11 +130,476 @@ public class Excel2Database {
                     com.iesvdc.dam.acceso.conexion.Conexion.rollback(conexion);
                     System.err.println("Importación CANCELADA. ROLLBACK realizado.");
                     System.err.println("Motivo: " + e.getMessage());
+                } finally {
+                    cerrarRechazos(rechazos);
                 }
             } else
                 System.err.println("Imposible conectar a la base de datos.");
         } catch (Exception e) {
             System.err.println("Error general: " + e.getMessage());
         }
+        Conexion.cerrarPool();
+    }
+
+    /**
+     * Memoria que puede ocupar cada bloque pendiente de envío con adaptiveBatch=true (batchMemoryMb, 16 MB por defecto).
+     * @param props configuración
+     * @return el presupuesto en bytes, o 0 si el tamaño de bloque es fijo
+     */
+    private static long presupuestoLote(Properties props) {
+        if (!Boolean.parseBoolean(props.getProperty("adaptiveBatch", "false")))
+            return 0;
+        return Long.parseLong(props.getProperty("batchMemoryMb", "16")) * 1024 * 1024;
+    }
+
+    private static ExcelReader crearLector(Properties props) {
+        // readMode=streaming lee las hojas fila a fila sin cargar el libro entero en memoria
+        ExcelReader reader = new ExcelReader("streaming".equalsIgnoreCase(props.getProperty("readMode", "dom")));
+        // inferenceSample=0 deduce los tipos observando todas las filas de cada hoja
+        reader.setInferenceSample(Integer.parseInt(props.getProperty("inferenceSample", "0")));
+        return reader;
+    }
+
+    /**
+     * Carga el libro de la clave file: deduce su modelo (o lo toma del diario, si se reanuda, o de la {@link SchemaCache},
+     * si ya se cargó un libro con la misma estructura) y lo carga con {@link #cargarLibro}.
+     * @param props propiedades de configuración
+     * @return true si la carga ha terminado bien
+     */
+    private static boolean cargarFichero(Properties props) {
+        ExcelReader reader = crearLector(props);
+        // schemaCache=true reutiliza el modelo y el DDL de los libros con la misma estructura (hojas y cabeceras)
+        SchemaCache cache = null;
+        String huella = null;
+        if (Boolean.parseBoolean(props.getProperty("schemaCache", "false"))) {
+            try {
+                String cacheFile = props.getProperty("schemaCacheFile", "");
+                cache = SchemaCache.abrir(cacheFile.isBlank() ? "schema-cache.properties" : cacheFile,
+                    props.getProperty("host") + ":" + props.getProperty("port") + "/" + props.getProperty("database"));
+                huella = SchemaCache.huellaCabeceras(props.getProperty("file"));
+            } catch (Exception e) {
+                System.err.println("No se puede usar la caché de estructura: " + e.getMessage());
+                cache = null;
+            }
+        }
+        // checkpoint=true anota el progreso en un diario para poder reanudar la carga si se interrumpe
+        CheckpointJournal journal = null;
+        if (Boolean.parseBoolean(props.getProperty("checkpoint", "false"))) {
+            try {
+                journal = CheckpointJournal.abrir(props.getProperty("checkpointFile", props.getProperty("file") + ".journal"), props.getProperty("file"));
+            } catch (IOException e) {
+                System.err.println("No se puede abrir el diario de la carga: " + e.getMessage());
+                return false;
+            }
+        }
+        if (journal != null && journal.getModelo() != null) {
+            reader.setWbm(journal.getModelo());
+        } else if (cache != null && cache.getModelo(huella) != null) {
+            reader.setWbm(cache.getModelo(huella));
+            System.out.println("Estructura conocida (" + huella + "): se reutiliza el modelo sin deducir los tipos.");
+        } else {
+            reader.loadWorkbook(props.getProperty("file"));
+            if (cache != null && reader.getWbm() != null) {
+                try {
+                    cache.guardarModelo(huella, reader.getWbm());
+                } catch (IOException e) {
+                    System.err.println("No se puede guardar la caché de estructura: " + e.getMessage());
+                }
+            }
+            if (journal != null && reader.getWbm() != null) {
+                try {
+                    journal.guardarModelo(reader.getWbm());
+                } catch (IOException e) {
+                    System.err.println("No se puede guardar el diario de la carga: " + e.getMessage());
+                    journal = null;
+                }
+            }
+        }
+        boolean correcto = cargarLibro(props, reader, journal, cache);
+        if (!correcto && cache != null) {
+            // Si los datos ya no caben en el modelo guardado o falta alguna tabla, la próxima vez se empieza de cero
+            try {
+                cache.olvidar(huella);
+            } catch (IOException e) {
+                System.err.println("No se puede guardar la caché de estructura: " + e.getMessage());
+            }
+        }
+        return correcto;
+    }
+
+    /**
+     * Modo demonio con {@link InboxWatcher}: carga cada libro que llega a la carpeta watchDir y lo mueve a watchDoneDir o watchFailedDir.
+     * Usa las claves watchWorkers (libros a la vez) y watchDebounceMs (tiempo sin cambios antes de leer un fichero);
+     * el resto de claves de la carga se aplican a cada libro. La carga reanudable no se usa en este modo.
+     * @param props propiedades de configuración
+     */
+    private static void vigilarEntrada(Properties props) {
+        Path entrada = Paths.get(props.getProperty("watchDir", "entrada"));
+        InboxWatcher watcher = new InboxWatcher(entrada,
+            Paths.get(props.getProperty("watchDoneDir", entrada.resolve("done").toString())),
+            Paths.get(props.getProperty("watchFailedDir", entrada.resolve("failed").toString())),
+            Integer.parseInt(props.getProperty("watchWorkers", "4")),
+            Long.parseLong(props.getProperty("watchDebounceMs", "2000")),
+            fichero -> {
+                // Cada libro usa la configuración general con su propia ruta
+                Properties propsFichero = new Properties(props);
+                propsFichero.setProperty("file", fichero.toString());
+                propsFichero.setProperty("checkpoint", "false");
+                return cargarFichero(propsFichero);
+            });
+        Thread parada = new Thread(watcher::detener, "parada-demonio");
+        Runtime.getRuntime().addShutdownHook(parada);
+        try {
+            watcher.vigilar();
+        } catch (IOException e) {
+            System.err.println("No se puede vigilar la carpeta '" + entrada + "': " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ensayo de la carga del libro de la clave file sin conectarse a la base de datos ({@link DryRunProfiler}): deduce los tipos,
+     * valida las filas y muestra las estadísticas de cada campo con una previsión del tamaño y del tiempo de carga ({@link DryRunReport}).
+     * Usa las claves dryRunWorkers (hojas a la vez; 0 = una por núcleo), dryRunRowsPerSecond (velocidad de la previsión; 0 = la
+     * medida en la última carga guardada en metricsFile) y dryRunReport (informe en JSON; por defecto el nombre del fichero con .perfil.json).
+     * @param props propiedades de configuración
+     */
+    private static void ensayarCarga(Properties props) {
+        String fichero = props.getProperty("file");
+        int hilos = Integer.parseInt(props.getProperty("dryRunWorkers", "0"));
+        if (hilos <= 0)
+            hilos = Runtime.getRuntime().availableProcessors();
+        DryRunProfiler perfilador = new DryRunProfiler(crearLector(props), Integer.parseInt(props.getProperty("inferenceSample", "0")), hilos);
+        List<SheetProfile> hojas;
+        try {
+            hojas = perfilador.perfilar(fichero);
+        } catch (Exception e) {
+            System.err.println("Ensayo CANCELADO: no se puede leer '" + fichero + "'.");
+            System.err.println("Motivo: " + e.getMessage());
+            return;
+        }
+        // Los campos únicos se comprueban igual que en la carga, pero con una estimación de los valores distintos
+        DuplicateChecker.declararUnicos(props, DryRunProfiler.modelo(hojas));
+
+        double velocidad = Double.parseDouble(props.getProperty("dryRunRowsPerSecond", "0"));
+        if (velocidad <= 0)
+            velocidad = DryRunReport.velocidadMedida(props.getProperty("metricsFile", ""));
+        if (velocidad <= 0)
+            velocidad = DryRunReport.VELOCIDAD_POR_DEFECTO;
+        DryRunReport informe = new DryRunReport(hojas, velocidad);
+        informe.imprimir();
+        String salida = props.getProperty("dryRunReport", "");
+        if (salida.isBlank())
+            salida = fichero + ".perfil.json";
+        try {
+            informe.escribir(salida);
+            System.out.println("Informe del ensayo guardado en '" + salida + "'.");
+        } catch (IOException e) {
+            System.err.println("No se puede guardar el informe del ensayo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exporta las tablas de la base de datos al fichero outputFile con {@link DatabaseExporter}, una hoja por tabla.
+     * Usa las claves exportTables (tablas separadas por comas; vacía = todas), exportFetchSize (filas por viaje al servidor),
+     * exportWindow (filas por hoja en memoria), exportCompressTemp (comprimir los temporales) y exportWorkers (tablas a la vez).
+     * @param props propiedades de configuración
+     */
+    private static void exportarLibro(Properties props) {
+        List<String> tablas = new ArrayList<>();
+        for (String tabla : props.getProperty("exportTables", "").split(","))
+            if (!tabla.isBlank())
+                tablas.add(tabla.trim());
+        DatabaseExporter exporter = new DatabaseExporter(
+            Integer.parseInt(props.getProperty("exportFetchSize", "1000")),
+            Integer.parseInt(props.getProperty("exportWindow", "100")),
+            Boolean.parseBoolean(props.getProperty("exportCompressTemp", "false")),
+            Integer.parseInt(props.getProperty("exportWorkers", "1")));
+        try {
+            exporter.exportar(tablas, props.getProperty("outputFile"));
+            System.out.println("Exportación finalizada con ÉXITO.");
+        } catch (Exception e) {
+            System.err.println("Exportación CANCELADA.");
+            System.err.println("Motivo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Carga todas las hojas del libro en la base de datos con {@link TableLoader}, usando el modelo ya construido por el lector.
+     * Usa las claves batchSize (filas por bloque), commitMode (chunk, sheet o none) y bulkMode (batch o infile) del fichero de propiedades.
+     * Si hay campos únicos declarados (unique.&lt;tabla&gt;=campo), primero se recorre el libro buscando duplicados y, si los hay, no se carga nada.
+     * Con commitMode=none todo el libro se carga en una única transacción.
+     * Con workers mayor que 1 las hojas se cargan en paralelo ({@link ParallelImporter}), cada una con su conexión,
+     * y se confirman o deshacen todas a la vez (commitMode no se aplica).
+     * Con un diario ({@link CheckpointJournal}) la carga es reanudable: se hace COMMIT por bloques (commitMode=none pasa a chunk),
+     * se anota cada COMMIT y, si la carga se interrumpe, la siguiente ejecución continúa desde la última fila confirmada.
+     * La carga reanudable es siempre secuencial.
+     * Con deferIndexes=true las tablas se crean sin las restricciones UNIQUE: no se hace la pasada previa de duplicados, se cargan
+     * los datos, se buscan los repetidos con una consulta por campo y se crean los índices únicos al final ({@link IndexBuilder}).
+     * Para que los duplicados se puedan deshacer, la carga secuencial es entonces una única transacción (commitMode=none) y las
+     * tablas se crean antes de la primera fila; la carga reanudable, que confirma por bloques, sí hace la pasada previa.
+     * Con disableChecks=true se desactivan las comprobaciones de claves únicas y ajenas de la sesión mientras dura la carga (MySQL).
+     * Con errorBudget distinto de 0 la carga es tolerante: las filas erróneas (valores no válidos, duplicados, rechazadas por la
+     * base de datos) se anotan en el fichero de rechazos ({@link RejectsWriter}) y se cargan las demás, hasta ese máximo de errores.
+     * Con delta=true la carga es incremental ({@link DeltaLoader}) y las opciones anteriores no se aplican.
+     * @param props propiedades de configuración
+     * @param reader lector con el {@link com.iesvdc.dam.acceso.modelo.WorkbookModel} ya cargado
+     * @param journal diario de la carga, o null si no es reanudable
+     * @param cache caché de estructura para no repetir el DDL, o null
+     * @return true si la carga ha terminado bien
+     */
+    private static boolean cargarLibro(Properties props, ExcelReader reader, CheckpointJournal journal, SchemaCache cache) {
+        if (reader.getWbm() == null) {
+            System.err.println("No hay modelo del libro, no se puede cargar.");
+            return false;
+        }
+        int batchSize = Integer.parseInt(props.getProperty("batchSize", "1000"));
+        CommitMode commitMode = CommitMode.fromString(props.getProperty("commitMode"), CommitMode.SHEET);
+        BulkMode bulkMode = BulkMode.fromString(props.getProperty("bulkMode"), BulkMode.BATCH);
+        int workers = Integer.parseInt(props.getProperty("workers", "1"));
+        // adaptiveBatch=true ajusta el tamaño de bloque de cada tabla durante la carga, empezando en batchSize
+        long presupuestoLote = presupuestoLote(props);
+        long maxMsLote = Long.parseLong(props.getProperty("batchMaxMs", "2000"));
+        // Campos únicos (unique.<tabla>=campo): se comprueban todos antes de insertar nada
+        DuplicateChecker.declararUnicos(props, reader.getWbm());
+        // delta=true aplica solo los cambios respecto a la carga anterior, usando el campo único como clave
+        if (Boolean.parseBoolean(props.getProperty("delta", "false"))) {
+            if (journal != null || workers > 1 || Boolean.parseBoolean(props.getProperty("pipeline", "false")))
+                System.out.println("La carga incremental es secuencial y sin diario: se ignoran checkpoint, workers y pipeline.");
+            if (Boolean.parseBoolean(props.getProperty("deferIndexes", "false")))
+                System.out.println("La carga incremental necesita el índice único de la clave: se ignora deferIndexes.");
+            if (Long.parseLong(props.getProperty("errorBudget", "0")) != 0)
+                System.out.println("La carga incremental no es tolerante: se ignora errorBudget.");
+            if (presupuestoLote > 0)
+                System.out.println("La carga incremental usa un bloque fijo: se ignora adaptiveBatch.");
+            return cargarIncremental(props, reader, batchSize, cache);
+        }
+        // deferIndexes=true crea los índices únicos después de cargar los datos; sin campos únicos no hay nada que diferir
+        boolean diferirIndices = Boolean.parseBoolean(props.getProperty("deferIndexes", "false"))
+            && DuplicateChecker.hayCamposUnicos(reader.getWbm());
+        boolean sinComprobaciones = Boolean.parseBoolean(props.getProperty("disableChecks", "false"));
+        if (journal != null) {
+            if (commitMode == CommitMode.NONE)
+                commitMode = CommitMode.CHUNK;
+            if (workers > 1)
+                System.out.println("La carga reanudable es secuencial: se ignora workers=" + workers + ".");
+            workers = 1;
+        }
+
+        // errorBudget distinto de 0 desvía las filas erróneas al fichero de rechazos en vez de cancelar la carga
+        RejectsWriter rechazos;
+        try {
+            rechazos = crearRechazos(props, props.getProperty("file"));
+        } catch (IOException e) {
+            System.err.println("No se puede crear el fichero de rechazos: " + e.getMessage());
+            return false;
+        }
+        if (rechazos != null && bulkMode == BulkMode.INFILE)
+            System.out.println("La carga tolerante aísla las filas rechazadas con INSERT en batch: se ignora bulkMode=infile.");
+        try {
+            if (workers > 1) {
+                boolean virtuales = !"platform".equalsIgnoreCase(props.getProperty("threadType", "virtual"));
+                ParallelImporter importer = new ParallelImporter(reader.getWbm(), workers, virtuales, batchSize, bulkMode);
+                importer.setSchemaCache(cache);
+                importer.setDiferirIndices(diferirIndices);
+                importer.setDesactivarComprobaciones(sinComprobaciones);
+                importer.setRechazos(rechazos);
+                importer.setLoteAdaptativo(presupuestoLote, maxMsLote);
+                try {
+                    importer.importar(props.getProperty("file"));
+                    System.out.println("Carga en paralelo finalizada con ÉXITO: " + importer.getFilasTotales() + " filas.");
+                    return true;
+                } catch (Exception e) {
+                    System.err.println("Carga CANCELADA. ROLLBACK realizado en todas las hojas.");
+                    System.err.println("Motivo: " + e.getMessage());
+                    return false;
+                }
+            }
+
+            // pipeline=true separa la lectura del Excel (un hilo) de las inserciones (pipelineWriters hilos) con una cola de queueDepth lotes;
+            // con decodeWorkers distinto de 1, además, la decodificación de las celdas se reparte entre varios hilos
+            if (Boolean.parseBoolean(props.getProperty("pipeline", "false"))) {
+                if (journal != null) {
+                    System.out.println("La carga reanudable no usa la tubería: se ignora pipeline=true.");
+                } else if (rechazos != null) {
+                    System.out.println("La tubería no admite la carga tolerante: con errorBudget se carga de forma secuencial.");
+                } else {
+                    if (presupuestoLote > 0)
+                        System.out.println("La tubería reparte lotes de capacidad fija: se ignora adaptiveBatch.");
+                    return cargarEnTuberia(props, reader, batchSize, commitMode, bulkMode, cache, diferirIndices, sinComprobaciones);
+                }
+            }
+
+            // Los duplicados se buscan antes del COMMIT: con los índices diferidos no se puede confirmar nada antes,
+            // salvo en la carga reanudable, que en su lugar hace la pasada previa de duplicados
+            if (diferirIndices && journal == null && commitMode != CommitMode.NONE) {
+                System.out.println("Con deferIndexes=true la carga es una única transacción: se ignora commitMode=" + commitMode + ".");
+                commitMode = CommitMode.NONE;
+            }
+            try (Connection conexion = Conexion.getConnection()) {
+                if (conexion == null) {
+                    System.err.println("Imposible conectar a la base de datos.");
+                    return false;
+                }
+                Conexion.beginTransaction(conexion);
+                try {
+                    if (sinComprobaciones)
+                        IndexBuilder.desactivarComprobaciones(conexion);
+                    // En la carga tolerante los duplicados se buscan fila a fila y se desvían al fichero de rechazos
+                    if ((!diferirIndices || journal != null) && rechazos == null && DuplicateChecker.hayCamposUnicos(reader.getWbm())) {
+                        DuplicateChecker duplicados = new DuplicateChecker(conexion, reader.getWbm());
+                        // Al reanudar, las filas ya cargadas están en la base de datos y no deben contar como duplicadas
+                        reader.readRows(props.getProperty("file"), journal != null ? journal.omitirCargadas(duplicados) : duplicados);
+                        duplicados.verificar();
+                    }
+                    TableLoader loader = new TableLoader(conexion, reader.getWbm(), batchSize, commitMode, bulkMode);
+                    loader.setJournal(journal);
+                    loader.setSchemaCache(cache);
+                    loader.setDiferirIndices(diferirIndices);
+                    loader.setRechazos(rechazos);
+                    loader.setLoteAdaptativo(presupuestoLote, maxMsLote);
+                    if (diferirIndices && journal == null)
+                        loader.crearTablas();
+                    reader.readRows(props.getProperty("file"), loader);
+                    // Antes del COMMIT final: si hay duplicados se deshace la carga
+                    if (diferirIndices)
+                        IndexBuilder.verificar(conexion, reader.getWbm().getTables());
+                    Conexion.commit(conexion);
+                    if (journal != null)
+                        journal.borrar();
+                    if (diferirIndices) {
+                        try {
+                            IndexBuilder.crearIndices(conexion, reader.getWbm().getTables());
+                        } catch (Exception e) {
+                            System.err.println("Carga CONFIRMADA (" + loader.getFilasTotales() + " filas), pero sin índices únicos: " + e.getMessage());
+                            System.err.println("Los datos ya están confirmados y no se deshacen: las tablas quedan sin índice único.");
+                            return false;
+                        }
+                    }
+                    System.out.println("Carga finalizada con ÉXITO: " + loader.getFilasTotales() + " filas.");
+                    return true;
+                } catch (Exception e) {
+                    Conexion.rollback(conexion);
+                    System.err.println("Carga CANCELADA. ROLLBACK realizado.");
+                    System.err.println("Motivo: " + e.getMessage());
+                    if (journal != null)
+                        System.err.println("Los bloques confirmados quedan anotados en el diario: al volver a lanzar la carga se reanudará desde ahí.");
+                } finally {
+                    if (sinComprobaciones)
+                        IndexBuilder.restaurarComprobaciones(conexion);
+                }
+            } catch (Exception e) {
+                System.err.println("Error general: " + e.getMessage());
+            }
+            return false;
+        } finally {
+            cerrarRechazos(rechazos);
+        }
+    }
+
+    /**
+     * Crea el fichero de rechazos de la carga tolerante ({@link RejectsWriter}) si errorBudget es distinto de 0.
+     * Si no se indica rejectsFile, se crea junto al libro con el sufijo .rechazos.csv.
+     * @param props propiedades de configuración
+     * @param excel ruta del libro que se carga
+     * @return el fichero de rechazos, o null si la carga se cancela en la primera fila errónea
+     * @throws IOException si no se puede crear el fichero
+     */
+    private static RejectsWriter crearRechazos(Properties props, String excel) throws IOException {
+        // errorBudget=N admite hasta N filas rechazadas (-1 = sin límite); 0 cancela la carga en la primera fila errónea
+        long maximo = Long.parseLong(props.getProperty("errorBudget", "0"));
+        if (maximo == 0)
+            return null;
+        String fichero = props.getProperty("rejectsFile", "");
+        if (fichero.isBlank()) {
+            int punto = excel.lastIndexOf('.');
+            fichero = (punto > 0 ? excel.substring(0, punto) : excel) + ".rechazos.csv";
+        }
+        return new RejectsWriter(fichero, maximo);
+    }
+
+    /**
+     * Cierra el fichero de rechazos e informa de cuántas filas se han rechazado.
+     * @param rechazos fichero de rechazos, o null
+     */
+    private static void cerrarRechazos(RejectsWriter rechazos) {
+        if (rechazos == null)
+            return;
+        try {
+            rechazos.close();
+            System.out.println(rechazos.getRechazadas() + " filas rechazadas, anotadas en '" + rechazos.getFichero() + "'.");
+        } catch (IOException e) {
+            System.err.println("No se puede guardar el fichero de rechazos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Carga incremental con {@link DeltaLoader}: solo se insertan, actualizan o borran las filas que han cambiado desde la carga anterior.
+     * Cada tabla necesita una clave (unique.&lt;tabla&gt;=campo); las huellas se guardan en la tabla deltaIndexTable.
+     * Cada hoja se confirma por separado junto con su índice de huellas.
+     * @return true si la carga ha terminado bien
+     */
+    private static boolean cargarIncremental(Properties props, ExcelReader reader, int batchSize, SchemaCache cache) {
+        try (Connection conexion = Conexion.getConnection()) {
+            if (conexion == null) {
+                System.err.println("Imposible conectar a la base de datos.");
+                return false;
+            }
+            Conexion.beginTransaction(conexion);
+            try {
+                DeltaLoader loader = new DeltaLoader(conexion, reader.getWbm(), batchSize,
+                    props.getProperty("deltaIndexTable", DeltaLoader.TABLA_HUELLAS));
+                loader.setSchemaCache(cache);
+                reader.readRows(props.getProperty("file"), loader);
+                Conexion.commit(conexion);
+                System.out.println("Carga incremental finalizada con ÉXITO: " + loader.getInsertadas() + " filas nuevas, "
+                    + loader.getActualizadas() + " modificadas, " + loader.getBorradas() + " borradas y "
+                    + loader.getSinCambios() + " sin cambios.");
+                return true;
+            } catch (Exception e) {
+                Conexion.rollback(conexion);
+                System.err.println("Carga incremental CANCELADA. ROLLBACK de la hoja en curso realizado.");
+                System.err.println("Motivo: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            System.err.println("Error general: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Carga el libro con {@link PipelineLoader}: un hilo lee el Excel y otros insertan los lotes a la vez.
+     * Si hay campos únicos y no se difieren los índices, antes se comprueban los duplicados en una pasada previa con su propia conexión.
+     * @return true si la carga ha terminado bien
+     */
+    private static boolean cargarEnTuberia(Properties props, ExcelReader reader, int batchSize, CommitMode commitMode, BulkMode bulkMode,
+            SchemaCache cache, boolean diferirIndices, boolean sinComprobaciones) {
+        try {
+            if (!diferirIndices && DuplicateChecker.hayCamposUnicos(reader.getWbm())) {
+                try (Connection conexion = Conexion.getConnection()) {
+                    DuplicateChecker duplicados = new DuplicateChecker(conexion, reader.getWbm());
+                    reader.readRows(props.getProperty("file"), duplicados);
+                    duplicados.verificar();
+                }
+            }
+            PipelineLoader loader = new PipelineLoader(reader.getWbm(), batchSize,
+                Integer.parseInt(props.getProperty("queueDepth", "4")),
+                Integer.parseInt(props.getProperty("pipelineWriters", "2")),
+                commitMode, bulkMode);
+            loader.setSchemaCache(cache);
+            loader.setDiferirIndices(diferirIndices);
+            loader.setDesactivarComprobaciones(sinComprobaciones);
+            // decodeWorkers=N reparte la decodificación de las celdas de cada hoja entre N hilos (0 = uno por núcleo)
+            int decodificadores = Integer.parseInt(props.getProperty("decodeWorkers", "1"));
+            loader.setDecodificadores(decodificadores > 0 ? decodificadores : Runtime.getRuntime().availableProcessors());
+            loader.cargar(reader, props.getProperty("file"));
+            System.out.println("Carga en tubería finalizada con ÉXITO: " + loader.getFilasTotales() + " filas.");
+            return true;
+        } catch (Exception e) {
+            System.err.println("Carga CANCELADA. ROLLBACK realizado.");
+            System.err.println("Motivo: " + e.getMessage());
+            return false;
+        }
     }
 }
@@ -1,23 +1,70 @@
 package com.iesvdc.dam.acceso;
 
-import java.io.FileInputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.iesvdc.dam.acceso.carga.AdaptiveBatchSizer;
+import com.iesvdc.dam.acceso.carga.BatchInsertWriter;
+import com.iesvdc.dam.acceso.carga.DuplicateChecker;
+import com.iesvdc.dam.acceso.carga.RejectsWriter;
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.excelutil.CellAccessor;
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
 
 /**
- * Clase encargada de importar personas desde un archivo Excel (.xlsx) hacia una base de datos MySQL. Se ejecuta dentro de una transacción
+ * Clase encargada de importar personas desde un archivo Excel (.xlsx, .xls), OpenDocument (.ods) o CSV hacia la base de datos configurada. Se ejecuta dentro de una transacción
  * Si ocurre un error, se realiza ROLLBACK automático.
  */
 public class PersonasImporter {
+    /** Filas por executeBatch en la importación tolerante. */
+    private static final int BLOQUE = 1000;
+
+    private final ExcelReader reader;
+    private RejectsWriter rechazos;
+    private long presupuestoLote;
+    private long maxMsLote;
+
+    public PersonasImporter() {
+        this(new ExcelReader());
+    }
+
+    /**
+     * @param reader lector de Excel a usar; decide si el fichero se lee completo (DOM) o en streaming
+     */
+    public PersonasImporter(ExcelReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Activa la importación tolerante: las filas con el teléfono no válido, el email repetido o que la base de datos rechaza
+     * se anotan en el fichero de rechazos y se importan las demás, en vez de abortar toda la importación.
+     * @param rechazos fichero de rechazos, o null para abortar en la primera fila errónea
+     */
+    public void setRechazos(RejectsWriter rechazos) {
+        this.rechazos = rechazos;
+    }
+
+    /**
+     * Activa el tamaño de bloque adaptativo ({@link AdaptiveBatchSizer}), empezando en {@value #BLOQUE} filas. En la importación
+     * estricta el batch se envía entonces por bloques en vez de entero al final; como todo va en la misma transacción, un email
+     * duplicado sigue deshaciendo la importación completa.
+     * @param presupuestoBytes memoria que puede ocupar el bloque pendiente de envío, o 0 para desactivarlo
+     * @param maxMs latencia máxima de un envío antes de reducir el bloque, o 0 para no limitarla
+     */
+    public void setLoteAdaptativo(long presupuestoBytes, long maxMs) {
+        this.presupuestoLote = presupuestoBytes;
+        this.maxMsLote = maxMs;
+    }
+
     /**
      * Importa los datos de un archivo Excel a la base de datos.
      * El proceso consiste en:
@@ -26,21 +73,20 @@ public class PersonasImporter {
      *  - Insertar cada fila del Excel
      *  - Realizar commit si todo va bien
      * En caso de fallo, se ejecuta rollback.
-     * @param excelFile ruta al archivo Excel (.xlsx) a importar
+     * @param excelFile ruta al archivo de entrada (.xlsx, .xls, .ods o .csv) a importar
      * @param conexion objeto Connection conectado a la base de datos
      * @throws Exception si ocurre cualquier error durante la importación
      */
     public void importar(String excelFile, Connection conexion) throws Exception {
         conexion.setAutoCommit(false); // BEGIN TRANSACTION
 
-        try (FileInputStream fis = new FileInputStream(excelFile); Workbook workbook = new XSSFWorkbook(fis)) {
-            Sheet sheet = workbook.getSheetAt(0);
+        try {
             // 1. Crear tabla
             createTable(conexion);
-            // 2. Insertar datos
-            insertData(sheet, conexion);
+            // 2. Insertar datos de la primera hoja
+            insertData(excelFile, conexion);
 
-            conexion.commit();
+            ImportMetrics.get().commit(conexion);
             System.out.println("Importación completada correctamente. COMMIT realizado.");
         } catch (Exception e) {
             conexion.rollback();
@@ -57,12 +103,20 @@ public class PersonasImporter {
      *  - apellidos
      *  - email
      *  - telefono
-     *  - genero (ENUM)
+     *  - genero (ENUM en MySQL; en el resto de motores, texto con una restricción CHECK)
+     * Las partes que no son estándar (clave autoincremental y enumerado) y el entrecomillado los pone el {@link Dialect} del motor.
      * @param conexion conexión activa con la base de datos
      * @throws SQLException si la sentencia SQL falla
      */
     private void createTable(Connection conexion) throws SQLException {
-        String sql = "CREATE TABLE IF NOT EXISTS personas ( id INT AUTO_INCREMENT PRIMARY KEY, nombre VARCHAR(50),  apellidos VARCHAR(80), email VARCHAR(100), telefono INT, genero ENUM('MASCULINO','FEMENINO','NEUTRO','OTRO') )";
+        Dialect dialecto = Dialect.of(conexion);
+        String sql = "CREATE TABLE IF NOT EXISTS " + dialecto.quote("personas") + " ( "
+            + dialecto.quote("id") + " " + dialecto.columnaAutoincremental() + ", "
+            + dialecto.quote("nombre") + " VARCHAR(50), "
+            + dialecto.quote("apellidos") + " VARCHAR(80), "
+            + dialecto.quote("email") + " VARCHAR(100), "
+            + dialecto.quote("telefono") + " INT, "
+            + dialecto.quote("genero") + " " + dialecto.tipoEnum("genero", List.of("MASCULINO", "FEMENINO", "NEUTRO", "OTRO")) + " )";
 
         try (Statement st = conexion.createStatement()) {
             st.execute(sql);
@@ -72,66 +126,164 @@ public class PersonasImporter {
 
     /**
      * Inserta los datos del Excel en la tabla personas utilizando batches para optimizar el rendimiento.
-     * Valida que el teléfono sea numérico; si no lo es, se lanza excepción y se aborta toda la importación.
-     * @param sheet hoja del Excel que contiene los datos
+     * Las filas de la primera hoja se leen una a una con el {@link ExcelReader} configurado, sin necesidad de tener el libro completo en memoria.
+     * Valida que el teléfono sea numérico; si no lo es, se lanza excepción y se aborta toda la importación. El teléfono se valida y se asigna
+     * con {@link CellAccessor} a partir del número que ya guarda la celda, sin convertirlo a texto ni usar expresiones regulares.
+     * Los emails duplicados (ya existentes en la tabla o repetidos en el fichero) se detectan con {@link DuplicateChecker},
+     * que lee una sola vez los emails existentes; si hay alguno, se informa de todos y no se ejecuta el batch.
+     * @param excelFile ruta al archivo de entrada (.xlsx, .xls, .ods o .csv) que contiene los datos
      * @param conexion conexión activa con la base de datos
-     * @throws Exception si la fila tiene datos inválidos o falla la inserción
+     * @throws Exception si la fila tiene datos inválidos, hay emails duplicados o falla la inserción
      */
-    private void insertData(Sheet sheet, Connection conexion) throws Exception {
-        String sqlCheck = "SELECT COUNT(*) FROM personas WHERE email = ?";
-        String sqlInsert = "INSERT INTO personas (nombre, apellidos, email, telefono, genero) VALUES (?,?,?,?,?)";
-
-        try (PreparedStatement psInsert = conexion.prepareStatement(sqlInsert); PreparedStatement psCheck = conexion.prepareStatement(sqlCheck)) {
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null)
-                    continue;
-
-                String nombre = getString(row.getCell(0));
-                String apellidos = getString(row.getCell(1));
-                String email = getString(row.getCell(2));
-                String telefonoStr = getString(row.getCell(3));
-                String genero = getString(row.getCell(4));
-
-                // Validación teléfono numérico
-                if (!telefonoStr.matches("\\d+"))
-                    throw new Exception("Fila " + (i + 1) + ": teléfono no numérico -> '" + telefonoStr + "'");
-
-                int telefono = Integer.parseInt(telefonoStr);
-
-                // Comprobar si el email ya existe
-                psCheck.setString(1, email);
-                try (var rs = psCheck.executeQuery()) {
-                    rs.next();
-                    if (rs.getInt(1) > 0)
-                        throw new Exception("Fila " + (i + 1) + ": email duplicado -> '" + email + "'. ROLLBACK total.");   // Si existe, abortar toda la importación
-                }
+    private void insertData(String excelFile, Connection conexion) throws Exception {
+        if (rechazos != null) {
+            insertarTolerante(excelFile, conexion);
+            return;
+        }
+        String sqlInsert = Dialect.of(conexion).buildInsert("personas", List.of("nombre", "apellidos", "email", "telefono", "genero"));
+
+        DuplicateChecker duplicados = new DuplicateChecker(conexion, null);
+        duplicados.startTable(tablaPersonas());
+        AdaptiveBatchSizer tamano = crearTamanoLote();
+
+        try (PreparedStatement psInsert = conexion.prepareStatement(sqlInsert)) {
+            int[] enBloque = { 0 };
+            reader.readSheetRows(excelFile, 0, (SheetRow row) -> {
+                // La primera fila son las cabeceras
+                if (row.getRowNum() == 0)
+                    return;
+                int i = row.getRowNum();
+
+                // Validación teléfono numérico, sobre el valor nativo de la celda
+                CellValue telefono = row.get(3);
+                if (!CellAccessor.isNatural(telefono))
+                    throw new Exception("Fila " + (i + 1) + ": teléfono no numérico -> '" + getString(telefono) + "'");
+                long numero = CellAccessor.getLong(telefono);
+                if (numero > Integer.MAX_VALUE)
+                    throw new Exception("Fila " + (i + 1) + ": teléfono fuera de rango -> '" + getString(telefono) + "'");
+
+                // Comprobar si el email ya existe (se acumulan todos los conflictos)
+                if (!duplicados.check(row))
+                    return;
 
                 // Preparar batch
-                psInsert.setString(1, nombre);
-                psInsert.setString(2, apellidos);
-                psInsert.setString(3, email);
-                psInsert.setInt(4, telefono);
-                psInsert.setString(5, genero);
+                psInsert.setString(1, getString(row.get(0)));
+                psInsert.setString(2, getString(row.get(1)));
+                psInsert.setString(3, getString(row.get(2)));
+                psInsert.setInt(4, (int) numero);
+                psInsert.setString(5, getString(row.get(4)));
 
                 psInsert.addBatch();
-            }
+                // Con el bloque adaptativo se envía por partes; los duplicados se comprueban igualmente antes del COMMIT
+                if (tamano != null && ++enBloque[0] >= tamano.getTamano()) {
+                    enviar(psInsert, enBloque[0], tamano);
+                    enBloque[0] = 0;
+                }
+            });
 
-            // Ejecutar batch solo si no hay duplicados
-            psInsert.executeBatch();
+            // Ejecutar batch solo si no hay duplicados; si los hay, abortar toda la importación
+            duplicados.verificar();
+            enviar(psInsert, enBloque[0], tamano);
         }
     }
 
+    private void enviar(PreparedStatement psInsert, int filas, AdaptiveBatchSizer tamano) throws SQLException {
+        long inicio = System.nanoTime();
+        int[] insertadas = psInsert.executeBatch();
+        long nanos = System.nanoTime() - inicio;
+        ImportMetrics.get().getHistogramaLotes().registrar(nanos);
+        ImportMetrics.get().addFilasEscritas(insertadas.length);
+        if (tamano != null)
+            tamano.registrar(filas, nanos);
+    }
+
+    /**
+     * @return el tamaño de bloque adaptativo de la tabla personas, o null si se usa el bloque fijo
+     */
+    private AdaptiveBatchSizer crearTamanoLote() {
+        return presupuestoLote > 0 ? new AdaptiveBatchSizer(tablaPersonas(), BLOQUE, presupuestoLote, maxMsLote) : null;
+    }
+
+    /**
+     * Versión tolerante de {@link #insertData}: las filas con el teléfono no válido o el email repetido se anotan en el
+     * fichero de rechazos sin llegar al batch, y el resto se envía con {@link BatchInsertWriter} cada {@value #BLOQUE} filas
+     * (o las que diga el bloque adaptativo),
+     * que aísla y rechaza las filas que no admite la base de datos (por ejemplo, un género fuera del enumerado).
+     * Como en la carga genérica, las celdas vacías se guardan como NULL.
+     * @param excelFile ruta al archivo de entrada (.xlsx, .xls, .ods o .csv) que contiene los datos
+     * @param conexion conexión activa con la base de datos
+     * @throws Exception si se supera el máximo de filas rechazadas o falla la conexión
+     */
+    private void insertarTolerante(String excelFile, Connection conexion) throws Exception {
+        TableModel tabla = tablaPersonas();
+        DuplicateChecker duplicados = new DuplicateChecker(conexion, null);
+        duplicados.startTable(tabla);
+        long antes = rechazos.getRechazadas();
+        AdaptiveBatchSizer tamano = crearTamanoLote();
+
+        try (BatchInsertWriter writer = new BatchInsertWriter(conexion, tabla)) {
+            writer.setRechazos(rechazos);
+            int[] enBloque = { 0 };
+            reader.readSheetRows(excelFile, 0, (SheetRow row) -> {
+                // La primera fila son las cabeceras
+                if (row.getRowNum() == 0)
+                    return;
+                CellValue telefono = row.get(3);
+                if (!CellAccessor.isNatural(telefono)) {
+                    rechazos.rechazar("personas", row, "teléfono no numérico -> '" + getString(telefono) + "'");
+                    return;
+                }
+                if (CellAccessor.getLong(telefono) > Integer.MAX_VALUE) {
+                    rechazos.rechazar("personas", row, "teléfono fuera de rango -> '" + getString(telefono) + "'");
+                    return;
+                }
+                if (!duplicados.check(row)) {
+                    rechazos.rechazar("personas", row, duplicados.getMotivo());
+                    return;
+                }
+                writer.write(row);
+                if (++enBloque[0] >= (tamano != null ? tamano.getTamano() : BLOQUE)) {
+                    enviar(writer, enBloque[0], tamano);
+                    enBloque[0] = 0;
+                }
+            });
+            enviar(writer, enBloque[0], tamano);
+        }
+        System.out.println("Tabla 'personas': " + (rechazos.getRechazadas() - antes) + " filas rechazadas.");
+    }
+
+    private void enviar(BatchInsertWriter writer, int filas, AdaptiveBatchSizer tamano) throws SQLException {
+        if (tamano == null) {
+            writer.flush();
+            return;
+        }
+        long inicio = System.nanoTime();
+        writer.flush();
+        tamano.registrar(filas, System.nanoTime() - inicio);
+    }
+
+    /**
+     * Modelo de la tabla personas con las columnas en el orden del Excel y el email como campo único.
+     * @return el modelo de la tabla
+     */
+    private TableModel tablaPersonas() {
+        TableModel tabla = new TableModel("personas");
+        tabla.addField(new FieldModel("nombre", FieldType.STRING));
+        tabla.addField(new FieldModel("apellidos", FieldType.STRING));
+        tabla.addField(new FieldModel("email", FieldType.STRING));
+        tabla.addField(new FieldModel("telefono", FieldType.INTEGER));
+        tabla.addField(new FieldModel("genero", FieldType.STRING));
+        tabla.addUniqueField("email");
+        return tabla;
+    }
+
     /**
      * Obtiene el valor de una celda del Excel como cadena limpiando espacios.
-     * Si la celda es nula, retorna una cadena vacía para evitar NullPointerExceptions.
+     * Si la celda está vacía, retorna una cadena vacía para evitar NullPointerExceptions.
      * @param cell celda de Excel a convertir
      * @return valor textual de la celda, nunca null
      */
-    private String getString(Cell cell) {
-        if (cell == null)
-            return "";
-        cell.setCellType(CellType.STRING);
-        return cell.getStringCellValue().trim();
+    private String getString(CellValue cell) {
+        return cell.asString();
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,225 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Tamaño de bloque adaptativo (adaptiveBatch=true) para los envíos de una tabla. Un tamaño fijo sirve mal a la vez para una
+ * tabla de 3 columnas y para una de 150, así que el número de filas de cada executeBatch se ajusta durante la carga:
+ *   - El máximo sale de un presupuesto de memoria (batchMemoryMb) dividido entre lo que se estima que ocupa una fila
+ *     en el bloque del driver, según el tipo y la longitud de cada campo del {@link TableModel}
+ *   - Se empieza en batchSize y, cada {@value #RONDA} bloques completos, se compara el rendimiento (filas por segundo de envío)
+ *     con el del tamaño anterior: mientras mejora se sigue en la misma dirección (duplicando al principio y después en pasos
+ *     del 25 %) y, si empeora, se da la vuelta; si no cambia, el tamaño se mantiene
+ *   - Si dos envíos seguidos tardan más de batchMaxMs, o la JVM pasa más del 20 % del tiempo recogiendo basura o tiene
+ *     el heap casi lleno tras la última recolección (también en dos envíos seguidos), el bloque se reduce a la mitad y el
+ *     tamaño que causó el problema pasa a ser el tope. Un envío lento suelto (una pausa del servidor) no cuenta
+ *   - El tope se relaja un 25 % por cada ronda completa sin problemas, hasta el que permite el presupuesto de memoria,
+ *     para que una mala racha al principio de la hoja no limite el resto de la carga
+ * Los tamaños elegidos se anotan en {@link ImportMetrics#registrarTamanoLote} y salen en el resumen de la ejecución.
+ * Cada tabla (y cada conexión) tiene el suyo; no es seguro para varios hilos.
+ */
+public class AdaptiveBatchSizer {
+    /** Bloques completos que se miden con cada tamaño antes de compararlo. */
+    private static final int RONDA = 3;
+    /** Diferencia de rendimiento que se considera una mejora o un empeoramiento, no ruido. */
+    private static final double UMBRAL = 0.05;
+    /** Fracción del tiempo que la JVM puede pasar en el recolector antes de reducir el bloque. */
+    private static final double MAX_GC = 0.2;
+    /** Ocupación de la generación vieja tras la última recolección a partir de la que se reduce el bloque. */
+    private static final double MAX_HEAP = 0.85;
+    /** Bloques con el mismo rendimiento tras los que se vuelve a probar un tamaño mayor. */
+    private static final int SONDEO = 5;
+    static final int MINIMO = 10;
+    static final int MAXIMO = 100_000;
+
+    private final String tabla;
+    private final long maxNanos;
+    /** Tope que permite el presupuesto de memoria. */
+    private final int techo;
+    /** Tope actual: el del presupuesto o, tras un problema, el tamaño que lo causó. */
+    private int maximo;
+    private int tamano;
+
+    private int direccion = 1;
+    private boolean afinando;
+    private double rendimientoAnterior;
+    private int enRonda;
+    private long filasRonda;
+    private long nanosRonda;
+    private int iguales;
+    private int conPresion;
+    private int lentos;
+    private long gcAnterior = tiempoGc();
+    private long instanteAnterior = System.nanoTime();
+
+    /**
+     * @param modelo tabla que se carga
+     * @param inicial tamaño de partida (batchSize)
+     * @param presupuestoBytes memoria que puede ocupar un bloque pendiente de envío
+     * @param maxMs latencia máxima de un envío, o 0 para no limitarla
+     */
+    public AdaptiveBatchSizer(TableModel modelo, int inicial, long presupuestoBytes, long maxMs) {
+        this.tabla = modelo.getName();
+        this.maxNanos = maxMs > 0 ? maxMs * 1_000_000 : Long.MAX_VALUE;
+        this.techo = (int) Math.max(MINIMO, Math.min(MAXIMO, presupuestoBytes / bytesPorFila(modelo)));
+        this.maximo = techo;
+        this.tamano = Math.max(MINIMO, Math.min(maximo, inicial));
+    }
+
+    /**
+     * @return filas que se deben acumular antes del siguiente envío
+     */
+    public int getTamano() {
+        return tamano;
+    }
+
+    /**
+     * @return tamaño máximo que permiten el presupuesto de memoria y los problemas encontrados
+     */
+    public int getMaximo() {
+        return maximo;
+    }
+
+    /**
+     * Estimación de lo que ocupa una fila en el bloque del driver: los parámetros enlazados de cada campo
+     * (los textos, con su longitud máxima en UTF-16) más lo que cuesta guardar cada fila del batch.
+     * @param modelo tabla
+     * @return bytes por fila
+     */
+    static long bytesPorFila(TableModel modelo) {
+        long bytes = 64;
+        for (FieldModel campo : modelo.getFields()) {
+            bytes += 32;
+            switch (campo.getType()) {
+                case BOOLEAN:
+                    bytes += 1;
+                    break;
+                case STRING:
+                case UNKNOWN:
+                    bytes += 40 + 2L * Math.max(16, campo.getMaxLength());
+                    break;
+                default:
+                    bytes += 16;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Anota un envío y decide el tamaño de los siguientes.
+     * @param filas filas enviadas
+     * @param nanos lo que ha tardado el envío
+     */
+    public void registrar(int filas, long nanos) {
+        if (filas == 0)
+            return;
+        ImportMetrics.get().registrarTamanoLote(tabla, filas);
+        // Un envío lento o una recolección larga sueltos no bastan: el problema tiene que repetirse en dos envíos seguidos
+        if (nanos > maxNanos) {
+            if (++lentos >= 2) {
+                reducir();
+                return;
+            }
+        } else {
+            lentos = 0;
+        }
+        if (presionMemoria()) {
+            if (++conPresion >= 2) {
+                reducir();
+                return;
+            }
+        } else {
+            conPresion = 0;
+        }
+        // El último bloque de la hoja, incompleto, no sirve para comparar
+        if (filas < tamano)
+            return;
+        filasRonda += filas;
+        nanosRonda += nanos;
+        if (++enRonda < RONDA)
+            return;
+        double rendimiento = filasRonda / (double) Math.max(1, nanosRonda);
+        enRonda = 0;
+        filasRonda = 0;
+        nanosRonda = 0;
+        if (maximo < techo && lentos == 0 && conPresion == 0)
+            maximo = (int) Math.min(techo, (long) Math.ceil(maximo * 1.25));
+
+        if (rendimientoAnterior == 0 || rendimiento > rendimientoAnterior * (1 + UMBRAL)) {
+            iguales = 0;
+        } else if (rendimiento < rendimientoAnterior * (1 - UMBRAL)) {
+            direccion = -direccion;
+            afinando = true;
+            iguales = 0;
+        } else if (++iguales < SONDEO) {
+            rendimientoAnterior = rendimiento;
+            return;
+        } else {
+            iguales = 0;
+            direccion = 1;
+        }
+        rendimientoAnterior = rendimiento;
+        mover();
+    }
+
+    private void mover() {
+        double factor = afinando ? 1.25 : 2;
+        long nuevo = direccion > 0 ? (long) Math.ceil(tamano * factor) : (long) (tamano / factor);
+        tamano = (int) Math.max(MINIMO, Math.min(maximo, nuevo));
+    }
+
+    private void reducir() {
+        maximo = Math.max(MINIMO, tamano - 1);
+        tamano = Math.max(MINIMO, tamano / 2);
+        // Desde la mitad se vuelve a subir poco a poco; el tope se relaja después con cada ronda sin problemas
+        direccion = 1;
+        afinando = true;
+        conPresion = 0;
+        lentos = 0;
+        rendimientoAnterior = 0;
+        enRonda = 0;
+        filasRonda = 0;
+        nanosRonda = 0;
+    }
+
+    /**
+     * La JVM está justa de memoria si, desde el envío anterior, ha pasado más de {@link #MAX_GC} del tiempo en el recolector,
+     * o si alguna zona del heap que se recoge sigue casi llena después de la última recolección.
+     */
+    private boolean presionMemoria() {
+        long ahora = System.nanoTime();
+        long gc = tiempoGc();
+        long transcurrido = ahora - instanteAnterior;
+        double fraccionGc = transcurrido > 0 ? (gc - gcAnterior) * 1e6 / transcurrido : 0;
+        gcAnterior = gc;
+        instanteAnterior = ahora;
+        if (fraccionGc > MAX_GC)
+            return true;
+        for (MemoryPoolMXBean zona : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (zona.getType() != MemoryType.HEAP || !zona.isCollectionUsageThresholdSupported())
+                continue;
+            MemoryUsage uso = zona.getCollectionUsage();
+            if (uso != null && uso.getMax() > 0 && uso.getUsed() > uso.getMax() * MAX_HEAP)
+                return true;
+        }
+        return false;
+    }
+
+    /** Milisegundos que han pasado los recolectores de la JVM desde que arrancó. */
+    private static long tiempoGc() {
+        long total = 0;
+        List<GarbageCollectorMXBean> recolectores = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gc : recolectores)
+            total += Math.max(0, gc.getCollectionTime());
+        return total;
+    }
+}
@@ -0,0 +1,213 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Destino que inserta las filas con un INSERT parametrizado ({@link Dialect#buildInsert(TableModel)})
+ * añadido al batch con addBatch y enviado con executeBatch en cada {@link #flush()}.
+ * Los valores se asignan a los parámetros con el {@link RowBinder} de la tabla, generado al crear el destino.
+ * Cada envío se anota en {@link ImportMetrics} (latencia y filas escritas).
+ * Con un {@link RejectsWriter} ({@link #setRechazos}) la escritura es tolerante:
+ *   - Las filas con valores que no se pueden convertir al tipo del campo se rechazan sin llegar al batch
+ *   - Se guarda una copia de las filas del bloque y cada executeBatch va protegido por un SAVEPOINT
+ *   - Si el servidor rechaza alguna fila del bloque (BatchUpdateException), se usan los contadores de la excepción para
+ *     reintentar solas únicamente las filas fallidas; si el driver no sigue tras el error o no dice qué fila ha fallado,
+ *     se vuelve al SAVEPOINT y el bloque se reenvía por partes, hasta aislar las filas que fallan ({@link #reenviar}).
+ *     Solo las filas que fallan también solas se rechazan.
+ * Sin errores el coste es un SAVEPOINT por bloque y la copia de cada fila.
+ */
+public class BatchInsertWriter implements RowWriter {
+    private final Connection conexion;
+    private final TableModel tabla;
+    private final RowBinder binder;
+    private final PreparedStatement psInsert;
+    private int pendientes;
+    private RejectsWriter rechazos;
+    private long rechazadas;
+    /** Copia de las filas del bloque en curso, para reenviarlas por partes (solo en modo tolerante). */
+    private SheetRow[] filas = new SheetRow[0];
+
+    /**
+     * @param conexion conexión con la base de datos
+     * @param tabla modelo de la tabla destino (ya creada)
+     * @throws SQLException si no se puede preparar el INSERT
+     */
+    public BatchInsertWriter(Connection conexion, TableModel tabla) throws SQLException {
+        this.conexion = conexion;
+        this.tabla = tabla;
+        this.binder = new RowBinder(tabla);
+        this.psInsert = conexion.prepareStatement(Dialect.of(conexion).buildInsert(tabla));
+    }
+
+    /**
+     * Activa la escritura tolerante: las filas erróneas se anotan en el fichero de rechazos en vez de cancelar la carga.
+     * Necesita el auto-commit desactivado, porque cada bloque se envía dentro de un SAVEPOINT.
+     * @param rechazos fichero de rechazos, o null para lanzar excepción en la primera fila errónea
+     */
+    public void setRechazos(RejectsWriter rechazos) {
+        this.rechazos = rechazos;
+    }
+
+    /**
+     * @return filas de esta tabla anotadas en el fichero de rechazos
+     */
+    public long getRechazadas() {
+        return rechazadas;
+    }
+
+    @Override
+    public void write(SheetRow row) throws Exception {
+        try {
+            binder.bind(psInsert, row);
+        } catch (RuntimeException e) {
+            if (rechazos == null)
+                throw new Exception("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": valor no válido -> " + e.getMessage(), e);
+            rechazadas++;
+            rechazos.rechazar(tabla.getName(), row, "valor no válido -> " + e.getMessage());
+            return;
+        }
+        psInsert.addBatch();
+        if (rechazos != null)
+            guardar(row);
+        pendientes++;
+    }
+
+    @Override
+    public void write(ColumnarBatch lote) throws SQLException {
+        for (int i = 0; i < lote.size(); i++) {
+            binder.bind(psInsert, lote, i);
+            psInsert.addBatch();
+        }
+        pendientes += lote.size();
+    }
+
+    @Override
+    public void flush() throws SQLException {
+        if (pendientes == 0)
+            return;
+        long inicio = System.nanoTime();
+        int escritas;
+        if (rechazos == null) {
+            psInsert.executeBatch();
+            escritas = pendientes;
+        } else {
+            escritas = ejecutarTolerante(0, pendientes);
+        }
+        ImportMetrics metricas = ImportMetrics.get();
+        metricas.getHistogramaLotes().registrar(System.nanoTime() - inicio);
+        metricas.addFilasEscritas(escritas);
+        pendientes = 0;
+    }
+
+    /** Copia la fila en el hueco siguiente del bloque, reutilizando las copias de bloques anteriores. */
+    private void guardar(SheetRow row) {
+        if (pendientes == filas.length)
+            filas = Arrays.copyOf(filas, Math.max(16, filas.length * 2));
+        if (filas[pendientes] == null)
+            filas[pendientes] = new SheetRow();
+        filas[pendientes].copyFrom(row);
+    }
+
+    /**
+     * Ejecuta el batch ya preparado con las filas [desde, hasta) dentro de un SAVEPOINT. Si el servidor rechaza alguna fila:
+     *   - Si el driver ha seguido con el resto del batch (MySQL, H2), las filas correctas ya están insertadas
+     *     y solo se reintentan una a una las marcadas con EXECUTE_FAILED
+     *   - Si no, se vuelve al SAVEPOINT y se reenvían las filas por partes ({@link #reenviar})
+     * @return filas insertadas
+     */
+    private int ejecutarTolerante(int desde, int hasta) throws SQLException {
+        Savepoint sp = conexion.setSavepoint();
+        try {
+            psInsert.executeBatch();
+        } catch (BatchUpdateException e) {
+            psInsert.clearBatch();
+            int[] contadores = e.getUpdateCounts();
+            if (hasta - desde > 1 && haSeguido(contadores, hasta - desde)) {
+                conexion.releaseSavepoint(sp);
+                int insertadas = 0;
+                for (int i = 0; i < hasta - desde; i++) {
+                    if (contadores[i] == Statement.EXECUTE_FAILED)
+                        insertadas += enviar(desde + i, desde + i + 1);
+                    else
+                        insertadas++;
+                }
+                return insertadas;
+            }
+            conexion.rollback(sp);
+            return reenviar(desde, hasta, e);
+        }
+        conexion.releaseSavepoint(sp);
+        return hasta - desde;
+    }
+
+    /**
+     * Prepara y ejecuta un batch con las copias de las filas [desde, hasta).
+     * @return filas insertadas
+     */
+    private int enviar(int desde, int hasta) throws SQLException {
+        if (desde >= hasta)
+            return 0;
+        for (int i = desde; i < hasta; i++) {
+            binder.bind(psInsert, filas[i]);
+            psInsert.addBatch();
+        }
+        return ejecutarTolerante(desde, hasta);
+    }
+
+    /**
+     * Reparte las filas [desde, hasta) de un batch rechazado y deshecho. Una fila sola que falla se anota como rechazada.
+     * Si el driver se ha detenido en el primer error, sus contadores son los de las filas anteriores: esas van juntas,
+     * la fallida se reintenta sola y el resto se reenvía igual. Si no se sabe cuál ha fallado, el bloque se parte por la mitad.
+     * @param fallo excepción del batch
+     * @return filas insertadas
+     */
+    private int reenviar(int desde, int hasta, BatchUpdateException fallo) throws SQLException {
+        if (hasta - desde == 1) {
+            rechazadas++;
+            try {
+                rechazos.rechazar(tabla.getName(), filas[desde], "rechazada por la base de datos -> " + fallo.getMessage());
+            } catch (SQLException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+            return 0;
+        }
+        int[] contadores = fallo.getUpdateCounts();
+        if (contadores != null && contadores.length < hasta - desde) {
+            int f = desde + contadores.length;
+            return enviar(desde, f) + enviar(f, f + 1) + enviar(f + 1, hasta);
+        }
+        int mitad = (desde + hasta) >>> 1;
+        return enviar(desde, mitad) + enviar(mitad, hasta);
+    }
+
+    /**
+     * Indica si el driver ha ejecutado todo el batch pese a los errores: hay un contador por fila y no todos son
+     * EXECUTE_FAILED (si lo son todos, el batch se ha enviado reescrito en un solo INSERT y no se sabe qué fila ha fallado).
+     */
+    private static boolean haSeguido(int[] contadores, int filas) {
+        if (contadores == null || contadores.length != filas)
+            return false;
+        for (int c : contadores)
+            if (c != Statement.EXECUTE_FAILED)
+                return true;
+        return false;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        psInsert.close();
+    }
+}
@@ -0,0 +1,31 @@
+package com.iesvdc.dam.acceso.carga;
+
+/**
+ * Mecanismo con el que {@link TableLoader} envía las filas a la base de datos.
+ */
+public enum BulkMode {
+    /** INSERT parametrizado enviado con executeBatch. */
+    BATCH,
+    /**
+     * Carga masiva nativa del motor alimentada desde memoria: LOAD DATA LOCAL INFILE en MySQL, COPY FROM STDIN en PostgreSQL.
+     * Si el motor no tiene (H2, SQLite) o el servidor no lo permite, se usa BATCH.
+     */
+    INFILE;
+
+    /**
+     * Obtiene el modo a partir del valor del fichero de propiedades, sin distinguir mayúsculas.
+     * @param valor texto del modo (batch o infile)
+     * @param porDefecto modo a usar si el valor es null o no se reconoce
+     * @return el modo correspondiente
+     */
+    public static BulkMode fromString(String valor, BulkMode porDefecto) {
+        if (valor == null)
+            return porDefecto;
+        try {
+            return BulkMode.valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Modo de carga desconocido '" + valor + "', se usa " + porDefecto);
+            return porDefecto;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Diario de progreso de una carga para poder reanudarla si se interrumpe.
+ * Tras cada COMMIT se anota la última fila confirmada de la hoja en un fichero local (formato properties), junto con el
+ * hash SHA-256 del Excel de origen y el modelo del libro deducido. Al volver a lanzar la carga con el mismo fichero:
+ *   - El modelo se toma del diario, sin volver a recorrer el libro para deducir los tipos
+ *   - Cada hoja se lee a partir de la fila siguiente a la última confirmada ({@link SheetRowHandler#firstRow()}):
+ *     las filas anteriores se saltan sin decodificar sus celdas
+ *   - Las hojas ya terminadas se omiten
+ * Si el Excel ha cambiado (su hash no coincide) el diario se descarta y la carga empieza de cero.
+ * El fichero se reescribe de forma atómica (fichero temporal + rename), así que un corte a mitad de escritura deja el diario anterior.
+ * Entre el COMMIT y la escritura del diario queda una ventana mínima: si el proceso muere justo ahí, el último bloque se cargaría dos veces.
+ */
+public class CheckpointJournal {
+    private static final String COMPLETA = "completa";
+
+    private final Path fichero;
+    private final Properties estado;
+    private final boolean reanudado;
+
+    private CheckpointJournal(Path fichero, Properties estado, boolean reanudado) {
+        this.fichero = fichero;
+        this.estado = estado;
+        this.reanudado = reanudado;
+    }
+
+    /**
+     * Abre el diario de una carga. Si existe y corresponde al mismo fichero Excel, se continúa donde se quedó.
+     * @param journalFile ruta del fichero del diario
+     * @param excelFile ruta del fichero Excel que se carga
+     * @return el diario, vacío si la carga empieza de cero
+     * @throws IOException si no se puede leer el Excel o el diario
+     */
+    public static CheckpointJournal abrir(String journalFile, String excelFile) throws IOException {
+        Path fichero = Paths.get(journalFile);
+        String hash = hashFichero(Paths.get(excelFile));
+        if (Files.exists(fichero)) {
+            Properties anterior = new Properties();
+            try (InputStream is = Files.newInputStream(fichero)) {
+                anterior.load(is);
+            }
+            if (hash.equals(anterior.getProperty("hash"))) {
+                System.out.println("Reanudando la carga de '" + excelFile + "' según el diario '" + journalFile + "'.");
+                return new CheckpointJournal(fichero, anterior, true);
+            }
+            System.err.println("El fichero '" + excelFile + "' ha cambiado desde la última carga: se descarta el diario '" + journalFile + "'.");
+        }
+        Properties estado = new Properties();
+        estado.setProperty("origen", excelFile);
+        estado.setProperty("hash", hash);
+        return new CheckpointJournal(fichero, estado, false);
+    }
+
+    /**
+     * @return true si el diario viene de una carga anterior interrumpida
+     */
+    public boolean isReanudado() {
+        return reanudado;
+    }
+
+    /**
+     * Fila (empezando en 0) desde la que hay que leer una hoja.
+     * @param hoja nombre de la hoja
+     * @return la fila siguiente a la última confirmada, 0 si la hoja no se ha empezado, o Integer.MAX_VALUE si ya está completa
+     */
+    public synchronized int siguienteFila(String hoja) {
+        if (estado.getProperty("hoja." + hoja + "." + COMPLETA) != null)
+            return Integer.MAX_VALUE;
+        String ultima = estado.getProperty("hoja." + hoja);
+        return ultima == null ? 0 : Integer.parseInt(ultima) + 1;
+    }
+
+    /**
+     * Anota la última fila confirmada de una hoja y guarda el diario. Debe llamarse justo después del COMMIT.
+     * @param hoja nombre de la hoja
+     * @param ultimaFila número de la última fila confirmada (empezando en 0)
+     * @throws IOException si no se puede guardar el diario
+     */
+    public synchronized void registrar(String hoja, int ultimaFila) throws IOException {
+        estado.setProperty("hoja." + hoja, Integer.toString(ultimaFila));
+        guardar();
+    }
+
+    /**
+     * Marca una hoja como cargada por completo y guarda el diario.
+     * @param hoja nombre de la hoja
+     * @throws IOException si no se puede guardar el diario
+     */
+    public synchronized void completar(String hoja) throws IOException {
+        estado.setProperty("hoja." + hoja + "." + COMPLETA, "true");
+        guardar();
+    }
+
+    /**
+     * Borra el diario cuando la carga ha terminado bien.
+     * @throws IOException si no se puede borrar el fichero
+     */
+    public synchronized void borrar() throws IOException {
+        Files.deleteIfExists(fichero);
+    }
+
+    /**
+     * Guarda el modelo del libro en el diario para no tener que deducirlo de nuevo al reanudar.
+     * @param modelo modelo del libro
+     * @throws IOException si no se puede guardar el diario
+     */
+    public synchronized void guardarModelo(WorkbookModel modelo) throws IOException {
+        SchemaCache.escribirModelo(estado, "", modelo);
+        guardar();
+    }
+
+    /**
+     * Modelo del libro guardado por una carga anterior.
+     * @return el modelo, o null si el diario no tiene ninguno
+     */
+    public synchronized WorkbookModel getModelo() {
+        return SchemaCache.leerModelo(estado, "");
+    }
+
+    /**
+     * Envuelve un receptor de filas para que cada hoja se lea desde la fila siguiente a la última confirmada.
+     * Sirve para las pasadas previas a la carga (por ejemplo, la comprobación de duplicados), que no deben ver las filas ya cargadas.
+     * @param handler receptor de filas
+     * @return el receptor envuelto
+     */
+    public SheetRowHandler omitirCargadas(SheetRowHandler handler) {
+        return new SheetRowHandler() {
+            private String hoja;
+
+            @Override
+            public void startSheet(int index, String name) throws Exception {
+                hoja = name;
+                handler.startSheet(index, name);
+            }
+
+            @Override
+            public int firstRow() {
+                return siguienteFila(hoja);
+            }
+
+            @Override
+            public void row(SheetRow row) throws Exception {
+                handler.row(row);
+            }
+
+            @Override
+            public void endSheet() throws Exception {
+                handler.endSheet();
+            }
+        };
+    }
+
+    /**
+     * Escribe el diario en un fichero temporal, lo fuerza a disco y lo renombra sobre el anterior.
+     */
+    private void guardar() throws IOException {
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream os = Channels.newOutputStream(canal)) {
+            estado.store(os, "Diario de carga de excel2database");
+            os.flush();
+            canal.force(true);
+        }
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Calcula el hash SHA-256 del contenido de un fichero.
+     */
+    private static String hashFichero(Path origen) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 no disponible", e);
+        }
+        byte[] buf = new byte[1 << 16];
+        try (InputStream is = Files.newInputStream(origen)) {
+            int n;
+            while ((n = is.read(buf)) > 0)
+                sha.update(buf, 0, n);
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+}
@@ -0,0 +1,283 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import com.iesvdc.dam.acceso.excelutil.CellAccessor;
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Lote de filas de una tabla guardado por columnas, con la forma que marca su {@link TableModel}:
+ *   - INTEGER y BOOLEAN → long[] (los booleanos como 0/1)
+ *   - DECIMAL → double[]
+ *   - DATE → double[] con el número de serie de Excel; las fechas escritas como texto van al diccionario
+ *   - STRING → int[] de códigos sobre un diccionario de textos distintos del lote (los repetidos se guardan una sola vez)
+ *   - Vacíos → un mapa de bits por columna
+ * El lector lo rellena fila a fila con {@link #add(SheetRow)}, que convierte cada celda al tipo de su columna (así los errores
+ * de datos salen en el hilo que lee, con su número de fila), y los destinos ({@link RowWriter#write(ColumnarBatch)}) lo vacían
+ * leyendo los arrays. Los arrays se crean una vez y {@link #clear()} los deja listos para el siguiente lote, de modo que
+ * un lote reciclado con {@link ColumnarBatchPool} no crea ningún objeto por celda.
+ * Las celdas con error (#N/A, #DIV/0!...) se guardan como vacías. No es seguro para varios hilos: el lote pasa de uno a otro.
+ */
+public class ColumnarBatch {
+    private final TableModel tabla;
+    private final int capacidad;
+    private final Columna[] columnas;
+    private final int[] filas;
+    private int size;
+
+    /** Almacenamiento de una columna; solo se crean los arrays que usa su tipo. */
+    private static class Columna {
+        final long[] nulos;
+        long[] enteros;
+        double[] decimales;
+        int[] codigos;
+        /** En DATE, marca las filas cuyo valor es un texto del diccionario en lugar de un número de serie. */
+        long[] textos;
+        Diccionario diccionario;
+
+        Columna(int capacidad) {
+            nulos = new long[(capacidad + 63) >>> 6];
+        }
+    }
+
+    /**
+     * @param tabla modelo de la tabla, que fija el número y el tipo de las columnas
+     * @param capacidad filas que caben en el lote
+     */
+    public ColumnarBatch(TableModel tabla, int capacidad) {
+        this.tabla = tabla;
+        this.capacidad = capacidad;
+        this.filas = new int[capacidad];
+        List<FieldModel> campos = tabla.getFields();
+        this.columnas = new Columna[campos.size()];
+        for (int j = 0; j < columnas.length; j++) {
+            Columna c = new Columna(capacidad);
+            switch (campos.get(j).getType()) {
+                case INTEGER:
+                case BOOLEAN:
+                    c.enteros = new long[capacidad];
+                    break;
+                case DECIMAL:
+                    c.decimales = new double[capacidad];
+                    break;
+                case DATE:
+                    c.decimales = new double[capacidad];
+                    c.textos = new long[c.nulos.length];
+                    c.codigos = new int[capacidad];
+                    c.diccionario = new Diccionario(capacidad);
+                    break;
+                default:
+                    c.codigos = new int[capacidad];
+                    c.diccionario = new Diccionario(capacidad);
+            }
+            columnas[j] = c;
+        }
+    }
+
+    public TableModel getTabla() {
+        return tabla;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    public boolean isLleno() {
+        return size == capacidad;
+    }
+
+    /**
+     * Número de la fila en la hoja (empezando en 0), para los mensajes de error.
+     * @param fila posición de la fila en el lote
+     * @return el número de fila original
+     */
+    public int getRowNum(int fila) {
+        return filas[fila];
+    }
+
+    /**
+     * Vacía el lote para reutilizarlo, sin liberar los arrays.
+     */
+    public void clear() {
+        for (Columna c : columnas) {
+            int palabras = (size + 63) >>> 6;
+            for (int k = 0; k < palabras; k++) {
+                c.nulos[k] = 0;
+                if (c.textos != null)
+                    c.textos[k] = 0;
+            }
+            if (c.diccionario != null)
+                c.diccionario.clear();
+        }
+        size = 0;
+    }
+
+    /**
+     * Añade una fila de datos convirtiendo cada celda al tipo de su columna.
+     * @param row fila leída de la hoja (no la de cabeceras)
+     * @throws IllegalStateException si el lote está lleno
+     * @throws Exception si alguna celda no se puede convertir al tipo de su columna
+     */
+    public void add(SheetRow row) throws Exception {
+        if (size == capacidad)
+            throw new IllegalStateException("Lote de '" + tabla.getName() + "' lleno (" + capacidad + " filas)");
+        int fila = size;
+        List<FieldModel> campos = tabla.getFields();
+        try {
+            for (int j = 0; j < columnas.length; j++)
+                guardar(columnas[j], campos.get(j), fila, row.get(j));
+        } catch (RuntimeException e) {
+            // La fila a medias se descarta: los bits que haya marcado se limpian
+            for (Columna c : columnas) {
+                c.nulos[fila >>> 6] &= ~(1L << fila);
+                if (c.textos != null)
+                    c.textos[fila >>> 6] &= ~(1L << fila);
+            }
+            throw new Exception("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": valor no válido -> " + e.getMessage(), e);
+        }
+        filas[fila] = row.getRowNum();
+        size++;
+    }
+
+    private static void guardar(Columna c, FieldModel campo, int fila, CellValue celda) {
+        if (celda.isBlank() || celda.getCellType() == CellType.ERROR) {
+            c.nulos[fila >>> 6] |= 1L << fila;
+            return;
+        }
+        switch (campo.getType()) {
+            case INTEGER:
+                c.enteros[fila] = CellAccessor.getLong(celda);
+                break;
+            case BOOLEAN:
+                c.enteros[fila] = CellAccessor.getBoolean(celda) ? 1 : 0;
+                break;
+            case DECIMAL:
+                c.decimales[fila] = CellAccessor.getDouble(celda);
+                break;
+            case DATE:
+                if (celda.getCellType() == CellType.NUMERIC) {
+                    c.decimales[fila] = celda.getNumericValue();
+                } else {
+                    c.textos[fila >>> 6] |= 1L << fila;
+                    c.codigos[fila] = c.diccionario.codigo(celda.asString());
+                }
+                break;
+            default:
+                c.codigos[fila] = c.diccionario.codigo(celda.asString());
+        }
+    }
+
+    /**
+     * @param col índice de la columna
+     * @param fila posición de la fila en el lote
+     * @return true si la celda estaba vacía
+     */
+    public boolean isNull(int col, int fila) {
+        return (columnas[col].nulos[fila >>> 6] & (1L << fila)) != 0;
+    }
+
+    /**
+     * Indica si el valor de una columna DATE es un texto ({@link #getString}) en lugar de un número de serie ({@link #getDouble}).
+     * @param col índice de la columna
+     * @param fila posición de la fila en el lote
+     * @return true si la fecha se escribió como texto
+     */
+    public boolean isTexto(int col, int fila) {
+        long[] textos = columnas[col].textos;
+        return textos != null && (textos[fila >>> 6] & (1L << fila)) != 0;
+    }
+
+    /**
+     * @param col índice de una columna INTEGER
+     * @param fila posición de la fila en el lote
+     * @return el valor entero
+     */
+    public long getLong(int col, int fila) {
+        return columnas[col].enteros[fila];
+    }
+
+    /**
+     * @param col índice de una columna BOOLEAN
+     * @param fila posición de la fila en el lote
+     * @return el valor booleano
+     */
+    public boolean getBoolean(int col, int fila) {
+        return columnas[col].enteros[fila] != 0;
+    }
+
+    /**
+     * @param col índice de una columna DECIMAL, o DATE (número de serie de Excel)
+     * @param fila posición de la fila en el lote
+     * @return el valor decimal
+     */
+    public double getDouble(int col, int fila) {
+        return columnas[col].decimales[fila];
+    }
+
+    /**
+     * @param col índice de una columna STRING, o DATE escrita como texto
+     * @param fila posición de la fila en el lote
+     * @return el texto, sin espacios a los lados
+     */
+    public String getString(int col, int fila) {
+        Columna c = columnas[col];
+        return c.diccionario.valor(c.codigos[fila]);
+    }
+
+    /**
+     * Textos distintos de una columna del lote, con una tabla hash de direccionamiento abierto sobre arrays de int
+     * (sin objetos por entrada). Se vacía borrando solo las posiciones ocupadas.
+     */
+    private static class Diccionario {
+        private final String[] valores;
+        /** Posición en {@link #tabla} de cada código, para vaciarla sin recorrerla entera. */
+        private final int[] posiciones;
+        /** Código + 1 de cada posición; 0 = libre. */
+        private final int[] tabla;
+        private int n;
+
+        Diccionario(int capacidad) {
+            valores = new String[capacidad];
+            posiciones = new int[capacidad];
+            tabla = new int[Integer.highestOneBit(Math.max(2, capacidad) * 2 - 1) << 1];
+        }
+
+        int codigo(String s) {
+            int mascara = tabla.length - 1;
+            int h = s.hashCode();
+            int i = (h ^ (h >>> 16)) & mascara;
+            int libre;
+            while ((libre = tabla[i]) != 0) {
+                String v = valores[libre - 1];
+                if (v == s || v.equals(s))
+                    return libre - 1;
+                i = (i + 1) & mascara;
+            }
+            valores[n] = s;
+            posiciones[n] = i;
+            tabla[i] = ++n;
+            return n - 1;
+        }
+
+        String valor(int codigo) {
+            return valores[codigo];
+        }
+
+        void clear() {
+            for (int k = 0; k < n; k++) {
+                tabla[posiciones[k]] = 0;
+                valores[k] = null;
+            }
+            n = 0;
+        }
+    }
+}
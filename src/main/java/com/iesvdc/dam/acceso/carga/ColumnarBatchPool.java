@@ -0,0 +1,67 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Reserva de {@link ColumnarBatch} reutilizables, una cola por tabla del libro (cada tabla tiene sus propias columnas).
+ * El lector toma lotes con {@link #tomar} y los escritores los devuelven con {@link #devolver} cuando los han enviado;
+ * en régimen estable siempre se reutilizan los mismos lotes y la carga no crea arrays nuevos.
+ * Las colas son {@link ArrayBlockingQueue} (sin nodos por elemento) y el mapa de tablas no cambia tras construirlo,
+ * así que se puede usar desde varios hilos.
+ */
+public class ColumnarBatchPool {
+    private final Map<TableModel, BlockingQueue<ColumnarBatch>> libres = new IdentityHashMap<>();
+    private final int capacidad;
+    private final AtomicInteger creados = new AtomicInteger();
+    private final AtomicInteger reutilizados = new AtomicInteger();
+
+    /**
+     * @param modelo modelo del libro
+     * @param capacidad filas de cada lote
+     * @param maxPorTabla lotes libres que se guardan como mucho por tabla (los que sobran se dejan al recolector)
+     */
+    public ColumnarBatchPool(WorkbookModel modelo, int capacidad, int maxPorTabla) {
+        this.capacidad = capacidad;
+        for (TableModel tabla : modelo.getTables())
+            libres.put(tabla, new ArrayBlockingQueue<>(Math.max(1, maxPorTabla)));
+    }
+
+    /**
+     * Devuelve un lote vacío de la tabla, reutilizado si hay alguno libre.
+     * @param tabla tabla del modelo del libro
+     * @return un lote vacío
+     */
+    public ColumnarBatch tomar(TableModel tabla) {
+        BlockingQueue<ColumnarBatch> cola = libres.get(tabla);
+        ColumnarBatch lote = cola != null ? cola.poll() : null;
+        if (lote != null) {
+            reutilizados.incrementAndGet();
+            return lote;
+        }
+        creados.incrementAndGet();
+        return new ColumnarBatch(tabla, capacidad);
+    }
+
+    /**
+     * Vacía un lote y lo deja disponible para volver a usarlo.
+     * @param lote lote ya enviado
+     */
+    public void devolver(ColumnarBatch lote) {
+        lote.clear();
+        BlockingQueue<ColumnarBatch> cola = libres.get(lote.getTabla());
+        if (cola != null)
+            cola.offer(lote);
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarBatchPool [creados=" + creados.get() + ", reutilizados=" + reutilizados.get() + "]";
+    }
+}
@@ -0,0 +1,30 @@
+package com.iesvdc.dam.acceso.carga;
+
+/**
+ * Momento en el que {@link TableLoader} confirma (COMMIT) los datos cargados.
+ */
+public enum CommitMode {
+    /** COMMIT tras cada bloque de filas enviado con executeBatch. */
+    CHUNK,
+    /** COMMIT al terminar cada hoja. */
+    SHEET,
+    /** Sin COMMIT: lo hace quien invoca la carga (por ejemplo, todo el libro en una transacción). */
+    NONE;
+
+    /**
+     * Obtiene el modo a partir del valor del fichero de propiedades, sin distinguir mayúsculas.
+     * @param valor texto del modo (chunk, sheet o none)
+     * @param porDefecto modo a usar si el valor es null o no se reconoce
+     * @return el modo correspondiente
+     */
+    public static CommitMode fromString(String valor, CommitMode porDefecto) {
+        if (valor == null)
+            return porDefecto;
+        try {
+            return CommitMode.valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Modo de commit desconocido '" + valor + "', se usa " + porDefecto);
+            return porDefecto;
+        }
+    }
+}
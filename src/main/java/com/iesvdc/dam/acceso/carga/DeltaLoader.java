@@ -0,0 +1,353 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+import com.iesvdc.dam.acceso.util.Hash64;
+import com.iesvdc.dam.acceso.util.LongHashSet;
+import com.iesvdc.dam.acceso.util.LongLongHashMap;
+
+/**
+ * Carga incremental: aplica a la base de datos solo las filas que han cambiado desde la carga anterior del mismo libro.
+ * Cada tabla necesita una clave, el primer campo único declarado ({@code unique.<tabla>=campo}). Por cada fila se calcula:
+ *   - la huella de 64 bits de su clave ({@link Hash64} sobre el texto de la celda)
+ *   - la huella de 64 bits de su contenido (tipo y valor nativo de cada celda, sin pasar a texto)
+ * Las huellas de la carga anterior se guardan en una tabla auxiliar de la propia base de datos ({@link #TABLA_HUELLAS} por defecto)
+ * y se leen de una vez al empezar cada hoja en un {@link LongLongHashMap}. Entonces:
+ *   - Una clave nueva o con otra huella se envía en batch con el INSERT o UPDATE del motor ({@link Dialect#buildUpsert}; alta o modificación)
+ *   - Una fila con la misma huella no se envía
+ *   - Las claves que estaban en el índice y no aparecen en la hoja se borran (DELETE en batch)
+ * El índice se actualiza en la misma transacción que los datos y se hace COMMIT al terminar cada hoja, así que nunca queda desfasado.
+ * Solo se recorre el índice guardado para buscar borrados si alguna clave del índice no ha aparecido en la hoja.
+ * La primera carga incremental de una tabla ya cargada envía todas sus filas (actualizándolas en su sitio) y crea el índice.
+ */
+public class DeltaLoader implements SheetRowHandler {
+    /** Nombre por defecto de la tabla con las huellas de la carga anterior. */
+    public static final String TABLA_HUELLAS = "_excel2database_huellas";
+    /** Longitud máxima de la clave guardada en el índice. */
+    private static final int MAX_CLAVE = 1024;
+    /** Columnas de la tabla de huellas y las de su clave primaria. */
+    private static final List<String> COLUMNAS_INDICE = List.of("tabla", "clave_hash", "clave", "huella");
+    private static final List<String> CLAVE_INDICE = List.of("tabla", "clave_hash");
+
+    private final Connection conexion;
+    private final WorkbookModel modelo;
+    private final int batchSize;
+    private final String tablaHuellas;
+    private SchemaCache schemaCache;
+    private Dialect dialecto;
+
+    private TableModel tabla;
+    private List<FieldModel> campos;
+    private int columnaClave;
+    private LongLongHashMap anteriores;
+    private LongHashSet vistas;
+    private int coincidentes;
+    private PreparedStatement psUpsert;
+    private RowBinder binder;
+    /** Asigna la clave al DELETE de las filas ausentes con el setter de su tipo, igual que el INSERT. */
+    private RowBinder binderClave;
+    private PreparedStatement psHuella;
+    private boolean cabecera;
+    private int pendientes;
+
+    private long insertadas;
+    private long actualizadas;
+    private long borradas;
+    private long sinCambios;
+
+    /**
+     * @param conexion conexión con la base de datos, con el auto-commit desactivado
+     * @param modelo modelo del libro, con un campo único declarado en cada tabla
+     * @param batchSize filas por executeBatch
+     * @param tablaHuellas nombre de la tabla donde se guardan las huellas
+     */
+    public DeltaLoader(Connection conexion, WorkbookModel modelo, int batchSize, String tablaHuellas) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("El tamaño de bloque debe ser positivo: " + batchSize);
+        this.conexion = conexion;
+        this.modelo = modelo;
+        this.batchSize = batchSize;
+        this.tablaHuellas = tablaHuellas;
+    }
+
+    /**
+     * Usa una caché de estructura para no repetir el CREATE TABLE de las tablas que ya se crearon en esta base de datos.
+     * @param schemaCache caché de estructura, o null para ejecutar siempre el DDL
+     */
+    public void setSchemaCache(SchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    public long getInsertadas() {
+        return insertadas;
+    }
+
+    public long getActualizadas() {
+        return actualizadas;
+    }
+
+    public long getBorradas() {
+        return borradas;
+    }
+
+    public long getSinCambios() {
+        return sinCambios;
+    }
+
+    @Override
+    public void startSheet(int index, String name) throws SQLException {
+        tabla = modelo.getTables().get(index);
+        if (!tabla.getName().equals(name))
+            throw new SQLException("La hoja '" + name + "' no coincide con la tabla del modelo '" + tabla.getName() + "'");
+        if (tabla.getUniqueFields().isEmpty())
+            throw new SQLException("La carga incremental necesita una clave para la tabla '" + name + "' (unique." + name + "=campo)");
+        campos = tabla.getFields();
+        columnaClave = tabla.indexOfField(tabla.getUniqueFields().get(0));
+        if (columnaClave < 0)
+            throw new SQLException("La tabla '" + name + "' no tiene el campo clave '" + tabla.getUniqueFields().get(0) + "'");
+
+        dialecto = Dialect.of(conexion);
+        try (Statement st = conexion.createStatement()) {
+            TableLoader.crearTabla(st, tabla, true, schemaCache);
+            st.execute(buildCreateIndice(dialecto, tablaHuellas));
+        }
+        anteriores = cargarHuellas();
+        vistas = new LongHashSet(Math.max(16, anteriores.size()));
+        coincidentes = 0;
+        psUpsert = conexion.prepareStatement(buildUpsert(dialecto, tabla));
+        binder = new RowBinder(tabla);
+        TableModel soloClave = new TableModel(tabla.getName());
+        soloClave.addField(campos.get(columnaClave));
+        binderClave = new RowBinder(soloClave);
+        psHuella = conexion.prepareStatement(dialecto.buildUpsert(tablaHuellas, COLUMNAS_INDICE, CLAVE_INDICE));
+        cabecera = true;
+        pendientes = 0;
+    }
+
+    @Override
+    public void row(SheetRow row) throws Exception {
+        // La primera fila de cada hoja son las cabeceras
+        if (cabecera) {
+            cabecera = false;
+            return;
+        }
+        CellValue celdaClave = row.get(columnaClave);
+        if (celdaClave.isBlank())
+            throw new Exception("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": la clave '"
+                + tabla.getUniqueFields().get(0) + "' está vacía");
+        String clave = celdaClave.asString();
+        long claveHash = Hash64.hash(clave);
+        if (!vistas.add(claveHash))
+            throw new Exception("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": clave repetida en el fichero -> '" + clave + "'");
+
+        long huella = huellaFila(row, campos.size());
+        boolean existia = anteriores.containsKey(claveHash);
+        if (existia) {
+            coincidentes++;
+            if (anteriores.get(claveHash, 0) == huella) {
+                sinCambios++;
+                return;
+            }
+        }
+        if (clave.length() > MAX_CLAVE)
+            throw new Exception("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": clave demasiado larga para el índice");
+        if (existia)
+            actualizadas++;
+        else
+            insertadas++;
+
+        try {
+            binder.bind(psUpsert, row);
+        } catch (RuntimeException e) {
+            throw new Exception("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": valor no válido -> " + e.getMessage(), e);
+        }
+        psUpsert.addBatch();
+        psHuella.setString(1, tabla.getName());
+        psHuella.setLong(2, claveHash);
+        psHuella.setString(3, clave);
+        psHuella.setLong(4, huella);
+        psHuella.addBatch();
+        if (++pendientes >= batchSize)
+            flush();
+    }
+
+    @Override
+    public void endSheet() throws Exception {
+        long borradasHoja = 0;
+        try {
+            flush();
+            // Solo hay borrados si alguna clave del índice no ha aparecido en la hoja
+            if (coincidentes < anteriores.size())
+                borradasHoja = borrarAusentes();
+            ImportMetrics.get().commit(conexion);
+        } finally {
+            psUpsert.close();
+            psHuella.close();
+            anteriores = null;
+            vistas = null;
+        }
+        borradas += borradasHoja;
+        System.out.println("Tabla '" + tabla.getName() + "': carga incremental aplicada (" + borradasHoja + " filas borradas).");
+    }
+
+    private void flush() throws SQLException {
+        if (pendientes == 0)
+            return;
+        long inicio = System.nanoTime();
+        psUpsert.executeBatch();
+        psHuella.executeBatch();
+        ImportMetrics metricas = ImportMetrics.get();
+        metricas.getHistogramaLotes().registrar(System.nanoTime() - inicio);
+        metricas.addFilasEscritas(pendientes);
+        pendientes = 0;
+    }
+
+    /**
+     * Lee las huellas guardadas de la tabla actual: huella de la clave → huella de la fila.
+     */
+    private LongLongHashMap cargarHuellas() throws SQLException {
+        LongLongHashMap huellas = new LongLongHashMap();
+        try (PreparedStatement ps = conexion.prepareStatement("SELECT " + q("clave_hash") + ", " + q("huella") + " FROM " + q(tablaHuellas) + " WHERE " + q("tabla") + " = ?",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(10000);
+            ps.setString(1, tabla.getName());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    huellas.put(rs.getLong(1), rs.getLong(2));
+            }
+        }
+        return huellas;
+    }
+
+    /**
+     * Borra de la tabla y del índice las claves del índice que no han aparecido en la hoja.
+     */
+    private long borrarAusentes() throws SQLException {
+        String clave = q(campos.get(columnaClave).getName());
+        try (PreparedStatement psLeer = conexion.prepareStatement("SELECT " + q("clave_hash") + ", " + q("clave") + " FROM " + q(tablaHuellas) + " WHERE " + q("tabla") + " = ?",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             PreparedStatement psBorrar = conexion.prepareStatement("DELETE FROM " + q(tabla.getName()) + " WHERE " + clave + " = ?");
+             PreparedStatement psBorrarHuella = conexion.prepareStatement("DELETE FROM " + q(tablaHuellas) + " WHERE " + q("tabla") + " = ? AND " + q("clave_hash") + " = ?")) {
+            psLeer.setFetchSize(10000);
+            psLeer.setString(1, tabla.getName());
+            SheetRow fila = new SheetRow();
+            int lote = 0;
+            // Los borrados se acumulan y se envían al terminar la lectura, para no escribir con el ResultSet abierto
+            try (ResultSet rs = psLeer.executeQuery()) {
+                while (rs.next()) {
+                    long claveHash = rs.getLong(1);
+                    if (vistas.contains(claveHash))
+                        continue;
+                    fila.reset(0);
+                    celdaClave(rs.getString(2), fila.cell(0));
+                    binderClave.bind(psBorrar, fila);
+                    psBorrar.addBatch();
+                    psBorrarHuella.setString(1, tabla.getName());
+                    psBorrarHuella.setLong(2, claveHash);
+                    psBorrarHuella.addBatch();
+                    lote++;
+                }
+            }
+            if (lote > 0) {
+                long inicio = System.nanoTime();
+                psBorrar.executeBatch();
+                psBorrarHuella.executeBatch();
+                ImportMetrics.get().getHistogramaLotes().registrar(System.nanoTime() - inicio);
+            }
+            return lote;
+        }
+    }
+
+    /**
+     * Vuelve a convertir en celda una clave guardada en el índice, que es el texto de la celda original ({@link CellValue#asString()}),
+     * para que el DELETE la compare con el tipo de la columna: en una clave numérica o de fecha el texto vuelve a ser
+     * un número, y "true" o "false" un booleano. Lo que no se puede convertir se queda como texto.
+     */
+    private void celdaClave(String clave, CellValue celda) {
+        FieldType tipo = campos.get(columnaClave).getType();
+        if (tipo == FieldType.STRING || tipo == FieldType.UNKNOWN) {
+            celda.setString(clave);
+        } else if (clave.equals("true") || clave.equals("false")) {
+            celda.setBoolean(Boolean.parseBoolean(clave));
+        } else {
+            try {
+                celda.setNumeric(Double.parseDouble(clave), tipo == FieldType.DATE);
+            } catch (NumberFormatException e) {
+                celda.setString(clave);
+            }
+        }
+    }
+
+    /**
+     * Huella del contenido de una fila: el tipo y el valor nativo de cada una de sus columnas.
+     * @param row fila de datos
+     * @param columnas número de columnas de la tabla
+     * @return la huella de 64 bits
+     */
+    static long huellaFila(SheetRow row, int columnas) {
+        long h = Hash64.start();
+        for (int j = 0; j < columnas; j++) {
+            CellValue celda = row.get(j);
+            switch (celda.getCellType()) {
+                case NUMERIC:
+                    h = Hash64.update(h, celda.isDate() ? 'D' : 'N');
+                    h = Hash64.update(h, Double.doubleToLongBits(celda.getNumericValue()));
+                    break;
+                case STRING:
+                    h = Hash64.update(h, 'S');
+                    h = Hash64.update(h, celda.getStringValue());
+                    // Separador para que "ab"+"c" y "a"+"bc" no den la misma huella
+                    h = Hash64.update(h, celda.getStringValue().length());
+                    break;
+                case BOOLEAN:
+                    h = Hash64.update(h, celda.getBooleanValue() ? 'T' : 'F');
+                    break;
+                default:
+                    h = Hash64.update(h, '_');
+            }
+        }
+        return Hash64.mix(h);
+    }
+
+    private String q(String identificador) {
+        return dialecto.quote(identificador);
+    }
+
+    /**
+     * Genera el INSERT o UPDATE de una tabla en una sola sentencia ({@link Dialect#buildUpsert}): inserta la fila o,
+     * si su clave ya existe, actualiza el resto de sus columnas.
+     * @param dialecto dialecto del motor
+     * @param tabla modelo de la tabla, con un campo único
+     * @return la sentencia con un parámetro por campo
+     */
+    public static String buildUpsert(Dialect dialecto, TableModel tabla) {
+        return dialecto.buildUpsert(tabla.getName(), Dialect.nombres(tabla), List.of(tabla.getUniqueFields().get(0)));
+    }
+
+    /**
+     * Genera el CREATE TABLE de la tabla de huellas.
+     * @param dialecto dialecto del motor
+     * @param tablaHuellas nombre de la tabla
+     * @return la sentencia DDL
+     */
+    public static String buildCreateIndice(Dialect dialecto, String tablaHuellas) {
+        return "CREATE TABLE IF NOT EXISTS " + dialecto.quote(tablaHuellas)
+            + " (" + dialecto.quote("tabla") + " VARCHAR(255) NOT NULL, " + dialecto.quote("clave_hash") + " BIGINT NOT NULL, "
+            + dialecto.quote("clave") + " " + dialecto.tipoTexto(MAX_CLAVE) + " NOT NULL, " + dialecto.quote("huella") + " BIGINT NOT NULL, "
+            + "PRIMARY KEY (" + dialecto.listaColumnas(CLAVE_INDICE) + "))";
+    }
+}
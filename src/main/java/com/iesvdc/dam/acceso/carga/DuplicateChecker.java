@@ -0,0 +1,338 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.excelutil.CellAccessor;
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+import com.iesvdc.dam.acceso.util.Hash64;
+import com.iesvdc.dam.acceso.util.LongHashSet;
+
+/**
+ * Detección de valores duplicados en los campos únicos de las tablas ({@link TableModel#getUniqueFields()}) antes de insertar.
+ * Sustituye la consulta SELECT COUNT(*) por fila por una comprobación por conjuntos:
+ *   - Al empezar cada hoja se leen de una vez las claves que ya existen en la base de datos (una consulta por campo único)
+ *   - Cada valor del fichero se busca en ese conjunto y en el de valores ya vistos en el propio fichero
+ *   - Los conflictos se acumulan y se informan todos juntos al final, en vez de parar en el primero
+ * Las claves se guardan como huellas de 64 bits ({@link Hash64}) en un {@link LongHashSet}, de modo que la memoria es de unos pocos bytes por clave.
+ * La huella se calcula sobre el valor que se guarda, no sobre su texto: el número en los campos INTEGER y DECIMAL, el instante
+ * en los DATE y el valor lógico en los BOOLEAN, leídos de la celda y de la base de datos con el tipo del campo.
+ * Los textos se comparan como lo hace el motor ({@link Dialect#collation}): si la intercalación no distingue mayúsculas
+ * (las _ci de MySQL), se pasan a minúsculas y, salvo en las _as_ci, se les quitan los acentos.
+ */
+public class DuplicateChecker implements SheetRowHandler {
+    /** Máximo de conflictos que se guardan con detalle; el resto solo se cuentan. */
+    private static final int MAX_DETALLE = 1000;
+    /** Marcas diacríticas que quedan sueltas al descomponer un texto (NFD). */
+    private static final Pattern ACENTOS = Pattern.compile("\\p{M}+");
+
+    private final Connection conexion;
+    private final WorkbookModel modelo;
+    private final List<String> conflictos = new ArrayList<>();
+    private long totalConflictos;
+    private String motivo;
+
+    private TableModel tabla;
+    private int[] columnas;
+    private FieldType[] tipos;
+    /** Por campo único: 0 compara los textos tal cual, 1 sin mayúsculas, 2 sin mayúsculas ni acentos. */
+    private int[] comparacion;
+    private LongHashSet[] existentes;
+    private LongHashSet[] vistos;
+    /** Huellas de los campos únicos de la fila que se está comprobando. */
+    private long[] huellas;
+    private boolean cabecera;
+
+    /**
+     * @param conexion conexión con la base de datos, o null para comprobar solo duplicados dentro del fichero
+     * @param modelo modelo del libro con los campos únicos declarados
+     */
+    public DuplicateChecker(Connection conexion, WorkbookModel modelo) {
+        this.conexion = conexion;
+        this.modelo = modelo;
+    }
+
+    /**
+     * Comprueba que alguna tabla del modelo tenga campos únicos declarados.
+     * @param modelo modelo del libro
+     * @return true si hay algo que comprobar
+     */
+    public static boolean hayCamposUnicos(WorkbookModel modelo) {
+        for (TableModel t : modelo.getTables())
+            if (!t.getUniqueFields().isEmpty())
+                return true;
+        return false;
+    }
+
+    @Override
+    public void startSheet(int index, String name) throws SQLException {
+        startTable(modelo.getTables().get(index));
+    }
+
+    /**
+     * Prepara la comprobación de una tabla: localiza sus campos únicos y carga las claves existentes en la base de datos.
+     * @param tabla modelo de la tabla
+     * @throws SQLException si falla la lectura de las claves existentes
+     */
+    public void startTable(TableModel tabla) throws SQLException {
+        this.tabla = tabla;
+        List<String> unicos = tabla.getUniqueFields();
+        columnas = new int[unicos.size()];
+        tipos = new FieldType[unicos.size()];
+        comparacion = new int[unicos.size()];
+        existentes = new LongHashSet[unicos.size()];
+        vistos = new LongHashSet[unicos.size()];
+        huellas = new long[unicos.size()];
+        for (int k = 0; k < unicos.size(); k++) {
+            columnas[k] = tabla.indexOfField(unicos.get(k));
+            if (columnas[k] < 0)
+                throw new SQLException("La tabla '" + tabla.getName() + "' no tiene el campo único '" + unicos.get(k) + "'");
+            tipos[k] = tabla.getFields().get(columnas[k]).getType();
+            comparacion[k] = comparacion(tabla.getName(), unicos.get(k), tipos[k]);
+            existentes[k] = cargarExistentes(tabla.getName(), unicos.get(k), k);
+            vistos[k] = new LongHashSet(Math.max(16, existentes[k].size()));
+        }
+        cabecera = true;
+    }
+
+    @Override
+    public void row(SheetRow row) {
+        // La primera fila de cada hoja son las cabeceras
+        if (cabecera) {
+            cabecera = false;
+            return;
+        }
+        check(row);
+    }
+
+    /**
+     * Comprueba los campos únicos de una fila de datos y registra los conflictos encontrados.
+     * Los valores de la fila solo se anotan como vistos si no tiene ningún conflicto: una fila rechazada no se inserta,
+     * así que sus valores no deben hacer que se rechacen filas posteriores.
+     * @param row fila de datos (no la de cabeceras)
+     * @return true si la fila no tiene conflictos
+     */
+    public boolean check(SheetRow row) {
+        boolean valida = true;
+        for (int k = 0; k < columnas.length; k++) {
+            CellValue celda = row.get(columnas[k]);
+            if (celda.isBlank())
+                continue;
+            huellas[k] = huella(celda, k);
+            if (existentes[k].contains(huellas[k])) {
+                conflicto(row, k, celda.asString(), "ya existe en la base de datos");
+                valida = false;
+            } else if (vistos[k].contains(huellas[k])) {
+                conflicto(row, k, celda.asString(), "repetido en el fichero");
+                valida = false;
+            }
+        }
+        if (valida) {
+            for (int k = 0; k < columnas.length; k++)
+                if (!row.get(columnas[k]).isBlank())
+                    vistos[k].add(huellas[k]);
+        }
+        return valida;
+    }
+
+    private void conflicto(SheetRow row, int k, String valor, String causa) {
+        totalConflictos++;
+        motivo = tabla.getUniqueFields().get(k) + " duplicado -> '" + valor + "' (" + causa + ")";
+        if (conflictos.size() < MAX_DETALLE)
+            conflictos.add("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": " + motivo);
+    }
+
+    /**
+     * Huella del valor de una celda tal y como se guardaría en el campo único k. Si la celda no se puede convertir
+     * al tipo del campo (un texto en un campo numérico), se usa la de su texto.
+     */
+    private long huella(CellValue celda, int k) {
+        try {
+            switch (tipos[k]) {
+                case INTEGER:
+                    return Hash64.mix(CellAccessor.getLong(celda));
+                case DECIMAL:
+                    return huellaDecimal(CellAccessor.getDouble(celda));
+                case DATE:
+                    if (celda.getCellType() == CellType.NUMERIC)
+                        return Hash64.mix(CellAccessor.getTimestamp(celda).getTime());
+                    break;
+                case BOOLEAN:
+                    return Hash64.mix(CellAccessor.getBoolean(celda) ? 1 : 0);
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            // Se compara como texto
+        }
+        return huellaTexto(celda.asString(), k);
+    }
+
+    /**
+     * Huella del valor de la columna actual de una fila de la base de datos, leído con el tipo del campo único k.
+     * Si el valor es NULL, {@link ResultSet#wasNull()} lo indica después de la llamada.
+     */
+    private long huella(ResultSet rs, int k) throws SQLException {
+        switch (tipos[k]) {
+            case INTEGER:
+                return Hash64.mix(rs.getLong(1));
+            case DECIMAL:
+                return huellaDecimal(rs.getDouble(1));
+            case DATE:
+                Timestamp fecha = rs.getTimestamp(1);
+                return fecha == null ? 0 : Hash64.mix(fecha.getTime());
+            case BOOLEAN:
+                return Hash64.mix(rs.getBoolean(1) ? 1 : 0);
+            default:
+                String valor = rs.getString(1);
+                return valor == null ? 0 : huellaTexto(valor.trim(), k);
+        }
+    }
+
+    private static long huellaDecimal(double valor) {
+        // 0.0 y -0.0 son el mismo número
+        return Hash64.mix(Double.doubleToLongBits(valor == 0 ? 0.0 : valor));
+    }
+
+    private long huellaTexto(String texto, int k) {
+        if (comparacion[k] > 0) {
+            texto = texto.toLowerCase(Locale.ROOT);
+            if (comparacion[k] > 1)
+                texto = ACENTOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        }
+        return Hash64.hash(texto);
+    }
+
+    /**
+     * Cómo compara el motor los textos de un campo único, según su intercalación: 0 tal cual, 1 sin mayúsculas,
+     * 2 sin mayúsculas ni acentos.
+     */
+    private int comparacion(String nombreTabla, String campo, FieldType tipo) throws SQLException {
+        if (conexion == null || (tipo != FieldType.STRING && tipo != FieldType.UNKNOWN))
+            return 0;
+        String collation = Dialect.of(conexion).collation(conexion, nombreTabla, campo);
+        if (collation == null || !collation.toLowerCase(Locale.ROOT).endsWith("_ci"))
+            return 0;
+        return collation.toLowerCase(Locale.ROOT).endsWith("_as_ci") ? 1 : 2;
+    }
+
+    /**
+     * Lee de una sola vez los valores existentes de un campo único de la tabla.
+     * Si la tabla aún no existe en la base de datos, devuelve un conjunto vacío.
+     */
+    private LongHashSet cargarExistentes(String nombreTabla, String campo, int k) throws SQLException {
+        LongHashSet claves = new LongHashSet();
+        if (conexion == null || !existeTabla(nombreTabla))
+            return claves;
+        Dialect dialecto = Dialect.of(conexion);
+        String sql = "SELECT " + dialecto.quote(campo) + " FROM " + dialecto.quote(nombreTabla);
+        try (Statement st = conexion.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            st.setFetchSize(10000);
+            try (ResultSet rs = st.executeQuery(sql)) {
+                while (rs.next()) {
+                    long huella = huella(rs, k);
+                    if (!rs.wasNull())
+                        claves.add(huella);
+                }
+            }
+        }
+        return claves;
+    }
+
+    private boolean existeTabla(String nombreTabla) throws SQLException {
+        DatabaseMetaData meta = conexion.getMetaData();
+        // Las tablas se crean con el nombre entrecomillado, que se guarda tal cual; si no, cada motor aplica sus reglas de mayúsculas
+        try (ResultSet rs = meta.getTables(conexion.getCatalog(), null, nombreTabla, new String[] { "TABLE" })) {
+            if (rs.next())
+                return true;
+        }
+        if (meta.storesUpperCaseIdentifiers())
+            nombreTabla = nombreTabla.toUpperCase();
+        else if (meta.storesLowerCaseIdentifiers())
+            nombreTabla = nombreTabla.toLowerCase();
+        try (ResultSet rs = meta.getTables(conexion.getCatalog(), null, nombreTabla, new String[] { "TABLE" })) {
+            return rs.next();
+        }
+    }
+
+    public boolean hayConflictos() {
+        return totalConflictos > 0;
+    }
+
+    /**
+     * Motivo del último conflicto, sin la hoja ni la fila: el de la última fila para la que {@link #check} devolvió false.
+     * @return el campo, el valor repetido y la causa, o null si no ha habido conflictos
+     */
+    public String getMotivo() {
+        return motivo;
+    }
+
+    public long getTotalConflictos() {
+        return totalConflictos;
+    }
+
+    /**
+     * Conflictos detectados, con la hoja, la fila, el campo y el valor repetido.
+     * @return la lista de conflictos (como máximo los primeros 1000)
+     */
+    public List<String> getConflictos() {
+        return conflictos;
+    }
+
+    /**
+     * Lanza una excepción con todos los conflictos encontrados, si los hay.
+     * @throws Exception con un mensaje que enumera los conflictos
+     */
+    public void verificar() throws Exception {
+        if (!hayConflictos())
+            return;
+        StringBuilder sb = new StringBuilder();
+        sb.append(totalConflictos).append(" valores duplicados encontrados:");
+        for (String c : conflictos)
+            sb.append(System.lineSeparator()).append("  ").append(c);
+        if (totalConflictos > conflictos.size())
+            sb.append(System.lineSeparator()).append("  ... y ").append(totalConflictos - conflictos.size()).append(" más");
+        throw new Exception(sb.toString());
+    }
+
+    /**
+     * Declara los campos únicos de las tablas a partir de las propiedades {@code unique.<tabla>=campo1,campo2}.
+     * @param props propiedades de configuración
+     * @param modelo modelo del libro al que añadir los campos únicos
+     */
+    public static void declararUnicos(Properties props, WorkbookModel modelo) {
+        Map<String, TableModel> tablas = new HashMap<>();
+        for (TableModel t : modelo.getTables())
+            tablas.put(t.getName(), t);
+        for (String clave : props.stringPropertyNames()) {
+            if (!clave.startsWith("unique."))
+                continue;
+            TableModel t = tablas.get(clave.substring("unique.".length()));
+            if (t == null)
+                continue;
+            for (String campo : props.getProperty(clave).split(","))
+                if (!campo.isBlank())
+                    t.addUniqueField(campo.trim());
+        }
+    }
+}
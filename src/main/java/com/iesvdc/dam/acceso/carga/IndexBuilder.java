@@ -0,0 +1,160 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Índices únicos diferidos (deferIndexes=true): las tablas se crean sin las restricciones UNIQUE, se cargan los datos
+ * y al final, por cada campo único:
+ *   - Se buscan los valores repetidos de toda la tabla (filas nuevas y anteriores) con una sola consulta GROUP BY ({@link #verificar})
+ *   - Se crea el índice único, que el motor construye de una vez a partir de los datos ordenados ({@link #crearIndices})
+ * Mantener el índice fila a fila durante la carga cuesta bastante más que construirlo al final, y la consulta sustituye
+ * a la pasada previa de {@link DuplicateChecker} sobre el libro.
+ * También desactiva y restaura las comprobaciones de la sesión que frenan la carga ({@link Dialect#sqlDesactivarComprobaciones}).
+ * La restauración tiene que ir en un finally: las conexiones vuelven al pool y la siguiente carga heredaría la sesión.
+ * El tiempo de cada índice se anota en {@link ImportMetrics#getHistogramaIndices()}.
+ */
+public final class IndexBuilder {
+    /** Máximo de valores repetidos que se muestran por campo. */
+    private static final int MAX_DETALLE = 10;
+
+    private IndexBuilder() { }
+
+    /**
+     * Desactiva en la sesión las comprobaciones de claves únicas y ajenas, si el motor lo permite.
+     * @param conexion conexión de la carga
+     * @throws SQLException si la sentencia falla
+     */
+    public static void desactivarComprobaciones(Connection conexion) throws SQLException {
+        String sql = Dialect.of(conexion).sqlDesactivarComprobaciones();
+        if (sql == null)
+            return;
+        try (Statement st = conexion.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    /**
+     * Devuelve las comprobaciones de la sesión a su valor anterior. Los errores se informan sin lanzar excepción,
+     * para no tapar el de la carga.
+     * @param conexion conexión de la carga
+     */
+    public static void restaurarComprobaciones(Connection conexion) {
+        try {
+            String sql = Dialect.of(conexion).sqlRestaurarComprobaciones();
+            if (sql == null)
+                return;
+            try (Statement st = conexion.createStatement()) {
+                st.execute(sql);
+            }
+        } catch (SQLException e) {
+            System.err.println("No se pueden restaurar las comprobaciones de la sesión: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Busca valores repetidos en los campos únicos de las tablas, con una consulta GROUP BY por campo.
+     * Se llama antes del COMMIT cuando la transacción de la carga ve todas las filas, para poder deshacerla.
+     * @param conexion conexión con la base de datos
+     * @param tablas tablas cargadas
+     * @throws Exception con un mensaje que enumera los valores repetidos, si los hay
+     */
+    public static void verificar(Connection conexion, Collection<TableModel> tablas) throws Exception {
+        Dialect dialecto = Dialect.of(conexion);
+        List<String> conflictos = new ArrayList<>();
+        long total = 0;
+        for (TableModel tabla : tablas) {
+            for (String campo : tabla.getUniqueFields()) {
+                String sql = "SELECT " + dialecto.quote(campo) + ", COUNT(*) FROM " + dialecto.quote(tabla.getName())
+                    + " WHERE " + dialecto.quote(campo) + " IS NOT NULL GROUP BY " + dialecto.quote(campo) + " HAVING COUNT(*) > 1";
+                try (Statement st = conexion.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+                    int detalle = 0;
+                    while (rs.next()) {
+                        total++;
+                        if (detalle++ < MAX_DETALLE)
+                            conflictos.add("Tabla '" + tabla.getName() + "': " + campo + " duplicado -> '"
+                                + rs.getString(1) + "' (" + rs.getLong(2) + " filas)");
+                    }
+                }
+            }
+        }
+        if (total == 0)
+            return;
+        StringBuilder sb = new StringBuilder();
+        sb.append(total).append(" valores duplicados encontrados tras la carga:");
+        for (String c : conflictos)
+            sb.append(System.lineSeparator()).append("  ").append(c);
+        if (total > conflictos.size())
+            sb.append(System.lineSeparator()).append("  ... y ").append(total - conflictos.size()).append(" más");
+        throw new Exception(sb.toString());
+    }
+
+    /**
+     * Crea los índices únicos de las tablas que aún no tengan uno sobre el campo y confirma el DDL.
+     * @param conexion conexión con la base de datos
+     * @param tablas tablas cargadas
+     * @return número de índices creados
+     * @throws SQLException si no se puede crear algún índice
+     */
+    public static int crearIndices(Connection conexion, Collection<TableModel> tablas) throws SQLException {
+        Dialect dialecto = Dialect.of(conexion);
+        int creados = 0;
+        try (Statement st = conexion.createStatement()) {
+            for (TableModel tabla : tablas) {
+                for (String campo : tabla.getUniqueFields()) {
+                    // Una tabla creada en una carga anterior sin diferir ya tiene su restricción UNIQUE
+                    if (tieneIndiceUnico(conexion, tabla.getName(), campo))
+                        continue;
+                    long t = System.nanoTime();
+                    try {
+                        st.execute(dialecto.buildCreateUniqueIndex(tabla.getName(), campo));
+                    } catch (SQLException e) {
+                        throw new SQLException("Tabla '" + tabla.getName() + "': no se puede crear el índice único de '"
+                            + campo + "' -> " + e.getMessage(), e.getSQLState(), e);
+                    }
+                    long nanos = System.nanoTime() - t;
+                    ImportMetrics.get().getHistogramaIndices().registrar(nanos);
+                    System.out.printf("Tabla '%s': índice único de '%s' creado en %.0f ms.%n", tabla.getName(), campo, nanos / 1e6);
+                    creados++;
+                }
+            }
+        }
+        if (!conexion.getAutoCommit())
+            ImportMetrics.get().commit(conexion);
+        return creados;
+    }
+
+    /**
+     * Comprueba si algún índice único de la tabla incluye el campo. Como en {@link DuplicateChecker}, primero se busca
+     * la tabla por su nombre exacto y después con las reglas de mayúsculas del motor.
+     */
+    private static boolean tieneIndiceUnico(Connection conexion, String tabla, String campo) throws SQLException {
+        DatabaseMetaData meta = conexion.getMetaData();
+        String nombre = tabla;
+        for (int intento = 0; intento < 2; intento++) {
+            boolean hayTabla = false;
+            try (ResultSet rs = meta.getIndexInfo(conexion.getCatalog(), null, nombre, true, true)) {
+                while (rs.next()) {
+                    hayTabla = true;
+                    if (campo.equalsIgnoreCase(rs.getString("COLUMN_NAME")))
+                        return true;
+                }
+            }
+            if (hayTabla)
+                return false;
+            nombre = meta.storesUpperCaseIdentifiers() ? tabla.toUpperCase()
+                : meta.storesLowerCaseIdentifiers() ? tabla.toLowerCase() : tabla;
+        }
+        return false;
+    }
+}
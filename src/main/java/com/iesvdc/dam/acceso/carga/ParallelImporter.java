@@ -0,0 +1,291 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.iesvdc.dam.acceso.conexion.Conexion;
+import com.iesvdc.dam.acceso.excelutil.RowSource;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Importación en paralelo de las hojas de un libro: cada hoja es una tabla independiente, así que se reparte entre un
+ * grupo acotado de hilos (virtuales o de plataforma) y cada hilo la lee en streaming y la inserta con {@link TableLoader}
+ * usando su propia conexión obtenida de {@link Conexion}.
+ * La importación es de todo o nada: ningún hilo hace COMMIT por su cuenta; cuando todas las hojas han terminado bien
+ * se confirman todas las conexiones, y si alguna falla se deshacen todas (ROLLBACK).
+ * Al no ser una transacción distribuida (XA), un fallo durante la propia fase de COMMIT puede dejar confirmadas
+ * las hojas anteriores; esa fase es muy corta porque todas las inserciones ya están hechas.
+ * Con los índices diferidos, cada hilo busca los duplicados de su tabla antes del COMMIT y los índices únicos se crean
+ * después de confirmar todas las hojas ({@link IndexBuilder}).
+ * Con un fichero de rechazos ({@link #setRechazos}) todos los hilos anotan en él sus filas erróneas y siguen con las demás.
+ */
+public class ParallelImporter {
+    private final WorkbookModel modelo;
+    private final int workers;
+    private final boolean virtualThreads;
+    private final int batchSize;
+    private final BulkMode bulkMode;
+    private SchemaCache schemaCache;
+    private boolean diferirIndices;
+    private boolean desactivarComprobaciones;
+    private RejectsWriter rechazos;
+    private long presupuestoLote;
+    private long maxMsLote;
+    private long filasTotales;
+
+    /**
+     * @param modelo modelo del libro construido por {@link com.iesvdc.dam.acceso.excelutil.ExcelReader#loadWorkbook}
+     * @param workers número máximo de hojas que se cargan a la vez
+     * @param virtualThreads true para usar hilos virtuales, false para hilos de plataforma
+     * @param batchSize número de filas que se envían en cada bloque
+     * @param bulkMode mecanismo de envío de las filas
+     */
+    public ParallelImporter(WorkbookModel modelo, int workers, boolean virtualThreads, int batchSize, BulkMode bulkMode) {
+        if (workers <= 0)
+            throw new IllegalArgumentException("El número de hilos debe ser positivo: " + workers);
+        this.modelo = modelo;
+        this.workers = workers;
+        this.virtualThreads = virtualThreads;
+        this.batchSize = batchSize;
+        this.bulkMode = bulkMode;
+    }
+
+    /**
+     * Usa una caché de estructura para no repetir el CREATE TABLE de las tablas que ya se crearon en esta base de datos.
+     * @param schemaCache caché de estructura, o null para ejecutar siempre el DDL
+     */
+    public void setSchemaCache(SchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * Crea las tablas sin restricciones UNIQUE y los índices únicos cuando todas las hojas están cargadas y confirmadas.
+     * @param diferirIndices true para diferir los índices únicos
+     */
+    public void setDiferirIndices(boolean diferirIndices) {
+        this.diferirIndices = diferirIndices;
+    }
+
+    /**
+     * Desactiva las comprobaciones de claves únicas y ajenas en la sesión de cada hilo mientras carga su hoja.
+     * @param desactivarComprobaciones true para desactivarlas
+     */
+    public void setDesactivarComprobaciones(boolean desactivarComprobaciones) {
+        this.desactivarComprobaciones = desactivarComprobaciones;
+    }
+
+    /**
+     * Activa la carga tolerante en todas las hojas ({@link TableLoader#setRechazos}), compartiendo el fichero de rechazos.
+     * @param rechazos fichero de rechazos, o null para cancelar la carga en la primera fila errónea
+     */
+    public void setRechazos(RejectsWriter rechazos) {
+        this.rechazos = rechazos;
+    }
+
+    /**
+     * Activa el tamaño de bloque adaptativo en todas las hojas ({@link TableLoader#setLoteAdaptativo}). El presupuesto
+     * es por hilo: cada hoja tiene su bloque y su conexión.
+     * @param presupuestoBytes memoria que puede ocupar el bloque pendiente de cada hilo, o 0 para usar siempre batchSize
+     * @param maxMs latencia máxima de un envío antes de reducir el bloque, o 0 para no limitarla
+     */
+    public void setLoteAdaptativo(long presupuestoBytes, long maxMs) {
+        this.presupuestoLote = presupuestoBytes;
+        this.maxMsLote = maxMs;
+    }
+
+    public long getFilasTotales() {
+        return filasTotales;
+    }
+
+    /**
+     * Carga todas las hojas del fichero en paralelo y confirma o deshace todas a la vez.
+     * Cada hoja guarda su conexión hasta el COMMIT final, así que hacen falta tantas conexiones como hojas: si el pool
+     * no las admite, la carga falla antes de empezar en lugar de esperar una conexión que no va a quedar libre.
+     * @param filename ruta del archivo de entrada (.xlsx, .xls, .ods o .csv)
+     * @throws Exception con el primer error producido si alguna hoja falla (todo se deshace)
+     */
+    public void importar(String filename) throws Exception {
+        List<TableModel> tablas = modelo.getTables();
+        int maxConexiones = Conexion.getMaxConexiones();
+        if (tablas.size() > maxConexiones)
+            throw new SQLException("La carga en paralelo necesita una conexión por hoja hasta el COMMIT final: el libro tiene "
+                + tablas.size() + " hojas y el pool admite " + maxConexiones + " conexiones. Aumenta poolMaxSize o usa workers=1.");
+        List<HojaTask> tareas = new ArrayList<>();
+        AtomicBoolean abortado = new AtomicBoolean(false);
+
+        ExecutorService pool = virtualThreads
+            ? Executors.newFixedThreadPool(workers, Thread.ofVirtual().name("hoja-", 0).factory())
+            : Executors.newFixedThreadPool(workers);
+        Exception error = null;
+        try {
+            CompletionService<Long> resultados = new ExecutorCompletionService<>(pool);
+            for (int i = 0; i < tablas.size(); i++) {
+                HojaTask tarea = new HojaTask(filename, i, abortado);
+                tareas.add(tarea);
+                resultados.submit(tarea::cargar);
+            }
+            // Los resultados se recogen en orden de terminación para detectar el primer fallo cuanto antes
+            filasTotales = 0;
+            for (int i = 0; i < tareas.size(); i++) {
+                try {
+                    filasTotales += resultados.take().get();
+                } catch (ExecutionException e) {
+                    // Se avisa al resto de hilos para que dejen de leer cuanto antes
+                    abortado.set(true);
+                    // Cualquier fallo deshace la carga, también un Error (OutOfMemoryError, StackOverflowError...)
+                    if (error == null)
+                        error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (error == null)
+            error = confirmar(tareas);
+        else
+            deshacer(tareas);
+        if (error == null && diferirIndices)
+            error = crearIndices(tareas);
+        cerrar(tareas);
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Fase de COMMIT coordinada: se confirman todas las conexiones; si alguna falla, se deshacen las que quedan.
+     */
+    private Exception confirmar(List<HojaTask> tareas) {
+        System.out.println("Todas las hojas cargadas, aplicando COMMIT en " + tareas.size() + " conexiones...");
+        for (int i = 0; i < tareas.size(); i++) {
+            try {
+                ImportMetrics.get().commit(tareas.get(i).conexion);
+            } catch (SQLException e) {
+                System.err.println("Error en el COMMIT de la hoja " + i + ", se deshacen las restantes.");
+                deshacer(tareas.subList(i, tareas.size()));
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Crea los índices únicos de cada tabla con la conexión que la ha cargado, ya confirmada.
+     */
+    private Exception crearIndices(List<HojaTask> tareas) {
+        for (HojaTask t : tareas) {
+            try {
+                IndexBuilder.crearIndices(t.conexion, List.of(modelo.getTables().get(t.indice)));
+            } catch (SQLException e) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private void deshacer(List<HojaTask> tareas) {
+        for (HojaTask t : tareas) {
+            if (t.conexion == null)
+                continue;
+            try {
+                t.conexion.rollback();
+            } catch (SQLException e) {
+                System.err.println("Error en el ROLLBACK: " + e.getMessage());
+            }
+        }
+    }
+
+    private void cerrar(List<HojaTask> tareas) {
+        for (HojaTask t : tareas) {
+            if (t.conexion == null)
+                continue;
+            try {
+                if (desactivarComprobaciones)
+                    IndexBuilder.restaurarComprobaciones(t.conexion);
+                t.conexion.setAutoCommit(true);
+                t.conexion.close();
+            } catch (SQLException e) {
+                System.err.println("Error al cerrar la conexión: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Trabajo de un hilo: carga una hoja con su propia conexión, sin hacer COMMIT.
+     */
+    private class HojaTask {
+        private final String filename;
+        private final int indice;
+        private final AtomicBoolean abortado;
+        private Connection conexion;
+
+        HojaTask(String filename, int indice, AtomicBoolean abortado) {
+            this.filename = filename;
+            this.indice = indice;
+            this.abortado = abortado;
+        }
+
+        long cargar() throws Exception {
+            conexion = Conexion.getConnection();
+            if (conexion == null)
+                throw new SQLException("Imposible conectar a la base de datos para la hoja " + indice);
+            Conexion.beginTransaction(conexion);
+            if (desactivarComprobaciones)
+                IndexBuilder.desactivarComprobaciones(conexion);
+
+            RowSource lector = RowSource.of(filename);
+            TableModel tabla = modelo.getTables().get(indice);
+            if (!diferirIndices && rechazos == null && !tabla.getUniqueFields().isEmpty()) {
+                DuplicateChecker duplicados = new DuplicateChecker(conexion, modelo);
+                lector.process(filename, indice, vigilar(duplicados));
+                duplicados.verificar();
+            }
+            TableLoader loader = new TableLoader(conexion, modelo, batchSize, CommitMode.NONE, bulkMode);
+            loader.setSchemaCache(schemaCache);
+            loader.setDiferirIndices(diferirIndices);
+            loader.setRechazos(rechazos);
+            loader.setLoteAdaptativo(presupuestoLote, maxMsLote);
+            lector.process(filename, indice, vigilar(loader));
+            // La transacción de este hilo ve todas las filas de su tabla: los duplicados aún se pueden deshacer
+            if (diferirIndices)
+                IndexBuilder.verificar(conexion, List.of(tabla));
+            return loader.getFilasTotales();
+        }
+
+        /**
+         * Envuelve el receptor para que deje de procesar filas si otro hilo ha fallado.
+         */
+        private SheetRowHandler vigilar(SheetRowHandler handler) {
+            return new SheetRowHandler() {
+                @Override
+                public void startSheet(int index, String name) throws Exception {
+                    handler.startSheet(index, name);
+                }
+
+                @Override
+                public void row(SheetRow row) throws Exception {
+                    if (abortado.get())
+                        throw new InterruptedException("Hoja '" + modelo.getTables().get(indice).getName() + "' cancelada por un error en otra hoja");
+                    handler.row(row);
+                }
+
+                @Override
+                public void endSheet() throws Exception {
+                    handler.endSheet();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.iesvdc.dam.acceso.conexion.Conexion;
+import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+import com.iesvdc.dam.acceso.excelutil.FileFormat;
+import com.iesvdc.dam.acceso.excelutil.RawBlockHandler;
+import com.iesvdc.dam.acceso.excelutil.RawRowBlock;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.excelutil.StreamingExcelReader;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Carga en tubería (productor/consumidor) que separa la lectura del Excel de la escritura en la base de datos:
+ *   - El hilo que llama a {@link #cargar} lee el libro y agrupa las filas en lotes de {@code batchSize} filas
+ *   - Los lotes pasan por una cola acotada de {@code queueDepth} lotes: si los escritores no dan abasto, el lector espera
+ *   - Uno o varios hilos escritores, cada uno con su propia conexión, toman lotes de la cola y los envían ({@link RowWriter})
+ * Así, mientras POI descomprime y analiza el XML, la base de datos está insertando el lote anterior, y el tiempo total
+ * lo marca la etapa más lenta y no la suma de las dos. Los lotes van por columnas ({@link ColumnarBatch}): el lector convierte
+ * cada celda al tipo de su campo y los escritores leen arrays de primitivos; se reciclan con un {@link ColumnarBatchPool}
+ * para que la lectura no genere basura.
+ * Con {@link CommitMode#CHUNK} cada escritor confirma cada lote; en otro caso todos los escritores confirman a la vez
+ * al final, o deshacen todo si algo falla (como {@link ParallelImporter}). Con varios escritores las filas de una hoja
+ * pueden insertarse en otro orden.
+ * Con varios decodificadores ({@link #setDecodificadores}) el lector solo analiza el XML y copia las filas en bruto
+ * ({@link RawRowBlock}); la decodificación de las celdas, la conversión a los tipos de las columnas y su validación se reparten
+ * por bloques entre los hilos de un pool fork-join, así que una sola hoja enorme usa todos los núcleos. Los lotes convertidos
+ * se ponen en la cola en el orden de la hoja, y si hay filas con datos no válidos se informa de la primera de la hoja.
+ * Con los índices diferidos, los duplicados se buscan y los índices únicos se crean tras el COMMIT ({@link IndexBuilder}):
+ * cada escritor tiene su transacción y ninguna ve todas las filas antes de confirmar.
+ */
+public class PipelineLoader {
+    private final WorkbookModel modelo;
+    private final int batchSize;
+    private final int queueDepth;
+    private final int escritores;
+    private final CommitMode commitMode;
+    private final BulkMode bulkMode;
+    private SchemaCache schemaCache;
+    private boolean diferirIndices;
+    private boolean desactivarComprobaciones;
+    private int decodificadores = 1;
+
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+    private final AtomicLong filasTotales = new AtomicLong();
+    private final AtomicLong esperaEscritoresNanos = new AtomicLong();
+    private long esperaLectorNanos;
+
+    /** Marca de fin para los escritores. */
+    private static final ColumnarBatch FIN = new ColumnarBatch(new TableModel(), 0);
+
+    /**
+     * @param modelo modelo del libro construido por {@link ExcelReader#loadWorkbook}
+     * @param batchSize filas por lote
+     * @param queueDepth lotes que caben en la cola entre el lector y los escritores
+     * @param escritores número de hilos escritores, cada uno con su conexión
+     * @param commitMode {@link CommitMode#CHUNK} para confirmar cada lote; cualquier otro, para confirmar todo al final
+     * @param bulkMode mecanismo de envío de las filas
+     */
+    public PipelineLoader(WorkbookModel modelo, int batchSize, int queueDepth, int escritores, CommitMode commitMode, BulkMode bulkMode) {
+        if (batchSize <= 0 || queueDepth <= 0 || escritores <= 0)
+            throw new IllegalArgumentException("Parámetros de la tubería no válidos: batchSize=" + batchSize
+                + ", queueDepth=" + queueDepth + ", escritores=" + escritores);
+        this.modelo = modelo;
+        this.batchSize = batchSize;
+        this.queueDepth = queueDepth;
+        this.escritores = escritores;
+        this.commitMode = commitMode;
+        this.bulkMode = bulkMode;
+    }
+
+    /**
+     * Usa una caché de estructura para no repetir el CREATE TABLE de las tablas que ya se crearon en esta base de datos.
+     * @param schemaCache caché de estructura, o null para ejecutar siempre el DDL
+     */
+    public void setSchemaCache(SchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * Crea las tablas sin restricciones UNIQUE y los índices únicos después de confirmar la carga.
+     * @param diferirIndices true para diferir los índices únicos
+     */
+    public void setDiferirIndices(boolean diferirIndices) {
+        this.diferirIndices = diferirIndices;
+    }
+
+    /**
+     * Desactiva las comprobaciones de claves únicas y ajenas en la sesión de cada escritor mientras dura la carga.
+     * @param desactivarComprobaciones true para desactivarlas
+     */
+    public void setDesactivarComprobaciones(boolean desactivarComprobaciones) {
+        this.desactivarComprobaciones = desactivarComprobaciones;
+    }
+
+    /**
+     * Reparte la decodificación y la conversión de las filas entre varios hilos. Solo se aplica con el lector en streaming.
+     * @param decodificadores número de hilos; 1 para hacerlo todo en el hilo lector
+     */
+    public void setDecodificadores(int decodificadores) {
+        if (decodificadores <= 0)
+            throw new IllegalArgumentException("El número de decodificadores debe ser positivo: " + decodificadores);
+        this.decodificadores = decodificadores;
+    }
+
+    public long getFilasTotales() {
+        return filasTotales.get();
+    }
+
+    /**
+     * Carga todas las hojas del fichero.
+     * @param reader lector del libro (streaming o dom)
+     * @param filename ruta del archivo de entrada (.xlsx, .xls, .ods o .csv)
+     * @throws Exception con el primer error producido (lo no confirmado se deshace)
+     */
+    public void cargar(ExcelReader reader, String filename) throws Exception {
+        BlockingQueue<ColumnarBatch> cola = new ArrayBlockingQueue<>(queueDepth);
+        ColumnarBatchPool libres = new ColumnarBatchPool(modelo, batchSize, queueDepth + escritores + 1);
+        List<Connection> conexiones = new ArrayList<>();
+        List<Thread> hilos = new ArrayList<>();
+        try {
+            for (int i = 0; i < escritores; i++) {
+                Connection conexion = Conexion.getConnection();
+                if (conexion == null)
+                    throw new SQLException("Imposible conectar a la base de datos");
+                conexiones.add(conexion);
+                Conexion.beginTransaction(conexion);
+                if (desactivarComprobaciones)
+                    IndexBuilder.desactivarComprobaciones(conexion);
+            }
+            crearTablas(conexiones.get(0));
+
+            for (int i = 0; i < escritores; i++) {
+                Connection conexion = conexiones.get(i);
+                Thread hilo = new Thread(() -> escribir(conexion, cola, libres), "pipeline-escritor-" + i);
+                hilos.add(hilo);
+                hilo.start();
+            }
+
+            boolean xlsx = FileFormat.detectar(filename) == FileFormat.XLSX;
+            if (decodificadores > 1 && reader.isStreaming() && xlsx) {
+                try (LectorParalelo lector = new LectorParalelo(cola, libres)) {
+                    new StreamingExcelReader().processBloques(filename, lector);
+                } catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+            } else {
+                if (decodificadores > 1)
+                    System.out.println("La decodificación en paralelo necesita un .xlsx y readMode=streaming: se decodifica en el hilo lector.");
+                try {
+                    reader.readRows(filename, new Lector(cola, libres));
+                } catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+            terminar(cola, libres, hilos);
+            for (Thread hilo : hilos)
+                hilo.join();
+
+            if (error.get() == null) {
+                confirmar(conexiones);
+                if (diferirIndices)
+                    crearIndices(conexiones.get(0));
+            } else {
+                deshacer(conexiones);
+            }
+        } catch (Exception e) {
+            error.compareAndSet(null, e);
+            // Los escritores usan las conexiones: hay que esperarlos antes del ROLLBACK y de cerrarlas
+            for (Thread hilo : hilos)
+                hilo.interrupt();
+            esperar(hilos);
+            deshacer(conexiones);
+        } finally {
+            for (Connection conexion : conexiones) {
+                if (desactivarComprobaciones)
+                    IndexBuilder.restaurarComprobaciones(conexion);
+                cerrar(conexion);
+            }
+        }
+        System.out.printf("Tubería: lector esperando %.0f ms a la cola llena, escritores esperando %.0f ms a la cola vacía. %s%n",
+            esperaLectorNanos / 1e6, esperaEscritoresNanos.get() / 1e6, libres);
+        if (error.get() != null)
+            throw error.get();
+    }
+
+    /**
+     * Las tablas se crean antes de arrancar los escritores; en MySQL el DDL hace COMMIT implícito, así que se confirma aparte.
+     */
+    private void crearTablas(Connection conexion) throws SQLException {
+        try (Statement st = conexion.createStatement()) {
+            for (TableModel tabla : modelo.getTables())
+                TableLoader.crearTabla(st, tabla, !diferirIndices, schemaCache);
+        }
+        conexion.commit();
+    }
+
+    /**
+     * Mete un lote en la cola, esperando si está llena, salvo que algún escritor haya fallado.
+     */
+    private void poner(BlockingQueue<ColumnarBatch> cola, ColumnarBatch lote) throws Exception {
+        long inicio = System.nanoTime();
+        try {
+            while (!cola.offer(lote, 100, TimeUnit.MILLISECONDS)) {
+                if (error.get() != null)
+                    throw new Exception("Carga interrumpida por un error en la escritura", error.get());
+            }
+        } finally {
+            esperaLectorNanos += System.nanoTime() - inicio;
+        }
+    }
+
+    /**
+     * Pone una marca de fin por escritor. Si algo ha fallado, los lotes que quedan en la cola ya no se van a escribir:
+     * se sacan (devolviéndolos al pool) para que las marcas quepan aunque algún escritor haya terminado y ya no la vacíe.
+     * Las marcas que salen con ellos se vuelven a poner; si no queda ningún escritor vivo, ya no hace falta ninguna.
+     */
+    private void terminar(BlockingQueue<ColumnarBatch> cola, ColumnarBatchPool libres, List<Thread> hilos) throws InterruptedException {
+        int pendientes = hilos.size();
+        long inicio = System.nanoTime();
+        try {
+            while (pendientes > 0) {
+                if (cola.offer(FIN, 100, TimeUnit.MILLISECONDS)) {
+                    pendientes--;
+                    continue;
+                }
+                if (error.get() == null)
+                    continue;
+                List<ColumnarBatch> sacados = new ArrayList<>();
+                cola.drainTo(sacados);
+                for (ColumnarBatch lote : sacados) {
+                    if (lote == FIN)
+                        pendientes++;
+                    else
+                        libres.devolver(lote);
+                }
+                if (hilos.stream().noneMatch(Thread::isAlive))
+                    return;
+            }
+        } finally {
+            esperaLectorNanos += System.nanoTime() - inicio;
+        }
+    }
+
+    /**
+     * Espera a que terminen los escritores aunque el hilo que espera reciba una interrupción (que se conserva).
+     */
+    private static void esperar(List<Thread> hilos) {
+        boolean interrumpido = false;
+        for (Thread hilo : hilos) {
+            while (hilo.isAlive()) {
+                try {
+                    hilo.join();
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+        }
+        if (interrumpido)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Productor: guarda las filas de datos de cada hoja en lotes por columnas y los envía a la cola.
+     */
+    private class Lector implements SheetRowHandler {
+        private final BlockingQueue<ColumnarBatch> cola;
+        private final ColumnarBatchPool libres;
+        private ColumnarBatch actual;
+        private TableModel tabla;
+        private boolean cabecera;
+
+        Lector(BlockingQueue<ColumnarBatch> cola, ColumnarBatchPool libres) {
+            this.cola = cola;
+            this.libres = libres;
+        }
+
+        @Override
+        public void startSheet(int index, String name) throws SQLException {
+            if (!modelo.getTables().get(index).getName().equals(name))
+                throw new SQLException("La hoja '" + name + "' no coincide con la tabla del modelo '" + modelo.getTables().get(index).getName() + "'");
+            tabla = modelo.getTables().get(index);
+            cabecera = true;
+        }
+
+        @Override
+        public void row(SheetRow row) throws Exception {
+            // La primera fila de cada hoja son las cabeceras
+            if (cabecera) {
+                cabecera = false;
+                return;
+            }
+            if (actual == null)
+                actual = libres.tomar(tabla);
+            actual.add(row);
+            if (actual.isLleno())
+                enviar();
+        }
+
+        @Override
+        public void endSheet() throws Exception {
+            enviar();
+        }
+
+        private void enviar() throws Exception {
+            if (actual == null)
+                return;
+            ColumnarBatch lote = actual;
+            actual = null;
+            poner(cola, lote);
+        }
+    }
+
+    /**
+     * Productor con decodificación en paralelo: cada bloque de filas en bruto se convierte en un lote por columnas en un hilo
+     * del pool, y los lotes se recogen y se ponen en la cola en el mismo orden en que se leyeron los bloques.
+     * Como mucho hay dos bloques por decodificador en curso; el lector espera al más antiguo antes de leer más.
+     */
+    private class LectorParalelo implements RawBlockHandler, AutoCloseable {
+        private final BlockingQueue<ColumnarBatch> cola;
+        private final ColumnarBatchPool libres;
+        private final ExecutorService pool = Executors.newWorkStealingPool(decodificadores);
+        private final BlockingQueue<RawRowBlock> brutos = new ArrayBlockingQueue<>(2 * decodificadores + 1);
+        private final Deque<Future<ColumnarBatch>> enCurso = new ArrayDeque<>();
+        private TableModel tabla;
+        private boolean cabecera;
+
+        LectorParalelo(BlockingQueue<ColumnarBatch> cola, ColumnarBatchPool libres) {
+            this.cola = cola;
+            this.libres = libres;
+        }
+
+        @Override
+        public void startSheet(int index, String name) throws SQLException {
+            if (!modelo.getTables().get(index).getName().equals(name))
+                throw new SQLException("La hoja '" + name + "' no coincide con la tabla del modelo '" + modelo.getTables().get(index).getName() + "'");
+            tabla = modelo.getTables().get(index);
+            cabecera = true;
+        }
+
+        @Override
+        public RawRowBlock bloqueLibre() {
+            RawRowBlock bloque = brutos.poll();
+            return bloque != null ? bloque : new RawRowBlock(batchSize);
+        }
+
+        @Override
+        public void bloque(RawRowBlock bloque) throws Exception {
+            if (bloque.size() == 0) {
+                brutos.offer(bloque);
+                return;
+            }
+            // La primera fila de cada hoja son las cabeceras
+            int desde = cabecera ? 1 : 0;
+            cabecera = false;
+            TableModel destino = tabla;
+            enCurso.add(pool.submit(() -> convertir(destino, bloque, desde)));
+            while (enCurso.size() > 2 * decodificadores)
+                entregar(enCurso.poll());
+        }
+
+        @Override
+        public void endSheet() throws Exception {
+            while (!enCurso.isEmpty())
+                entregar(enCurso.poll());
+        }
+
+        /**
+         * Trabajo de un hilo del pool: decodifica las filas del bloque y las guarda en un lote por columnas.
+         */
+        private ColumnarBatch convertir(TableModel destino, RawRowBlock bloque, int desde) throws Exception {
+            SheetRow fila = new SheetRow();
+            ColumnarBatch lote = libres.tomar(destino);
+            try {
+                for (int i = desde; i < bloque.size(); i++) {
+                    bloque.decodificar(i, fila);
+                    lote.add(fila);
+                }
+                return lote;
+            } catch (Exception e) {
+                libres.devolver(lote);
+                throw e;
+            } finally {
+                bloque.clear();
+                brutos.offer(bloque);
+            }
+        }
+
+        /**
+         * Espera al bloque más antiguo y pone su lote en la cola; si su conversión ha fallado, lanza ese error.
+         */
+        private void entregar(Future<ColumnarBatch> pendiente) throws Exception {
+            ColumnarBatch lote;
+            try {
+                lote = pendiente.get();
+            } catch (ExecutionException e) {
+                Throwable causa = e.getCause();
+                // Según la versión del JDK, el pool fork-join envuelve las excepciones comprobadas en una RuntimeException
+                // (y al pasarlas al hilo que espera puede volver a envolverlas)
+                while (causa != null && causa.getClass() == RuntimeException.class && causa.getCause() instanceof Exception)
+                    causa = causa.getCause();
+                throw causa instanceof Exception ? (Exception) causa : e;
+            }
+            if (lote.size() == 0)
+                libres.devolver(lote);
+            else
+                poner(cola, lote);
+        }
+
+        /**
+         * Cancela los bloques que queden en curso (si la lectura se ha interrumpido) y cierra el pool.
+         */
+        @Override
+        public void close() {
+            for (Future<ColumnarBatch> pendiente : enCurso)
+                pendiente.cancel(true);
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Consumidor: envía los lotes de la cola con un destino por tabla, hasta recibir la marca de fin.
+     */
+    private void escribir(Connection conexion, BlockingQueue<ColumnarBatch> cola, ColumnarBatchPool libres) {
+        Map<TableModel, RowWriter> writers = new IdentityHashMap<>();
+        try {
+            while (true) {
+                long inicio = System.nanoTime();
+                ColumnarBatch lote = cola.take();
+                esperaEscritoresNanos.addAndGet(System.nanoTime() - inicio);
+                if (lote == FIN)
+                    break;
+                if (error.get() == null) {
+                    RowWriter writer = writers.get(lote.getTabla());
+                    if (writer == null) {
+                        writer = TableLoader.crearWriter(conexion, lote.getTabla(), bulkMode, batchSize);
+                        writers.put(lote.getTabla(), writer);
+                    }
+                    writer.write(lote);
+                    writer.flush();
+                    if (commitMode == CommitMode.CHUNK)
+                        ImportMetrics.get().commit(conexion);
+                    filasTotales.addAndGet(lote.size());
+                }
+                libres.devolver(lote);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // También un Error (OutOfMemoryError, ...): si no se anota, el lector espera para siempre a la cola llena
+            // o la carga se confirma sin las filas de este escritor
+            error.compareAndSet(null, e instanceof Exception ? (Exception) e : new Exception("Error en un escritor de la tubería: " + e, e));
+        } finally {
+            for (RowWriter writer : writers.values()) {
+                try {
+                    writer.close();
+                } catch (Exception e) {
+                    System.err.println("Error al cerrar un destino de filas: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void confirmar(List<Connection> conexiones) throws SQLException {
+        for (Connection conexion : conexiones)
+            ImportMetrics.get().commit(conexion);
+        System.out.println("Tubería: " + filasTotales.get() + " filas cargadas con " + escritores + " escritores, COMMIT realizado.");
+    }
+
+    /**
+     * Busca los duplicados y crea los índices únicos de todas las tablas, con los datos ya confirmados.
+     */
+    private void crearIndices(Connection conexion) throws Exception {
+        try {
+            IndexBuilder.verificar(conexion, modelo.getTables());
+        } catch (Exception e) {
+            System.err.println("Los datos ya están confirmados: las tablas quedan sin índice único hasta corregir los duplicados.");
+            throw e;
+        }
+        IndexBuilder.crearIndices(conexion, modelo.getTables());
+    }
+
+    private static void deshacer(List<Connection> conexiones) {
+        for (Connection conexion : conexiones) {
+            try {
+                conexion.rollback();
+            } catch (SQLException e) {
+                System.err.println("Error en el ROLLBACK: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void cerrar(Connection conexion) {
+        try {
+            conexion.setAutoCommit(true);
+            conexion.close();
+        } catch (SQLException e) {
+            System.err.println("Error al cerrar la conexión: " + e.getMessage());
+        }
+    }
+}
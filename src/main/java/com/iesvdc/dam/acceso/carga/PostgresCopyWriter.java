@@ -0,0 +1,73 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Destino que carga las filas con COPY ... FROM STDIN de PostgreSQL, su mecanismo de carga masiva: las filas viajan
+ * como un único flujo de texto en lugar de un INSERT por fila. Usa el mismo TSV en memoria que {@link LocalInfileWriter}
+ * ({@link TsvBulkWriter}), que coincide con el formato de texto por defecto de COPY, y lo entrega con el {@link CopyManager} del driver.
+ * A diferencia de LOAD DATA LOCAL, un error en cualquier fila aborta el COPY entero.
+ * PostgreSQL no guarda el carácter NUL en un texto de ninguna forma (tampoco escapado), así que se quita de los textos.
+ */
+public class PostgresCopyWriter extends TsvBulkWriter {
+    private final CopyManager copia;
+    private final String sql;
+
+    /**
+     * @param conexion conexión con una base de datos PostgreSQL
+     * @param tabla modelo de la tabla destino (ya creada)
+     * @param batchSize filas por bloque, para dimensionar el buffer inicial
+     * @throws SQLException si la conexión no es del driver de PostgreSQL
+     */
+    public PostgresCopyWriter(Connection conexion, TableModel tabla, int batchSize) throws SQLException {
+        super(tabla, batchSize);
+        this.copia = conexion.unwrap(PGConnection.class).getCopyAPI();
+        this.sql = buildCopy(tabla);
+    }
+
+    /**
+     * Comprueba si la conexión es del driver de PostgreSQL (directa o a través del pool).
+     * @param conexion conexión con la base de datos
+     * @return true si se puede usar COPY
+     */
+    public static boolean disponible(Connection conexion) {
+        try {
+            return conexion.isWrapperFor(PGConnection.class);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Genera la sentencia COPY para el formato TSV que produce este destino.
+     * @param tabla modelo de la tabla destino
+     * @return la sentencia COPY ... FROM STDIN
+     */
+    static String buildCopy(TableModel tabla) {
+        Dialect postgres = Dialect.of("PostgreSQL");
+        return "COPY " + postgres.quote(tabla.getName()) + " (" + postgres.listaColumnas(Dialect.nombres(tabla)) + ") FROM STDIN";
+    }
+
+    @Override
+    protected boolean admiteNul() {
+        return false;
+    }
+
+    @Override
+    protected long cargar(byte[] datos, int longitud) throws SQLException {
+        try {
+            return copia.copyIn(sql, new ByteArrayInputStream(datos, 0, longitud));
+        } catch (IOException e) {
+            throw new SQLException("Error enviando el COPY de '" + tabla.getName() + "': " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+
+/**
+ * Fichero de filas rechazadas de la carga tolerante (errorBudget distinto de 0): en vez de cancelar la carga en la
+ * primera fila errónea, cada fila que no se puede insertar se anota aquí con su hoja, su número de fila, el motivo
+ * y los valores originales de sus celdas, y la carga sigue con las demás.
+ * El formato depende de la extensión: CSV (UTF-8, separado por comas) o, si acaba en .xlsx, un libro Excel escrito en
+ * streaming con {@link SXSSFWorkbook}. En ambos casos las filas se van volcando y la memoria no crece con los rechazos.
+ * Si en el libro no caben en una hoja, se siguen escribiendo en otra ("rechazos (2)", ...), como en la exportación.
+ * Cuando se supera el máximo de filas rechazadas, {@link #rechazar} lanza una excepción y la carga se cancela como antes.
+ * Se puede compartir entre varios hilos: los métodos están sincronizados.
+ */
+public class RejectsWriter implements AutoCloseable {
+    /** Filas del libro Excel que se mantienen en memoria. */
+    private static final int VENTANA = 100;
+    private static final String[] CABECERA = { "hoja", "fila", "motivo" };
+    /** Filas de datos por hoja del libro (la primera fila de cada hoja es la cabecera). */
+    private static final int MAX_FILAS = SpreadsheetVersion.EXCEL2007.getMaxRows() - 1;
+
+    private final String fichero;
+    private final long maxRechazos;
+    private final Writer csv;
+    private final SXSSFWorkbook libro;
+    private SXSSFSheet hoja;
+    private int parte;
+    private int numFila;
+    private long rechazadas;
+
+    /**
+     * @param fichero ruta del fichero de rechazos, que se sobrescribe (.xlsx para Excel, cualquier otra para CSV)
+     * @param maxRechazos máximo de filas rechazadas antes de cancelar la carga, o negativo para no poner límite
+     * @throws IOException si no se puede crear el fichero
+     */
+    public RejectsWriter(String fichero, long maxRechazos) throws IOException {
+        this.fichero = fichero;
+        this.maxRechazos = maxRechazos;
+        if (fichero.toLowerCase().endsWith(".xlsx")) {
+            csv = null;
+            libro = new SXSSFWorkbook(VENTANA);
+            libro.setCompressTempFiles(true);
+            nuevaHoja();
+        } else {
+            libro = null;
+            hoja = null;
+            csv = Files.newBufferedWriter(Paths.get(fichero), StandardCharsets.UTF_8);
+            csv.write(String.join(",", CABECERA));
+            csv.write("\r\n");
+        }
+    }
+
+    public String getFichero() {
+        return fichero;
+    }
+
+    /**
+     * @return filas rechazadas hasta ahora
+     */
+    public synchronized long getRechazadas() {
+        return rechazadas;
+    }
+
+    /**
+     * Anota una fila rechazada con los valores de sus celdas.
+     * @param tabla nombre de la hoja o tabla de la fila
+     * @param row fila rechazada
+     * @param motivo causa del rechazo
+     * @throws Exception si se supera el máximo de filas rechazadas, o si no se puede escribir el fichero
+     */
+    public synchronized void rechazar(String tabla, SheetRow row, String motivo) throws Exception {
+        rechazadas++;
+        ImportMetrics.get().addFilasRechazadas(1);
+        if (csv != null) {
+            csv.write(campoCsv(tabla));
+            csv.write(',');
+            csv.write(Integer.toString(row.getRowNum() + 1));
+            csv.write(',');
+            csv.write(campoCsv(motivo));
+            for (int j = 0; j < row.size(); j++) {
+                csv.write(',');
+                csv.write(campoCsv(row.get(j).asString()));
+            }
+            csv.write("\r\n");
+        } else {
+            if (numFila == MAX_FILAS)
+                nuevaHoja();
+            Row fila = hoja.createRow(++numFila);
+            fila.createCell(0).setCellValue(tabla);
+            fila.createCell(1).setCellValue(row.getRowNum() + 1);
+            fila.createCell(2).setCellValue(motivo);
+            for (int j = 0; j < row.size(); j++) {
+                if (!row.get(j).isBlank())
+                    fila.createCell(CABECERA.length + j).setCellValue(row.get(j).asString());
+            }
+        }
+        if (maxRechazos >= 0 && rechazadas > maxRechazos)
+            throw new Exception("Se han rechazado más de " + maxRechazos + " filas (errorBudget), se cancela la carga. Última: hoja '"
+                + tabla + "', fila " + (row.getRowNum() + 1) + ": " + motivo);
+    }
+
+    /**
+     * Cierra el fichero; el libro Excel se escribe en este momento.
+     * @throws IOException si no se puede escribir
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (csv != null) {
+            csv.close();
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(fichero)) {
+            libro.write(out);
+        } finally {
+            // close() también borra los ficheros temporales de las hojas
+            libro.close();
+        }
+    }
+
+    /** Empieza una hoja de rechazos con su cabecera. */
+    private void nuevaHoja() {
+        parte++;
+        hoja = libro.createSheet(parte == 1 ? "rechazos" : "rechazos (" + parte + ")");
+        Row cabecera = hoja.createRow(0);
+        for (int j = 0; j < CABECERA.length; j++)
+            cabecera.createCell(j).setCellValue(CABECERA[j]);
+        numFila = 0;
+    }
+
+    /** Entrecomilla el campo si contiene comas, comillas o saltos de línea, doblando las comillas. */
+    private static String campoCsv(String valor) {
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0)
+            return valor;
+        return '"' + valor.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,206 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import com.iesvdc.dam.acceso.excelutil.CellAccessor;
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Asigna los valores de una fila a los parámetros del INSERT de una tabla sin decidir en cada celda qué setter usar.
+ * Al crearlo se recorre una sola vez el {@link TableModel} y, para cada campo, se elige el método de su tipo
+ * (setLong, setDouble, setTimestamp, ...) con el índice del parámetro y la columna ya fijados ({@link MethodHandles#insertArguments});
+ * los métodos de todas las columnas se encadenan en uno solo ({@link MethodHandles#foldArguments}) que recibe la sentencia y la fila.
+ * Así el setter de cada columna se elige una vez por tabla y el bucle de la carga no tiene un switch por celda.
+ * La cadena se guarda en un campo de la instancia, no en una constante, por lo que no hay garantía de que el JIT
+ * ponga los setters en línea: la llamada pasa por {@link MethodHandle#invokeExact} en cada fila.
+ * Las celdas vacías se guardan como NULL con el tipo JDBC del campo.
+ */
+public final class RowBinder {
+    private static final MethodType CELDA = MethodType.methodType(void.class, PreparedStatement.class, int.class, CellValue.class);
+    private static final MethodType COLUMNA = MethodType.methodType(void.class, PreparedStatement.class, int.class, int.class, ColumnarBatch.class, int.class);
+    private static final MethodHandle GET_CELDA;
+
+    static {
+        try {
+            GET_CELDA = MethodHandles.publicLookup().findVirtual(SheetRow.class, "get", MethodType.methodType(CellValue.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** (PreparedStatement, SheetRow) → void */
+    private final MethodHandle fila;
+    /** (PreparedStatement, ColumnarBatch, int fila) → void */
+    private final MethodHandle lote;
+
+    /**
+     * Genera las funciones de asignación de una tabla.
+     * @param tabla modelo de la tabla; los parámetros del INSERT van en el orden de sus campos
+     */
+    public RowBinder(TableModel tabla) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<FieldModel> campos = tabla.getFields();
+        MethodHandle cadenaFila = MethodHandles.empty(MethodType.methodType(void.class, PreparedStatement.class, SheetRow.class));
+        MethodHandle cadenaLote = MethodHandles.empty(MethodType.methodType(void.class, PreparedStatement.class, ColumnarBatch.class, int.class));
+        try {
+            // Se encadena de la última columna a la primera: foldArguments ejecuta antes la columna añadida
+            for (int j = campos.size() - 1; j >= 0; j--) {
+                FieldType tipo = campos.get(j).getType();
+                MethodHandle celda = lookup.findStatic(RowBinder.class, "poner" + sufijo(tipo), CELDA);
+                // (ps, idx, celda) → (ps, celda) → (ps, fila)
+                celda = MethodHandles.insertArguments(celda, 1, j + 1);
+                celda = MethodHandles.filterArguments(celda, 1, MethodHandles.insertArguments(GET_CELDA, 1, j));
+                cadenaFila = MethodHandles.foldArguments(cadenaFila, celda);
+
+                MethodHandle columna = lookup.findStatic(RowBinder.class, "poner" + sufijo(tipo), COLUMNA);
+                // (ps, idx, col, lote, fila) → (ps, lote, fila)
+                columna = MethodHandles.insertArguments(columna, 1, j + 1, j);
+                cadenaLote = MethodHandles.foldArguments(cadenaLote, columna);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se puede generar la asignación de la tabla '" + tabla.getName() + "'", e);
+        }
+        this.fila = cadenaFila;
+        this.lote = cadenaLote;
+    }
+
+    /**
+     * Asigna las celdas de una fila a los parámetros del INSERT, leyendo el valor nativo de cada una con {@link CellAccessor}
+     * y sin convertirlo antes a texto.
+     * @param ps sentencia preparada
+     * @param row fila de la hoja, con las columnas en el orden de los campos
+     * @throws SQLException si el driver rechaza un valor
+     * @throws RuntimeException si una celda no se puede convertir al tipo de su campo
+     */
+    public void bind(PreparedStatement ps, SheetRow row) throws SQLException {
+        try {
+            fila.invokeExact(ps, row);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Asigna una fila de un lote por columnas, cuyos valores ya están convertidos al tipo de cada campo.
+     * @param ps sentencia preparada
+     * @param columnas lote por columnas
+     * @param posicion posición de la fila en el lote
+     * @throws SQLException si el driver rechaza un valor
+     */
+    public void bind(PreparedStatement ps, ColumnarBatch columnas, int posicion) throws SQLException {
+        try {
+            lote.invokeExact(ps, columnas, posicion);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    private static String sufijo(FieldType tipo) {
+        switch (tipo) {
+            case INTEGER:
+                return "Entero";
+            case DECIMAL:
+                return "Decimal";
+            case DATE:
+                return "Fecha";
+            case BOOLEAN:
+                return "Booleano";
+            default:
+                return "Texto";
+        }
+    }
+
+    // Setters de cada tipo para las celdas de una hoja
+
+    private static void ponerEntero(PreparedStatement ps, int idx, CellValue celda) throws SQLException {
+        if (celda.isBlank())
+            ps.setNull(idx, Types.BIGINT);
+        else
+            ps.setLong(idx, CellAccessor.getLong(celda));
+    }
+
+    private static void ponerDecimal(PreparedStatement ps, int idx, CellValue celda) throws SQLException {
+        if (celda.isBlank())
+            ps.setNull(idx, Types.DOUBLE);
+        else
+            ps.setDouble(idx, CellAccessor.getDouble(celda));
+    }
+
+    private static void ponerFecha(PreparedStatement ps, int idx, CellValue celda) throws SQLException {
+        if (celda.isBlank())
+            ps.setNull(idx, Types.TIMESTAMP);
+        else if (celda.getCellType() == CellType.NUMERIC)
+            ps.setTimestamp(idx, CellAccessor.getTimestamp(celda));
+        else
+            ps.setString(idx, celda.asString());
+    }
+
+    private static void ponerBooleano(PreparedStatement ps, int idx, CellValue celda) throws SQLException {
+        if (celda.isBlank())
+            ps.setNull(idx, Types.BOOLEAN);
+        else
+            ps.setBoolean(idx, CellAccessor.getBoolean(celda));
+    }
+
+    private static void ponerTexto(PreparedStatement ps, int idx, CellValue celda) throws SQLException {
+        if (celda.isBlank())
+            ps.setNull(idx, Types.VARCHAR);
+        else
+            ps.setString(idx, celda.asString());
+    }
+
+    // Setters de cada tipo para las columnas de un lote
+
+    private static void ponerEntero(PreparedStatement ps, int idx, int col, ColumnarBatch lote, int fila) throws SQLException {
+        if (lote.isNull(col, fila))
+            ps.setNull(idx, Types.BIGINT);
+        else
+            ps.setLong(idx, lote.getLong(col, fila));
+    }
+
+    private static void ponerDecimal(PreparedStatement ps, int idx, int col, ColumnarBatch lote, int fila) throws SQLException {
+        if (lote.isNull(col, fila))
+            ps.setNull(idx, Types.DOUBLE);
+        else
+            ps.setDouble(idx, lote.getDouble(col, fila));
+    }
+
+    private static void ponerFecha(PreparedStatement ps, int idx, int col, ColumnarBatch lote, int fila) throws SQLException {
+        if (lote.isNull(col, fila))
+            ps.setNull(idx, Types.TIMESTAMP);
+        else if (lote.isTexto(col, fila))
+            ps.setString(idx, lote.getString(col, fila));
+        else
+            ps.setTimestamp(idx, CellAccessor.getTimestamp(lote.getDouble(col, fila)));
+    }
+
+    private static void ponerBooleano(PreparedStatement ps, int idx, int col, ColumnarBatch lote, int fila) throws SQLException {
+        if (lote.isNull(col, fila))
+            ps.setNull(idx, Types.BOOLEAN);
+        else
+            ps.setBoolean(idx, lote.getBoolean(col, fila));
+    }
+
+    private static void ponerTexto(PreparedStatement ps, int idx, int col, ColumnarBatch lote, int fila) throws SQLException {
+        if (lote.isNull(col, fila))
+            ps.setNull(idx, Types.VARCHAR);
+        else
+            ps.setString(idx, lote.getString(col, fila));
+    }
+}
@@ -0,0 +1,39 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.SQLException;
+
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+
+/**
+ * Destino de las filas de una tabla durante la carga. {@link TableLoader} añade las filas de una en una
+ * (o {@link PipelineLoader} por lotes de {@link ColumnarBatch}) y decide cuándo enviarlas con {@link #flush()}; cada implementación usa un mecanismo distinto
+ * (batch de INSERT, LOAD DATA, ...).
+ */
+public interface RowWriter extends AutoCloseable {
+    /**
+     * Añade una fila de datos al bloque pendiente.
+     * @param row fila de datos (no la de cabeceras)
+     * @throws Exception si la fila tiene valores no válidos o el envío falla
+     */
+    void write(SheetRow row) throws Exception;
+
+    /**
+     * Añade al bloque pendiente todas las filas de un lote por columnas, leyendo los valores ya convertidos de sus arrays.
+     * @param lote lote de la tabla de este destino; se puede reutilizar en cuanto el método termina
+     * @throws SQLException si el driver rechaza algún valor
+     */
+    void write(ColumnarBatch lote) throws SQLException;
+
+    /**
+     * Envía a la base de datos las filas pendientes.
+     * @throws SQLException si falla el envío
+     */
+    void flush() throws SQLException;
+
+    /**
+     * Libera los recursos del destino (sentencias preparadas, buffers).
+     * @throws SQLException si falla el cierre
+     */
+    @Override
+    void close() throws SQLException;
+}
@@ -0,0 +1,225 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.iesvdc.dam.acceso.excelutil.RowSource;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.excelutil.SkipSheetException;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+import com.iesvdc.dam.acceso.util.Hash64;
+
+/**
+ * Caché persistente de la estructura de los libros, para no repetir el trabajo cuando llega un fichero con la misma forma:
+ *   - Guarda el {@link WorkbookModel} deducido asociado a la huella de la estructura del libro ({@link #huellaCabeceras}):
+ *     nombres de las hojas y fila de cabeceras de cada una. Un libro con la misma huella reutiliza el modelo sin deducir los tipos
+ *   - Anota qué sentencias CREATE TABLE se han aplicado ya en cada base de datos de destino, para no volver a ejecutarlas
+ * Calcular la huella solo lee la primera fila de cada hoja. Se confía en que los datos de un libro con la misma estructura
+ * caben en los tipos deducidos la primera vez; si la carga falla, la entrada se descarta con {@link #olvidar} y la siguiente
+ * ejecución vuelve a deducir el modelo y a aplicar el DDL.
+ * El fichero (formato properties) se reescribe de forma atómica, como el de {@link CheckpointJournal}. Hay una sola
+ * instancia por fichero en cada proceso, así que varias cargas a la vez (modo demonio) comparten la caché.
+ */
+public class SchemaCache {
+    private static final Map<Path, SchemaCache> ABIERTAS = new HashMap<>();
+
+    private final Path fichero;
+    private final Properties estado;
+    private final String destino;
+
+    private SchemaCache(Path fichero, Properties estado, String destino) {
+        this.fichero = fichero;
+        this.estado = estado;
+        this.destino = destino;
+    }
+
+    /**
+     * Abre la caché guardada en un fichero, o una vacía si aún no existe.
+     * @param cacheFile ruta del fichero de la caché
+     * @param destino identificador de la base de datos de destino (por ejemplo, host:puerto/base)
+     * @return la caché, compartida con las demás llamadas del proceso para el mismo fichero
+     * @throws IOException si el fichero existe pero no se puede leer
+     */
+    public static synchronized SchemaCache abrir(String cacheFile, String destino) throws IOException {
+        Path fichero = Paths.get(cacheFile).toAbsolutePath();
+        SchemaCache cache = ABIERTAS.get(fichero);
+        if (cache == null) {
+            Properties estado = new Properties();
+            if (Files.exists(fichero)) {
+                try (InputStream is = Files.newInputStream(fichero)) {
+                    estado.load(is);
+                }
+            }
+            cache = new SchemaCache(fichero, estado, Long.toHexString(Hash64.hash(destino)));
+            ABIERTAS.put(fichero, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Calcula la huella de la estructura de un libro: el nombre de cada hoja y el texto y la columna de cada cabecera.
+     * Solo se lee la primera fila con datos de cada hoja.
+     * @param excelFile ruta del fichero de entrada (.xlsx, .xls, .ods o .csv)
+     * @return la huella en hexadecimal
+     * @throws Exception si no se puede leer el fichero
+     */
+    public static String huellaCabeceras(String excelFile) throws Exception {
+        long[] h = { Hash64.start() };
+        RowSource.of(excelFile).process(excelFile, new SheetRowHandler() {
+            @Override
+            public void startSheet(int index, String name) {
+                h[0] = Hash64.update(Hash64.update(h[0], index), name);
+            }
+
+            @Override
+            public void row(SheetRow row) throws SkipSheetException {
+                for (int j = 0; j < row.size(); j++) {
+                    if (row.get(j).isBlank())
+                        continue;
+                    h[0] = Hash64.update(Hash64.update(h[0], j), row.get(j).asString());
+                }
+                throw new SkipSheetException();
+            }
+
+            @Override
+            public void endSheet() { }
+        });
+        return Long.toHexString(Hash64.mix(h[0]));
+    }
+
+    /**
+     * Modelo guardado para una estructura de libro.
+     * @param huella huella de la estructura ({@link #huellaCabeceras})
+     * @return una copia nueva del modelo, o null si no hay ninguno guardado
+     */
+    public synchronized WorkbookModel getModelo(String huella) {
+        return leerModelo(estado, "modelo." + huella + ".");
+    }
+
+    /**
+     * Guarda el modelo deducido para una estructura de libro.
+     * @param huella huella de la estructura ({@link #huellaCabeceras})
+     * @param modelo modelo del libro
+     * @throws IOException si no se puede guardar la caché
+     */
+    public synchronized void guardarModelo(String huella, WorkbookModel modelo) throws IOException {
+        borrarClaves("modelo." + huella + ".");
+        escribirModelo(estado, "modelo." + huella + ".", modelo);
+        guardar();
+    }
+
+    /**
+     * Indica si la sentencia DDL ya se ha aplicado en la base de datos de destino.
+     * @param ddl sentencia CREATE TABLE
+     * @return true si está anotada
+     */
+    public synchronized boolean ddlAplicado(String ddl) {
+        return estado.getProperty(claveDdl(ddl)) != null;
+    }
+
+    /**
+     * Anota que la sentencia DDL se ha aplicado en la base de datos de destino.
+     * @param tabla nombre de la tabla creada
+     * @param ddl sentencia CREATE TABLE
+     * @throws IOException si no se puede guardar la caché
+     */
+    public synchronized void anotarDdl(String tabla, String ddl) throws IOException {
+        estado.setProperty(claveDdl(ddl), tabla);
+        guardar();
+    }
+
+    /**
+     * Descarta el modelo de una estructura y el DDL anotado para la base de datos de destino, por ejemplo porque la carga ha fallado
+     * (los datos ya no caben en los tipos guardados o alguien ha borrado una tabla).
+     * @param huella huella de la estructura, o null para descartar solo el DDL
+     * @throws IOException si no se puede guardar la caché
+     */
+    public synchronized void olvidar(String huella) throws IOException {
+        if (huella != null)
+            borrarClaves("modelo." + huella + ".");
+        borrarClaves("ddl." + destino + ".");
+        guardar();
+    }
+
+    private String claveDdl(String ddl) {
+        return "ddl." + destino + "." + Long.toHexString(Hash64.hash(ddl));
+    }
+
+    private void borrarClaves(String prefijo) {
+        estado.keySet().removeIf(k -> ((String) k).startsWith(prefijo));
+    }
+
+    /**
+     * Escribe un modelo en unas propiedades: {@code <prefijo>tabla.i=nombre} y {@code <prefijo>tabla.i.campo.j=TIPO,longitud,nullable,nombre}.
+     * @param props propiedades de destino
+     * @param prefijo prefijo de las claves ("" si no hay)
+     * @param modelo modelo del libro
+     */
+    static void escribirModelo(Properties props, String prefijo, WorkbookModel modelo) {
+        List<TableModel> tablas = modelo.getTables();
+        for (int i = 0; i < tablas.size(); i++) {
+            TableModel tabla = tablas.get(i);
+            props.setProperty(prefijo + "tabla." + i, tabla.getName());
+            List<FieldModel> campos = tabla.getFields();
+            for (int j = 0; j < campos.size(); j++) {
+                FieldModel campo = campos.get(j);
+                // El nombre va al final porque puede contener comas
+                props.setProperty(prefijo + "tabla." + i + ".campo." + j,
+                    campo.getType() + "," + campo.getMaxLength() + "," + campo.isNullable() + "," + campo.getName());
+            }
+        }
+    }
+
+    /**
+     * Lee un modelo escrito con {@link #escribirModelo}.
+     * @param props propiedades de origen
+     * @param prefijo prefijo de las claves ("" si no hay)
+     * @return el modelo, o null si las propiedades no tienen ninguno
+     */
+    static WorkbookModel leerModelo(Properties props, String prefijo) {
+        if (props.getProperty(prefijo + "tabla.0") == null)
+            return null;
+        WorkbookModel modelo = new WorkbookModel();
+        for (int i = 0; props.getProperty(prefijo + "tabla." + i) != null; i++) {
+            TableModel tabla = new TableModel(props.getProperty(prefijo + "tabla." + i));
+            String campo;
+            for (int j = 0; (campo = props.getProperty(prefijo + "tabla." + i + ".campo." + j)) != null; j++) {
+                String[] partes = campo.split(",", 4);
+                tabla.addField(new FieldModel(partes[3], FieldType.valueOf(partes[0]),
+                    Integer.parseInt(partes[1]), Boolean.parseBoolean(partes[2])));
+            }
+            modelo.addTable(tabla);
+        }
+        return modelo;
+    }
+
+    /**
+     * Escribe la caché en un fichero temporal, lo fuerza a disco y lo renombra sobre el anterior.
+     */
+    private void guardar() throws IOException {
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream os = Channels.newOutputStream(canal)) {
+            estado.store(os, "Caché de estructura de excel2database");
+            os.flush();
+            canal.force(true);
+        }
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,306 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Cargador genérico de un libro Excel en la base de datos a partir de su {@link WorkbookModel}.
+ * Por cada hoja:
+ *   - Genera y ejecuta el CREATE TABLE a partir de los {@link FieldModel} de su {@link TableModel}, con el {@link Dialect} del motor
+ *   - Prepara el destino de las filas según el {@link BulkMode}: INSERT parametrizado ({@link BatchInsertWriter})
+ *     o la carga masiva del motor (LOAD DATA LOCAL INFILE en MySQL, COPY en PostgreSQL)
+ *   - Añade cada fila al bloque y lo envía cada {@code batchSize} filas, o con el tamaño que va eligiendo un
+ *     {@link AdaptiveBatchSizer} si se activa el tamaño adaptativo
+ *   - Hace COMMIT por bloque o por hoja según el {@link CommitMode}
+ *   - Opcionalmente anota cada COMMIT en un {@link CheckpointJournal} para poder reanudar la carga
+ *   - Opcionalmente desvía las filas erróneas a un {@link RejectsWriter} en vez de cancelar la carga
+ * Así la memoria que usa el driver queda acotada por el tamaño del bloque y no por el de la hoja.
+ * Se usa como {@link SheetRowHandler} de {@link com.iesvdc.dam.acceso.excelutil.ExcelReader#readRows}.
+ */
+public class TableLoader implements SheetRowHandler {
+    private final Connection conexion;
+    private final WorkbookModel modelo;
+    private final int batchSize;
+    private final CommitMode commitMode;
+    private final BulkMode bulkMode;
+    private CheckpointJournal journal;
+    private SchemaCache schemaCache;
+    private boolean diferirIndices;
+    private boolean tablasCreadas;
+    private RejectsWriter rechazos;
+    private long presupuestoLote;
+    private long maxMsLote;
+
+    private TableModel tabla;
+    private AdaptiveBatchSizer tamanoLote;
+    private RowWriter writer;
+    private BatchInsertWriter tolerante;
+    private DuplicateChecker duplicados;
+    private long duplicadosHoja;
+    private boolean cabecera;
+    private int pendientes;
+    private int primeraFila;
+    private int ultimaFila;
+    private long filasHoja;
+    private long filasTotales;
+
+    /**
+     * @param conexion conexión con la base de datos, con el auto-commit desactivado
+     * @param modelo modelo del libro construido por {@link com.iesvdc.dam.acceso.excelutil.ExcelReader#loadWorkbook}
+     * @param batchSize número de filas que se envían en cada executeBatch
+     * @param commitMode momento en que se hace COMMIT
+     */
+    public TableLoader(Connection conexion, WorkbookModel modelo, int batchSize, CommitMode commitMode) {
+        this(conexion, modelo, batchSize, commitMode, BulkMode.BATCH);
+    }
+
+    /**
+     * @param conexion conexión con la base de datos, con el auto-commit desactivado
+     * @param modelo modelo del libro construido por {@link com.iesvdc.dam.acceso.excelutil.ExcelReader#loadWorkbook}
+     * @param batchSize número de filas que se envían en cada bloque
+     * @param commitMode momento en que se hace COMMIT
+     * @param bulkMode mecanismo de envío de las filas
+     */
+    public TableLoader(Connection conexion, WorkbookModel modelo, int batchSize, CommitMode commitMode, BulkMode bulkMode) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("El tamaño de bloque debe ser positivo: " + batchSize);
+        this.conexion = conexion;
+        this.modelo = modelo;
+        this.batchSize = batchSize;
+        this.commitMode = commitMode;
+        this.bulkMode = bulkMode;
+    }
+
+    public long getFilasTotales() {
+        return filasTotales;
+    }
+
+    /**
+     * Activa la carga reanudable: tras cada COMMIT se anota en el diario la última fila confirmada de la hoja,
+     * y cada hoja se lee desde la fila siguiente a la última que el diario da por cargada.
+     * Solo tiene sentido con {@link CommitMode#CHUNK} o {@link CommitMode#SHEET}.
+     * @param journal diario de la carga
+     */
+    public void setJournal(CheckpointJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Usa una caché de estructura para no repetir el CREATE TABLE de las tablas que ya se crearon en esta base de datos.
+     * @param schemaCache caché de estructura, o null para ejecutar siempre el DDL
+     */
+    public void setSchemaCache(SchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * Crea las tablas sin las restricciones UNIQUE de sus campos únicos, para crear los índices después de la carga
+     * con {@link IndexBuilder}.
+     * @param diferirIndices true para no crear los índices únicos con la tabla
+     */
+    public void setDiferirIndices(boolean diferirIndices) {
+        this.diferirIndices = diferirIndices;
+    }
+
+    /**
+     * Activa la carga tolerante: las filas con valores no válidos, las que repiten un campo único y las que la base de datos
+     * rechaza se anotan en el fichero de rechazos y la carga sigue con las demás. Los duplicados se buscan fila a fila
+     * con un {@link DuplicateChecker} propio, así que no hace falta la pasada previa. Las filas siempre se envían con
+     * {@link BatchInsertWriter}, que es el que sabe aislar las filas rechazadas de un bloque.
+     * @param rechazos fichero de rechazos, o null para cancelar la carga en la primera fila errónea
+     */
+    public void setRechazos(RejectsWriter rechazos) {
+        this.rechazos = rechazos;
+    }
+
+    /**
+     * Activa el tamaño de bloque adaptativo: cada tabla empieza con batchSize filas por bloque y un {@link AdaptiveBatchSizer}
+     * lo ajusta según el rendimiento de los envíos, sin pasar del presupuesto de memoria.
+     * @param presupuestoBytes memoria que puede ocupar un bloque pendiente, o 0 para usar siempre batchSize
+     * @param maxMs latencia máxima de un envío antes de reducir el bloque, o 0 para no limitarla
+     */
+    public void setLoteAdaptativo(long presupuestoBytes, long maxMs) {
+        this.presupuestoLote = presupuestoBytes;
+        this.maxMsLote = maxMs;
+    }
+
+    @Override
+    public void startSheet(int index, String name) throws SQLException {
+        tabla = modelo.getTables().get(index);
+        if (!tabla.getName().equals(name))
+            throw new SQLException("La hoja '" + name + "' no coincide con la tabla del modelo '" + tabla.getName() + "'");
+        if (!tablasCreadas)
+            createTable(tabla);
+        if (rechazos == null) {
+            writer = crearWriter(conexion, tabla, bulkMode, batchSize);
+        } else {
+            tolerante = new BatchInsertWriter(conexion, tabla);
+            tolerante.setRechazos(rechazos);
+            writer = tolerante;
+            duplicados = null;
+            if (!tabla.getUniqueFields().isEmpty()) {
+                duplicados = new DuplicateChecker(conexion, modelo);
+                duplicados.startTable(tabla);
+            }
+        }
+        tamanoLote = presupuestoLote > 0 ? new AdaptiveBatchSizer(tabla, batchSize, presupuestoLote, maxMsLote) : null;
+        cabecera = true;
+        pendientes = 0;
+        filasHoja = 0;
+        duplicadosHoja = 0;
+        primeraFila = journal == null ? 0 : journal.siguienteFila(tabla.getName());
+        if (primeraFila == Integer.MAX_VALUE)
+            System.out.println("Tabla '" + tabla.getName() + "' ya cargada según el diario, se omite.");
+        else if (primeraFila > 0)
+            System.out.println("Tabla '" + tabla.getName() + "': se reanuda en la fila " + (primeraFila + 1) + ".");
+    }
+
+    @Override
+    public int firstRow() {
+        return primeraFila;
+    }
+
+    @Override
+    public void row(SheetRow row) throws Exception {
+        // La primera fila de cada hoja son las cabeceras
+        if (cabecera) {
+            cabecera = false;
+            return;
+        }
+        if (duplicados != null && !duplicados.check(row)) {
+            duplicadosHoja++;
+            rechazos.rechazar(tabla.getName(), row, duplicados.getMotivo());
+        } else {
+            writer.write(row);
+        }
+        ultimaFila = row.getRowNum();
+        filasHoja++;
+        if (++pendientes >= (tamanoLote != null ? tamanoLote.getTamano() : batchSize))
+            flush();
+    }
+
+    @Override
+    public void endSheet() throws Exception {
+        try {
+            flush();
+            if (commitMode == CommitMode.SHEET)
+                ImportMetrics.get().commit(conexion);
+            if (journal != null && commitMode != CommitMode.NONE)
+                journal.completar(tabla.getName());
+        } finally {
+            writer.close();
+            writer = null;
+        }
+        if (tolerante == null) {
+            filasTotales += filasHoja;
+            System.out.println("Tabla '" + tabla.getName() + "': " + filasHoja + " filas cargadas.");
+            return;
+        }
+        long rechazadas = duplicadosHoja + tolerante.getRechazadas();
+        tolerante = null;
+        filasTotales += filasHoja - rechazadas;
+        System.out.println("Tabla '" + tabla.getName() + "': " + (filasHoja - rechazadas) + " filas cargadas, " + rechazadas + " rechazadas.");
+    }
+
+    /**
+     * Envía el bloque pendiente al servidor y, en modo {@link CommitMode#CHUNK}, lo confirma y lo anota en el diario.
+     * @throws SQLException si falla la inserción o el commit
+     * @throws IOException si no se puede guardar el diario
+     */
+    private void flush() throws SQLException, IOException {
+        if (pendientes == 0)
+            return;
+        if (tamanoLote == null) {
+            writer.flush();
+        } else {
+            long inicio = System.nanoTime();
+            writer.flush();
+            tamanoLote.registrar(pendientes, System.nanoTime() - inicio);
+        }
+        pendientes = 0;
+        if (commitMode == CommitMode.CHUNK) {
+            ImportMetrics.get().commit(conexion);
+            if (journal != null)
+                journal.registrar(tabla.getName(), ultimaFila);
+        }
+    }
+
+    /**
+     * Crea el destino de las filas de una tabla. En modo {@link BulkMode#INFILE} se usa la carga masiva del motor
+     * ({@link Dialect#crearWriterMasivo}); si no tiene o el servidor no la admite, se vuelve a los INSERT en batch.
+     * @param conexion conexión con la base de datos
+     * @param tabla modelo de la tabla destino (ya creada)
+     * @param bulkMode mecanismo de envío de las filas
+     * @param batchSize filas por bloque
+     * @return el destino de las filas
+     * @throws SQLException si no se puede preparar el destino
+     */
+    static RowWriter crearWriter(Connection conexion, TableModel tabla, BulkMode bulkMode, int batchSize) throws SQLException {
+        if (bulkMode == BulkMode.INFILE) {
+            Dialect dialecto = Dialect.of(conexion);
+            RowWriter masivo = dialecto.crearWriterMasivo(conexion, tabla, batchSize);
+            if (masivo != null)
+                return masivo;
+            System.err.println("Carga masiva de " + dialecto + " no disponible para '" + tabla.getName() + "', se usan INSERT en batch.");
+        }
+        return new BatchInsertWriter(conexion, tabla);
+    }
+
+    /**
+     * Crea de una vez todas las tablas del modelo y confirma el DDL, para que al empezar cada hoja no se vuelva a ejecutar.
+     * En MySQL y H2 el CREATE TABLE hace COMMIT implícito: si se ejecuta entre hojas, confirma las filas de las anteriores.
+     * @throws SQLException si la sentencia SQL falla
+     */
+    public void crearTablas() throws SQLException {
+        for (TableModel t : modelo.getTables())
+            createTable(t);
+        conexion.commit();
+        tablasCreadas = true;
+    }
+
+    /**
+     * Crea la tabla si no existe, con una columna por cada campo del modelo.
+     * @param tabla modelo de la tabla
+     * @throws SQLException si la sentencia SQL falla
+     */
+    public void createTable(TableModel tabla) throws SQLException {
+        try (Statement st = conexion.createStatement()) {
+            crearTabla(st, tabla, !diferirIndices, schemaCache);
+        }
+    }
+
+    /**
+     * Ejecuta el CREATE TABLE de una tabla, salvo que la caché de estructura lo tenga anotado como ya aplicado.
+     * @param st sentencia con la que ejecutar el DDL
+     * @param tabla modelo de la tabla
+     * @param conUnicos true para crear la tabla con las restricciones UNIQUE de sus campos únicos
+     * @param schemaCache caché de estructura, o null para ejecutar siempre el DDL
+     * @throws SQLException si la sentencia SQL falla
+     */
+    static void crearTabla(Statement st, TableModel tabla, boolean conUnicos, SchemaCache schemaCache) throws SQLException {
+        String ddl = Dialect.of(st.getConnection()).buildCreateTable(tabla, conUnicos);
+        if (schemaCache != null && schemaCache.ddlAplicado(ddl)) {
+            System.out.println("Tabla '" + tabla.getName() + "' ya creada según la caché de estructura.");
+            return;
+        }
+        st.execute(ddl);
+        System.out.println("Tabla '" + tabla.getName() + "' verificada/creada.");
+        if (schemaCache != null) {
+            try {
+                schemaCache.anotarDdl(tabla.getName(), ddl);
+            } catch (IOException e) {
+                System.err.println("No se puede guardar la caché de estructura: " + e.getMessage());
+            }
+        }
+    }
+}
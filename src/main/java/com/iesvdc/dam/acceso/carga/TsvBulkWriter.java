@@ -0,0 +1,296 @@
+package com.iesvdc.dam.acceso.carga;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import com.iesvdc.dam.acceso.excelutil.CellAccessor;
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Base de los destinos que cargan las filas como texto separado por tabuladores (TSV, UTF-8), el formato que entienden
+ * tanto LOAD DATA de MySQL ({@link LocalInfileWriter}) como COPY de PostgreSQL ({@link PostgresCopyWriter}):
+ * \N para los vacíos, barra invertida para escapar tabuladores y saltos de línea, 1/0 para los booleanos y
+ * fechas como aaaa-mm-dd hh:mm:ss. El carácter NUL se escribe como \0, salvo en los motores que no lo admiten
+ * en un texto ({@link #admiteNul()}), donde se quita y se avisa al cerrar.
+ * Las filas se convierten directamente en un buffer de bytes en memoria a medida que se leen de la hoja, y en cada
+ * {@link #flush()} el buffer se entrega al motor con {@link #cargar}, sin escribir nada en disco.
+ * El buffer se reutiliza entre bloques, así que la memoria queda acotada por el tamaño del bloque.
+ */
+public abstract class TsvBulkWriter implements RowWriter {
+    private static final byte[] NULO = { '\\', 'N' };
+
+    protected final TableModel tabla;
+    private final List<FieldModel> campos;
+
+    private byte[] buf;
+    private int len;
+    private int pendientes;
+    private long nulQuitados;
+
+    /**
+     * @param tabla modelo de la tabla destino (ya creada)
+     * @param batchSize filas por bloque, para dimensionar el buffer inicial
+     */
+    protected TsvBulkWriter(TableModel tabla, int batchSize) {
+        this.tabla = tabla;
+        this.campos = tabla.getFields();
+        this.buf = new byte[Math.max(4096, Math.min(batchSize * campos.size() * 16, 16 << 20))];
+    }
+
+    /**
+     * Entrega al motor las filas del buffer.
+     * @param datos buffer con las filas en TSV
+     * @param longitud bytes válidos del buffer
+     * @return número de filas que el motor ha cargado
+     * @throws SQLException si falla la carga
+     */
+    protected abstract long cargar(byte[] datos, int longitud) throws SQLException;
+
+    /**
+     * Indica si el motor acepta el carácter NUL dentro de un texto (escrito como \0). Si no, se quita del texto.
+     * @return true si se puede enviar
+     */
+    protected boolean admiteNul() {
+        return true;
+    }
+
+    @Override
+    public void write(SheetRow row) throws Exception {
+        int inicio = len;
+        try {
+            for (int j = 0; j < campos.size(); j++) {
+                if (j > 0)
+                    put((byte) '\t');
+                escribirCampo(campos.get(j), row.get(j));
+            }
+        } catch (RuntimeException e) {
+            len = inicio;
+            throw new Exception("Hoja '" + tabla.getName() + "', fila " + (row.getRowNum() + 1) + ": valor no válido -> " + e.getMessage(), e);
+        }
+        put((byte) '\n');
+        pendientes++;
+    }
+
+    private void escribirCampo(FieldModel campo, CellValue celda) {
+        if (celda.isBlank() || celda.getCellType() == CellType.ERROR) {
+            putAll(NULO);
+            return;
+        }
+        switch (campo.getType()) {
+            case INTEGER:
+                putLong(CellAccessor.getLong(celda));
+                break;
+            case DECIMAL:
+                putAscii(Double.toString(CellAccessor.getDouble(celda)));
+                break;
+            case DATE:
+                if (celda.getCellType() == CellType.NUMERIC)
+                    putFecha(DateUtil.getLocalDateTime(celda.getNumericValue()));
+                else
+                    putTexto(celda.asString());
+                break;
+            case BOOLEAN:
+                put(CellAccessor.getBoolean(celda) ? (byte) '1' : (byte) '0');
+                break;
+            default:
+                putTexto(celda.asString());
+        }
+    }
+
+    @Override
+    public void write(ColumnarBatch lote) {
+        for (int i = 0; i < lote.size(); i++) {
+            for (int j = 0; j < campos.size(); j++) {
+                if (j > 0)
+                    put((byte) '\t');
+                escribirCampo(campos.get(j), lote, j, i);
+            }
+            put((byte) '\n');
+        }
+        pendientes += lote.size();
+    }
+
+    private void escribirCampo(FieldModel campo, ColumnarBatch lote, int col, int fila) {
+        if (lote.isNull(col, fila)) {
+            putAll(NULO);
+            return;
+        }
+        switch (campo.getType()) {
+            case INTEGER:
+                putLong(lote.getLong(col, fila));
+                break;
+            case DECIMAL:
+                putAscii(Double.toString(lote.getDouble(col, fila)));
+                break;
+            case DATE:
+                if (lote.isTexto(col, fila))
+                    putTexto(lote.getString(col, fila));
+                else
+                    putFecha(DateUtil.getLocalDateTime(lote.getDouble(col, fila)));
+                break;
+            case BOOLEAN:
+                put(lote.getBoolean(col, fila) ? (byte) '1' : (byte) '0');
+                break;
+            default:
+                putTexto(lote.getString(col, fila));
+        }
+    }
+
+    @Override
+    public void flush() throws SQLException {
+        if (pendientes == 0)
+            return;
+        long inicio = System.nanoTime();
+        long cargadas = cargar(buf, len);
+        ImportMetrics.get().getHistogramaLotes().registrar(System.nanoTime() - inicio);
+        // Con LOAD DATA LOCAL, MySQL convierte los errores de datos y de claves duplicadas en avisos y se salta esas filas
+        if (cargadas != pendientes)
+            throw new SQLException("Carga masiva en '" + tabla.getName() + "': " + cargadas + " de " + pendientes + " filas (revisa los avisos del servidor)");
+        ImportMetrics.get().addFilasEscritas(cargadas);
+        len = 0;
+        pendientes = 0;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        buf = null;
+        if (nulQuitados > 0)
+            System.out.println("Tabla '" + tabla.getName() + "': se han quitado " + nulQuitados + " caracteres NUL de los textos (el motor no los admite).");
+    }
+
+    // --- Escritura en el buffer TSV ---
+
+    private void asegurar(int extra) {
+        if (len + extra > buf.length) {
+            byte[] nuevo = new byte[Math.max(buf.length * 2, len + extra)];
+            System.arraycopy(buf, 0, nuevo, 0, len);
+            buf = nuevo;
+        }
+    }
+
+    private void put(byte b) {
+        asegurar(1);
+        buf[len++] = b;
+    }
+
+    private void putAll(byte[] bytes) {
+        asegurar(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+
+    private void putAscii(String s) {
+        asegurar(s.length());
+        for (int i = 0; i < s.length(); i++)
+            buf[len++] = (byte) s.charAt(i);
+    }
+
+    private void putLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            putAscii(Long.toString(v));
+            return;
+        }
+        asegurar(20);
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int inicio = len;
+        do {
+            buf[len++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // Los dígitos se han escrito al revés
+        for (int i = inicio, k = len - 1; i < k; i++, k--) {
+            byte t = buf[i];
+            buf[i] = buf[k];
+            buf[k] = t;
+        }
+    }
+
+    private void putFecha(LocalDateTime f) {
+        putDigitos(f.getYear(), 4);
+        put((byte) '-');
+        putDigitos(f.getMonthValue(), 2);
+        put((byte) '-');
+        putDigitos(f.getDayOfMonth(), 2);
+        put((byte) ' ');
+        putDigitos(f.getHour(), 2);
+        put((byte) ':');
+        putDigitos(f.getMinute(), 2);
+        put((byte) ':');
+        putDigitos(f.getSecond(), 2);
+    }
+
+    private void putDigitos(int v, int ancho) {
+        asegurar(ancho);
+        for (int i = ancho - 1; i >= 0; i--) {
+            buf[len + i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        len += ancho;
+    }
+
+    /**
+     * Escribe un texto en UTF-8 escapando los caracteres especiales del formato (\, tabulador, saltos de línea y NUL,
+     * que se quita si el motor no lo admite).
+     */
+    private void putTexto(String s) {
+        asegurar(s.length() * 3 + 2);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    buf[len++] = '\\';
+                    buf[len++] = '\\';
+                    continue;
+                case '\t':
+                    buf[len++] = '\\';
+                    buf[len++] = 't';
+                    continue;
+                case '\n':
+                    buf[len++] = '\\';
+                    buf[len++] = 'n';
+                    continue;
+                case '\r':
+                    buf[len++] = '\\';
+                    buf[len++] = 'r';
+                    continue;
+                case '\0':
+                    if (admiteNul()) {
+                        buf[len++] = '\\';
+                        buf[len++] = '0';
+                    } else {
+                        nulQuitados++;
+                    }
+                    continue;
+                default:
+                    break;
+            }
+            if (c < 0x80) {
+                buf[len++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[len++] = (byte) (0xC0 | (c >> 6));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[len++] = (byte) (0xF0 | (cp >> 18));
+                buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[len++] = (byte) (0xE0 | (c >> 12));
+                buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
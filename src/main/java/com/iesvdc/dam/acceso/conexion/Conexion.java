@@ -6,18 +6,40 @@ package com.iesvdc.dam.acceso.conexion;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Properties;
 
+import javax.sql.DataSource;
+
+import com.iesvdc.dam.acceso.dialecto.Dialect;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+
 public class Conexion {
+    private static volatile DataSource dataSource;
+    private static ConnectionPool pool;
+    private static boolean databaseVerificada;
+
+    /**
+     * Usa un {@link DataSource} externo (por ejemplo, un pool como HikariCP) en lugar del pool propio.
+     * Pasar null vuelve al pool propio.
+     * @param ds origen de conexiones
+     */
+    public static void setDataSource(DataSource ds) {
+        dataSource = ds;
+    }
+
     /**
-      * Establece una conexión con la base de datos MySQL utilizando los parámetros definidos en el fichero config.properties.
+      * Obtiene una conexión con la base de datos utilizando los parámetros definidos en el fichero config.properties.
       * El fichero debe contener las claves:
+      *     - driver: motor de base de datos (MySQL, PostgreSQL, H2 o SQLite; ver {@link Dialect})
       *     - host: dirección del servidor de base de datos
       *     - port: puerto del servidor
       *     - database: nombre de la base de datos
       *     - user: usuario de conexión
       *     - password: contraseña del usuario
+      * Las conexiones salen de un pool ({@link ConnectionPool}) que se crea en la primera llamada, salvo que se haya indicado
+      * un {@link DataSource} externo con {@link #setDataSource(DataSource)}. Al cerrar la conexión vuelve al pool para reutilizarse,
+      * así que solo se paga el coste del handshake (TLS, autenticación) la primera vez.
+      * El tiempo que se tarda en obtener cada conexión se anota en {@link ImportMetrics}.
       * Si ocurre algún error al leer el fichero o establecer la conexión, se muestra un mensaje descriptivo por consola y se devuelve {@code null}.
       *
       * @return un objeto {@link java.sql.Connection} si la conexión se establece correctamente; 
@@ -28,14 +50,12 @@ public class Conexion {
       * @see java.sql.DriverManager
       */
     public static Connection getConnection() {
-        Properties props = Config.getProperties("config.properties");
         Connection conexion = null;
-        String cadenaConexion = "jdbc:mysql://"
-            + props.getProperty("host")  //host
-            + ":"+ props.getProperty("port") // puerto
-            +"/"+ props.getProperty("database"); //base de datos
-        try {            
-            conexion = DriverManager.getConnection(cadenaConexion, props);            
+        long inicio = System.nanoTime();
+        try {
+            DataSource ds = dataSource;
+            conexion = ds != null ? ds.getConnection() : getPool().getConnection();
+            ImportMetrics.get().getHistogramaConexiones().registrar(System.nanoTime() - inicio);
         } catch (SQLException sqle) {
             System.err.println("Error al conectar a la base de datos: " + sqle.getLocalizedMessage());            
         }
@@ -43,24 +63,72 @@ public class Conexion {
     }
 
     /**
-     * Crea la base de datos indicada en config.properties si no existe.
-     * Se conecta al servidor MySQL sin seleccionar base (porque aún no existe) y ejecuta "CREATE DATABASE IF NOT EXISTS <nombreBD>".
+     * Devuelve el pool de conexiones, creándolo la primera vez con las claves de config.properties:
+     *     - poolMinSize: conexiones que se mantienen abiertas y se abren al crear el pool (por defecto 1)
+     *     - poolMaxSize: máximo de conexiones abiertas (por defecto 10)
+     *     - poolMaxWaitMs: espera máxima por una conexión libre (por defecto 30000)
+     *     - poolIdleTimeoutMs: tiempo ociosa tras el que se valida o cierra una conexión (por defecto 60000)
+     *     - poolValidationTimeoutS: segundos para validar una conexión (por defecto 2)
+     * @return el pool de conexiones
+     */
+    public static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            Properties props = Config.getProperties("config.properties");
+            Dialect dialecto = Dialect.of(props);
+            String cadenaConexion = dialecto.buildUrl(props);
+            Properties propsConexion = dialecto.propiedadesConexion(props);
+            pool = new ConnectionPool(
+                () -> DriverManager.getConnection(cadenaConexion, propsConexion),
+                Integer.parseInt(props.getProperty("poolMinSize", "1")),
+                Integer.parseInt(props.getProperty("poolMaxSize", "10")),
+                Long.parseLong(props.getProperty("poolMaxWaitMs", "30000")),
+                Long.parseLong(props.getProperty("poolIdleTimeoutMs", "60000")),
+                Integer.parseInt(props.getProperty("poolValidationTimeoutS", "2")));
+            try {
+                pool.warmUp();
+            } catch (SQLException e) {
+                // La primera petición volverá a intentarlo e informará del error
+                System.err.println("No se pudieron abrir las conexiones iniciales del pool: " + e.getLocalizedMessage());
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Máximo de conexiones que se pueden tener abiertas a la vez con {@link #getConnection()}.
+     * @return el tamaño máximo del pool propio, o {@link Integer#MAX_VALUE} si se usa un {@link DataSource} externo (no se conoce)
+     */
+    public static int getMaxConexiones() {
+        return dataSource != null ? Integer.MAX_VALUE : getPool().getMaxSize();
+    }
+
+    /**
+     * Cierra el pool de conexiones, si se había creado. La siguiente llamada a {@link #getConnection()} crea uno nuevo.
+     */
+    public static synchronized void cerrarPool() {
+        if (pool != null) {
+            System.out.println(pool);
+            pool.close();
+            pool = null;
+        }
+    }
+
+    /**
+     * Crea la base de datos indicada en config.properties si no existe, de la forma que marque el {@link Dialect} del motor
+     * (en MySQL, "CREATE DATABASE IF NOT EXISTS" conectando al servidor sin seleccionar base; los motores embebidos crean el fichero al conectar).
      * Debe llamarse antes de usar getConnection() para trabajar con esa base.
+     * Una vez creada/verificada, las siguientes llamadas no vuelven a conectarse al servidor.
      */
-    public static void crearDatabase() {
+    public static synchronized void crearDatabase() {
+        if (databaseVerificada)
+            return;
         Properties props = Config.getProperties("config.properties");
-
-        String host = props.getProperty("host");
-        String port = props.getProperty("port");
-        String user = props.getProperty("user");
-        String password = props.getProperty("password");
         String database = props.getProperty("database");
-        String url = "jdbc:mysql://" + host + ":" + port + "/mysql";
 
-        try (Connection conn = DriverManager.getConnection(url, user, password); Statement st = conn.createStatement()) {
-            String sql = "CREATE DATABASE IF NOT EXISTS `" + database + "`";
-            st.execute(sql);
+        try {
+            Dialect.of(props).crearDatabase(props);
             System.out.println("Base de datos '" + database + "' creada/verificada.");
+            databaseVerificada = true;
         } catch (SQLException e) {
             System.err.println("Error creando la base de datos: " + e.getMessage());
         }
@@ -89,7 +157,7 @@ public class Conexion {
             throw new SQLException("Conexion es nula");
         try {
             System.out.println("Aplicando COMMIT...");
-            conexion.commit();
+            ImportMetrics.get().commit(conexion);
             System.out.println("COMMIT realizado con éxito.");  
         } finally {
             try { 
@@ -3,9 +3,14 @@ package com.iesvdc.dam.acceso.conexion;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Config {
+    /** Propiedades ya leídas, por nombre de fichero: cada fichero se lee de disco una sola vez. */
+    private static final Map<String, Properties> CACHE = new ConcurrentHashMap<>();
+
     /**
      * Método para cargar las propiedades de un fichero.
      * Ejemplo de archivo de propiedades:
@@ -16,23 +21,71 @@ public class Config {
      *  - port=33307
      *  - database=agenda
      *  - host=localhost
-     *  - driver=MySQL
+     *  - driver=MySQL (motor de base de datos: MySQL, PostgreSQL, H2 o SQLite; en H2 y SQLite database es la ruta y no se usan host ni port)
      *  - outputFile=datos/salida.xlsx
      *  - inputFile=datos/entrada.xlsx
      *  - useSSL=false
      *  - serverTimezone=Europe/Madrid
      *  - allowPublicKeyRetrieval=true
+     *  - readMode=streaming (o dom para cargar el libro completo)
+     *  - inferenceSample=0 (filas observadas para deducir tipos; 0 = todas)
+     *  - batchSize=1000 (filas por executeBatch)
+     *  - adaptiveBatch=false (tamaño de bloque ajustado por tabla, empezando en batchSize), batchMemoryMb=16 (memoria por bloque), batchMaxMs=2000 (latencia máxima de un envío; 0 = sin límite)
+     *  - commitMode=sheet (chunk, sheet o none)
+     *  - bulkMode=batch (o infile para LOAD DATA LOCAL INFILE)
+     *  - allowLoadLocalInfile=true (necesario para bulkMode=infile)
+     *  - unique.personas=email (campos únicos de cada tabla)
+     *  - deferIndexes=false (índices únicos creados tras la carga), disableChecks=false (sin unique_checks ni foreign_key_checks durante la carga)
+     *  - errorBudget=0 (filas erróneas que se desvían al fichero de rechazos; 0 = se cancela en la primera, -1 = sin límite), rejectsFile= (por defecto &lt;file&gt;.rechazos.csv, o .xlsx)
+     *  - workers=1 (hojas que se cargan en paralelo)
+     *  - threadType=virtual (o platform)
+     *  - poolMinSize=1, poolMaxSize=10, poolMaxWaitMs=30000, poolIdleTimeoutMs=60000 (pool de conexiones)
+     *  - pipeline=false, queueDepth=4, pipelineWriters=2 (lectura e inserción en hilos separados)
+     *  - decodeWorkers=1 (con pipeline=true, hilos que decodifican y convierten las celdas; 0 = uno por núcleo)
+     *  - checkpoint=false (carga reanudable con action=load), checkpointFile= (diario; por defecto &lt;file&gt;.journal)
+     *  - watchDir=entrada, watchWorkers=4, watchDebounceMs=2000 (action=watch), watchDoneDir= y watchFailedDir= (por defecto done/ y failed/ dentro de watchDir)
+     *  - schemaCache=false (reutiliza modelo y DDL de libros con la misma estructura), schemaCacheFile= (por defecto schema-cache.properties)
+     *  - delta=false (carga incremental por huellas; la clave es el campo unique.&lt;tabla&gt;), deltaIndexTable=_excel2database_huellas
+     *  - exportTables= (tablas a exportar con action=save; vacía = todas)
+     *  - exportFetchSize=1000, exportWindow=100, exportCompressTemp=false, exportWorkers=1 (exportación a Excel)
+     *  - progressInterval=10 (segundos entre informes de progreso; 0 = ninguno), metricsJmx=true (métricas por JMX)
+     *  - metricsFile= (fichero JSON con el resumen de las métricas; vacía = no se guarda)
+     *  - dryRunWorkers=0 (hojas leídas a la vez con action=dryrun; 0 = una por núcleo), dryRunRowsPerSecond=0 (velocidad de la previsión; 0 = la medida en metricsFile), dryRunReport= (por defecto &lt;file&gt;.perfil.json)
+     * El fichero se lee la primera vez y las siguientes llamadas lo toman de memoria. Cada llamada devuelve una copia, así que
+     * los cambios que haga quien la recibe (por ejemplo, las opciones de la línea de órdenes) no llegan a las demás.
+     * Si el fichero no se puede leer no se guarda nada y la siguiente llamada vuelve a intentarlo.
      * @param nombreArchivo el nombre del archivo que contiene esa información.
-     * @return Un objeto del tipo {@link java.util.Properties}
+     * @return Un objeto del tipo {@link java.util.Properties}, vacío si no se ha podido leer el fichero
      */
     static public Properties getProperties(String nombreArchivo) {
+        Properties props = new Properties();
+        // computeIfAbsent no guarda el null de una lectura fallida
+        Properties leidas = CACHE.computeIfAbsent(nombreArchivo, Config::leerProperties);
+        if (leidas != null)
+            props.putAll(leidas);
+        return props;
+    }
+
+    /**
+     * Olvida las propiedades ya leídas, de modo que la próxima llamada a {@link #getProperties(String)} vuelva a leer el fichero.
+     */
+    static public void recargar() {
+        CACHE.clear();
+    }
+
+    /**
+     * @return las propiedades del fichero, o null si no se ha podido leer
+     */
+    static private Properties leerProperties(String nombreArchivo) {
         Properties props = new Properties();
         try (FileInputStream is = new FileInputStream(nombreArchivo)) {
             props.load(is);            
         } catch (FileNotFoundException fnfe) {
             System.out.println( "No encuentro el fichero de propiedades: " + fnfe.getLocalizedMessage() );
+            return null;
         } catch (IOException ioe){
             System.out.println( "Error al leer el fichero de propiedades: " + ioe.getLocalizedMessage() );
+            return null;
         }
         return props;
     }
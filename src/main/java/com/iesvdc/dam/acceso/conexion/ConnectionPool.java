@@ -0,0 +1,431 @@
+package com.iesvdc.dam.acceso.conexion;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool sencillo de conexiones JDBC reutilizables.
+ * Las conexiones que entrega son envoltorios: al llamar a {@code close()} la conexión física no se cierra, vuelve al pool
+ * (con el auto-commit restaurado y sin transacción pendiente). Ofrece:
+ *   - Tamaño mínimo y máximo configurables
+ *   - Espera acotada cuando todas las conexiones están en uso
+ *   - Validación con {@link Connection#isValid(int)} de las conexiones que llevan tiempo ociosas
+ *   - Cierre periódico de las conexiones ociosas por encima del mínimo
+ *   - Métricas de tiempo de espera y de uso
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /**
+     * Crea conexiones físicas nuevas para el pool.
+     */
+    @FunctionalInterface
+    public interface Factory {
+        Connection create() throws SQLException;
+    }
+
+    /** Una conexión ociosa y el instante en que se devolvió. */
+    private static class Ociosa {
+        final Connection fisica;
+        final long desde;
+
+        Ociosa(Connection fisica, long desde) {
+            this.fisica = fisica;
+            this.desde = desde;
+        }
+    }
+
+    private final Factory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitMs;
+    private final long idleTimeoutMs;
+    private final int validationTimeoutS;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition disponible = lock.newCondition();
+    private final Deque<Ociosa> ociosas = new ArrayDeque<>();
+    private final ScheduledExecutorService limpieza;
+    private int total;
+    private int enUso;
+    private boolean cerrado;
+
+    // Métricas
+    private long prestamos;
+    private long esperaTotalNanos;
+    private long esperaMaxNanos;
+    private long timeouts;
+    private int maxEnUso;
+
+    /**
+     * @param factory creador de conexiones físicas
+     * @param minSize conexiones que se mantienen abiertas aunque estén ociosas
+     * @param maxSize máximo de conexiones abiertas a la vez
+     * @param maxWaitMs máximo tiempo de espera por una conexión libre
+     * @param idleTimeoutMs tiempo ociosa tras el que una conexión se valida antes de reutilizarse y puede cerrarse
+     * @param validationTimeoutS segundos de espera al validar una conexión
+     */
+    public ConnectionPool(Factory factory, int minSize, int maxSize, long maxWaitMs, long idleTimeoutMs, int validationTimeoutS) {
+        if (maxSize <= 0 || minSize < 0 || minSize > maxSize)
+            throw new IllegalArgumentException("Tamaños de pool no válidos: min=" + minSize + ", max=" + maxSize);
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWaitMs = maxWaitMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationTimeoutS = validationTimeoutS;
+
+        limpieza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-limpieza");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodo = Math.max(1000, idleTimeoutMs / 2);
+        limpieza.scheduleWithFixedDelay(this::evict, periodo, periodo, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Abre las conexiones mínimas del pool para que las primeras peticiones no esperen al handshake.
+     * Las conexiones se abren sin bloquear el pool, así que se puede pedir una mientras tanto.
+     * @throws SQLException si no se puede abrir alguna conexión
+     */
+    public void warmUp() throws SQLException {
+        while (true) {
+            lock.lock();
+            try {
+                if (cerrado || total >= minSize)
+                    return;
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            Connection fisica;
+            try {
+                fisica = factory.create();
+            } catch (SQLException e) {
+                lock.lock();
+                try {
+                    total--;
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+            lock.lock();
+            try {
+                ociosas.push(new Ociosa(fisica, System.currentTimeMillis()));
+                disponible.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Obtiene una conexión del pool. Si no hay ninguna libre y el pool está lleno, espera como mucho el tiempo configurado.
+     * @return una conexión que vuelve al pool al cerrarla
+     * @throws SQLException si se agota la espera o no se puede abrir una conexión nueva
+     */
+    public Connection getConnection() throws SQLException {
+        long inicio = System.nanoTime();
+        long limite = inicio + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        Connection fisica = null;
+
+        while (fisica == null) {
+            Ociosa o = null;
+            boolean crear = false;
+            lock.lock();
+            try {
+                while (o == null && !crear) {
+                    if (cerrado)
+                        throw new SQLException("El pool de conexiones está cerrado");
+                    o = ociosas.poll();
+                    if (o == null && total < maxSize) {
+                        total++;
+                        crear = true;
+                    } else if (o == null) {
+                        long restante = limite - System.nanoTime();
+                        if (restante <= 0) {
+                            timeouts++;
+                            throw new SQLException("Tiempo de espera agotado (" + maxWaitMs + " ms) esperando una conexión libre del pool");
+                        }
+                        try {
+                            disponible.awaitNanos(restante);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("Interrumpido esperando una conexión del pool", e);
+                        }
+                    }
+                }
+                enUso++;
+                maxEnUso = Math.max(maxEnUso, enUso);
+            } finally {
+                lock.unlock();
+            }
+
+            if (crear) {
+                try {
+                    fisica = factory.create();
+                } catch (SQLException e) {
+                    liberarHueco();
+                    throw e;
+                }
+            } else if (System.currentTimeMillis() - o.desde <= idleTimeoutMs || esValida(o.fisica)) {
+                // Solo se validan las conexiones que llevan ociosas más de idleTimeoutMs, y ya fuera del lock,
+                // porque isValid va hasta el servidor y mientras tanto los demás hilos pueden seguir pidiendo y devolviendo
+                fisica = o.fisica;
+            } else {
+                cerrarFisica(o.fisica);
+                liberarHueco();
+            }
+        }
+        registrarEspera(System.nanoTime() - inicio);
+        return envolver(fisica);
+    }
+
+    /**
+     * Descuenta una conexión reservada que no se ha llegado a prestar (no se pudo abrir o no era válida).
+     */
+    private void liberarHueco() {
+        lock.lock();
+        try {
+            total--;
+            enUso--;
+            disponible.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean esValida(Connection fisica) {
+        try {
+            return fisica.isValid(validationTimeoutS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void registrarEspera(long nanos) {
+        lock.lock();
+        try {
+            prestamos++;
+            esperaTotalNanos += nanos;
+            esperaMaxNanos = Math.max(esperaMaxNanos, nanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve una conexión física al pool, dejándola lista para el siguiente uso.
+     */
+    private void devolver(Connection fisica) {
+        boolean reutilizable;
+        try {
+            if (!fisica.getAutoCommit()) {
+                fisica.rollback();
+                fisica.setAutoCommit(true);
+            }
+            reutilizable = !fisica.isClosed();
+        } catch (SQLException e) {
+            reutilizable = false;
+        }
+
+        lock.lock();
+        try {
+            enUso--;
+            if (reutilizable && !cerrado) {
+                ociosas.push(new Ociosa(fisica, System.currentTimeMillis()));
+            } else {
+                total--;
+                cerrarFisica(fisica);
+            }
+            disponible.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cierra las conexiones que llevan más tiempo ociosas que el configurado, respetando el tamaño mínimo.
+     */
+    private void evict() {
+        long ahora = System.currentTimeMillis();
+        lock.lock();
+        try {
+            // Las más antiguas están al final de la cola
+            while (total > minSize && !ociosas.isEmpty() && ahora - ociosas.peekLast().desde > idleTimeoutMs) {
+                cerrarFisica(ociosas.pollLast().fisica);
+                total--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void cerrarFisica(Connection fisica) {
+        try {
+            fisica.close();
+        } catch (SQLException e) {
+            System.err.println("Error al cerrar una conexión del pool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Crea el envoltorio que intercepta close() para devolver la conexión al pool.
+     */
+    private Connection envolver(Connection fisica) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean devuelta;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!devuelta) {
+                            devuelta = true;
+                            devolver(fisica);
+                        }
+                        return null;
+                    case "isClosed":
+                        return devuelta || fisica.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled[" + fisica + "]";
+                    default:
+                        if (devuelta)
+                            throw new SQLException("La conexión ya se ha devuelto al pool");
+                        try {
+                            return method.invoke(fisica, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, handler);
+    }
+
+    /**
+     * Cierra todas las conexiones ociosas y no admite más peticiones. Las que estén en uso se cierran al devolverse.
+     */
+    @Override
+    public void close() {
+        limpieza.shutdownNow();
+        lock.lock();
+        try {
+            cerrado = true;
+            while (!ociosas.isEmpty()) {
+                cerrarFisica(ociosas.poll().fisica);
+                total--;
+            }
+            disponible.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return conexiones abiertas (en uso + ociosas) */
+    public int getTotal() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return máximo de conexiones abiertas a la vez */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return conexiones prestadas en este momento */
+    public int getEnUso() {
+        lock.lock();
+        try {
+            return enUso;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return número de conexiones entregadas desde que se creó el pool */
+    public long getPrestamos() {
+        lock.lock();
+        try {
+            return prestamos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return tiempo medio de espera por una conexión, en milisegundos */
+    public double getEsperaMediaMs() {
+        lock.lock();
+        try {
+            return prestamos == 0 ? 0 : esperaTotalNanos / 1e6 / prestamos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return mayor tiempo de espera por una conexión, en milisegundos */
+    public double getEsperaMaxMs() {
+        lock.lock();
+        try {
+            return esperaMaxNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return peticiones que agotaron el tiempo de espera */
+    public long getTimeouts() {
+        lock.lock();
+        try {
+            return timeouts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return fracción del tamaño máximo en uso ahora mismo (0 a 1) */
+    public double getUtilizacion() {
+        lock.lock();
+        try {
+            return (double) enUso / maxSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return mayor número de conexiones en uso a la vez */
+    public int getMaxEnUso() {
+        lock.lock();
+        try {
+            return maxEnUso;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool [total=%d, enUso=%d, max=%d, prestamos=%d, esperaMedia=%.2f ms, esperaMax=%.2f ms, timeouts=%d, maxEnUso=%d]",
+            getTotal(), getEnUso(), maxSize, getPrestamos(), getEsperaMediaMs(), getEsperaMaxMs(), getTimeouts(), getMaxEnUso());
+    }
+}
@@ -0,0 +1,342 @@
+package com.iesvdc.dam.acceso.dialecto;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+import com.iesvdc.dam.acceso.carga.RowWriter;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.util.Hash64;
+
+/**
+ * Lo que cambia de un motor de base de datos a otro:
+ *   - La URL JDBC y las propiedades de la conexión ({@link #buildUrl}, {@link #propiedadesConexion})
+ *   - Cómo se crea la base de datos, si hace falta ({@link #crearDatabase})
+ *   - El entrecomillado de los identificadores ({@link #quote}) y el tipo SQL de cada {@link FieldType} ({@link #sqlType})
+ *   - Las sentencias que no son estándar: INSERT o UPDATE en una sola sentencia ({@link #buildUpsert}), claves autoincrementales, enumerados
+ *   - El mecanismo de carga masiva más rápido del motor ({@link #crearWriterMasivo})
+ *   - Los índices únicos que se crean tras la carga y las comprobaciones que se pueden desactivar mientras dura
+ * El dialecto se elige con la clave driver de config.properties para abrir conexiones ({@link #of(Properties)}) y,
+ * cuando ya hay una conexión, a partir del producto que informa el driver ({@link #of(Connection)}), de modo que
+ * un {@link javax.sql.DataSource} externo usa siempre el SQL de su motor.
+ */
+public abstract class Dialect {
+    /** Longitud máxima de texto que se guarda como VARCHAR; por encima se usa el tipo de texto largo del motor. */
+    protected static final int MAX_VARCHAR = 1024;
+
+    private static final Dialect MYSQL = new MySqlDialect();
+    private static final Dialect POSTGRESQL = new PostgreSqlDialect();
+    private static final Dialect H2 = new H2Dialect();
+    private static final Dialect SQLITE = new SqliteDialect();
+
+    /**
+     * Devuelve el dialecto de un motor por su nombre, sin distinguir mayúsculas (MySQL, MariaDB, PostgreSQL, H2, SQLite).
+     * @param nombre nombre del motor; si es null o no se reconoce, se usa MySQL
+     * @return el dialecto
+     */
+    public static Dialect of(String nombre) {
+        if (nombre == null)
+            return MYSQL;
+        switch (nombre.trim().toLowerCase()) {
+            case "mysql":
+            case "mariadb":
+                return MYSQL;
+            case "postgresql":
+            case "postgres":
+                return POSTGRESQL;
+            case "h2":
+                return H2;
+            case "sqlite":
+                return SQLITE;
+            default:
+                System.err.println("Motor de base de datos desconocido '" + nombre + "', se usa MySQL");
+                return MYSQL;
+        }
+    }
+
+    /**
+     * Devuelve el dialecto configurado con la clave driver (por defecto MySQL).
+     * @param props propiedades de config.properties
+     * @return el dialecto
+     */
+    public static Dialect of(Properties props) {
+        return of(props.getProperty("driver", "MySQL"));
+    }
+
+    /**
+     * Devuelve el dialecto del motor al que está conectada una conexión, según {@link java.sql.DatabaseMetaData#getDatabaseProductName()}.
+     * @param conexion conexión abierta
+     * @return el dialecto
+     * @throws SQLException si no se pueden leer los metadatos
+     */
+    public static Dialect of(Connection conexion) throws SQLException {
+        String producto = conexion.getMetaData().getDatabaseProductName();
+        if (producto.startsWith("PostgreSQL"))
+            return POSTGRESQL;
+        if (producto.startsWith("H2"))
+            return H2;
+        if (producto.startsWith("SQLite"))
+            return SQLITE;
+        return MYSQL;
+    }
+
+    /**
+     * @return el nombre del motor
+     */
+    public abstract String getNombre();
+
+    /**
+     * Genera la URL JDBC de la base de datos a partir de las claves host, port y database.
+     * @param props propiedades de config.properties
+     * @return la URL de conexión
+     */
+    public abstract String buildUrl(Properties props);
+
+    /**
+     * Propiedades que se pasan al driver al conectar. Por defecto solo user y password, porque hay drivers
+     * que rechazan las propiedades que no conocen.
+     * @param props propiedades de config.properties
+     * @return las propiedades de la conexión
+     */
+    public Properties propiedadesConexion(Properties props) {
+        Properties conexion = new Properties();
+        if (props.getProperty("user") != null)
+            conexion.setProperty("user", props.getProperty("user"));
+        if (props.getProperty("password") != null)
+            conexion.setProperty("password", props.getProperty("password"));
+        return conexion;
+    }
+
+    /**
+     * Crea la base de datos de la clave database si no existe. Por defecto no hace nada: los motores embebidos
+     * crean el fichero al conectar.
+     * @param props propiedades de config.properties
+     * @throws SQLException si no se puede crear
+     */
+    public void crearDatabase(Properties props) throws SQLException { }
+
+    /**
+     * Entrecomilla un identificador (tabla o columna) para que admita espacios, mayúsculas y palabras reservadas.
+     * Por defecto con comillas dobles, como marca el estándar SQL.
+     * @param identificador nombre sin entrecomillar
+     * @return el identificador entrecomillado
+     */
+    public String quote(String identificador) {
+        return '"' + identificador.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Traduce un {@link FieldType} al tipo de columna SQL del motor.
+     * @param tipo tipo del campo
+     * @return tipo SQL de la columna
+     */
+    public abstract String sqlType(FieldType tipo);
+
+    /**
+     * Tipo de una columna de texto cuya longitud máxima observada se conoce.
+     * Por defecto, VARCHAR con margen (potencia de 2, como mínimo 255) o, si supera {@link #MAX_VARCHAR}, TEXT.
+     * @param longitud longitud máxima observada
+     * @return tipo SQL de la columna
+     */
+    public String tipoTexto(int longitud) {
+        if (longitud > MAX_VARCHAR)
+            return "TEXT";
+        return "VARCHAR(" + Math.max(255, Integer.highestOneBit(longitud - 1) << 1) + ")";
+    }
+
+    /**
+     * Definición de una clave primaria entera que se numera sola.
+     * @return la definición de la columna (tipo y restricciones)
+     */
+    public String columnaAutoincremental() {
+        return "INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY";
+    }
+
+    /**
+     * Definición de una columna que solo admite unos valores. Por defecto, un VARCHAR con una restricción CHECK.
+     * @param columna nombre de la columna
+     * @param valores valores admitidos
+     * @return la definición de la columna (tipo y restricciones)
+     */
+    public String tipoEnum(String columna, List<String> valores) {
+        int longitud = 1;
+        for (String valor : valores)
+            longitud = Math.max(longitud, valor.length());
+        return "VARCHAR(" + longitud + ") CHECK (" + quote(columna) + " IN (" + literales(valores) + "))";
+    }
+
+    /**
+     * Definición SQL de la columna de un campo: su tipo y NOT NULL si nunca aparece vacío.
+     * Los textos se dimensionan a partir de la longitud máxima observada ({@link #tipoTexto}).
+     * @param campo modelo del campo
+     * @return definición de la columna
+     */
+    public String columnDefinition(FieldModel campo) {
+        String tipo = sqlType(campo.getType());
+        if ((campo.getType() == FieldType.STRING || campo.getType() == FieldType.UNKNOWN) && campo.getMaxLength() > 0)
+            tipo = tipoTexto(campo.getMaxLength());
+        return campo.isNullable() ? tipo : tipo + " NOT NULL";
+    }
+
+    /**
+     * Genera la sentencia CREATE TABLE IF NOT EXISTS de una tabla del modelo, con una restricción UNIQUE por cada campo único.
+     * @param tabla modelo de la tabla
+     * @return la sentencia DDL
+     */
+    public String buildCreateTable(TableModel tabla) {
+        return buildCreateTable(tabla, true);
+    }
+
+    /**
+     * Genera la sentencia CREATE TABLE IF NOT EXISTS de una tabla del modelo.
+     * @param tabla modelo de la tabla
+     * @param conUnicos true para añadir una restricción UNIQUE por cada campo único; false para crearlas después
+     *                  de la carga con {@link #buildCreateUniqueIndex}
+     * @return la sentencia DDL
+     */
+    public String buildCreateTable(TableModel tabla, boolean conUnicos) {
+        StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ");
+        sb.append(quote(tabla.getName())).append(" (");
+        List<FieldModel> campos = tabla.getFields();
+        for (int j = 0; j < campos.size(); j++) {
+            if (j > 0)
+                sb.append(", ");
+            sb.append(quote(campos.get(j).getName())).append(' ').append(columnDefinition(campos.get(j)));
+        }
+        if (conUnicos)
+            for (String unico : tabla.getUniqueFields())
+                sb.append(", UNIQUE (").append(quote(unico)).append(')');
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Genera la sentencia que crea el índice único de un campo en una tabla ya cargada. El nombre del índice es
+     * ux_&lt;tabla&gt;_&lt;campo&gt; o, si no cabe en los 63 caracteres que admiten todos los motores, uno abreviado con una huella.
+     * @param tabla nombre de la tabla
+     * @param campo nombre del campo único
+     * @return la sentencia DDL
+     */
+    public String buildCreateUniqueIndex(String tabla, String campo) {
+        String nombre = "ux_" + tabla + "_" + campo;
+        if (nombre.length() > 63)
+            nombre = nombre.substring(0, 46) + "_" + Long.toHexString(Hash64.hash(nombre));
+        return "CREATE UNIQUE INDEX " + quote(nombre) + " ON " + quote(tabla) + " (" + quote(campo) + ")";
+    }
+
+    /**
+     * Sentencia que desactiva en la sesión las comprobaciones que frenan una carga masiva (claves únicas y ajenas)
+     * guardando antes su valor, para devolverlo con {@link #sqlRestaurarComprobaciones}.
+     * Por defecto no hay ninguna: el motor no tiene un ajuste de sesión equivalente.
+     * @return la sentencia, o null si no hay nada que desactivar
+     */
+    public String sqlDesactivarComprobaciones() {
+        return null;
+    }
+
+    /**
+     * Sentencia que devuelve las comprobaciones al valor que tenían antes de {@link #sqlDesactivarComprobaciones}.
+     * @return la sentencia, o null si no hay nada que restaurar
+     */
+    public String sqlRestaurarComprobaciones() {
+        return null;
+    }
+
+    /**
+     * Intercalación (collation) con la que el motor compara los textos de una columna, para saber si dos claves que solo
+     * se diferencian en mayúsculas o acentos chocan en un índice único. Por defecto null: los textos se comparan tal cual.
+     * @param conexion conexión abierta
+     * @param tabla nombre de la tabla (puede no existir todavía)
+     * @param campo nombre de la columna
+     * @return el nombre de la intercalación, o null si la comparación es exacta
+     * @throws SQLException si no se puede consultar
+     */
+    public String collation(Connection conexion, String tabla, String campo) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Genera la sentencia INSERT parametrizada de una tabla del modelo.
+     * @param tabla modelo de la tabla
+     * @return la sentencia INSERT con un parámetro por campo
+     */
+    public String buildInsert(TableModel tabla) {
+        return buildInsert(tabla.getName(), nombres(tabla));
+    }
+
+    /**
+     * Genera una sentencia INSERT parametrizada.
+     * @param tabla nombre de la tabla
+     * @param columnas nombres de las columnas
+     * @return la sentencia INSERT con un parámetro por columna
+     */
+    public String buildInsert(String tabla, List<String> columnas) {
+        StringBuilder valores = new StringBuilder();
+        for (int j = 0; j < columnas.size(); j++)
+            valores.append(j > 0 ? ",?" : "?");
+        return "INSERT INTO " + quote(tabla) + " (" + listaColumnas(columnas) + ") VALUES (" + valores + ")";
+    }
+
+    /**
+     * Genera una sentencia parametrizada que inserta la fila o, si ya hay una con la misma clave, actualiza el resto de columnas.
+     * @param tabla nombre de la tabla
+     * @param columnas nombres de todas las columnas, en el orden de los parámetros
+     * @param claves columnas (de entre las anteriores) de la clave primaria o única que decide si la fila ya existe
+     * @return la sentencia con un parámetro por columna
+     */
+    public abstract String buildUpsert(String tabla, List<String> columnas, List<String> claves);
+
+    /**
+     * Crea el destino de carga masiva nativo del motor para una tabla, si lo tiene y el servidor lo permite.
+     * Por defecto no hay ninguno y se usan INSERT en batch.
+     * @param conexion conexión con la base de datos
+     * @param tabla modelo de la tabla destino (ya creada)
+     * @param batchSize filas por bloque
+     * @return el destino, o null si el motor no tiene carga masiva o no está disponible
+     * @throws SQLException si no se puede preparar el destino
+     */
+    public RowWriter crearWriterMasivo(Connection conexion, TableModel tabla, int batchSize) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Lista de columnas entrecomilladas y separadas por comas.
+     * @param columnas nombres de las columnas
+     * @return la lista para una sentencia SQL
+     */
+    public String listaColumnas(List<String> columnas) {
+        StringBuilder sb = new StringBuilder();
+        for (String columna : columnas) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(quote(columna));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Nombres de los campos de una tabla, en orden.
+     * @param tabla modelo de la tabla
+     * @return los nombres de las columnas
+     */
+    public static List<String> nombres(TableModel tabla) {
+        return tabla.getFields().stream().map(FieldModel::getName).toList();
+    }
+
+    protected static String literales(List<String> valores) {
+        StringBuilder sb = new StringBuilder();
+        for (String valor : valores) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append('\'').append(valor.replace("'", "''")).append('\'');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getNombre();
+    }
+}
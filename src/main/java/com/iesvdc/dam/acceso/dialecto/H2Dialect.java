@@ -0,0 +1,56 @@
+package com.iesvdc.dam.acceso.dialecto;
+
+import java.util.List;
+import java.util.Properties;
+
+import com.iesvdc.dam.acceso.modelo.FieldType;
+
+/**
+ * Dialecto de H2 embebido, para cargar sin servidor o probar la carga completa sin red.
+ * La clave database es la parte de la URL tras jdbc:h2: (por ejemplo ./datos/agenda o mem:agenda) y host y port no se usan.
+ * No tiene carga masiva propia: las filas se envían con INSERT en batch, que en un motor embebido no pagan viajes por la red.
+ */
+public class H2Dialect extends Dialect {
+
+    @Override
+    public String getNombre() {
+        return "H2";
+    }
+
+    @Override
+    public String buildUrl(Properties props) {
+        return "jdbc:h2:" + props.getProperty("database");
+    }
+
+    @Override
+    public String sqlType(FieldType tipo) {
+        switch (tipo) {
+            case INTEGER:
+                return "BIGINT";
+            case DECIMAL:
+                return "DOUBLE PRECISION";
+            case DATE:
+                return "TIMESTAMP";
+            case BOOLEAN:
+                return "BOOLEAN";
+            default:
+                return "VARCHAR(255)";
+        }
+    }
+
+    @Override
+    public String tipoTexto(int longitud) {
+        return longitud > MAX_VARCHAR ? "CLOB" : super.tipoTexto(longitud);
+    }
+
+    /**
+     * MERGE INTO ... KEY (...), la forma propia de H2, que no depende del modo de compatibilidad.
+     */
+    @Override
+    public String buildUpsert(String tabla, List<String> columnas, List<String> claves) {
+        StringBuilder valores = new StringBuilder();
+        for (int j = 0; j < columnas.size(); j++)
+            valores.append(j > 0 ? ",?" : "?");
+        return "MERGE INTO " + quote(tabla) + " (" + listaColumnas(columnas) + ") KEY (" + listaColumnas(claves) + ") VALUES (" + valores + ")";
+    }
+}
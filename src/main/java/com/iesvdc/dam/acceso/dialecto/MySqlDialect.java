@@ -0,0 +1,148 @@
+package com.iesvdc.dam.acceso.dialecto;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+import com.iesvdc.dam.acceso.carga.LocalInfileWriter;
+import com.iesvdc.dam.acceso.carga.RowWriter;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Dialecto de MySQL (y MariaDB): identificadores entre acentos graves, INSERT ... ON DUPLICATE KEY UPDATE
+ * y carga masiva con LOAD DATA LOCAL INFILE ({@link LocalInfileWriter}).
+ */
+public class MySqlDialect extends Dialect {
+
+    @Override
+    public String getNombre() {
+        return "MySQL";
+    }
+
+    @Override
+    public String buildUrl(Properties props) {
+        return "jdbc:mysql://" + props.getProperty("host") + ":" + props.getProperty("port") + "/" + props.getProperty("database");
+    }
+
+    /**
+     * Connector/J ignora las claves que no conoce, así que se le pasa todo el fichero (allowLoadLocalInfile, useSSL, ...).
+     */
+    @Override
+    public Properties propiedadesConexion(Properties props) {
+        return props;
+    }
+
+    /**
+     * Se conecta al servidor sin seleccionar base (porque aún no existe) y ejecuta "CREATE DATABASE IF NOT EXISTS".
+     */
+    @Override
+    public void crearDatabase(Properties props) throws SQLException {
+        String url = "jdbc:mysql://" + props.getProperty("host") + ":" + props.getProperty("port") + "/mysql";
+        try (Connection conn = DriverManager.getConnection(url, props.getProperty("user"), props.getProperty("password"));
+             Statement st = conn.createStatement()) {
+            st.execute("CREATE DATABASE IF NOT EXISTS " + quote(props.getProperty("database")));
+        }
+    }
+
+    @Override
+    public String quote(String identificador) {
+        return "`" + identificador.replace("`", "``") + "`";
+    }
+
+    @Override
+    public String sqlType(FieldType tipo) {
+        switch (tipo) {
+            case INTEGER:
+                return "BIGINT";
+            case DECIMAL:
+                return "DOUBLE";
+            case DATE:
+                return "DATETIME";
+            case BOOLEAN:
+                return "BOOLEAN";
+            default:
+                return "VARCHAR(255)";
+        }
+    }
+
+    @Override
+    public String columnaAutoincremental() {
+        return "INT AUTO_INCREMENT PRIMARY KEY";
+    }
+
+    @Override
+    public String tipoEnum(String columna, List<String> valores) {
+        return "ENUM(" + literales(valores) + ")";
+    }
+
+    /**
+     * La de la columna según information_schema o, si la tabla aún no existe, la de la base de datos, que es la que heredará.
+     * Las predeterminadas (utf8mb4_0900_ai_ci, utf8mb4_general_ci, ...) no distinguen mayúsculas ni acentos.
+     */
+    @Override
+    public String collation(Connection conexion, String tabla, String campo) throws SQLException {
+        String sql = "SELECT COLLATION_NAME FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+        try (PreparedStatement ps = conexion.prepareStatement(sql)) {
+            ps.setString(1, tabla);
+            ps.setString(2, campo);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next())
+                    return rs.getString(1);
+            }
+        }
+        try (Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery("SELECT @@collation_database")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    @Override
+    public String buildUpsert(String tabla, List<String> columnas, List<String> claves) {
+        StringBuilder sb = new StringBuilder(buildInsert(tabla, columnas)).append(" ON DUPLICATE KEY UPDATE ");
+        boolean primera = true;
+        for (String columna : columnas) {
+            if (claves.contains(columna))
+                continue;
+            if (!primera)
+                sb.append(", ");
+            sb.append(quote(columna)).append(" = VALUES(").append(quote(columna)).append(')');
+            primera = false;
+        }
+        // Si todas las columnas son clave no hay nada que actualizar: se asigna la clave a sí misma
+        if (primera)
+            sb.append(quote(claves.get(0))).append(" = ").append(quote(claves.get(0)));
+        return sb.toString();
+    }
+
+    /**
+     * unique_checks y foreign_key_checks a 0, con su valor anterior guardado en variables de la sesión.
+     * Sin unique_checks InnoDB no comprueba los índices únicos que ya existan al insertar, así que los duplicados
+     * hay que buscarlos después de la carga.
+     */
+    @Override
+    public String sqlDesactivarComprobaciones() {
+        return "SET @e2d_unique_checks = @@unique_checks, @e2d_foreign_key_checks = @@foreign_key_checks, "
+            + "unique_checks = 0, foreign_key_checks = 0";
+    }
+
+    @Override
+    public String sqlRestaurarComprobaciones() {
+        return "SET unique_checks = COALESCE(@e2d_unique_checks, 1), foreign_key_checks = COALESCE(@e2d_foreign_key_checks, 1)";
+    }
+
+    /**
+     * LOAD DATA LOCAL INFILE, si el servidor y la conexión lo permiten.
+     */
+    @Override
+    public RowWriter crearWriterMasivo(Connection conexion, TableModel tabla, int batchSize) throws SQLException {
+        if (!LocalInfileWriter.disponible(conexion, tabla))
+            return null;
+        return new LocalInfileWriter(conexion, tabla, batchSize);
+    }
+}
@@ -0,0 +1,101 @@
+package com.iesvdc.dam.acceso.dialecto;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+import com.iesvdc.dam.acceso.carga.PostgresCopyWriter;
+import com.iesvdc.dam.acceso.carga.RowWriter;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Dialecto de PostgreSQL: INSERT ... ON CONFLICT DO UPDATE y carga masiva con COPY FROM STDIN ({@link PostgresCopyWriter}).
+ * Los identificadores van entre comillas dobles, así que se respetan las mayúsculas de las cabeceras del Excel.
+ */
+public class PostgreSqlDialect extends Dialect {
+
+    @Override
+    public String getNombre() {
+        return "PostgreSQL";
+    }
+
+    @Override
+    public String buildUrl(Properties props) {
+        return "jdbc:postgresql://" + props.getProperty("host") + ":" + props.getProperty("port") + "/" + props.getProperty("database");
+    }
+
+    /**
+     * PostgreSQL no tiene CREATE DATABASE IF NOT EXISTS: se consulta pg_database desde la base de mantenimiento (postgres).
+     */
+    @Override
+    public void crearDatabase(Properties props) throws SQLException {
+        String url = "jdbc:postgresql://" + props.getProperty("host") + ":" + props.getProperty("port") + "/postgres";
+        String database = props.getProperty("database");
+        try (Connection conn = DriverManager.getConnection(url, props.getProperty("user"), props.getProperty("password"));
+             PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")) {
+            ps.setString(1, database);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next())
+                    return;
+            }
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE DATABASE " + quote(database));
+            }
+        }
+    }
+
+    @Override
+    public String sqlType(FieldType tipo) {
+        switch (tipo) {
+            case INTEGER:
+                return "BIGINT";
+            case DECIMAL:
+                return "DOUBLE PRECISION";
+            case DATE:
+                return "TIMESTAMP";
+            case BOOLEAN:
+                return "BOOLEAN";
+            default:
+                return "VARCHAR(255)";
+        }
+    }
+
+    @Override
+    public String buildUpsert(String tabla, List<String> columnas, List<String> claves) {
+        return buildInsert(tabla, columnas) + onConflict(this, columnas, claves);
+    }
+
+    /**
+     * Cláusula ON CONFLICT (claves) DO UPDATE SET col = EXCLUDED.col, que comparten PostgreSQL y SQLite.
+     */
+    static String onConflict(Dialect dialecto, List<String> columnas, List<String> claves) {
+        StringBuilder sb = new StringBuilder(" ON CONFLICT (").append(dialecto.listaColumnas(claves)).append(')');
+        boolean primera = true;
+        for (String columna : columnas) {
+            if (claves.contains(columna))
+                continue;
+            sb.append(primera ? " DO UPDATE SET " : ", ");
+            sb.append(dialecto.quote(columna)).append(" = EXCLUDED.").append(dialecto.quote(columna));
+            primera = false;
+        }
+        if (primera)
+            sb.append(" DO NOTHING");
+        return sb.toString();
+    }
+
+    /**
+     * COPY FROM STDIN, si la conexión es del driver de PostgreSQL.
+     */
+    @Override
+    public RowWriter crearWriterMasivo(Connection conexion, TableModel tabla, int batchSize) throws SQLException {
+        if (!PostgresCopyWriter.disponible(conexion))
+            return null;
+        return new PostgresCopyWriter(conexion, tabla, batchSize);
+    }
+}
@@ -0,0 +1,55 @@
+package com.iesvdc.dam.acceso.dialecto;
+
+import java.util.List;
+import java.util.Properties;
+
+import com.iesvdc.dam.acceso.modelo.FieldType;
+
+/**
+ * Dialecto de SQLite embebido. La clave database es la ruta del fichero de la base de datos y host y port no se usan.
+ * SQLite no limita la longitud de los textos, así que todos son TEXT. No tiene carga masiva propia: INSERT en batch
+ * dentro de una transacción, que es lo más rápido en SQLite.
+ */
+public class SqliteDialect extends Dialect {
+
+    @Override
+    public String getNombre() {
+        return "SQLite";
+    }
+
+    @Override
+    public String buildUrl(Properties props) {
+        return "jdbc:sqlite:" + props.getProperty("database");
+    }
+
+    @Override
+    public String sqlType(FieldType tipo) {
+        switch (tipo) {
+            case INTEGER:
+                return "INTEGER";
+            case DECIMAL:
+                return "REAL";
+            case DATE:
+                return "TIMESTAMP";
+            case BOOLEAN:
+                return "BOOLEAN";
+            default:
+                return "TEXT";
+        }
+    }
+
+    @Override
+    public String tipoTexto(int longitud) {
+        return "TEXT";
+    }
+
+    @Override
+    public String columnaAutoincremental() {
+        return "INTEGER PRIMARY KEY AUTOINCREMENT";
+    }
+
+    @Override
+    public String buildUpsert(String tabla, List<String> columnas, List<String> claves) {
+        return buildInsert(tabla, columnas) + PostgreSqlDialect.onConflict(this, columnas, claves);
+    }
+}
@@ -0,0 +1,163 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.sql.Timestamp;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+/**
+ * Acceso tipado al valor nativo de un {@link CellValue}, sin pasar por su representación en texto.
+ * Los números, booleanos y fechas se devuelven tal y como están en la celda; solo cuando la celda es de texto se interpreta
+ * el texto, y se hace sobre la propia cadena (sin trim ni subcadenas), de modo que extraer un valor no genera basura.
+ * Ninguno de los métodos modifica la celda.
+ */
+public final class CellAccessor {
+    /** Días entre el origen de fechas de Excel (30/12/1899) y el de Java (01/01/1970). */
+    private static final int DIAS_HASTA_1970 = 25569;
+    private static final long MS_POR_DIA = 86_400_000L;
+
+    private CellAccessor() { }
+
+    /**
+     * Devuelve el valor entero de la celda. Los números con decimales se truncan.
+     * @param celda celda numérica o de texto
+     * @return el valor de la celda
+     * @throws NumberFormatException si la celda no contiene un número entero
+     */
+    public static long getLong(CellValue celda) {
+        switch (celda.getCellType()) {
+            case NUMERIC:
+                return (long) celda.getNumericValue();
+            case STRING:
+                String s = celda.getStringValue();
+                int inicio = inicio(s);
+                int fin = fin(s, inicio);
+                return Long.parseLong(s, inicio, fin, 10);
+            default:
+                throw new NumberFormatException("la celda no es numérica (" + celda.getCellType() + ")");
+        }
+    }
+
+    /**
+     * Devuelve el valor decimal de la celda.
+     * @param celda celda numérica o de texto
+     * @return el valor de la celda
+     * @throws NumberFormatException si la celda no contiene un número
+     */
+    public static double getDouble(CellValue celda) {
+        switch (celda.getCellType()) {
+            case NUMERIC:
+                return celda.getNumericValue();
+            case STRING:
+                return Double.parseDouble(celda.getStringValue());
+            default:
+                throw new NumberFormatException("la celda no es numérica (" + celda.getCellType() + ")");
+        }
+    }
+
+    /**
+     * Devuelve el valor booleano de la celda: los números son verdaderos si no son 0, y los textos si son "true" (sin distinguir mayúsculas).
+     * @param celda celda booleana, numérica o de texto
+     * @return el valor de la celda
+     */
+    public static boolean getBoolean(CellValue celda) {
+        switch (celda.getCellType()) {
+            case BOOLEAN:
+                return celda.getBooleanValue();
+            case NUMERIC:
+                return celda.getNumericValue() != 0;
+            case STRING:
+                String s = celda.getStringValue();
+                int inicio = inicio(s);
+                return fin(s, inicio) - inicio == 4 && s.regionMatches(true, inicio, "true", 0, 4);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Convierte el número de serie de una fecha de Excel (sistema 1900) a un {@link Timestamp} en la zona horaria por defecto.
+     * Hace la misma cuenta que {@link org.apache.poi.ss.usermodel.DateUtil#getJavaDate(double)}, pero sin crear un Calendar por celda.
+     * @param celda celda numérica
+     * @return la fecha y hora de la celda
+     */
+    public static Timestamp getTimestamp(CellValue celda) {
+        return getTimestamp(celda.getNumericValue());
+    }
+
+    /**
+     * Convierte el número de serie de una fecha de Excel (sistema 1900) a un {@link Timestamp} en la zona horaria por defecto.
+     * @param serie número de serie de la fecha (días desde el 30/12/1899, con la hora como fracción)
+     * @return la fecha y hora
+     */
+    public static Timestamp getTimestamp(double serie) {
+        long dias = (long) Math.floor(serie);
+        long ms = Math.round((serie - dias) * MS_POR_DIA);
+        // Excel cuenta el inexistente 29/02/1900
+        if (dias < 61)
+            dias++;
+        long local = (dias - DIAS_HASTA_1970) * MS_POR_DIA + ms;
+        TimeZone zona = TimeZone.getDefault();
+        int desfase = zona.getOffset(local - zona.getRawOffset());
+        long utc = local - desfase;
+        // Una hora que no existe (salto al horario de verano) se interpreta con el desfase estándar, como hace Calendar
+        if (zona.getOffset(utc) != desfase)
+            utc = local - zona.getRawOffset();
+        return new Timestamp(utc);
+    }
+
+    /**
+     * Valida que la celda contenga un número natural: un número entero no negativo o un texto formado solo por dígitos
+     * (con espacios a los lados). Es el equivalente de {@code asString().matches("\\d+")} sin expresiones regulares ni cadenas intermedias.
+     * @param celda celda a comprobar
+     * @return true si la celda es un número natural
+     */
+    public static boolean isNatural(CellValue celda) {
+        switch (celda.getCellType()) {
+            case NUMERIC:
+                double v = celda.getNumericValue();
+                return v >= 0 && v == Math.rint(v);
+            case STRING:
+                String s = celda.getStringValue();
+                int inicio = inicio(s);
+                int fin = fin(s, inicio);
+                if (inicio == fin)
+                    return false;
+                for (int i = inicio; i < fin; i++)
+                    if (s.charAt(i) < '0' || s.charAt(i) > '9')
+                        return false;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Comprueba el valor de la celda con un validador precompilado, reutilizando su {@link Matcher}.
+     * Las celdas de texto se comprueban sobre la propia cadena, sin copiarla.
+     * @param celda celda a comprobar
+     * @param validador matcher de un {@link Pattern} compilado una sola vez; no debe compartirse entre hilos
+     * @return true si el valor de la celda cumple el patrón
+     */
+    public static boolean matches(CellValue celda, Matcher validador) {
+        if (celda.getCellType() == CellType.STRING)
+            return validador.reset(celda.getStringValue()).matches();
+        return validador.reset(celda.asString()).matches();
+    }
+
+    private static int inicio(String s) {
+        int i = 0;
+        while (i < s.length() && s.charAt(i) <= ' ')
+            i++;
+        return i;
+    }
+
+    private static int fin(String s, int inicio) {
+        int f = s.length();
+        while (f > inicio && s.charAt(f - 1) <= ' ')
+            f--;
+        return f;
+    }
+}
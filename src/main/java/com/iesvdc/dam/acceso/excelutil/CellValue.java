@@ -0,0 +1,153 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Valor de una celda leído del Excel, independiente de que se haya leído con el modelo DOM ({@link Cell}) o en modo streaming (SAX).
+ * Es un objeto mutable pensado para reutilizarse fila a fila, de modo que la lectura no genere un objeto por celda.
+ * Guarda el valor nativo de la celda:
+ *   - STRING → texto
+ *   - NUMERIC → número (double), marcando si el formato de la celda es de fecha
+ *   - BOOLEAN → booleano
+ *   - BLANK / ERROR → sin valor
+ */
+public class CellValue {
+    private CellType cellType = CellType.BLANK;
+    private boolean date;
+    private double numericValue;
+    private boolean booleanValue;
+    private String stringValue;
+
+    public CellValue() { }
+
+    public CellType getCellType() {
+        return cellType;
+    }
+
+    public boolean isBlank() {
+        return cellType == CellType.BLANK;
+    }
+
+    /**
+     * Indica si la celda es numérica con formato de fecha.
+     * @return true si el número representa una fecha de Excel
+     */
+    public boolean isDate() {
+        return date;
+    }
+
+    public double getNumericValue() {
+        return numericValue;
+    }
+
+    public boolean getBooleanValue() {
+        return booleanValue;
+    }
+
+    public String getStringValue() {
+        return stringValue;
+    }
+
+    public void setBlank() {
+        this.cellType = CellType.BLANK;
+        this.date = false;
+        this.stringValue = null;
+    }
+
+    public void setError() {
+        this.cellType = CellType.ERROR;
+        this.date = false;
+        this.stringValue = null;
+    }
+
+    public void setString(String value) {
+        this.cellType = CellType.STRING;
+        this.date = false;
+        this.stringValue = value;
+    }
+
+    public void setNumeric(double value, boolean date) {
+        this.cellType = CellType.NUMERIC;
+        this.date = date;
+        this.numericValue = value;
+        this.stringValue = null;
+    }
+
+    public void setBoolean(boolean value) {
+        this.cellType = CellType.BOOLEAN;
+        this.date = false;
+        this.booleanValue = value;
+        this.stringValue = null;
+    }
+
+    /**
+     * Copia el contenido de otra celda en esta.
+     * @param other celda de origen
+     */
+    public void copyFrom(CellValue other) {
+        this.cellType = other.cellType;
+        this.date = other.date;
+        this.numericValue = other.numericValue;
+        this.booleanValue = other.booleanValue;
+        this.stringValue = other.stringValue;
+    }
+
+    /**
+     * Rellena este valor a partir de una celda del modelo DOM de Apache POI.
+     * Las fórmulas se resuelven con el valor cacheado en el fichero, no se evalúan.
+     * @param cell celda de POI, puede ser null (se trata como vacía)
+     */
+    public void setFromCell(Cell cell) {
+        if (cell == null) {
+            setBlank();
+            return;
+        }
+        CellType tipo = cell.getCellType();
+        if (tipo == CellType.FORMULA)
+            tipo = cell.getCachedFormulaResultType();
+
+        switch (tipo) {
+            case STRING:
+                setString(cell.getStringCellValue());
+                break;
+            case NUMERIC:
+                setNumeric(cell.getNumericCellValue(), DateUtil.isCellDateFormatted(cell));
+                break;
+            case BOOLEAN:
+                setBoolean(cell.getBooleanCellValue());
+                break;
+            case ERROR:
+                setError();
+                break;
+            default:
+                setBlank();
+        }
+    }
+
+    /**
+     * Devuelve el valor de la celda como texto sin espacios a los lados.
+     * Los números enteros se devuelven sin parte decimal (7.71234646E8 → "771234646").
+     * @return el texto de la celda, nunca null (cadena vacía si no hay valor)
+     */
+    public String asString() {
+        switch (cellType) {
+            case STRING:
+                return stringValue.trim();
+            case NUMERIC:
+                if (numericValue == Math.rint(numericValue) && Math.abs(numericValue) < 1e15)
+                    return Long.toString((long) numericValue);
+                return Double.toString(numericValue);
+            case BOOLEAN:
+                return Boolean.toString(booleanValue);
+            default:
+                return "";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CellValue [cellType=" + cellType + ", value=" + asString() + (date ? ", date" : "") + "]";
+    }
+}
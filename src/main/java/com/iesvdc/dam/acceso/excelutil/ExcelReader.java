@@ -1,26 +1,39 @@
 package com.iesvdc.dam.acceso.excelutil;
 
 import java.io.FileInputStream;
+import java.io.InputStream;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 
+import com.iesvdc.dam.acceso.metricas.CountingInputStream;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
 import com.iesvdc.dam.acceso.modelo.FieldModel;
 import com.iesvdc.dam.acceso.modelo.FieldType;
 import com.iesvdc.dam.acceso.modelo.TableModel;
 import com.iesvdc.dam.acceso.modelo.WorkbookModel;
 
-public class ExcelReader {
+public class ExcelReader implements RowSource {
     private Workbook wb;
     private WorkbookModel wbm;
+    private boolean streaming;
+    private int inferenceSample;
     private final double EPSILON = 1e-10;
     
     public ExcelReader() { }
 
+    /**
+     * @param streaming true para leer en modo streaming (con el {@link RowSource} del formato del fichero), false para cargar
+     *                  el libro completo (DOM)
+     */
+    public ExcelReader(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     public Workbook getWb() {
         return wb;
     }
@@ -37,6 +50,25 @@ public class ExcelReader {
         this.wbm = wbm;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getInferenceSample() {
+        return inferenceSample;
+    }
+
+    /**
+     * @param inferenceSample número de filas de datos que se observan para deducir los tipos de cada hoja (0 = todas)
+     */
+    public void setInferenceSample(int inferenceSample) {
+        this.inferenceSample = inferenceSample;
+    }
+
     /**
      * Determina el tipo de dato contenido en una celda de Excel y lo asigna a un {@link FieldType} personalizado.
      * Analiza tanto tipos básicos como valores numéricos y fechas.
@@ -80,46 +112,184 @@ public class ExcelReader {
     }
 
     /**
-     * Carga un archivo Excel (.xlsx) desde disco y analiza su estructura para construir un {@link WorkbookModel} que representa las tablas y sus campos.
+     * Determina el tipo de dato de una celda ya leída (en modo DOM o streaming) con el mismo criterio que {@link #getTipoDato(Cell)}.
+     *
+     * @param cell valor de la celda a analizar
+     * @return el tipo de dato deducido como {@link FieldType}, o UNKNOWN si no se reconoce
+     */
+    public FieldType getTipoDato(CellValue cell) {
+        if (cell == null)
+            return FieldType.UNKNOWN;
+
+        switch (cell.getCellType()) {
+            case STRING:
+                return FieldType.STRING;
+
+            case NUMERIC:
+                if (cell.isDate())
+                    return FieldType.DATE;
+                else {
+                    double valor = cell.getNumericValue();
+                    if (Math.abs(valor - Math.floor(valor)) < EPSILON)
+                        return FieldType.INTEGER;
+                    else
+                        return FieldType.DECIMAL;
+                }
+
+            case BOOLEAN:
+                return FieldType.BOOLEAN;
+
+            default:
+                return FieldType.UNKNOWN;
+        }
+    }
+
+    /**
+     * Carga un archivo Excel (.xlsx, .xls), OpenDocument (.ods) o CSV desde disco y analiza su estructura para construir un {@link WorkbookModel} que representa las tablas y sus campos.
      * El proceso ejecutado es:
-     *   - Abrir el fichero Excel mediante Apache POI
+     *   - Abrir el fichero Excel mediante Apache POI (libro completo o en streaming, según {@link #isStreaming()})
      *   - Recorrer cada hoja del libro como si fuera una tabla
      *   - Tomar la primera fila como cabeceras de columnas
-     *   - Tomar la segunda fila como muestra para deducir tipos de datos
-     *   - Crear {@link FieldModel} por columna con nombre y tipo
+     *   - Recorrer las filas de datos (todas o las {@link #getInferenceSample()} primeras) con un {@link TypeInferrer}
+     *     que amplía el tipo de cada columna y anota su longitud máxima y si tiene vacíos
+     *   - Crear {@link FieldModel} por columna con nombre, tipo, longitud y nulabilidad
      *   - Añadir la tabla construida al {@link WorkbookModel}
      * Si ocurre un error de lectura, este se captura y se muestra un mensaje por consola sin detener la aplicación.
      *
      * @param filename ruta del archivo Excel a cargar
      */
     public void loadWorkbook(String filename) {
-        try (FileInputStream fis = new FileInputStream(filename)) {
-            wb = new XSSFWorkbook(fis);
-            wbm = new WorkbookModel();
-            
+        try {
+            ModelBuilder builder = new ModelBuilder();
+            readRows(filename, builder);
+            wbm = builder.getModel();
+            System.out.println("---TABLAS---");
+            System.out.println(wbm.toString());
+        } catch (Exception e) {
+            System.out.println("Imposible cargar el archivo Excel");
+        }
+    }
+
+    /**
+     * Recorre todas las hojas del libro y entrega sus filas, una a una, al receptor indicado.
+     * En modo streaming la memoria usada es constante; en modo DOM el libro se carga completo y queda accesible con {@link #getWb()}.
+     * Los CSV y los .ods se leen siempre en streaming, porque Apache POI no tiene modelo DOM para ellos.
+     * Las filas leídas, los bytes leídos (del fichero en modo DOM, de lo que recorre el lector en streaming) y el tiempo de cada
+     * hoja se anotan en {@link ImportMetrics}.
+     *
+     * @param filename ruta del archivo Excel a leer
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    public void readRows(String filename, SheetRowHandler handler) throws Exception {
+        readSheetRows(filename, -1, handler);
+    }
+
+    /**
+     * Recorre una hoja del libro y entrega sus filas, una a una, al receptor indicado.
+     *
+     * @param filename ruta del archivo Excel a leer
+     * @param sheetIndex posición de la hoja (empezando en 0), o -1 para todas
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    public void readSheetRows(String filename, int sheetIndex, SheetRowHandler handler) throws Exception {
+        FileFormat formato = FileFormat.detectar(filename);
+        if (streaming || formato == FileFormat.CSV || formato == FileFormat.ODS) {
+            RowSource.of(filename).process(filename, sheetIndex, handler);
+            return;
+        }
+        ImportMetrics metricas = ImportMetrics.get();
+        try (InputStream fis = new CountingInputStream(new FileInputStream(filename), metricas)) {
+            // .xlsx o .xls, según el contenido del fichero
+            wb = WorkbookFactory.create(fis);
+            SheetRow fila = new SheetRow();
             int numHojas = wb.getNumberOfSheets();
-            
+
             for (int i=0; i<numHojas; i++) {
+                if (sheetIndex >= 0 && sheetIndex != i)
+                    continue;
                 Sheet hojaActual = wb.getSheetAt(i);
-                // El nombre de la tabla es el nombre de la hoja
-                TableModel tabla = new TableModel(hojaActual.getSheetName());
-                
-                // De la primera fila obtengo las cabeceras
-                Row pFila = hojaActual.getRow(0);
-                Row sFila = hojaActual.getRow(1);
-                //Obtengo el numero de columnas
-                int nCols = pFila.getLastCellNum();
-                for (int j=0; j<nCols;j++) {
-                    FieldModel campo = new FieldModel (pFila.getCell(j).getStringCellValue(), getTipoDato(sFila.getCell(j)));
-                    tabla.addField(campo);
-                }                
-                wbm.addTable(tabla);
+                long inicio = System.nanoTime();
+                long filasLeidas = 0;
+                metricas.inicioHoja(hojaActual.getSheetName());
+                handler.startSheet(i, hojaActual.getSheetName());
+                int primeraFila = handler.firstRow();
+                boolean cabeceraEntregada = false;
+                try {
+                    for (Row row : hojaActual) {
+                        if (cabeceraEntregada && row.getRowNum() < primeraFila)
+                            continue;
+                        fila.reset(row.getRowNum());
+                        boolean conDatos = false;
+                        for (Cell cell : row) {
+                            CellValue valor = fila.cell(cell.getColumnIndex());
+                            valor.setFromCell(cell);
+                            conDatos |= !valor.isBlank();
+                        }
+                        if (conDatos) {
+                            cabeceraEntregada = true;
+                            filasLeidas++;
+                            handler.row(fila);
+                        }
+                    }
+                } catch (SkipSheetException e) {
+                    // El receptor no necesita más filas de esta hoja
+                } finally {
+                    metricas.addFilasLeidas(filasLeidas);
+                }
+                handler.endSheet();
+                metricas.finHoja(hojaActual.getSheetName(), System.nanoTime() - inicio, filasLeidas);
             }
-            System.out.println("---TABLAS---");
-            System.out.println(wbm.toString());
             wb.close();
-        } catch (Exception e) {
-            System.out.println("Imposible cargar el archivo Excel");
+        }
+    }
+
+    /**
+     * Equivale a {@link #readSheetRows}, para usar este lector (streaming o DOM) donde se espera un {@link RowSource}.
+     */
+    @Override
+    public void process(String filename, int sheetIndex, SheetRowHandler handler) throws Exception {
+        readSheetRows(filename, sheetIndex, handler);
+    }
+
+    /**
+     * Receptor de filas que construye el {@link WorkbookModel}: la primera fila de cada hoja da los nombres de los campos
+     * y las siguientes, observadas con un {@link TypeInferrer}, sus tipos.
+     */
+    private class ModelBuilder implements SheetRowHandler {
+        private final WorkbookModel modelo = new WorkbookModel();
+        private final TypeInferrer inferencia = new TypeInferrer(ExcelReader.this, inferenceSample);
+        private TableModel tabla;
+        private boolean cabecera;
+
+        @Override
+        public void startSheet(int index, String name) {
+            // El nombre de la tabla es el nombre de la hoja
+            tabla = new TableModel(name);
+            cabecera = true;
+        }
+
+        @Override
+        public void row(SheetRow fila) throws SkipSheetException {
+            if (cabecera) {
+                // De la primera fila obtengo las cabeceras
+                inferencia.start(fila);
+                cabecera = false;
+            } else if (!inferencia.observe(fila)) {
+                throw new SkipSheetException();
+            }
+        }
+
+        @Override
+        public void endSheet() {
+            if (!cabecera)
+                inferencia.addFields(tabla);
+            modelo.addTable(tabla);
+        }
+
+        WorkbookModel getModel() {
+            return modelo;
         }
     }
 }
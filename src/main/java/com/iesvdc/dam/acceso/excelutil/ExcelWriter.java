@@ -0,0 +1,154 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Escritor de libros Excel (.xlsx) en streaming con {@link SXSSFWorkbook}: solo se mantienen en memoria las últimas
+ * {@code ventana} filas de cada hoja; el resto se vuelca a ficheros temporales (opcionalmente comprimidos con gzip)
+ * y se ensambla al guardar. Así el heap usado no depende del número de filas exportadas.
+ * Cada tabla se escribe en una hoja cuyo nombre es el de la tabla y cuya primera fila son los nombres de los campos;
+ * si una tabla supera el máximo de filas de una hoja de Excel, continúa en hojas "tabla (2)", "tabla (3)", ...
+ * Varias tablas pueden escribirse a la vez desde hilos distintos, siempre que cada hilo escriba en sus propias hojas.
+ */
+public class ExcelWriter implements AutoCloseable {
+    /** Máximo de celdas de texto en Excel. */
+    private static final int MAX_TEXTO = SpreadsheetVersion.EXCEL2007.getMaxTextLength();
+    /** Filas de datos por hoja (la primera fila de cada hoja es la cabecera). */
+    private static final int MAX_FILAS = SpreadsheetVersion.EXCEL2007.getMaxRows() - 1;
+    private static final int BLOQUE_METRICAS = 1024;
+
+    private final SXSSFWorkbook wb;
+    private final CellStyle estiloFecha;
+
+    /**
+     * @param ventana filas que se mantienen en memoria por hoja
+     * @param comprimirTemporales true para comprimir con gzip los ficheros temporales de cada hoja
+     */
+    public ExcelWriter(int ventana, boolean comprimirTemporales) {
+        wb = new SXSSFWorkbook(ventana);
+        wb.setCompressTempFiles(comprimirTemporales);
+        estiloFecha = wb.createCellStyle();
+        estiloFecha.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+    }
+
+    /**
+     * Crea una hoja para la tabla con la fila de cabeceras.
+     * @param tabla modelo de la tabla
+     * @param parte número de hoja de la tabla (1 para la primera)
+     * @return la hoja creada
+     */
+    public synchronized SXSSFSheet createSheet(TableModel tabla, int parte) {
+        String nombre = parte == 1 ? tabla.getName() : tabla.getName() + " (" + parte + ")";
+        SXSSFSheet hoja = wb.createSheet(WorkbookUtil.createSafeSheetName(nombre));
+        Row cabecera = hoja.createRow(0);
+        List<FieldModel> campos = tabla.getFields();
+        for (int j = 0; j < campos.size(); j++)
+            cabecera.createCell(j).setCellValue(campos.get(j).getName());
+        return hoja;
+    }
+
+    /**
+     * Vuelca todas las filas del ResultSet en hojas del libro, leyendo cada columna con el getter de su tipo.
+     * Las filas escritas y el tiempo de la tabla se anotan en {@link ImportMetrics}.
+     * @param tabla modelo de la tabla (los campos en el orden de las columnas del ResultSet)
+     * @param rs resultado de la consulta, recorrido hacia delante una sola vez
+     * @return número de filas escritas
+     * @throws SQLException si falla la lectura del ResultSet
+     */
+    public long writeRows(TableModel tabla, ResultSet rs) throws SQLException {
+        ImportMetrics metricas = ImportMetrics.get();
+        long inicio = System.nanoTime();
+        metricas.inicioHoja(tabla.getName());
+        List<FieldModel> campos = tabla.getFields();
+        int parte = 1;
+        SXSSFSheet hoja = createSheet(tabla, parte);
+        int numFila = 0;
+        long total = 0;
+        while (rs.next()) {
+            if (numFila == MAX_FILAS) {
+                hoja = createSheet(tabla, ++parte);
+                numFila = 0;
+            }
+            Row fila = hoja.createRow(++numFila);
+            for (int j = 0; j < campos.size(); j++)
+                writeCell(fila, j, campos.get(j), rs);
+            // Las filas escritas se suman a las métricas por bloques
+            if (++total % BLOQUE_METRICAS == 0)
+                metricas.addFilasEscritas(BLOQUE_METRICAS);
+        }
+        metricas.addFilasEscritas(total % BLOQUE_METRICAS);
+        metricas.finHoja(tabla.getName(), System.nanoTime() - inicio, total);
+        return total;
+    }
+
+    private void writeCell(Row fila, int j, FieldModel campo, ResultSet rs) throws SQLException {
+        int col = j + 1;
+        switch (campo.getType()) {
+            case INTEGER:
+                long l = rs.getLong(col);
+                if (!rs.wasNull())
+                    fila.createCell(j).setCellValue(l);
+                break;
+            case DECIMAL:
+                double d = rs.getDouble(col);
+                if (!rs.wasNull())
+                    fila.createCell(j).setCellValue(d);
+                break;
+            case BOOLEAN:
+                boolean b = rs.getBoolean(col);
+                if (!rs.wasNull())
+                    fila.createCell(j).setCellValue(b);
+                break;
+            case DATE:
+                Timestamp t = rs.getTimestamp(col);
+                if (t != null) {
+                    Cell celda = fila.createCell(j);
+                    celda.setCellValue(t.toLocalDateTime());
+                    celda.setCellStyle(estiloFecha);
+                }
+                break;
+            default:
+                String s = rs.getString(col);
+                if (s != null)
+                    fila.createCell(j).setCellValue(s.length() > MAX_TEXTO ? s.substring(0, MAX_TEXTO) : s);
+        }
+    }
+
+    /**
+     * Guarda el libro en disco.
+     * @param filename ruta del fichero .xlsx de salida
+     * @throws IOException si no se puede escribir el fichero
+     */
+    public void write(String filename) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(filename)) {
+            wb.write(fos);
+        }
+    }
+
+    /**
+     * Cierra el libro y borra sus ficheros temporales.
+     * @throws IOException si falla el cierre
+     */
+    @Override
+    public void close() throws IOException {
+        // En POI 5 close() también borra los ficheros temporales
+        wb.close();
+    }
+}
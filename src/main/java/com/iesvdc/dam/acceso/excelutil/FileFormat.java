@@ -0,0 +1,57 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formatos de fichero de entrada admitidos. El formato se deduce de los primeros bytes del fichero (su "número mágico"),
+ * así que un .xls renombrado a .xlsx, o un CSV sin extensión, se leen igualmente con el lector adecuado:
+ *   - D0 CF 11 E0 A1 B1 1A E1 (contenedor OLE2) → XLS
+ *   - PK 03 04 (zip) con una primera entrada "mimetype" de hoja de cálculo OpenDocument → ODS; cualquier otro zip → XLSX
+ *   - Cualquier otra cosa → CSV
+ */
+public enum FileFormat {
+    XLSX,
+    XLS,
+    ODS,
+    CSV;
+
+    private static final byte[] OLE2 = { (byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1 };
+    private static final byte[] ZIP = { 'P', 'K', 3, 4 };
+    /** Posición del nombre de la primera entrada en la cabecera local de un zip. */
+    private static final int NOMBRE_ENTRADA = 30;
+    /** Un documento ODF empieza por la entrada "mimetype", sin comprimir, seguida de su contenido. */
+    private static final String MIME_ODS = "mimetypeapplication/vnd.oasis.opendocument.spreadsheet";
+
+    /**
+     * Detecta el formato de un fichero a partir de sus primeros bytes.
+     * @param filename ruta del fichero
+     * @return el formato del fichero
+     * @throws IOException si no se puede leer
+     */
+    public static FileFormat detectar(String filename) throws IOException {
+        byte[] cabecera = new byte[NOMBRE_ENTRADA + MIME_ODS.length()];
+        int leidos;
+        try (InputStream in = new FileInputStream(filename)) {
+            leidos = in.readNBytes(cabecera, 0, cabecera.length);
+        }
+        if (empiezaPor(cabecera, leidos, OLE2))
+            return XLS;
+        if (empiezaPor(cabecera, leidos, ZIP)) {
+            String entrada = new String(cabecera, NOMBRE_ENTRADA, Math.max(0, leidos - NOMBRE_ENTRADA), StandardCharsets.US_ASCII);
+            return entrada.equals(MIME_ODS) ? ODS : XLSX;
+        }
+        return CSV;
+    }
+
+    private static boolean empiezaPor(byte[] datos, int longitud, byte[] prefijo) {
+        if (longitud < prefijo.length)
+            return false;
+        for (int i = 0; i < prefijo.length; i++)
+            if (datos[i] != prefijo[i])
+                return false;
+        return true;
+    }
+}
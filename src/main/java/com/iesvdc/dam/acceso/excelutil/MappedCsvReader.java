@@ -0,0 +1,395 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+
+/**
+ * Lector de ficheros CSV (UTF-8) que los proyecta en memoria con {@link FileChannel#map} en vez de leerlos por un flujo:
+ * los límites de los campos se buscan directamente sobre las páginas del fichero, sin descomprimir nada. Para convertirlo,
+ * cada campo con datos se copia a un array de bytes que se reutiliza en toda la lectura, así que no se reserva memoria
+ * por campo, y solo se crea un String para las celdas de texto (los enteros se leen de esos bytes).
+ * El fichero se trata como un libro de una sola hoja, con el nombre del fichero sin extensión, cuya primera fila
+ * son las cabeceras. Para parecerse a lo que se leería de un Excel, cada celda se convierte a su tipo natural:
+ *   - vacía → sin valor
+ *   - entero (sin ceros a la izquierda) o decimal con punto → número; "007" se queda como texto
+ *   - true / false (sin distinguir mayúsculas) → booleano
+ *   - yyyy-MM-dd, opcionalmente con hora (yyyy-MM-dd HH:mm[:ss], o con T) → fecha
+ *   - cualquier otra cosa → texto
+ * El separador (coma, punto y coma, tabulador o barra vertical) se deduce de la línea de cabeceras. Se admiten campos entre
+ * comillas dobles, con comillas dobladas ("") y saltos de línea dentro, finales de línea LF o CRLF y la marca BOM de UTF-8.
+ * Los ficheros de más de {@link #VENTANA} bytes se proyectan por tramos.
+ */
+public class MappedCsvReader implements RowSource {
+    /** Bytes que se proyectan de una vez; un registro no puede ser más largo. */
+    static final long VENTANA = 1L << 30;
+    private static final char[] SEPARADORES = { ',', ';', '\t', '|' };
+    /** Las filas leídas se suman a las métricas cada tantas filas, para no tocar un contador compartido por fila. */
+    private static final int BLOQUE_METRICAS = 1024;
+
+    public MappedCsvReader() { }
+
+    /**
+     * Lee el fichero CSV y entrega sus filas al receptor.
+     * @param filename ruta del fichero CSV
+     * @param sheetIndex 0 o -1 para leerlo; cualquier otra hoja no existe y no se entrega nada
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    @Override
+    public void process(String filename, int sheetIndex, SheetRowHandler handler) throws Exception {
+        if (sheetIndex > 0)
+            return;
+        Path ruta = Paths.get(filename);
+        String nombre = ruta.getFileName().toString();
+        if (nombre.lastIndexOf('.') > 0)
+            nombre = nombre.substring(0, nombre.lastIndexOf('.'));
+
+        ImportMetrics metricas = ImportMetrics.get();
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            long inicio = System.nanoTime();
+            metricas.inicioHoja(nombre);
+            handler.startSheet(0, nombre);
+            Lectura lectura = new Lectura(handler, handler.firstRow());
+            try {
+                try {
+                    lectura.recorrer(canal);
+                } catch (SkipSheetException e) {
+                    // El receptor no quiere más filas
+                }
+                handler.endSheet();
+            } finally {
+                metricas.addFilasLeidas(lectura.sinContar);
+                metricas.finHoja(nombre, System.nanoTime() - inicio, lectura.filasLeidas);
+            }
+        }
+    }
+
+    /**
+     * Estado de la lectura de un fichero: los límites de los campos del registro en curso y la fila reutilizable.
+     */
+    private static class Lectura {
+        private final SheetRowHandler handler;
+        private final int primeraFila;
+        private final SheetRow fila = new SheetRow();
+
+        private byte separador = ',';
+        private int campos;
+        private int[] inicios = new int[16];
+        private int[] fines = new int[16];
+        private boolean[] comillas = new boolean[16];
+        private byte[] bytes = new byte[256];
+
+        private int numFila;
+        private long filasLeidas;
+        private int sinContar;
+        private boolean cabeceraEntregada;
+
+        Lectura(SheetRowHandler handler, int primeraFila) {
+            this.handler = handler;
+            this.primeraFila = primeraFila;
+        }
+
+        /**
+         * Proyecta el fichero por tramos y entrega sus registros. Cada tramo empieza en el primer registro que no
+         * cupo entero en el anterior.
+         */
+        void recorrer(FileChannel canal) throws Exception {
+            long tamano = canal.size();
+            long base = 0;
+            boolean primera = true;
+            while (base < tamano) {
+                int limite = (int) Math.min(VENTANA, tamano - base);
+                boolean ultima = base + limite == tamano;
+                MappedByteBuffer buf = canal.map(FileChannel.MapMode.READ_ONLY, base, limite);
+                int p = 0;
+                if (primera) {
+                    if (limite >= 3 && buf.get(0) == (byte) 0xEF && buf.get(1) == (byte) 0xBB && buf.get(2) == (byte) 0xBF)
+                        p = 3;
+                    separador = detectarSeparador(buf, p, limite);
+                    primera = false;
+                }
+                try {
+                    while (p < limite) {
+                        int siguiente = leerRegistro(buf, p, limite, ultima);
+                        if (siguiente < 0)
+                            break;
+                        entregar(buf);
+                        p = siguiente;
+                    }
+                } finally {
+                    ImportMetrics.get().addBytesLeidos(p);
+                }
+                if (p == 0 && !ultima)
+                    throw new IOException("El registro " + (numFila + 1) + " ocupa más de " + VENTANA + " bytes");
+                base += p;
+            }
+        }
+
+        /**
+         * Cuenta, fuera de comillas, los posibles separadores de la primera línea y se queda con el más frecuente.
+         */
+        private static byte detectarSeparador(MappedByteBuffer buf, int p, int limite) {
+            int[] cuentas = new int[SEPARADORES.length];
+            boolean entreComillas = false;
+            for (int i = p; i < limite; i++) {
+                byte b = buf.get(i);
+                if (b == '"')
+                    entreComillas = !entreComillas;
+                else if (!entreComillas && (b == '\n' || b == '\r'))
+                    break;
+                else if (!entreComillas)
+                    for (int k = 0; k < SEPARADORES.length; k++)
+                        if (b == SEPARADORES[k])
+                            cuentas[k]++;
+            }
+            int mejor = 0;
+            for (int k = 1; k < SEPARADORES.length; k++)
+                if (cuentas[k] > cuentas[mejor])
+                    mejor = k;
+            return (byte) SEPARADORES[mejor];
+        }
+
+        /**
+         * Localiza los campos del registro que empieza en p.
+         * @return la posición del registro siguiente, o -1 si el registro no termina en este tramo y quedan más
+         */
+        private int leerRegistro(MappedByteBuffer buf, int p, int limite, boolean ultima) {
+            campos = 0;
+            int i = p;
+            while (true) {
+                int inicio;
+                int fin;
+                boolean entreComillas = i < limite && buf.get(i) == '"';
+                if (entreComillas) {
+                    inicio = ++i;
+                    while (true) {
+                        if (i >= limite) {
+                            if (!ultima)
+                                return -1;
+                            fin = limite;
+                            break;
+                        }
+                        if (buf.get(i) == '"') {
+                            if (i + 1 >= limite && !ultima)
+                                return -1;
+                            if (i + 1 < limite && buf.get(i + 1) == '"') {
+                                i += 2;
+                                continue;
+                            }
+                            fin = i++;
+                            break;
+                        }
+                        i++;
+                    }
+                    // Lo que haya entre la comilla de cierre y el separador se ignora
+                    while (i < limite && buf.get(i) != separador && buf.get(i) != '\n' && buf.get(i) != '\r')
+                        i++;
+                } else {
+                    inicio = i;
+                    while (i < limite && buf.get(i) != separador && buf.get(i) != '\n' && buf.get(i) != '\r')
+                        i++;
+                    fin = i;
+                }
+                anadirCampo(inicio, fin, entreComillas);
+
+                if (i >= limite)
+                    return ultima ? limite : -1;
+                byte b = buf.get(i);
+                if (b == separador) {
+                    i++;
+                } else if (b == '\r') {
+                    if (i + 1 < limite)
+                        return buf.get(i + 1) == '\n' ? i + 2 : i + 1;
+                    return ultima ? limite : -1;
+                } else {
+                    return i + 1;
+                }
+            }
+        }
+
+        private void anadirCampo(int inicio, int fin, boolean entreComillas) {
+            if (campos == inicios.length) {
+                inicios = Arrays.copyOf(inicios, campos * 2);
+                fines = Arrays.copyOf(fines, campos * 2);
+                comillas = Arrays.copyOf(comillas, campos * 2);
+            }
+            inicios[campos] = inicio;
+            fines[campos] = fin;
+            comillas[campos] = entreComillas;
+            campos++;
+        }
+
+        /**
+         * Convierte los campos del registro en curso y entrega la fila, salvo que esté vacía o sea anterior a la primera pedida.
+         */
+        private void entregar(MappedByteBuffer buf) throws Exception {
+            int num = numFila++;
+            if (campos == 1 && inicios[0] == fines[0])
+                return;
+            // Las filas anteriores a la primera pedida se saltan sin convertir sus campos
+            if (cabeceraEntregada && num < primeraFila)
+                return;
+            fila.reset(num);
+            boolean conDatos = false;
+            for (int j = 0; j < campos; j++) {
+                if (inicios[j] < fines[j]) {
+                    decodificar(buf, inicios[j], fines[j], comillas[j], fila.cell(j));
+                    conDatos = true;
+                }
+            }
+            if (!conDatos)
+                return;
+            cabeceraEntregada = true;
+            filasLeidas++;
+            if (++sinContar == BLOQUE_METRICAS) {
+                ImportMetrics.get().addFilasLeidas(sinContar);
+                sinContar = 0;
+            }
+            handler.row(fila);
+        }
+
+        private void decodificar(MappedByteBuffer buf, int inicio, int fin, boolean entreComillas, CellValue celda) {
+            int len = fin - inicio;
+            if (len > bytes.length)
+                bytes = new byte[Math.max(len, bytes.length * 2)];
+            buf.get(inicio, bytes, 0, len);
+            if (entreComillas && indiceDe(bytes, len, (byte) '"') >= 0) {
+                // Con comillas dobladas dentro no puede ser un número ni una fecha
+                celda.setString(new String(bytes, 0, len, StandardCharsets.UTF_8).replace("\"\"", "\""));
+                return;
+            }
+            if (!decodificarEntero(bytes, len, celda) && !decodificarDecimal(bytes, len, celda)
+                    && !decodificarBooleano(bytes, len, celda) && !decodificarFecha(bytes, len, celda))
+                celda.setString(new String(bytes, 0, len, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static int indiceDe(byte[] bytes, int len, byte b) {
+        for (int i = 0; i < len; i++)
+            if (bytes[i] == b)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Enteros de hasta 18 cifras, leídos de los bytes sin crear un String. Con ceros a la izquierda se dejan como texto
+     * (códigos postales, referencias), igual que Excel no los guardaría como número.
+     */
+    static boolean decodificarEntero(byte[] bytes, int len, CellValue celda) {
+        int signo = bytes[0] == '-' ? 1 : 0;
+        int cifras = len - signo;
+        if (cifras < 1 || cifras > 18 || (cifras > 1 && bytes[signo] == '0'))
+            return false;
+        long valor = 0;
+        for (int i = signo; i < len; i++) {
+            int d = bytes[i] - '0';
+            if (d < 0 || d > 9)
+                return false;
+            valor = valor * 10 + d;
+        }
+        celda.setNumeric(signo == 1 ? -valor : valor, false);
+        return true;
+    }
+
+    /**
+     * Números con punto decimal o exponente. Solo se intenta si el campo empieza como un número,
+     * para no lanzar una excepción por cada celda de texto.
+     */
+    static boolean decodificarDecimal(byte[] bytes, int len, CellValue celda) {
+        byte b = bytes[0];
+        if (!(b >= '0' && b <= '9') && b != '-' && b != '+' && b != '.')
+            return false;
+        for (int i = 0; i < len; i++) {
+            byte c = bytes[i];
+            if (!(c >= '0' && c <= '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E')
+                return false;
+        }
+        // Como en los enteros, "007.5" o "0012" no son números
+        int signo = b == '-' || b == '+' ? 1 : 0;
+        if (len > signo + 1 && bytes[signo] == '0' && bytes[signo + 1] >= '0' && bytes[signo + 1] <= '9')
+            return false;
+        try {
+            celda.setNumeric(Double.parseDouble(new String(bytes, 0, len, StandardCharsets.US_ASCII)), false);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static boolean decodificarBooleano(byte[] bytes, int len, CellValue celda) {
+        if (len == 4 && igualSinMayusculas(bytes, "true")) {
+            celda.setBoolean(true);
+            return true;
+        }
+        if (len == 5 && igualSinMayusculas(bytes, "false")) {
+            celda.setBoolean(false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fechas ISO: yyyy-MM-dd, yyyy-MM-dd HH:mm o yyyy-MM-dd HH:mm:ss (también con T). Se guardan como el número de serie
+     * de Excel, marcado como fecha, igual que una celda de fecha de un .xlsx. Una fecha imposible (2024-02-30) se deja como texto.
+     */
+    static boolean decodificarFecha(byte[] bytes, int len, CellValue celda) {
+        if ((len != 10 && len != 16 && len != 19) || bytes[4] != '-' || bytes[7] != '-')
+            return false;
+        int anio = cifras(bytes, 0, 4);
+        int mes = cifras(bytes, 5, 2);
+        int dia = cifras(bytes, 8, 2);
+        int hora = 0;
+        int minuto = 0;
+        int segundo = 0;
+        if (len > 10) {
+            if ((bytes[10] != ' ' && bytes[10] != 'T') || bytes[13] != ':')
+                return false;
+            hora = cifras(bytes, 11, 2);
+            minuto = cifras(bytes, 14, 2);
+            if (len == 19) {
+                if (bytes[16] != ':')
+                    return false;
+                segundo = cifras(bytes, 17, 2);
+            }
+        }
+        if (anio < 0 || mes < 0 || dia < 0 || hora < 0 || minuto < 0 || segundo < 0)
+            return false;
+        try {
+            celda.setNumeric(DateUtil.getExcelDate(LocalDateTime.of(anio, mes, dia, hora, minuto, segundo)), true);
+            return true;
+        } catch (DateTimeException e) {
+            return false;
+        }
+    }
+
+    /** Valor de n cifras a partir de la posición indicada, o -1 si alguna no es una cifra. */
+    private static int cifras(byte[] bytes, int desde, int n) {
+        int valor = 0;
+        for (int i = desde; i < desde + n; i++) {
+            int d = bytes[i] - '0';
+            if (d < 0 || d > 9)
+                return -1;
+            valor = valor * 10 + d;
+        }
+        return valor;
+    }
+
+    private static boolean igualSinMayusculas(byte[] bytes, String palabra) {
+        for (int i = 0; i < palabra.length(); i++)
+            if (Character.toLowerCase((char) bytes[i]) != palabra.charAt(i))
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,37 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+/**
+ * Receptor de los bloques de filas en bruto de {@link StreamingExcelReader#processBloques}.
+ * El receptor da los bloques vacíos ({@link #bloqueLibre}) y los recupera llenos ({@link #bloque}), de modo que puede
+ * reciclarlos y acotar cuántos hay en circulación. Todas las llamadas se hacen desde el hilo que lee el XML.
+ */
+public interface RawBlockHandler {
+    /**
+     * Se llama al empezar cada hoja.
+     * @param index posición de la hoja en el libro (empezando en 0)
+     * @param name nombre de la hoja
+     * @throws Exception si el receptor no puede procesar la hoja
+     */
+    void startSheet(int index, String name) throws Exception;
+
+    /**
+     * Devuelve un bloque vacío donde copiar las siguientes filas; puede esperar a que se libere alguno.
+     * @return un bloque vacío
+     * @throws Exception si no se puede obtener
+     */
+    RawRowBlock bloqueLibre() throws Exception;
+
+    /**
+     * Recibe un bloque lleno, o el último de la hoja (con menos filas o ninguna), en el orden de la hoja.
+     * La primera fila del primer bloque de cada hoja es la de cabeceras.
+     * @param bloque bloque con las filas en bruto; el receptor pasa a ser su dueño
+     * @throws Exception si el receptor falla (se detiene la lectura)
+     */
+    void bloque(RawRowBlock bloque) throws Exception;
+
+    /**
+     * Se llama al terminar cada hoja, después de su último bloque.
+     * @throws Exception si el receptor falla
+     */
+    void endSheet() throws Exception;
+}
@@ -0,0 +1,158 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+
+/**
+ * Bloque de filas de una hoja tal como vienen en el XML, sin interpretar: por cada celda con valor, su columna,
+ * su tipo (atributo t), si su estilo es de fecha y la posición de su texto en un único buffer de caracteres.
+ * {@link StreamingExcelReader#processBloques} lo rellena en el hilo que lee el XML, que así solo analiza etiquetas;
+ * la decodificación ({@link #decodificar}: cadenas compartidas, números, booleanos) la hace después quien recibe el bloque,
+ * en el hilo que quiera. Los arrays se reutilizan: tras {@link #clear()} el bloque sirve para las siguientes filas.
+ * No es seguro para varios hilos a la vez: el bloque pasa de uno a otro.
+ */
+public class RawRowBlock {
+    private final int capacidad;
+    private final int[] filas;
+    /** Índice de la primera celda de cada fila; la fila i ocupa las celdas [primeraCelda[i], primeraCelda[i + 1]). */
+    private final int[] primeraCelda;
+    private int size;
+
+    private int[] columnas;
+    private byte[] tipos;
+    private boolean[] fechas;
+    private int[] inicios;
+    private int[] fines;
+    private int celdas;
+
+    private char[] texto;
+    private CharBuffer vista;
+    private int longitud;
+    private int inicioCelda;
+
+    private ReadOnlySharedStringsTable sst;
+
+    /**
+     * @param capacidad filas que caben en el bloque
+     */
+    public RawRowBlock(int capacidad) {
+        this.capacidad = capacidad;
+        this.filas = new int[capacidad];
+        this.primeraCelda = new int[capacidad + 1];
+        int celdasIniciales = Math.max(16, capacidad * 8);
+        columnas = new int[celdasIniciales];
+        tipos = new byte[celdasIniciales];
+        fechas = new boolean[celdasIniciales];
+        inicios = new int[celdasIniciales];
+        fines = new int[celdasIniciales];
+        texto = new char[celdasIniciales * 8];
+        vista = CharBuffer.wrap(texto);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    public boolean isLleno() {
+        return size == capacidad;
+    }
+
+    /**
+     * Número de la fila en la hoja (empezando en 0).
+     * @param fila posición de la fila en el bloque
+     * @return el número de fila original
+     */
+    public int getRowNum(int fila) {
+        return filas[fila];
+    }
+
+    /**
+     * Vacía el bloque para reutilizarlo, sin liberar los arrays.
+     */
+    public void clear() {
+        size = 0;
+        celdas = 0;
+        longitud = 0;
+        primeraCelda[0] = 0;
+        sst = null;
+    }
+
+    /**
+     * Decodifica una fila del bloque en una {@link SheetRow}, igual que lo haría {@link StreamingExcelReader#process}.
+     * Se puede llamar desde cualquier hilo mientras nadie esté rellenando el bloque.
+     * @param fila posición de la fila en el bloque
+     * @param destino fila reutilizable donde dejar los valores
+     */
+    public void decodificar(int fila, SheetRow destino) {
+        destino.reset(filas[fila]);
+        for (int k = primeraCelda[fila]; k < primeraCelda[fila + 1]; k++)
+            StreamingExcelReader.decodificar(destino.cell(columnas[k]), tipos[k], fechas[k], vista, inicios[k], fines[k], sst);
+    }
+
+    /** Tabla de cadenas compartidas del libro del que vienen las filas. */
+    void preparar(ReadOnlySharedStringsTable sst) {
+        this.sst = sst;
+    }
+
+    void empezarFila(int numFila) {
+        filas[size] = numFila;
+    }
+
+    void empezarCelda() {
+        inicioCelda = longitud;
+    }
+
+    void anadirTexto(char[] ch, int start, int length) {
+        if (longitud + length > texto.length) {
+            char[] nuevo = new char[Math.max(longitud + length, texto.length * 2)];
+            System.arraycopy(texto, 0, nuevo, 0, longitud);
+            texto = nuevo;
+            vista = CharBuffer.wrap(texto);
+        }
+        System.arraycopy(ch, start, texto, longitud, length);
+        longitud += length;
+    }
+
+    /**
+     * Guarda la celda en curso si tiene valor; las celdas sin texto (solo estilo) no se guardan.
+     */
+    void terminarCelda(int columna, byte tipo, boolean fecha) {
+        if (longitud == inicioCelda)
+            return;
+        if (celdas == columnas.length)
+            ampliarCeldas();
+        columnas[celdas] = columna;
+        tipos[celdas] = tipo;
+        fechas[celdas] = fecha;
+        inicios[celdas] = inicioCelda;
+        fines[celdas] = longitud;
+        celdas++;
+    }
+
+    /**
+     * Cierra la fila en curso. Las filas sin ninguna celda con valor se descartan, como en {@link StreamingExcelReader#process}.
+     * @return true si la fila tenía datos y se ha guardado
+     */
+    boolean terminarFila() {
+        if (celdas == primeraCelda[size])
+            return false;
+        size++;
+        primeraCelda[size] = celdas;
+        return true;
+    }
+
+    private void ampliarCeldas() {
+        int n = columnas.length * 2;
+        columnas = Arrays.copyOf(columnas, n);
+        tipos = Arrays.copyOf(tipos, n);
+        fechas = Arrays.copyOf(fechas, n);
+        inicios = Arrays.copyOf(inicios, n);
+        fines = Arrays.copyOf(fines, n);
+    }
+}
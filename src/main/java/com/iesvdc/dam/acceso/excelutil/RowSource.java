@@ -0,0 +1,54 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.io.IOException;
+
+/**
+ * Origen de las filas de un fichero de entrada: recorre sus hojas y entrega las filas, una a una, a un {@link SheetRowHandler}.
+ * Todos los formatos producen las mismas {@link SheetRow}, con el valor nativo de cada celda (número, fecha, booleano o texto),
+ * así que el modelo del libro ({@link ExcelReader#loadWorkbook}) y la carga no dependen del formato. Implementaciones:
+ *   - {@link StreamingExcelReader}: .xlsx, recorriendo el XML de cada hoja con SAX
+ *   - {@link StreamingXlsReader}: .xls (Excel 97-2003), con el modelo de eventos de HSSF
+ *   - {@link StreamingOdsReader}: .ods (OpenDocument), recorriendo content.xml con SAX
+ *   - {@link MappedCsvReader}: CSV, proyectado en memoria y sin pasar por zip ni XML
+ *   - {@link ExcelReader}: cualquiera de los anteriores, o el libro completo (DOM) si no se lee en streaming
+ * {@link #of(String)} elige la implementación por los primeros bytes del fichero ({@link FileFormat}), no por su extensión.
+ */
+public interface RowSource {
+    /**
+     * Recorre todas las hojas del fichero.
+     * @param filename ruta del fichero
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    default void process(String filename, SheetRowHandler handler) throws Exception {
+        process(filename, -1, handler);
+    }
+
+    /**
+     * Recorre una hoja del fichero, o todas.
+     * @param filename ruta del fichero
+     * @param sheetIndex posición de la hoja (empezando en 0), o -1 para todas
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    void process(String filename, int sheetIndex, SheetRowHandler handler) throws Exception;
+
+    /**
+     * Lector en streaming para el formato del fichero.
+     * @param filename ruta del fichero
+     * @return el lector de su formato
+     * @throws IOException si no se puede leer el principio del fichero
+     */
+    static RowSource of(String filename) throws IOException {
+        switch (FileFormat.detectar(filename)) {
+            case XLS:
+                return new StreamingXlsReader();
+            case ODS:
+                return new StreamingOdsReader();
+            case CSV:
+                return new MappedCsvReader();
+            default:
+                return new StreamingExcelReader();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+/**
+ * Una fila de una hoja Excel: su número (empezando en 0) y los valores de sus celdas por columna.
+ * Los lectores reutilizan la misma instancia para todas las filas de una hoja, por lo que quien
+ * necesite conservar los valores después de {@link SheetRowHandler#row(SheetRow)} debe copiarlos.
+ */
+public class SheetRow {
+    private static final CellValue BLANK = new CellValue();
+
+    private int rowNum;
+    private int size;
+    private CellValue[] cells = new CellValue[16];
+
+    public SheetRow() { }
+
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * Número de columnas de la fila (índice de la última celda con contenido + 1).
+     * @return el número de columnas leídas
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Devuelve la celda de la columna indicada.
+     * Las columnas que no existen en la fila se devuelven como celda vacía.
+     * @param col índice de la columna (empezando en 0)
+     * @return el valor de la celda, nunca null
+     */
+    public CellValue get(int col) {
+        if (col < 0 || col >= size || cells[col] == null)
+            return BLANK;
+        return cells[col];
+    }
+
+    /**
+     * Prepara la fila para rellenarla de nuevo, sin liberar las celdas ya creadas.
+     * @param rowNum número de la nueva fila
+     */
+    public void reset(int rowNum) {
+        for (int i = 0; i < size; i++)
+            cells[i].setBlank();
+        this.rowNum = rowNum;
+        this.size = 0;
+    }
+
+    /**
+     * Devuelve la celda de la columna indicada para escribir en ella, ampliando la fila si hace falta.
+     * Las columnas intermedias que no se escriban quedan vacías.
+     * @param col índice de la columna (empezando en 0)
+     * @return la celda reutilizable de esa columna
+     */
+    public CellValue cell(int col) {
+        if (col >= cells.length) {
+            CellValue[] nuevas = new CellValue[Math.max(col + 1, cells.length * 2)];
+            System.arraycopy(cells, 0, nuevas, 0, cells.length);
+            cells = nuevas;
+        }
+        for (int i = size; i <= col; i++) {
+            if (cells[i] == null)
+                cells[i] = new CellValue();
+            else
+                cells[i].setBlank();
+        }
+        if (col >= size)
+            size = col + 1;
+        return cells[col];
+    }
+
+    /**
+     * Copia en esta fila el número y los valores de otra, reutilizando las celdas ya creadas.
+     * @param other fila de origen
+     */
+    public void copyFrom(SheetRow other) {
+        reset(other.rowNum);
+        for (int i = other.size - 1; i >= 0; i--)
+            cell(i).copyFrom(other.get(i));
+    }
+}
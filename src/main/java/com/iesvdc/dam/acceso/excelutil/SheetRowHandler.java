@@ -0,0 +1,37 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+/**
+ * Receptor de las filas que emiten los lectores de ficheros de entrada ({@link ExcelReader} y los {@link RowSource} de cada formato).
+ * Las filas se entregan una a una y en orden; la instancia de {@link SheetRow} se reutiliza entre llamadas.
+ */
+public interface SheetRowHandler {
+    /**
+     * Se invoca al empezar a leer una hoja.
+     * @param index posición de la hoja en el libro (empezando en 0)
+     * @param name nombre de la hoja
+     * @throws Exception si el receptor no puede procesar la hoja
+     */
+    default void startSheet(int index, String name) throws Exception { }
+
+    /**
+     * Se consulta justo después de {@link #startSheet} para saber desde qué fila interesa la hoja.
+     * Las filas anteriores se saltan sin decodificar sus celdas, salvo la primera fila con datos (las cabeceras), que siempre se entrega.
+     * @return número de la primera fila que se quiere recibir (empezando en 0), o Integer.MAX_VALUE para no recibir ninguna de datos
+     */
+    default int firstRow() {
+        return 0;
+    }
+
+    /**
+     * Se invoca por cada fila no vacía de la hoja, incluida la fila de cabeceras.
+     * @param row fila leída (reutilizada en la siguiente llamada)
+     * @throws Exception si el receptor no puede procesar la fila
+     */
+    void row(SheetRow row) throws Exception;
+
+    /**
+     * Se invoca al terminar de leer una hoja.
+     * @throws Exception si el receptor no puede cerrar la hoja
+     */
+    default void endSheet() throws Exception { }
+}
@@ -0,0 +1,14 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+/**
+ * La lanza un {@link SheetRowHandler} desde {@link SheetRowHandler#row(SheetRow)} cuando ya no necesita más filas de la hoja actual.
+ * Los lectores dejan de recorrer la hoja, llaman a {@link SheetRowHandler#endSheet()} y continúan con la siguiente.
+ */
+public class SkipSheetException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public SkipSheetException() {
+        // Sin traza: es un control de flujo, no un error
+        super("Resto de la hoja omitido", null, false, false);
+    }
+}
@@ -0,0 +1,479 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.io.InputStream;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.iesvdc.dam.acceso.metricas.CountingInputStream;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+
+/**
+ * Lector de ficheros Excel (.xlsx) en modo streaming basado en el modelo de eventos de Apache POI ({@link XSSFReader}).
+ * A diferencia de {@link org.apache.poi.xssf.usermodel.XSSFWorkbook}, no carga el libro entero en memoria: recorre el XML de cada
+ * hoja con SAX y entrega las filas una a una a un {@link SheetRowHandler}, reutilizando siempre el mismo {@link SheetRow}.
+ * Solo se mantienen en memoria la tabla de cadenas compartidas y la tabla de estilos (para detectar fechas).
+ * Con {@link #processBloques} el hilo que lee el XML no interpreta las celdas: copia su texto en bruto a bloques
+ * ({@link RawRowBlock}) que otros hilos decodifican en paralelo.
+ * Anota en {@link ImportMetrics} las filas leídas, los bytes del XML de las hojas y el tiempo de cada hoja.
+ */
+public class StreamingExcelReader implements RowSource {
+    /** Tipos de celda según el atributo t del XML. */
+    static final byte NUMERO = 0;
+    static final byte COMPARTIDA = 1;
+    static final byte TEXTO = 2;
+    static final byte BOOLEANO = 3;
+    static final byte ERROR = 4;
+
+    public StreamingExcelReader() { }
+
+    /**
+     * Lee todas las hojas del libro y entrega sus filas al receptor.
+     * @param filename ruta del archivo Excel (.xlsx)
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    @Override
+    public void process(String filename, SheetRowHandler handler) throws Exception {
+        process(filename, -1, handler);
+    }
+
+    /**
+     * Lee una sola hoja del libro y entrega sus filas al receptor.
+     * @param filename ruta del archivo Excel (.xlsx)
+     * @param sheetIndex posición de la hoja a leer (empezando en 0), o -1 para leer todas
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    @Override
+    public void process(String filename, int sheetIndex, SheetRowHandler handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(filename, PackageAccess.READ)) {
+            XSSFReader xssfReader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable sst = new ReadOnlySharedStringsTable(pkg);
+
+            boolean[] fechas = estilosFecha(xssfReader.getStylesTable());
+
+            XSSFReader.SheetIterator hojas = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            ImportMetrics metricas = ImportMetrics.get();
+            int indice = 0;
+            while (hojas.hasNext()) {
+                try (InputStream is = new CountingInputStream(hojas.next(), metricas)) {
+                    if (sheetIndex < 0 || sheetIndex == indice) {
+                        String nombre = hojas.getSheetName();
+                        long inicio = System.nanoTime();
+                        metricas.inicioHoja(nombre);
+                        handler.startSheet(indice, nombre);
+                        SheetHandler sheetHandler = new SheetHandler(sst, fechas, handler, handler.firstRow());
+                        try {
+                            parseSheet(is, sheetHandler);
+                            handler.endSheet();
+                        } finally {
+                            metricas.addFilasLeidas(sheetHandler.sinContar);
+                            metricas.finHoja(nombre, System.nanoTime() - inicio, sheetHandler.filasLeidas);
+                        }
+                    }
+                }
+                indice++;
+            }
+        }
+    }
+
+    /**
+     * Lee todas las hojas del libro sin interpretar sus celdas: las filas con datos (también la de cabeceras) se copian en bruto
+     * a los bloques que da el receptor y se le entregan llenos, en el orden de la hoja. Cada bloque se decodifica después con
+     * {@link RawRowBlock#decodificar}, que se puede llamar desde cualquier hilo.
+     * @param filename ruta del archivo Excel (.xlsx)
+     * @param handler receptor de los bloques
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    public void processBloques(String filename, RawBlockHandler handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(filename, PackageAccess.READ)) {
+            XSSFReader xssfReader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable sst = new ReadOnlySharedStringsTable(pkg);
+            boolean[] fechas = estilosFecha(xssfReader.getStylesTable());
+
+            XSSFReader.SheetIterator hojas = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            ImportMetrics metricas = ImportMetrics.get();
+            int indice = 0;
+            while (hojas.hasNext()) {
+                try (InputStream is = new CountingInputStream(hojas.next(), metricas)) {
+                    String nombre = hojas.getSheetName();
+                    long inicio = System.nanoTime();
+                    metricas.inicioHoja(nombre);
+                    handler.startSheet(indice, nombre);
+                    RawSheetHandler sheetHandler = new RawSheetHandler(sst, fechas, handler);
+                    try {
+                        parseSheet(is, sheetHandler);
+                        sheetHandler.entregar();
+                        handler.endSheet();
+                    } finally {
+                        metricas.addFilasLeidas(sheetHandler.sinContar);
+                        metricas.finHoja(nombre, System.nanoTime() - inicio, sheetHandler.filasLeidas);
+                    }
+                }
+                indice++;
+            }
+        }
+    }
+
+    private void parseSheet(InputStream is, DefaultHandler sheetHandler) throws Exception {
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(sheetHandler);
+        try {
+            parser.parse(new InputSource(is));
+        } catch (SAXException e) {
+            // Las excepciones del receptor llegan envueltas por el parser
+            if (e.getException() instanceof SkipSheetException)
+                return;
+            if (e.getException() != null)
+                throw e.getException();
+            throw e;
+        }
+    }
+
+    /**
+     * Convierte una referencia de celda ("AB12") en el índice de su columna (empezando en 0).
+     * @param ref referencia de la celda
+     * @return índice de la columna, o -1 si la referencia no es válida
+     */
+    static int columnIndex(String ref) {
+        int col = 0;
+        int i = 0;
+        while (i < ref.length()) {
+            char c = ref.charAt(i);
+            if (c < 'A' || c > 'Z')
+                break;
+            col = col * 26 + (c - 'A' + 1);
+            i++;
+        }
+        return col - 1;
+    }
+
+    /**
+     * Tipo de celda a partir del atributo t: s (cadena compartida), inlineStr o str (texto), b (booleano), e (error) o número.
+     * @param t valor del atributo, o null
+     * @return una de las constantes NUMERO, COMPARTIDA, TEXTO, BOOLEANO o ERROR
+     */
+    static byte tipoCelda(String t) {
+        if (t == null)
+            return NUMERO;
+        switch (t) {
+            case "n":
+                return NUMERO;
+            case "s":
+                return COMPARTIDA;
+            case "b":
+                return BOOLEANO;
+            case "e":
+                return ERROR;
+            default:
+                return TEXTO;
+        }
+    }
+
+    /**
+     * Indica, para cada estilo del libro, si su formato es de fecha. Se calcula una vez al abrir el libro
+     * y después se consulta sin sincronizar desde cualquier hilo.
+     * @param styles tabla de estilos, o null si el libro no tiene
+     * @return un valor por estilo
+     */
+    static boolean[] estilosFecha(StylesTable styles) {
+        if (styles == null)
+            return new boolean[0];
+        boolean[] fechas = new boolean[styles.getNumCellStyles()];
+        for (int i = 0; i < fechas.length; i++) {
+            XSSFCellStyle style = styles.getStyleAt(i);
+            fechas[i] = style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+        }
+        return fechas;
+    }
+
+    /**
+     * Traduce el valor en bruto de una celda del XML según su tipo. Solo lee la tabla de cadenas compartidas,
+     * así que se puede usar desde varios hilos a la vez.
+     * @param celda celda de destino
+     * @param tipo tipo de la celda ({@link #tipoCelda})
+     * @param fecha true si el estilo de la celda es de fecha
+     * @param texto texto en bruto
+     * @param desde posición del primer carácter del valor en el texto
+     * @param hasta posición siguiente al último carácter
+     * @param sst tabla de cadenas compartidas
+     */
+    static void decodificar(CellValue celda, byte tipo, boolean fecha, CharSequence texto, int desde, int hasta,
+            ReadOnlySharedStringsTable sst) {
+        switch (tipo) {
+            case NUMERO:
+                celda.setNumeric(parseNumero(texto, desde, hasta), fecha);
+                break;
+            case COMPARTIDA:
+                celda.setString(sst.getItemAt(Integer.parseInt(texto, desde, hasta, 10)).getString());
+                break;
+            case BOOLEANO:
+                celda.setBoolean(texto.charAt(desde) == '1');
+                break;
+            case ERROR:
+                celda.setError();
+                break;
+            default:
+                celda.setString(texto.subSequence(desde, hasta).toString());
+        }
+    }
+
+    /**
+     * Los enteros (el caso habitual: ids, teléfonos, cantidades) se leen directamente del buffer sin crear un String;
+     * el resto de números se interpretan con Double.parseDouble.
+     */
+    private static double parseNumero(CharSequence texto, int desde, int hasta) {
+        int len = hasta - desde;
+        if (len <= 15) {
+            int signo = texto.charAt(desde) == '-' ? 1 : 0;
+            int i = desde + signo;
+            while (i < hasta && texto.charAt(i) >= '0' && texto.charAt(i) <= '9')
+                i++;
+            if (i == hasta && len > signo)
+                return Long.parseLong(texto, desde, hasta, 10);
+        }
+        return Double.parseDouble(texto.subSequence(desde, hasta).toString());
+    }
+
+    /**
+     * Manejador SAX del XML de una hoja (sheetN.xml). Interpreta los elementos row, c, v e is/t
+     * y rellena la fila reutilizable con los valores nativos de cada celda.
+     */
+    private static class SheetHandler extends DefaultHandler {
+        /** Las filas leídas se suman a las métricas cada tantas filas, para no tocar un contador compartido por fila. */
+        private static final int BLOQUE_METRICAS = 1024;
+
+        private final ReadOnlySharedStringsTable sst;
+        private final boolean[] fechas;
+        private final SheetRowHandler handler;
+        private final int primeraFila;
+
+        private final SheetRow fila = new SheetRow();
+        private final StringBuilder texto = new StringBuilder();
+        private long filasLeidas;
+        private int sinContar;
+        private boolean filaConDatos;
+        private boolean cabeceraEntregada;
+        private boolean saltando;
+        private int siguienteFila;
+        private int siguienteColumna;
+
+        private int columna;
+        private byte tipoCelda;
+        private int estilo;
+        private boolean leyendoTexto;
+
+        SheetHandler(ReadOnlySharedStringsTable sst, boolean[] fechas, SheetRowHandler handler, int primeraFila) {
+            this.sst = sst;
+            this.fechas = fechas;
+            this.handler = handler;
+            this.primeraFila = primeraFila;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs) {
+            switch (localName) {
+                case "row":
+                    String r = attrs.getValue("r");
+                    int numFila = r != null ? Integer.parseInt(r) - 1 : siguienteFila;
+                    siguienteFila = numFila + 1;
+                    siguienteColumna = 0;
+                    fila.reset(numFila);
+                    filaConDatos = false;
+                    // Las filas anteriores a la primera pedida se recorren sin interpretar sus celdas
+                    saltando = cabeceraEntregada && numFila < primeraFila;
+                    break;
+                case "c":
+                    if (saltando)
+                        break;
+                    String ref = attrs.getValue("r");
+                    columna = ref != null ? columnIndex(ref) : siguienteColumna;
+                    siguienteColumna = columna + 1;
+                    tipoCelda = tipoCelda(attrs.getValue("t"));
+                    String s = attrs.getValue("s");
+                    estilo = s != null ? Integer.parseInt(s) : -1;
+                    texto.setLength(0);
+                    break;
+                case "v":
+                case "t":
+                    leyendoTexto = !saltando;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (leyendoTexto)
+                texto.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                case "t":
+                    leyendoTexto = false;
+                    break;
+                case "c":
+                    if (!saltando && texto.length() > 0) {
+                        decodificar(fila.cell(columna), tipoCelda, estilo >= 0 && estilo < fechas.length && fechas[estilo],
+                            texto, 0, texto.length(), sst);
+                        filaConDatos = true;
+                    }
+                    break;
+                case "row":
+                    if (filaConDatos) {
+                        cabeceraEntregada = true;
+                        filasLeidas++;
+                        if (++sinContar == BLOQUE_METRICAS) {
+                            ImportMetrics.get().addFilasLeidas(sinContar);
+                            sinContar = 0;
+                        }
+                        try {
+                            handler.row(fila);
+                        } catch (SAXException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new SAXException(e);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Manejador SAX del XML de una hoja para {@link #processBloques}: solo localiza las filas y las celdas
+     * y copia el texto de cada valor al bloque, sin convertirlo.
+     */
+    private static class RawSheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable sst;
+        private final boolean[] fechas;
+        private final RawBlockHandler handler;
+
+        private RawRowBlock bloque;
+        private long filasLeidas;
+        private int sinContar;
+        private int siguienteFila;
+        private int siguienteColumna;
+
+        private int columna;
+        private byte tipoCelda;
+        private boolean fecha;
+        private boolean leyendoTexto;
+
+        RawSheetHandler(ReadOnlySharedStringsTable sst, boolean[] fechas, RawBlockHandler handler) {
+            this.sst = sst;
+            this.fechas = fechas;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs) throws SAXException {
+            switch (localName) {
+                case "row":
+                    if (bloque == null)
+                        bloque = siguienteBloque();
+                    String r = attrs.getValue("r");
+                    int numFila = r != null ? Integer.parseInt(r) - 1 : siguienteFila;
+                    siguienteFila = numFila + 1;
+                    siguienteColumna = 0;
+                    bloque.empezarFila(numFila);
+                    break;
+                case "c":
+                    String ref = attrs.getValue("r");
+                    columna = ref != null ? columnIndex(ref) : siguienteColumna;
+                    siguienteColumna = columna + 1;
+                    tipoCelda = tipoCelda(attrs.getValue("t"));
+                    String s = attrs.getValue("s");
+                    int estilo = s != null ? Integer.parseInt(s) : -1;
+                    fecha = estilo >= 0 && estilo < fechas.length && fechas[estilo];
+                    bloque.empezarCelda();
+                    break;
+                case "v":
+                case "t":
+                    leyendoTexto = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (leyendoTexto)
+                bloque.anadirTexto(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                case "t":
+                    leyendoTexto = false;
+                    break;
+                case "c":
+                    bloque.terminarCelda(columna, tipoCelda, fecha);
+                    break;
+                case "row":
+                    if (bloque.terminarFila()) {
+                        filasLeidas++;
+                        if (++sinContar == SheetHandler.BLOQUE_METRICAS) {
+                            ImportMetrics.get().addFilasLeidas(sinContar);
+                            sinContar = 0;
+                        }
+                        if (bloque.isLleno())
+                            entregar();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Entrega el bloque en curso, aunque esté vacío (así el receptor recupera siempre los bloques que ha dado).
+         */
+        void entregar() throws SAXException {
+            if (bloque == null)
+                return;
+            RawRowBlock lleno = bloque;
+            bloque = null;
+            try {
+                handler.bloque(lleno);
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private RawRowBlock siguienteBloque() throws SAXException {
+            try {
+                RawRowBlock nuevo = handler.bloqueLibre();
+                nuevo.preparar(sst);
+                return nuevo;
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+}
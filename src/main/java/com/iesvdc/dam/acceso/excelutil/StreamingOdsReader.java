@@ -0,0 +1,397 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.iesvdc.dam.acceso.metricas.CountingInputStream;
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+
+/**
+ * Lector de hojas de cálculo OpenDocument (.ods, LibreOffice Calc) en modo streaming. Apache POI no lee este formato, así que
+ * se recorre con SAX el XML del contenido (content.xml dentro del zip), igual que {@link StreamingExcelReader} recorre el de
+ * cada hoja de un .xlsx, y las filas se entregan una a una a un {@link SheetRowHandler} reutilizando el mismo {@link SheetRow}.
+ * En ODS el valor de cada celda va en sus atributos según su tipo (office:value-type):
+ *   - float, percentage, currency → número (office:value)
+ *   - date → fecha (office:date-value), como número de serie de Excel
+ *   - time → fracción de día (office:time-value), como en Excel
+ *   - boolean → booleano (office:boolean-value)
+ *   - string → texto de sus párrafos (text:p)
+ * Las filas y celdas repetidas (number-rows-repeated, number-columns-repeated) se expanden; las filas vacías repetidas,
+ * con las que Calc rellena el final de cada hoja, solo hacen avanzar el número de fila.
+ * Anota en {@link ImportMetrics} las filas leídas, los bytes del XML y el tiempo de cada hoja.
+ */
+public class StreamingOdsReader implements RowSource {
+    static final String TABLE = "urn:oasis:names:tc:opendocument:xmlns:table:1.0";
+    static final String OFFICE = "urn:oasis:names:tc:opendocument:xmlns:office:1.0";
+    static final String TEXT = "urn:oasis:names:tc:opendocument:xmlns:text:1.0";
+    /** Las filas leídas se suman a las métricas cada tantas filas, para no tocar un contador compartido por fila. */
+    private static final int BLOQUE_METRICAS = 1024;
+    /** Tope de columnas repetidas que se expanden: Calc repite la última celda vacía hasta la columna 1024 o más. */
+    private static final int MAX_COLUMNAS = 16384;
+
+    public StreamingOdsReader() { }
+
+    /**
+     * Lee una hoja del documento, o todas, y entrega sus filas al receptor.
+     * @param filename ruta del documento (.ods)
+     * @param sheetIndex posición de la hoja a leer (empezando en 0), o -1 para leer todas
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    @Override
+    public void process(String filename, int sheetIndex, SheetRowHandler handler) throws Exception {
+        try (ZipFile zip = new ZipFile(filename)) {
+            ZipEntry contenido = zip.getEntry("content.xml");
+            if (contenido == null)
+                throw new Exception("El fichero " + filename + " no es una hoja de cálculo OpenDocument: no tiene content.xml");
+            ContentHandler contentHandler = new ContentHandler(sheetIndex, handler);
+            try (InputStream is = new CountingInputStream(zip.getInputStream(contenido), ImportMetrics.get())) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(contentHandler);
+                parser.parse(new InputSource(is));
+            } catch (SAXException e) {
+                // Las excepciones del receptor llegan envueltas por el parser
+                if (e.getException() instanceof FinLectura)
+                    return;
+                if (e.getException() != null)
+                    throw e.getException();
+                throw e;
+            } finally {
+                contentHandler.cerrarMetricas();
+            }
+        }
+    }
+
+    /** Corta el análisis del XML cuando ya se ha leído la hoja pedida. */
+    private static class FinLectura extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        FinLectura() {
+            super("Hoja leída", null, false, false);
+        }
+    }
+
+    /**
+     * Manejador SAX de content.xml. Interpreta los elementos table, table-row, table-cell y text:p
+     * y rellena la fila reutilizable con los valores nativos de cada celda.
+     */
+    private static class ContentHandler extends DefaultHandler {
+        private final int hojaPedida;
+        private final SheetRowHandler handler;
+
+        private final SheetRow fila = new SheetRow();
+        private final SheetRow repetida = new SheetRow();
+        private final StringBuilder texto = new StringBuilder();
+        private int indice = -1;
+        private String nombre;
+        private boolean leyendo;
+        private boolean omitida;
+        private long inicio;
+        private long filasLeidas;
+        private int sinContar;
+        private int primeraFila;
+        private boolean cabeceraEntregada;
+
+        private int numFila;
+        private int repeticionesFila;
+        private boolean saltando;
+        private boolean filaConDatos;
+        private int columna;
+        private int repeticionesCelda;
+        private String tipoValor;
+        private String valor;
+        private boolean esTexto;
+        /** Párrafos de texto de la celda en curso; dentro de una nota (office:annotation) no se leen. */
+        private int parrafos;
+        private boolean leyendoTexto;
+        private int nivelNota;
+
+        ContentHandler(int hojaPedida, SheetRowHandler handler) {
+            this.hojaPedida = hojaPedida;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs) throws SAXException {
+            if (OFFICE.equals(uri) && "annotation".equals(localName)) {
+                nivelNota++;
+                return;
+            }
+            if (nivelNota > 0)
+                return;
+            if (TABLE.equals(uri)) {
+                switch (localName) {
+                    case "table":
+                        empezarHoja(attrs.getValue(TABLE, "name"));
+                        break;
+                    case "table-row":
+                        if (!leyendo || omitida)
+                            break;
+                        repeticionesFila = repeticiones(attrs.getValue(TABLE, "number-rows-repeated"));
+                        fila.reset(numFila);
+                        filaConDatos = false;
+                        columna = 0;
+                        // Las filas anteriores a la primera pedida se recorren sin interpretar sus celdas
+                        saltando = cabeceraEntregada && numFila + repeticionesFila <= primeraFila;
+                        break;
+                    case "table-cell":
+                    case "covered-table-cell":
+                        if (!leyendo || omitida)
+                            break;
+                        repeticionesCelda = Math.max(0, Math.min(repeticiones(attrs.getValue(TABLE, "number-columns-repeated")),
+                            MAX_COLUMNAS - columna));
+                        tipoValor = attrs.getValue(OFFICE, "value-type");
+                        valor = valorAtributo(attrs, tipoValor);
+                        esTexto = !saltando && "string".equals(tipoValor);
+                        texto.setLength(0);
+                        parrafos = 0;
+                        break;
+                    default:
+                        break;
+                }
+                return;
+            }
+            if (TEXT.equals(uri) && esTexto && leyendo && !omitida) {
+                switch (localName) {
+                    case "p":
+                        if (parrafos++ > 0)
+                            texto.append('\n');
+                        leyendoTexto = true;
+                        break;
+                    case "s":
+                        String c = attrs.getValue(TEXT, "c");
+                        texto.append(" ".repeat(c != null ? Integer.parseInt(c) : 1));
+                        break;
+                    case "tab":
+                        texto.append('\t');
+                        break;
+                    case "line-break":
+                        texto.append('\n');
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (leyendoTexto && nivelNota == 0)
+                texto.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (OFFICE.equals(uri) && "annotation".equals(localName)) {
+                nivelNota--;
+                return;
+            }
+            if (nivelNota > 0)
+                return;
+            if (TEXT.equals(uri) && "p".equals(localName)) {
+                leyendoTexto = false;
+                return;
+            }
+            if (!TABLE.equals(uri))
+                return;
+            switch (localName) {
+                case "table-cell":
+                case "covered-table-cell":
+                    if (!leyendo || omitida)
+                        break;
+                    if (!saltando)
+                        terminarCelda();
+                    columna += repeticionesCelda;
+                    esTexto = false;
+                    break;
+                case "table-row":
+                    if (!leyendo || omitida)
+                        break;
+                    terminarFila();
+                    break;
+                case "table":
+                    terminarHoja();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void empezarHoja(String nombreHoja) throws SAXException {
+            indice++;
+            leyendo = hojaPedida < 0 || hojaPedida == indice;
+            if (!leyendo)
+                return;
+            nombre = nombreHoja != null ? nombreHoja : "Hoja" + (indice + 1);
+            omitida = false;
+            numFila = 0;
+            filasLeidas = 0;
+            sinContar = 0;
+            cabeceraEntregada = false;
+            inicio = System.nanoTime();
+            ImportMetrics.get().inicioHoja(nombre);
+            try {
+                handler.startSheet(indice, nombre);
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+            primeraFila = handler.firstRow();
+        }
+
+        private void terminarCelda() {
+            if (tipoValor == null || repeticionesCelda == 0)
+                return;
+            if (esTexto) {
+                if (texto.length() == 0)
+                    return;
+                String cadena = texto.toString();
+                for (int k = 0; k < repeticionesCelda; k++)
+                    fila.cell(columna + k).setString(cadena);
+                filaConDatos = true;
+                return;
+            }
+            if (valor == null)
+                return;
+            CellValue celda = fila.cell(columna);
+            if (!decodificar(celda, tipoValor, valor))
+                return;
+            for (int k = 1; k < repeticionesCelda; k++)
+                fila.cell(columna + k).copyFrom(celda);
+            filaConDatos = true;
+        }
+
+        private void terminarFila() throws SAXException {
+            int primera = numFila;
+            numFila += repeticionesFila;
+            if (!filaConDatos)
+                return;
+            try {
+                for (int k = 0; k < repeticionesFila; k++) {
+                    SheetRow entregada = fila;
+                    if (k > 0) {
+                        if (primera + k < primeraFila)
+                            continue;
+                        // Las filas repetidas tienen las mismas celdas con otro número de fila
+                        repetida.reset(primera + k);
+                        for (int j = fila.size() - 1; j >= 0; j--)
+                            repetida.cell(j).copyFrom(fila.get(j));
+                        entregada = repetida;
+                    }
+                    cabeceraEntregada = true;
+                    filasLeidas++;
+                    if (++sinContar == BLOQUE_METRICAS) {
+                        ImportMetrics.get().addFilasLeidas(sinContar);
+                        sinContar = 0;
+                    }
+                    handler.row(entregada);
+                }
+            } catch (SkipSheetException e) {
+                omitida = true;
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private void terminarHoja() throws SAXException {
+            if (!leyendo)
+                return;
+            String hoja = nombre;
+            nombre = null;
+            try {
+                handler.endSheet();
+            } catch (Exception e) {
+                throw new SAXException(e);
+            } finally {
+                cerrarMetricas(hoja);
+            }
+            if (hojaPedida >= 0)
+                throw new SAXException(new FinLectura());
+        }
+
+        /** Cierra las métricas de la hoja que se estaba leyendo si la lectura se ha cortado por un error. */
+        void cerrarMetricas() {
+            if (nombre != null && leyendo) {
+                cerrarMetricas(nombre);
+                nombre = null;
+            }
+        }
+
+        private void cerrarMetricas(String hoja) {
+            ImportMetrics metricas = ImportMetrics.get();
+            metricas.addFilasLeidas(sinContar);
+            sinContar = 0;
+            metricas.finHoja(hoja, System.nanoTime() - inicio, filasLeidas);
+        }
+    }
+
+    private static int repeticiones(String atributo) {
+        return atributo != null ? Math.max(1, Integer.parseInt(atributo)) : 1;
+    }
+
+    /** Atributo que guarda el valor de la celda según su tipo, o null si es de texto o no tiene valor. */
+    private static String valorAtributo(Attributes attrs, String tipo) {
+        if (tipo == null)
+            return null;
+        switch (tipo) {
+            case "float":
+            case "percentage":
+            case "currency":
+                return attrs.getValue(OFFICE, "value");
+            case "date":
+                return attrs.getValue(OFFICE, "date-value");
+            case "time":
+                return attrs.getValue(OFFICE, "time-value");
+            case "boolean":
+                return attrs.getValue(OFFICE, "boolean-value");
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Convierte el valor del atributo de una celda no textual.
+     * @return false si el valor no se entiende (la celda se queda vacía)
+     */
+    static boolean decodificar(CellValue celda, String tipo, String valor) {
+        try {
+            switch (tipo) {
+                case "float":
+                case "percentage":
+                case "currency":
+                    celda.setNumeric(Double.parseDouble(valor), false);
+                    return true;
+                case "date":
+                    // yyyy-MM-dd o yyyy-MM-ddTHH:mm:ss[.fff]
+                    LocalDateTime fecha = valor.length() <= 10 ? LocalDate.parse(valor).atStartOfDay() : LocalDateTime.parse(valor);
+                    celda.setNumeric(DateUtil.getExcelDate(fecha), true);
+                    return true;
+                case "time":
+                    // Duración ISO 8601 (PT13H30M00S): en Excel una hora es la fracción del día
+                    celda.setNumeric(Duration.parse(valor).toNanos() / (double) Duration.ofDays(1).toNanos(), true);
+                    return true;
+                case "boolean":
+                    celda.setBoolean(Boolean.parseBoolean(valor));
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import com.iesvdc.dam.acceso.metricas.ImportMetrics;
+
+/**
+ * Lector de ficheros Excel 97-2003 (.xls) en modo streaming basado en el modelo de eventos de HSSF ({@link HSSFEventFactory}).
+ * En vez de construir el libro ({@link org.apache.poi.hssf.usermodel.HSSFWorkbook}), recorre los registros BIFF del fichero
+ * uno a uno y entrega las filas a un {@link SheetRowHandler}, reutilizando siempre el mismo {@link SheetRow}; solo se mantienen
+ * en memoria la tabla de cadenas compartidas y los formatos (para detectar fechas). Las fórmulas se leen con su valor cacheado.
+ * Anota en {@link ImportMetrics} las filas leídas, los bytes de los registros recorridos y el tiempo de cada hoja.
+ */
+public class StreamingXlsReader implements RowSource {
+    /** Las filas leídas se suman a las métricas cada tantas filas, para no tocar un contador compartido por fila. */
+    private static final int BLOQUE_METRICAS = 1024;
+
+    public StreamingXlsReader() { }
+
+    /**
+     * Lee una hoja del libro, o todas, y entrega sus filas al receptor.
+     * @param filename ruta del archivo Excel (.xls)
+     * @param sheetIndex posición de la hoja a leer (empezando en 0), o -1 para leer todas
+     * @param handler receptor de las filas
+     * @throws Exception si el fichero no se puede leer o el receptor falla
+     */
+    @Override
+    public void process(String filename, int sheetIndex, SheetRowHandler handler) throws Exception {
+        try (POIFSFileSystem fs = new POIFSFileSystem(new File(filename), true)) {
+            Oyente oyente = new Oyente(sheetIndex, handler);
+            HSSFRequest peticion = new HSSFRequest();
+            peticion.addListenerForAllRecords(oyente);
+            try {
+                new HSSFEventFactory().abortableProcessWorkbookEvents(peticion, fs);
+            } catch (HSSFUserException e) {
+                // Las excepciones del receptor llegan envueltas
+                if (e.getReason() instanceof Exception)
+                    throw (Exception) e.getReason();
+                throw e;
+            } finally {
+                oyente.cerrarMetricas();
+            }
+        }
+    }
+
+    /**
+     * Recibe los registros del libro en orden. Los de cabecera del libro (hojas, cadenas compartidas, formatos) van primero;
+     * después, los de cada hoja entre su BOF y su EOF, con las celdas ordenadas por fila.
+     */
+    private static class Oyente extends AbortableHSSFListener {
+        private final int hojaPedida;
+        private final SheetRowHandler handler;
+        /** Lleva la cuenta de los formatos del libro; no necesita reenviar los registros a nadie. */
+        private final FormatTrackingHSSFListener formatos = new FormatTrackingHSSFListener(r -> { });
+        private final List<BoundSheetRecord> hojas = new ArrayList<>();
+        private BoundSheetRecord[] ordenHojas;
+        private SSTRecord sst;
+
+        private final SheetRow fila = new SheetRow();
+        /** Profundidad de BOF/EOF: los gráficos incrustados abren subflujos dentro de una hoja. */
+        private int nivel;
+        private int subflujo = -1;
+        private int indice = -1;
+        private String nombre;
+        private boolean leyendo;
+        private long inicio;
+        private long filasLeidas;
+        private int sinContar;
+        private int primeraFila;
+        private boolean cabeceraEntregada;
+        private boolean omitida;
+        private int filaActual = -1;
+        private boolean filaConDatos;
+        /** Columna de una fórmula de texto cuyo valor llega en el StringRecord siguiente, o -1. */
+        private int columnaFormula = -1;
+
+        Oyente(int hojaPedida, SheetRowHandler handler) {
+            this.hojaPedida = hojaPedida;
+            this.handler = handler;
+        }
+
+        @Override
+        public short abortableProcessRecord(Record record) throws HSSFUserException {
+            try {
+                return procesar(record) ? (short) 0 : (short) 1;
+            } catch (HSSFUserException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new HSSFUserException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * @return false para dejar de leer el fichero (ya se ha leído la hoja pedida)
+         */
+        private boolean procesar(Record record) throws Exception {
+            ImportMetrics.get().addBytesLeidos(record.getRecordSize());
+            formatos.processRecordInternally(record);
+            switch (record.getSid()) {
+                case BoundSheetRecord.sid:
+                    hojas.add((BoundSheetRecord) record);
+                    return true;
+                case SSTRecord.sid:
+                    sst = (SSTRecord) record;
+                    return true;
+                case BOFRecord.sid:
+                    nivel++;
+                    int tipo = ((BOFRecord) record).getType();
+                    if (nivel == 1 && tipo != BOFRecord.TYPE_WORKBOOK) {
+                        // Las hojas de gráfico también tienen su BoundSheetRecord, pero no son hojas de datos
+                        subflujo++;
+                        if (tipo == BOFRecord.TYPE_WORKSHEET)
+                            empezarHoja();
+                    }
+                    return true;
+                case EOFRecord.sid:
+                    nivel--;
+                    if (nivel == 0 && nombre != null)
+                        return terminarHoja();
+                    return true;
+                default:
+                    break;
+            }
+            if (!leyendo || omitida || nivel != 1)
+                return true;
+            try {
+                leerCelda(record);
+            } catch (SkipSheetException e) {
+                // El receptor no quiere más filas de esta hoja: se recorre hasta su EOF sin interpretarla
+                omitida = true;
+            }
+            return true;
+        }
+
+        private void leerCelda(Record record) throws Exception {
+            switch (record.getSid()) {
+                case NumberRecord.sid:
+                    NumberRecord numero = (NumberRecord) record;
+                    CellValue celda = destino(numero);
+                    if (celda != null) {
+                        celda.setNumeric(numero.getValue(), esFecha(numero));
+                        filaConDatos = true;
+                    }
+                    break;
+                case LabelSSTRecord.sid:
+                    LabelSSTRecord etiqueta = (LabelSSTRecord) record;
+                    texto(etiqueta, sst.getString(etiqueta.getSSTIndex()).getString());
+                    break;
+                case LabelRecord.sid:
+                    LabelRecord etiquetaAntigua = (LabelRecord) record;
+                    texto(etiquetaAntigua, etiquetaAntigua.getValue());
+                    break;
+                case BoolErrRecord.sid:
+                    BoolErrRecord booleano = (BoolErrRecord) record;
+                    celda = destino(booleano);
+                    if (celda != null) {
+                        if (booleano.isBoolean())
+                            celda.setBoolean(booleano.getBooleanValue());
+                        else
+                            celda.setError();
+                        filaConDatos = true;
+                    }
+                    break;
+                case FormulaRecord.sid:
+                    formula((FormulaRecord) record);
+                    break;
+                case StringRecord.sid:
+                    if (columnaFormula >= 0) {
+                        String valor = ((StringRecord) record).getString();
+                        if (!valor.isEmpty()) {
+                            fila.cell(columnaFormula).setString(valor);
+                            filaConDatos = true;
+                        }
+                        columnaFormula = -1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void empezarHoja() throws Exception {
+            if (ordenHojas == null)
+                ordenHojas = BoundSheetRecord.orderByBofPosition(hojas);
+            indice++;
+            nombre = subflujo < ordenHojas.length ? ordenHojas[subflujo].getSheetname() : "Hoja" + (indice + 1);
+            leyendo = hojaPedida < 0 || hojaPedida == indice;
+            if (!leyendo)
+                return;
+            filasLeidas = 0;
+            sinContar = 0;
+            cabeceraEntregada = false;
+            omitida = false;
+            filaActual = -1;
+            filaConDatos = false;
+            columnaFormula = -1;
+            inicio = System.nanoTime();
+            ImportMetrics.get().inicioHoja(nombre);
+            handler.startSheet(indice, nombre);
+            primeraFila = handler.firstRow();
+        }
+
+        private boolean terminarHoja() throws Exception {
+            String hoja = nombre;
+            nombre = null;
+            if (!leyendo)
+                return true;
+            try {
+                try {
+                    if (!omitida)
+                        entregarFila();
+                } catch (SkipSheetException e) {
+                    // Era la última fila de la hoja
+                }
+                handler.endSheet();
+            } finally {
+                cerrarMetricas(hoja);
+            }
+            return hojaPedida < 0;
+        }
+
+        /**
+         * Celda de destino de un registro; al cambiar de fila entrega la anterior.
+         * @return la celda, o null si la fila es anterior a la primera pedida y no se interpreta
+         */
+        private CellValue destino(CellValueRecordInterface record) throws Exception {
+            if (record.getRow() != filaActual) {
+                entregarFila();
+                filaActual = record.getRow();
+                fila.reset(filaActual);
+                filaConDatos = false;
+            }
+            // Las filas anteriores a la primera pedida se recorren sin interpretar sus celdas
+            if (cabeceraEntregada && filaActual < primeraFila)
+                return null;
+            return fila.cell(record.getColumn());
+        }
+
+        /** Las celdas de texto vacío no cuentan como valor, igual que en {@link StreamingExcelReader}. */
+        private void texto(CellValueRecordInterface record, String valor) throws Exception {
+            CellValue celda = destino(record);
+            if (celda != null && !valor.isEmpty()) {
+                celda.setString(valor);
+                filaConDatos = true;
+            }
+        }
+
+        private void formula(FormulaRecord formula) throws Exception {
+            CellValue celda = destino(formula);
+            if (celda == null)
+                return;
+            switch (formula.getCachedResultTypeEnum()) {
+                case NUMERIC:
+                    celda.setNumeric(formula.getValue(), esFecha(formula));
+                    filaConDatos = true;
+                    break;
+                case BOOLEAN:
+                    celda.setBoolean(formula.getCachedBooleanValue());
+                    filaConDatos = true;
+                    break;
+                case STRING:
+                    // El texto viene en el registro siguiente
+                    columnaFormula = formula.getColumn();
+                    break;
+                case ERROR:
+                    celda.setError();
+                    filaConDatos = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private boolean esFecha(CellValueRecordInterface record) {
+            return DateUtil.isADateFormat(formatos.getFormatIndex(record), formatos.getFormatString(record));
+        }
+
+        private void entregarFila() throws Exception {
+            if (filaActual < 0 || !filaConDatos)
+                return;
+            filaConDatos = false;
+            cabeceraEntregada = true;
+            filasLeidas++;
+            if (++sinContar == BLOQUE_METRICAS) {
+                ImportMetrics.get().addFilasLeidas(sinContar);
+                sinContar = 0;
+            }
+            handler.row(fila);
+        }
+
+        /** Cierra las métricas de la hoja que se estaba leyendo si la lectura se ha cortado por un error. */
+        void cerrarMetricas() {
+            if (nombre != null && leyendo) {
+                cerrarMetricas(nombre);
+                nombre = null;
+            }
+        }
+
+        private void cerrarMetricas(String hoja) {
+            ImportMetrics metricas = ImportMetrics.get();
+            metricas.addFilasLeidas(sinContar);
+            sinContar = 0;
+            metricas.finHoja(hoja, System.nanoTime() - inicio, filasLeidas);
+        }
+    }
+}
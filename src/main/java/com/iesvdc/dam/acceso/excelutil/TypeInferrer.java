@@ -0,0 +1,123 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Deducción del tipo de cada columna de una hoja observando todas sus filas (o una muestra configurable), en una sola pasada.
+ * Por cada columna guarda un estado pequeño y fijo: el tipo ampliado hasta ahora ({@link FieldType#widen(FieldType)}),
+ * la longitud máxima como texto y si ha aparecido algún vacío. Así una columna con un 2.5 en la fila 900.000
+ * termina como DECIMAL y no falla al insertar, y el coste de la inferencia es una lectura de la hoja.
+ */
+public class TypeInferrer {
+    /** Longitud máxima de un double escrito como texto ("-1.2345678901234567E-308"). */
+    private static final int LONGITUD_DECIMAL = 24;
+
+    private final ExcelReader tipos;
+    private final int muestra;
+    private String[] cabeceras;
+    private FieldType[] tipo;
+    private int[] longitud;
+    private boolean[] nulos;
+    private long filas;
+
+    /**
+     * @param tipos lector que aporta la deducción de tipo de una celda ({@link ExcelReader#getTipoDato(CellValue)})
+     * @param muestra número máximo de filas de datos a observar, o 0 para observarlas todas
+     */
+    public TypeInferrer(ExcelReader tipos, int muestra) {
+        this.tipos = tipos;
+        this.muestra = muestra;
+    }
+
+    /**
+     * Empieza una hoja nueva con los nombres de columna de su fila de cabeceras.
+     * @param cabeceras fila de cabeceras
+     */
+    public void start(SheetRow cabeceras) {
+        int n = cabeceras.size();
+        this.cabeceras = new String[n];
+        for (int j = 0; j < n; j++)
+            this.cabeceras[j] = cabeceras.get(j).asString();
+        tipo = new FieldType[n];
+        Arrays.fill(tipo, FieldType.UNKNOWN);
+        longitud = new int[n];
+        nulos = new boolean[n];
+        filas = 0;
+    }
+
+    /**
+     * Observa una fila de datos y amplía el estado de cada columna.
+     * @param fila fila de datos
+     * @return false si ya se ha alcanzado la muestra y no hacen falta más filas
+     */
+    public boolean observe(SheetRow fila) {
+        if (isMuestraCompleta())
+            return false;
+        for (int j = 0; j < tipo.length; j++) {
+            CellValue celda = fila.get(j);
+            if (celda.isBlank() || celda.getCellType() == CellType.ERROR) {
+                nulos[j] = true;
+                continue;
+            }
+            FieldType t = tipos.getTipoDato(celda);
+            tipo[j] = tipo[j].widen(t);
+            int len = longitudTexto(celda, t);
+            if (len > longitud[j])
+                longitud[j] = len;
+        }
+        filas++;
+        return !isMuestraCompleta();
+    }
+
+    /**
+     * Longitud del valor si se guardara como texto, sin crear cadenas para los números.
+     */
+    private static int longitudTexto(CellValue celda, FieldType t) {
+        switch (t) {
+            case STRING:
+                return celda.getStringValue().length();
+            case INTEGER:
+                long v = (long) celda.getNumericValue();
+                int digitos = v < 0 ? 2 : 1;
+                for (v = Math.abs(v); v >= 10; v /= 10)
+                    digitos++;
+                return digitos;
+            case DECIMAL:
+                return LONGITUD_DECIMAL;
+            case DATE:
+                return 19;
+            case BOOLEAN:
+                return 5;
+            default:
+                return 0;
+        }
+    }
+
+    public boolean isMuestraCompleta() {
+        return muestra > 0 && filas >= muestra;
+    }
+
+    public long getFilas() {
+        return filas;
+    }
+
+    /**
+     * Añade a la tabla un {@link FieldModel} por columna con el tipo, la longitud máxima y la nulabilidad deducidos.
+     * Si solo se ha observado una muestra, los campos se marcan como anulables porque el resto de filas podría tener vacíos.
+     * @param tabla tabla a la que añadir los campos
+     */
+    public void addFields(TableModel tabla) {
+        boolean completa = !isMuestraCompleta();
+        for (int j = 0; j < cabeceras.length; j++) {
+            // Una columna sin filas de datos no puede declararse NOT NULL
+            boolean nullable = nulos[j] || !completa || filas == 0;
+            tabla.addField(new FieldModel(cabeceras[j], tipo[j], longitud[j], nullable));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.iesvdc.dam.acceso.exportacion;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.iesvdc.dam.acceso.conexion.Conexion;
+import com.iesvdc.dam.acceso.excelutil.ExcelWriter;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+import com.mysql.cj.conf.PropertyKey;
+import com.mysql.cj.jdbc.JdbcConnection;
+
+/**
+ * Exportación de tablas de la base de datos a un libro Excel (.xlsx), el camino inverso a la importación.
+ * Por cada tabla:
+ *   - Se lanza un SELECT con un ResultSet de solo avance y solo lectura, con el fetch size ajustado para que el driver
+ *     entregue las filas por bloques (en MySQL, en streaming) en lugar de cargar la tabla entera en memoria
+ *   - Se construye su {@link TableModel} a partir de {@link ResultSetMetaData}
+ *   - Se escribe como una hoja con {@link ExcelWriter} ({@link org.apache.poi.xssf.streaming.SXSSFWorkbook})
+ * En modo paralelo cada tabla se exporta en su propio hilo con su propia conexión, y cada hilo escribe en sus propias hojas.
+ */
+public class DatabaseExporter {
+    private final int fetchSize;
+    private final int ventana;
+    private final boolean comprimirTemporales;
+    private final int workers;
+    private final WorkbookModel modelo = new WorkbookModel();
+
+    /**
+     * @param fetchSize filas que el driver trae del servidor en cada viaje
+     * @param ventana filas por hoja que se mantienen en memoria al escribir
+     * @param comprimirTemporales true para comprimir los ficheros temporales del libro
+     * @param workers tablas que se exportan a la vez (1 = secuencial)
+     */
+    public DatabaseExporter(int fetchSize, int ventana, boolean comprimirTemporales, int workers) {
+        this.fetchSize = fetchSize;
+        this.ventana = ventana;
+        this.comprimirTemporales = comprimirTemporales;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Modelo de las tablas exportadas, construido a partir de los metadatos de cada consulta.
+     * @return el modelo del libro generado
+     */
+    public WorkbookModel getModelo() {
+        return modelo;
+    }
+
+    /**
+     * Exporta las tablas indicadas (o todas las de la base de datos) al fichero de salida.
+     * @param tablas nombres de las tablas a exportar; si está vacía se exportan todas
+     * @param outputFile ruta del fichero .xlsx de salida
+     * @return número total de filas exportadas
+     * @throws Exception si falla la lectura de alguna tabla o la escritura del fichero
+     */
+    public long exportar(List<String> tablas, String outputFile) throws Exception {
+        if (tablas.isEmpty())
+            tablas = listarTablas();
+        long total = 0;
+        try (ExcelWriter writer = new ExcelWriter(ventana, comprimirTemporales)) {
+            if (workers == 1) {
+                for (String tabla : tablas)
+                    total += exportarTabla(tabla, writer);
+            } else {
+                total = exportarEnParalelo(tablas, writer);
+            }
+            writer.write(outputFile);
+        }
+        System.out.println("Exportadas " + tablas.size() + " tablas (" + total + " filas) a '" + outputFile + "'.");
+        return total;
+    }
+
+    private long exportarEnParalelo(List<String> tablas, ExcelWriter writer) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Long>> resultados = new ArrayList<>();
+            for (String tabla : tablas)
+                resultados.add(pool.submit(() -> exportarTabla(tabla, writer)));
+            long total = 0;
+            for (Future<Long> f : resultados) {
+                try {
+                    total += f.get();
+                } catch (ExecutionException e) {
+                    for (Future<Long> otro : resultados)
+                        otro.cancel(true);
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+            return total;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Exporta una tabla en sus propias hojas del libro, con su propia conexión.
+     */
+    private long exportarTabla(String nombre, ExcelWriter writer) throws SQLException {
+        try (Connection conexion = Conexion.getConnection()) {
+            if (conexion == null)
+                throw new SQLException("Imposible conectar a la base de datos para exportar '" + nombre + "'");
+            try (Statement st = conexion.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                st.setFetchSize(fetchSizePara(conexion));
+                try (ResultSet rs = st.executeQuery("SELECT * FROM " + quote(conexion, nombre))) {
+                    TableModel tabla = buildTableModel(nombre, rs.getMetaData());
+                    synchronized (modelo) {
+                        modelo.addTable(tabla);
+                    }
+                    long filas = writer.writeRows(tabla, rs);
+                    System.out.println("Tabla '" + nombre + "': " + filas + " filas exportadas.");
+                    return filas;
+                }
+            }
+        }
+    }
+
+    /**
+     * Connector/J solo entrega las filas en streaming con fetch size Integer.MIN_VALUE, salvo que la conexión use
+     * cursores de servidor (useCursorFetch=true); el resto de drivers respetan el fetch size indicado.
+     */
+    private int fetchSizePara(Connection conexion) throws SQLException {
+        if (conexion.isWrapperFor(JdbcConnection.class)
+                && !conexion.unwrap(JdbcConnection.class).getPropertySet().getBooleanProperty(PropertyKey.useCursorFetch).getValue())
+            return Integer.MIN_VALUE;
+        return fetchSize;
+    }
+
+    /**
+     * Construye el modelo de una tabla a partir de los metadatos de su consulta.
+     * @param nombre nombre de la tabla
+     * @param meta metadatos del ResultSet
+     * @return el modelo de la tabla con un campo por columna
+     * @throws SQLException si no se pueden leer los metadatos
+     */
+    public static TableModel buildTableModel(String nombre, ResultSetMetaData meta) throws SQLException {
+        TableModel tabla = new TableModel(nombre);
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            int longitud = meta.getColumnDisplaySize(i);
+            boolean nullable = meta.isNullable(i) != ResultSetMetaData.columnNoNulls;
+            tabla.addField(new FieldModel(meta.getColumnLabel(i), toFieldType(meta.getColumnType(i), meta.getPrecision(i)), longitud, nullable));
+        }
+        return tabla;
+    }
+
+    /**
+     * Traduce un tipo JDBC ({@link Types}) al {@link FieldType} del modelo.
+     * @param tipoJdbc tipo de la columna
+     * @param precision precisión de la columna (para distinguir TINYINT(1) de un entero)
+     * @return el tipo del campo
+     */
+    public static FieldType toFieldType(int tipoJdbc, int precision) {
+        switch (tipoJdbc) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return FieldType.BOOLEAN;
+            case Types.TINYINT:
+                return precision == 1 ? FieldType.BOOLEAN : FieldType.INTEGER;
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return FieldType.INTEGER;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return FieldType.DECIMAL;
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return FieldType.DATE;
+            default:
+                return FieldType.STRING;
+        }
+    }
+
+    /**
+     * Lista las tablas de la base de datos de la conexión.
+     */
+    private List<String> listarTablas() throws SQLException {
+        List<String> tablas = new ArrayList<>();
+        try (Connection conexion = Conexion.getConnection()) {
+            if (conexion == null)
+                throw new SQLException("Imposible conectar a la base de datos");
+            DatabaseMetaData meta = conexion.getMetaData();
+            try (ResultSet rs = meta.getTables(conexion.getCatalog(), conexion.getSchema(), "%", new String[] { "TABLE" })) {
+                while (rs.next())
+                    tablas.add(rs.getString("TABLE_NAME"));
+            }
+        }
+        return tablas;
+    }
+
+    private static String quote(Connection conexion, String identificador) throws SQLException {
+        String comilla = conexion.getMetaData().getIdentifierQuoteString().trim();
+        return comilla + identificador.replace(comilla, comilla + comilla) + comilla;
+    }
+}
@@ -0,0 +1,227 @@
+package com.iesvdc.dam.acceso.ingesta;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Modo demonio: vigila una carpeta de entrada con {@link WatchService} y procesa cada libro (.xlsx, .xls, .ods o .csv) que aparece en ella.
+ *   - Un fichero solo se procesa cuando lleva {@code esperaMs} sin cambiar de tamaño ni de fecha, para no leer libros a medio copiar
+ *   - Los libros se procesan a la vez en un pool fijo de {@code workers} hilos; si todos están ocupados, los nuevos esperan su turno
+ *   - Al terminar, cada libro se mueve a la carpeta de procesados o a la de fallidos (con la fecha delante si ya existe uno con ese nombre)
+ * La JVM sigue viva entre fichero y fichero, así que las clases de POI ya están cargadas y las conexiones del pool abiertas.
+ * Los libros que ya estaban en la carpeta al arrancar también se procesan. El demonio se detiene con {@link #detener()}
+ * (por ejemplo, desde un shutdown hook con Ctrl+C) tras terminar los libros en curso.
+ */
+public class InboxWatcher {
+    private static final DateTimeFormatter SELLO = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Path entrada;
+    private final Path procesados;
+    private final Path fallidos;
+    private final int workers;
+    private final long esperaMs;
+    private final Predicate<Path> procesador;
+
+    /** Ficheros vistos que aún no se han enviado: ruta → último estado observado. */
+    private final Map<Path, Estado> pendientes = new HashMap<>();
+    private final Set<Path> enCurso = ConcurrentHashMap.newKeySet();
+    private volatile boolean activo = true;
+    private volatile WatchService watcher;
+
+    /** Tamaño y fecha de un fichero en la última comprobación, y desde cuándo no cambian. */
+    private static class Estado {
+        long tamano = -1;
+        long modificado = -1;
+        long estableDesde;
+    }
+
+    /**
+     * @param entrada carpeta que se vigila
+     * @param procesados carpeta a la que se mueven los libros cargados bien
+     * @param fallidos carpeta a la que se mueven los libros que fallan
+     * @param workers libros que se procesan a la vez
+     * @param esperaMs milisegundos que un fichero debe pasar sin cambios antes de procesarlo
+     * @param procesador carga un libro y devuelve true si ha ido bien
+     */
+    public InboxWatcher(Path entrada, Path procesados, Path fallidos, int workers, long esperaMs, Predicate<Path> procesador) {
+        if (workers <= 0 || esperaMs < 0)
+            throw new IllegalArgumentException("Parámetros del demonio no válidos: workers=" + workers + ", esperaMs=" + esperaMs);
+        this.entrada = entrada;
+        this.procesados = procesados;
+        this.fallidos = fallidos;
+        this.workers = workers;
+        this.esperaMs = esperaMs;
+        this.procesador = procesador;
+    }
+
+    /**
+     * Vigila la carpeta hasta que se llame a {@link #detener()}. Al salir espera a que terminen los libros en curso.
+     * @throws IOException si no se puede vigilar la carpeta o crear las de destino
+     * @throws InterruptedException si se interrumpe la espera
+     */
+    public void vigilar() throws IOException, InterruptedException {
+        Files.createDirectories(entrada);
+        Files.createDirectories(procesados);
+        Files.createDirectories(fallidos);
+        AtomicInteger hilos = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> new Thread(r, "ingesta-" + hilos.incrementAndGet()));
+        long tick = Math.max(100, esperaMs / 2);
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            watcher = ws;
+            entrada.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Vigilando '" + entrada.toAbsolutePath() + "' (" + workers + " libros a la vez). Ctrl+C para terminar.");
+            explorar();
+            while (activo) {
+                WatchKey clave;
+                try {
+                    clave = ws.poll(tick, TimeUnit.MILLISECONDS);
+                } catch (ClosedWatchServiceException e) {
+                    break;
+                }
+                if (clave != null) {
+                    for (WatchEvent<?> evento : clave.pollEvents()) {
+                        if (evento.kind() == StandardWatchEventKinds.OVERFLOW)
+                            explorar();
+                        else
+                            anotar(entrada.resolve((Path) evento.context()));
+                    }
+                    clave.reset();
+                }
+                enviarEstables(pool);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // detener() ha cerrado el WatchService
+        } finally {
+            pool.shutdown();
+            if (!enCurso.isEmpty())
+                System.out.println("Esperando a que terminen " + enCurso.size() + " libros en curso...");
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        System.out.println("Demonio detenido.");
+    }
+
+    /**
+     * Pide al demonio que termine. Los libros en curso se terminan; los pendientes se quedan en la carpeta de entrada.
+     */
+    public void detener() {
+        activo = false;
+        WatchService ws = watcher;
+        if (ws != null) {
+            try {
+                ws.close();
+            } catch (IOException e) {
+                System.err.println("Error al cerrar el WatchService: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Anota todos los libros que hay en la carpeta (al arrancar o si se han perdido eventos).
+     */
+    private void explorar() throws IOException {
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(entrada)) {
+            for (Path fichero : ficheros)
+                anotar(fichero);
+        }
+    }
+
+    private void anotar(Path fichero) {
+        String nombre = fichero.getFileName().toString();
+        String minusculas = nombre.toLowerCase();
+        if (!minusculas.endsWith(".xlsx") && !minusculas.endsWith(".xls") && !minusculas.endsWith(".ods") && !minusculas.endsWith(".csv"))
+            return;
+        // Los ficheros de bloqueo de Excel (~$libro.xlsx) y de LibreOffice (.~lock.libro.ods#), los temporales
+        // y los ficheros de rechazos que deja la carga tolerante junto al libro no son libros
+        if (nombre.startsWith("~$") || nombre.startsWith(".") || minusculas.contains(".rechazos."))
+            return;
+        if (!enCurso.contains(fichero))
+            pendientes.putIfAbsent(fichero, new Estado());
+    }
+
+    /**
+     * Envía al pool los ficheros pendientes que llevan {@code esperaMs} sin cambios, mientras haya hilos libres.
+     */
+    private void enviarEstables(ExecutorService pool) {
+        long ahora = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Estado>> it = pendientes.entrySet().iterator();
+        while (it.hasNext() && enCurso.size() < workers) {
+            Map.Entry<Path, Estado> pendiente = it.next();
+            Path fichero = pendiente.getKey();
+            Estado estado = pendiente.getValue();
+            long tamano;
+            long modificado;
+            try {
+                tamano = Files.size(fichero);
+                modificado = Files.getLastModifiedTime(fichero).toMillis();
+            } catch (IOException e) {
+                // Borrado o renombrado antes de procesarlo
+                it.remove();
+                continue;
+            }
+            if (tamano != estado.tamano || modificado != estado.modificado) {
+                estado.tamano = tamano;
+                estado.modificado = modificado;
+                estado.estableDesde = ahora;
+                continue;
+            }
+            if (tamano == 0 || ahora - estado.estableDesde < esperaMs)
+                continue;
+            it.remove();
+            enCurso.add(fichero);
+            pool.execute(() -> procesar(fichero));
+        }
+    }
+
+    private void procesar(Path fichero) {
+        boolean correcto = false;
+        long inicio = System.nanoTime();
+        try {
+            System.out.println("Procesando '" + fichero.getFileName() + "'...");
+            correcto = procesador.test(fichero);
+        } catch (RuntimeException e) {
+            System.err.println("Error procesando '" + fichero.getFileName() + "': " + e.getMessage());
+        } finally {
+            Path destino = mover(fichero, correcto ? procesados : fallidos);
+            System.out.printf("'%s' %s en %.1f s -> %s%n", fichero.getFileName(), correcto ? "cargado" : "FALLIDO",
+                (System.nanoTime() - inicio) / 1e9, destino);
+            enCurso.remove(fichero);
+        }
+    }
+
+    private static Path mover(Path fichero, Path carpeta) {
+        Path destino = carpeta.resolve(fichero.getFileName());
+        if (Files.exists(destino))
+            destino = carpeta.resolve(LocalDateTime.now().format(SELLO) + "-" + fichero.getFileName());
+        try {
+            return Files.move(fichero, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                return Files.move(fichero, destino);
+            } catch (IOException e2) {
+                System.err.println("No se puede mover '" + fichero + "' a '" + carpeta + "': " + e2.getMessage());
+                return fichero;
+            }
+        }
+    }
+}
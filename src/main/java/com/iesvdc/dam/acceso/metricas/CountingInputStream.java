@@ -0,0 +1,46 @@
+package com.iesvdc.dam.acceso.metricas;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Flujo que suma a {@link ImportMetrics} los bytes que se leen a través de él.
+ * Los lectores leen por bloques, así que el contador se actualiza una vez por bloque y no por byte.
+ */
+public class CountingInputStream extends FilterInputStream {
+    private final ImportMetrics metricas;
+
+    /**
+     * @param in flujo original
+     * @param metricas métricas en las que se suman los bytes leídos
+     */
+    public CountingInputStream(InputStream in, ImportMetrics metricas) {
+        super(in);
+        this.metricas = metricas;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0)
+            metricas.addBytesLeidos(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0)
+            metricas.addBytesLeidos(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long saltados = super.skip(n);
+        if (saltados > 0)
+            metricas.addBytesLeidos(saltados);
+        return saltados;
+    }
+}
@@ -0,0 +1,385 @@
+package com.iesvdc.dam.acceso.metricas;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas de la ejecución (importación o exportación), compartidas por todos los hilos:
+ *   - Contadores: filas leídas del Excel, filas escritas en la base de datos, filas rechazadas y bytes leídos
+ *   - Tiempo y filas de cada hoja leída (lectura más el proceso de sus filas)
+ *   - Histogramas de latencia ({@link Histograma}) de cada envío de un bloque, de cada COMMIT y de cada conexión obtenida
+ *   - Histograma de la creación de cada índice único diferido, aparte del tiempo de carga
+ *   - Por tabla, los tamaños de bloque que ha elegido el tamaño adaptativo (adaptiveBatch): mínimo, máximo, medio y último
+ * Los contadores son {@link LongAdder}, así que registrar desde varios hilos no provoca contención; las filas leídas se
+ * suman por bloques y las escritas por envío, de modo que el coste por fila es prácticamente nulo.
+ * Las filas leídas incluyen las de la pasada de deducción de tipos y la de comprobación de duplicados.
+ * Se consultan por JMX ({@link ImportMetricsMXBean}), con un {@link ProgressReporter} o en el resumen JSON del final.
+ */
+public class ImportMetrics implements ImportMetricsMXBean {
+    private static final ImportMetrics INSTANCIA = new ImportMetrics();
+    private static final String NOMBRE_JMX = "com.iesvdc.dam.acceso:type=ImportMetrics";
+
+    private final LongAdder filasLeidas = new LongAdder();
+    private final LongAdder filasEscritas = new LongAdder();
+    private final LongAdder filasRechazadas = new LongAdder();
+    private final LongAdder bytesLeidos = new LongAdder();
+    private final Histograma lotes = new Histograma();
+    private final Histograma commits = new Histograma();
+    private final Histograma conexiones = new Histograma();
+    private final Histograma indices = new Histograma();
+    /** Por hoja: nanosegundos y filas, acumulados si la hoja se lee varias veces. */
+    private final Map<String, long[]> hojas = new LinkedHashMap<>();
+    /** Por tabla: envíos, filas, mínimo, máximo y último tamaño de bloque adaptativo. */
+    private final Map<String, long[]> tamanosLote = new LinkedHashMap<>();
+    private volatile int tamanoLoteActual;
+    private volatile String hojaActual;
+    private volatile long inicio = System.nanoTime();
+
+    private ImportMetrics() { }
+
+    /**
+     * @return las métricas de la ejecución
+     */
+    public static ImportMetrics get() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Registra las métricas en el servidor JMX de la plataforma. Llamarlo más de una vez no hace nada.
+     */
+    public static synchronized void registrarJmx() {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombre = new ObjectName(NOMBRE_JMX);
+            if (!servidor.isRegistered(nombre))
+                servidor.registerMBean(INSTANCIA, nombre);
+        } catch (JMException e) {
+            System.err.println("No se pueden publicar las métricas por JMX: " + e.getMessage());
+        }
+    }
+
+    public void addFilasLeidas(long filas) {
+        filasLeidas.add(filas);
+    }
+
+    public void addFilasEscritas(long filas) {
+        filasEscritas.add(filas);
+    }
+
+    public void addFilasRechazadas(long filas) {
+        filasRechazadas.add(filas);
+    }
+
+    public void addBytesLeidos(long bytes) {
+        bytesLeidos.add(bytes);
+    }
+
+    /** @return histograma de los envíos de bloques (executeBatch o LOAD DATA) */
+    public Histograma getHistogramaLotes() {
+        return lotes;
+    }
+
+    /** @return histograma de los COMMIT */
+    public Histograma getHistogramaCommits() {
+        return commits;
+    }
+
+    /** @return histograma del tiempo para obtener una conexión */
+    public Histograma getHistogramaConexiones() {
+        return conexiones;
+    }
+
+    /** @return histograma de la creación de los índices únicos tras la carga */
+    public Histograma getHistogramaIndices() {
+        return indices;
+    }
+
+    /**
+     * Anota la hoja que se empieza a leer, para los informes de progreso.
+     * @param nombre nombre de la hoja
+     */
+    public void inicioHoja(String nombre) {
+        hojaActual = nombre;
+    }
+
+    /**
+     * Anota el tiempo y las filas de una hoja leída.
+     * @param nombre nombre de la hoja
+     * @param nanos tiempo de lectura y proceso de la hoja
+     * @param filas filas leídas
+     */
+    public void finHoja(String nombre, long nanos, long filas) {
+        synchronized (hojas) {
+            long[] acumulado = hojas.computeIfAbsent(nombre, k -> new long[2]);
+            acumulado[0] += nanos;
+            acumulado[1] += filas;
+        }
+    }
+
+    /**
+     * Anota el tamaño de un bloque enviado con el tamaño adaptativo.
+     * @param tabla tabla del bloque
+     * @param filas filas del bloque
+     */
+    public void registrarTamanoLote(String tabla, int filas) {
+        tamanoLoteActual = filas;
+        synchronized (tamanosLote) {
+            long[] t = tamanosLote.computeIfAbsent(tabla, k -> new long[] { 0, 0, Long.MAX_VALUE, 0, 0 });
+            t[0]++;
+            t[1] += filas;
+            t[2] = Math.min(t[2], filas);
+            t[3] = Math.max(t[3], filas);
+            t[4] = filas;
+        }
+    }
+
+    /**
+     * Resumen de los tamaños de bloque adaptativos para la línea de métricas: "tabla último (mín-máx, media m)" por tabla.
+     * @return el resumen, o cadena vacía si no se ha usado el tamaño adaptativo
+     */
+    public String getResumenTamanosLote() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (tamanosLote) {
+            for (Map.Entry<String, long[]> tabla : tamanosLote.entrySet()) {
+                long[] t = tabla.getValue();
+                if (sb.length() > 0)
+                    sb.append(", ");
+                sb.append(tabla.getKey()).append(' ').append(t[4]).append(" (").append(t[2]).append('-').append(t[3])
+                  .append(", media ").append(t[1] / t[0]).append(')');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Hace COMMIT en la conexión y anota su latencia.
+     * @param conexion conexión con la transacción abierta
+     * @throws SQLException si el COMMIT falla
+     */
+    public void commit(Connection conexion) throws SQLException {
+        long t = System.nanoTime();
+        conexion.commit();
+        commits.registrar(System.nanoTime() - t);
+    }
+
+    @Override
+    public long getFilasLeidas() {
+        return filasLeidas.sum();
+    }
+
+    @Override
+    public long getFilasEscritas() {
+        return filasEscritas.sum();
+    }
+
+    @Override
+    public long getFilasRechazadas() {
+        return filasRechazadas.sum();
+    }
+
+    @Override
+    public long getBytesLeidos() {
+        return bytesLeidos.sum();
+    }
+
+    @Override
+    public double getSegundos() {
+        return (System.nanoTime() - inicio) / 1e9;
+    }
+
+    @Override
+    public double getFilasLeidasPorSegundo() {
+        return porSegundo(getFilasLeidas());
+    }
+
+    @Override
+    public double getFilasEscritasPorSegundo() {
+        return porSegundo(getFilasEscritas());
+    }
+
+    @Override
+    public String getHojaActual() {
+        return hojaActual;
+    }
+
+    @Override
+    public long getLotes() {
+        return lotes.getCuenta();
+    }
+
+    @Override
+    public double getLoteMediaMs() {
+        return lotes.getMediaMs();
+    }
+
+    @Override
+    public double getLoteP99Ms() {
+        return lotes.percentilMs(99);
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.getCuenta();
+    }
+
+    @Override
+    public double getCommitMediaMs() {
+        return commits.getMediaMs();
+    }
+
+    @Override
+    public double getCommitP99Ms() {
+        return commits.percentilMs(99);
+    }
+
+    @Override
+    public long getConexiones() {
+        return conexiones.getCuenta();
+    }
+
+    @Override
+    public double getConexionMediaMs() {
+        return conexiones.getMediaMs();
+    }
+
+    @Override
+    public double getConexionP99Ms() {
+        return conexiones.percentilMs(99);
+    }
+
+    @Override
+    public long getIndices() {
+        return indices.getCuenta();
+    }
+
+    @Override
+    public double getIndiceTotalMs() {
+        return indices.getTotalMs();
+    }
+
+    @Override
+    public int getTamanoLoteActual() {
+        return tamanoLoteActual;
+    }
+
+    @Override
+    public void reiniciar() {
+        filasLeidas.reset();
+        filasEscritas.reset();
+        filasRechazadas.reset();
+        bytesLeidos.reset();
+        lotes.reiniciar();
+        commits.reiniciar();
+        conexiones.reiniciar();
+        indices.reiniciar();
+        synchronized (hojas) {
+            hojas.clear();
+        }
+        synchronized (tamanosLote) {
+            tamanosLote.clear();
+        }
+        tamanoLoteActual = 0;
+        hojaActual = null;
+        inicio = System.nanoTime();
+    }
+
+    private double porSegundo(long cantidad) {
+        double segundos = getSegundos();
+        return segundos > 0 ? cantidad / segundos : 0;
+    }
+
+    @Override
+    public String getResumen() {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"segundos\": ").append(numero(getSegundos())).append(",\n");
+        sb.append("  \"filasLeidas\": ").append(getFilasLeidas()).append(",\n");
+        sb.append("  \"filasEscritas\": ").append(getFilasEscritas()).append(",\n");
+        sb.append("  \"filasRechazadas\": ").append(getFilasRechazadas()).append(",\n");
+        sb.append("  \"bytesLeidos\": ").append(getBytesLeidos()).append(",\n");
+        sb.append("  \"filasLeidasPorSegundo\": ").append(numero(getFilasLeidasPorSegundo())).append(",\n");
+        sb.append("  \"filasEscritasPorSegundo\": ").append(numero(getFilasEscritasPorSegundo())).append(",\n");
+        sb.append("  \"hojas\": [");
+        synchronized (hojas) {
+            boolean primera = true;
+            for (Map.Entry<String, long[]> hoja : hojas.entrySet()) {
+                sb.append(primera ? "\n" : ",\n");
+                primera = false;
+                sb.append("    {\"nombre\": ").append(texto(hoja.getKey()))
+                  .append(", \"ms\": ").append(numero(hoja.getValue()[0] / 1e6))
+                  .append(", \"filas\": ").append(hoja.getValue()[1]).append('}');
+            }
+            sb.append(primera ? "],\n" : "\n  ],\n");
+        }
+        sb.append("  \"tamanosLote\": [");
+        synchronized (tamanosLote) {
+            boolean primera = true;
+            for (Map.Entry<String, long[]> tabla : tamanosLote.entrySet()) {
+                long[] t = tabla.getValue();
+                sb.append(primera ? "\n" : ",\n");
+                primera = false;
+                sb.append("    {\"tabla\": ").append(texto(tabla.getKey()))
+                  .append(", \"envios\": ").append(t[0])
+                  .append(", \"minimo\": ").append(t[2])
+                  .append(", \"maximo\": ").append(t[3])
+                  .append(", \"medio\": ").append(numero(t[1] / (double) t[0]))
+                  .append(", \"ultimo\": ").append(t[4]).append('}');
+            }
+            sb.append(primera ? "],\n" : "\n  ],\n");
+        }
+        histograma(sb, "lotes", lotes).append(",\n");
+        histograma(sb, "commits", commits).append(",\n");
+        histograma(sb, "conexiones", conexiones).append(",\n");
+        histograma(sb, "indices", indices).append('\n');
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * Escribe el resumen en JSON ({@link #getResumen()}) en un fichero.
+     * @param fichero ruta del fichero, que se sobrescribe
+     * @throws IOException si no se puede escribir
+     */
+    public void escribirResumen(String fichero) throws IOException {
+        Files.write(Paths.get(fichero), getResumen().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static StringBuilder histograma(StringBuilder sb, String nombre, Histograma h) {
+        return sb.append("  \"").append(nombre).append("\": {\"cuenta\": ").append(h.getCuenta())
+            .append(", \"totalMs\": ").append(numero(h.getTotalMs()))
+            .append(", \"mediaMs\": ").append(numero(h.getMediaMs()))
+            .append(", \"p50Ms\": ").append(numero(h.percentilMs(50)))
+            .append(", \"p95Ms\": ").append(numero(h.percentilMs(95)))
+            .append(", \"p99Ms\": ").append(numero(h.percentilMs(99)))
+            .append(", \"maxMs\": ").append(numero(h.getMaximoMs())).append('}');
+    }
+
+    private static String numero(double valor) {
+        return String.format(Locale.ROOT, "%.3f", valor);
+    }
+
+    private static String texto(String valor) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
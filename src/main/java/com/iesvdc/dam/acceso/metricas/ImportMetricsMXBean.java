@@ -0,0 +1,54 @@
+package com.iesvdc.dam.acceso.metricas;
+
+/**
+ * Vista JMX de {@link ImportMetrics}, registrada como {@code com.iesvdc.dam.acceso:type=ImportMetrics}.
+ * Se puede consultar con jconsole o VisualVM mientras dura la carga. Los tiempos van en milisegundos.
+ */
+public interface ImportMetricsMXBean {
+    long getFilasLeidas();
+
+    long getFilasEscritas();
+
+    long getFilasRechazadas();
+
+    long getBytesLeidos();
+
+    double getSegundos();
+
+    double getFilasLeidasPorSegundo();
+
+    double getFilasEscritasPorSegundo();
+
+    String getHojaActual();
+
+    long getLotes();
+
+    double getLoteMediaMs();
+
+    double getLoteP99Ms();
+
+    long getCommits();
+
+    double getCommitMediaMs();
+
+    double getCommitP99Ms();
+
+    long getConexiones();
+
+    double getConexionMediaMs();
+
+    double getConexionP99Ms();
+
+    long getIndices();
+
+    double getIndiceTotalMs();
+
+    /** @return tamaño del último bloque elegido por el tamaño adaptativo (adaptiveBatch), o 0 si no se usa */
+    int getTamanoLoteActual();
+
+    /** @return el resumen completo en JSON */
+    String getResumen();
+
+    /** Pone a cero todos los contadores. */
+    void reiniciar();
+}
@@ -0,0 +1,57 @@
+package com.iesvdc.dam.acceso.metricas;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Muestra por consola, cada cierto tiempo, el progreso de la ejecución según {@link ImportMetrics}:
+ * hoja en curso, filas leídas y escritas con su ritmo en el último intervalo, megabytes leídos y latencia de los bloques.
+ * Usa un hilo demonio propio, así que no interfiere con la carga ni impide que el programa termine.
+ */
+public class ProgressReporter implements AutoCloseable {
+    private final ImportMetrics metricas;
+    private final ScheduledExecutorService planificador;
+    private final long intervaloS;
+    private long leidasAnterior;
+    private long escritasAnterior;
+
+    /**
+     * Arranca los informes de progreso.
+     * @param metricas métricas de la ejecución
+     * @param intervaloS segundos entre informes (mayor que 0)
+     */
+    public ProgressReporter(ImportMetrics metricas, long intervaloS) {
+        if (intervaloS <= 0)
+            throw new IllegalArgumentException("El intervalo de progreso debe ser positivo: " + intervaloS);
+        this.metricas = metricas;
+        this.intervaloS = intervaloS;
+        this.planificador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "metricas-progreso");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        planificador.scheduleAtFixedRate(this::informar, intervaloS, intervaloS, TimeUnit.SECONDS);
+    }
+
+    private void informar() {
+        long leidas = metricas.getFilasLeidas();
+        long escritas = metricas.getFilasEscritas();
+        String hoja = metricas.getHojaActual();
+        System.out.println(String.format(Locale.ROOT,
+            "[progreso %.0fs] hoja '%s': %d filas leídas (%.0f/s), %d escritas (%.0f/s), %.1f MB leídos, bloque p99 %.1f ms",
+            metricas.getSegundos(), hoja == null ? "-" : hoja,
+            leidas, (leidas - leidasAnterior) / (double) intervaloS,
+            escritas, (escritas - escritasAnterior) / (double) intervaloS,
+            metricas.getBytesLeidos() / 1e6, metricas.getLoteP99Ms()));
+        leidasAnterior = leidas;
+        escritasAnterior = escritas;
+    }
+
+    /** Detiene los informes. */
+    @Override
+    public void close() {
+        planificador.shutdownNow();
+    }
+}
@@ -7,25 +7,53 @@ package com.iesvdc.dam.acceso.modelo;
 public class FieldModel {
     private final String name;
     private final FieldType type;
+    private final int maxLength;
+    private final boolean nullable;
 
     public FieldModel() {
-        this.name = "";
-        this.type = FieldType.UNKNOWN;
+        this("", FieldType.UNKNOWN);
     }
 
     public FieldModel(String name) {
-        this.name = name;
-        this.type = FieldType.UNKNOWN;
+        this(name, FieldType.UNKNOWN);
     }
 
     public FieldModel(String name, FieldType type) {
+        this(name, type, 0, true);
+    }
+
+    /**
+     * @param name nombre del campo
+     * @param type tipo del campo
+     * @param maxLength longitud máxima observada en texto (0 si se desconoce)
+     * @param nullable true si el campo puede quedar vacío
+     */
+    public FieldModel(String name, FieldType type, int maxLength, boolean nullable) {
         this.name = name;
         this.type = type;
+        this.maxLength = maxLength;
+        this.nullable = nullable;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FieldType getType() {
+        return type;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public boolean isNullable() {
+        return nullable;
     }
 
     @Override
     public String toString() {
-        return "FieldModel [name=" + name + ", type=" + type + "]";
+        return "FieldModel [name=" + name + ", type=" + type + ", maxLength=" + maxLength + ", nullable=" + nullable + "]";
     }
 
     @Override
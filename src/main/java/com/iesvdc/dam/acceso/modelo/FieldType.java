@@ -16,4 +16,21 @@ public enum FieldType {
      * @return true si es INTEGER o DECIMAL.
      */
     public boolean isNumeric() { return this == INTEGER || this == DECIMAL; }
+
+    /**
+     * Devuelve el tipo más estrecho capaz de representar valores de este tipo y del otro.
+     * La jerarquía es UNKNOWN → INTEGER → DECIMAL → STRING; DATE y BOOLEAN solo se combinan consigo mismos
+     * (o con UNKNOWN) y con cualquier otro tipo pasan a STRING.
+     * @param other tipo del nuevo valor observado
+     * @return el tipo ampliado
+     */
+    public FieldType widen(FieldType other) {
+        if (this == other || other == UNKNOWN)
+            return this;
+        if (this == UNKNOWN)
+            return other;
+        if (this.isNumeric() && other.isNumeric())
+            return DECIMAL;
+        return STRING;
+    }
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ import java.util.Objects;
 public class TableModel {
     private final String name;
     private final List<FieldModel> fields = new ArrayList<>();
+    private final List<String> uniqueFields = new ArrayList<>();
 
     public TableModel() {
         this.name = "";
@@ -29,12 +30,45 @@ public class TableModel {
         return fields.add(fm);
     }
 
+    /**
+     * Nombres de los campos cuyos valores no pueden repetirse (cada uno por separado).
+     * @return la lista de campos únicos
+     */
+    public List<String> getUniqueFields() {
+        return uniqueFields;
+    }
+
+    /**
+     * Declara un campo como único.
+     * @param name nombre del campo
+     * @return true si se ha añadido
+     */
+    public boolean addUniqueField(String name) {
+        if (uniqueFields.contains(name))
+            return false;
+        return uniqueFields.add(name);
+    }
+
+    /**
+     * Busca la posición de un campo por su nombre.
+     * @param name nombre del campo
+     * @return índice del campo, o -1 si no existe
+     */
+    public int indexOfField(String name) {
+        for (int i = 0; i < fields.size(); i++)
+            if (fields.get(i).getName().equals(name))
+                return i;
+        return -1;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("TableModel{");
         sb.append("name=").append(name);
         sb.append(", fields=").append(fields);
+        if (!uniqueFields.isEmpty())
+            sb.append(", uniqueFields=").append(uniqueFields);
         sb.append('}');
         return sb.toString();
     }
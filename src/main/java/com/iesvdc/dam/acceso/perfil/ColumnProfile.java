@@ -0,0 +1,190 @@
+package com.iesvdc.dam.acceso.perfil;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.util.Hash64;
+import com.iesvdc.dam.acceso.util.HyperLogLog;
+
+/**
+ * Estadísticas de una columna de una hoja, acumuladas fila a fila con memoria fija:
+ *   - Valores y vacíos (las celdas con error, como #N/A, cuentan como vacíos y además se cuentan aparte)
+ *   - Valores distintos, estimados con {@link HyperLogLog}
+ *   - Mínimo y máximo de los números (y fechas) y, por orden alfabético, de los textos
+ *   - Histograma de la longitud de los textos en intervalos de potencias de dos (1, 2-3, 4-7, ..., 256 o más)
+ *   - Valores que no encajan con el tipo deducido de la muestra (solo con inferenceSample distinto de 0)
+ */
+public class ColumnProfile {
+    /** Intervalos del histograma de longitudes: [0], [1], [2-3], [4-7], ..., [256, ∞). */
+    static final int INTERVALOS_LONGITUD = 10;
+    /** Bytes que se estima que ocupa en la tabla un número o una fecha. */
+    private static final int BYTES_NUMERO = 8;
+    /** Bytes que se estima que ocupa en la tabla la longitud de un texto. */
+    private static final int BYTES_LONGITUD = 2;
+
+    private final String nombre;
+    private long valores;
+    private long nulos;
+    private long errores;
+    private long noValidos;
+    private final HyperLogLog distintos = new HyperLogLog();
+    private long numeros;
+    private double minNumero = Double.POSITIVE_INFINITY;
+    private double maxNumero = Double.NEGATIVE_INFINITY;
+    private long textos;
+    private long sumaLongitud;
+    private String minTexto;
+    private String maxTexto;
+    private final long[] longitudes = new long[INTERVALOS_LONGITUD];
+
+    /**
+     * @param nombre nombre de la columna (su cabecera)
+     */
+    public ColumnProfile(String nombre) {
+        this.nombre = nombre;
+    }
+
+    /**
+     * Anota una celda de la columna.
+     * @param celda valor de la celda
+     */
+    void observar(CellValue celda) {
+        if (celda.isBlank() || celda.getCellType() == CellType.ERROR) {
+            nulos++;
+            if (!celda.isBlank())
+                errores++;
+            return;
+        }
+        valores++;
+        switch (celda.getCellType()) {
+            case NUMERIC:
+                double v = celda.getNumericValue();
+                numeros++;
+                if (v < minNumero)
+                    minNumero = v;
+                if (v > maxNumero)
+                    maxNumero = v;
+                distintos.add(Hash64.mix(Double.doubleToLongBits(v)));
+                break;
+            case BOOLEAN:
+                distintos.add(Hash64.mix(celda.getBooleanValue() ? 1 : 2));
+                break;
+            default:
+                // Los textos se guardan sin espacios a los lados, así que se comparan igual
+                String texto = celda.asString();
+                int longitud = texto.length();
+                textos++;
+                sumaLongitud += longitud;
+                longitudes[Math.min(INTERVALOS_LONGITUD - 1, 32 - Integer.numberOfLeadingZeros(longitud))]++;
+                if (minTexto == null || texto.compareTo(minTexto) < 0)
+                    minTexto = texto;
+                if (maxTexto == null || texto.compareTo(maxTexto) > 0)
+                    maxTexto = texto;
+                distintos.add(Hash64.hash(texto));
+        }
+    }
+
+    /**
+     * Anota una celda que no se puede convertir al tipo deducido de la muestra.
+     */
+    void noValido() {
+        noValidos++;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public long getValores() {
+        return valores;
+    }
+
+    public long getNulos() {
+        return nulos;
+    }
+
+    public long getErrores() {
+        return errores;
+    }
+
+    public long getNoValidos() {
+        return noValidos;
+    }
+
+    /**
+     * @return número estimado de valores distintos (error típico de {@link HyperLogLog#ERROR})
+     */
+    public long getDistintos() {
+        // Con pocos valores la estimación podría pasarse del total
+        return Math.min(valores, distintos.estimate());
+    }
+
+    public boolean hayNumeros() {
+        return numeros > 0;
+    }
+
+    public double getMinNumero() {
+        return minNumero;
+    }
+
+    public double getMaxNumero() {
+        return maxNumero;
+    }
+
+    public boolean hayTextos() {
+        return textos > 0;
+    }
+
+    public String getMinTexto() {
+        return minTexto;
+    }
+
+    public String getMaxTexto() {
+        return maxTexto;
+    }
+
+    /**
+     * @return longitud media de los textos, o 0 si no hay
+     */
+    public double getLongitudMedia() {
+        return textos == 0 ? 0 : sumaLongitud / (double) textos;
+    }
+
+    /**
+     * @return cuántos textos caen en cada intervalo de longitud ({@link #etiquetaLongitud(int)})
+     */
+    public long[] getLongitudes() {
+        return longitudes.clone();
+    }
+
+    /**
+     * @param intervalo posición en el histograma de longitudes
+     * @return el rango de longitudes del intervalo ("0", "1", "2-3", ..., "256+")
+     */
+    public static String etiquetaLongitud(int intervalo) {
+        if (intervalo <= 1)
+            return Integer.toString(intervalo);
+        if (intervalo == INTERVALOS_LONGITUD - 1)
+            return (1 << (intervalo - 1)) + "+";
+        return (1 << (intervalo - 1)) + "-" + ((1 << intervalo) - 1);
+    }
+
+    /**
+     * Bytes que ocuparían los valores de la columna en la tabla, sin índices: 8 por número o fecha, 1 por booleano
+     * y, en las columnas de texto, la longitud de cada texto más 2.
+     * @param tipo tipo deducido de la columna
+     * @return bytes estimados
+     */
+    public long getBytesEstimados(FieldType tipo) {
+        switch (tipo) {
+            case BOOLEAN:
+                return valores;
+            case STRING:
+            case UNKNOWN:
+                return sumaLongitud + BYTES_LONGITUD * textos + BYTES_NUMERO * (valores - textos);
+            default:
+                return BYTES_NUMERO * valores;
+        }
+    }
+}
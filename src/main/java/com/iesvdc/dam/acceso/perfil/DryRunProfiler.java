@@ -0,0 +1,159 @@
+package com.iesvdc.dam.acceso.perfil;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+import com.iesvdc.dam.acceso.excelutil.RowSource;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.excelutil.SheetRowHandler;
+import com.iesvdc.dam.acceso.excelutil.TypeInferrer;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Ensayo de la carga (action=dryrun o --dry-run): lee todas las hojas del fichero sin conectarse a la base de datos
+ * y devuelve un {@link SheetProfile} por hoja. En una sola pasada por hoja se deducen los tipos con {@link TypeInferrer},
+ * igual que {@link ExcelReader#loadWorkbook}, se acumulan las estadísticas de cada columna y, si los tipos salen de una muestra,
+ * se validan contra ellos las filas restantes.
+ * Las hojas se leen siempre en streaming ({@link RowSource}) y en paralelo: cada hilo toma la siguiente hoja pendiente
+ * hasta que una no existe. La memoria no depende del número de filas, solo del de columnas (unos 4 KB cada una).
+ */
+public class DryRunProfiler {
+    private final ExcelReader tipos;
+    private final int muestra;
+    private final int hilos;
+
+    /**
+     * @param tipos lector que aporta la deducción de tipo de una celda
+     * @param muestra filas observadas para deducir los tipos de cada hoja, o 0 para todas
+     * @param hilos hojas que se leen a la vez
+     */
+    public DryRunProfiler(ExcelReader tipos, int muestra, int hilos) {
+        this.tipos = tipos;
+        this.muestra = muestra;
+        this.hilos = Math.max(1, hilos);
+    }
+
+    /**
+     * Perfila todas las hojas del fichero.
+     * @param filename ruta del archivo de entrada (.xlsx, .xls, .ods o .csv)
+     * @return un perfil por hoja, en el orden del libro
+     * @throws Exception con el primer error producido si alguna hoja no se puede leer
+     */
+    public List<SheetProfile> perfilar(String filename) throws Exception {
+        List<SheetProfile> perfiles = new ArrayList<>();
+        AtomicInteger siguiente = new AtomicInteger();
+        AtomicBoolean terminado = new AtomicBoolean(false);
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        try {
+            List<Future<List<SheetProfile>>> tareas = new ArrayList<>();
+            for (int i = 0; i < hilos; i++) {
+                tareas.add(pool.submit(() -> {
+                    List<SheetProfile> propios = new ArrayList<>();
+                    while (!terminado.get()) {
+                        Perfilador perfilador = new Perfilador();
+                        RowSource.of(filename).process(filename, siguiente.getAndIncrement(), perfilador);
+                        // La hoja pedida no existe: ya se han repartido todas
+                        if (perfilador.perfil == null)
+                            break;
+                        propios.add(perfilador.perfil);
+                    }
+                    return propios;
+                }));
+            }
+            Exception error = null;
+            for (Future<List<SheetProfile>> tarea : tareas) {
+                try {
+                    perfiles.addAll(tarea.get());
+                } catch (ExecutionException e) {
+                    // Se avisa al resto de hilos para que no empiecen más hojas
+                    terminado.set(true);
+                    if (error == null)
+                        error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            if (error != null)
+                throw error;
+        } finally {
+            pool.shutdown();
+        }
+        perfiles.sort(Comparator.comparingInt(SheetProfile::getIndice));
+        return perfiles;
+    }
+
+    /**
+     * Modelo del libro con las tablas deducidas de los perfiles.
+     * @param perfiles perfiles de las hojas
+     * @return el modelo
+     */
+    public static WorkbookModel modelo(List<SheetProfile> perfiles) {
+        WorkbookModel modelo = new WorkbookModel();
+        for (SheetProfile p : perfiles)
+            modelo.addTable(p.getTabla());
+        return modelo;
+    }
+
+    /**
+     * Receptor de las filas de una hoja: deduce los tipos, acumula el perfil y valida lo que queda después de la muestra.
+     */
+    private class Perfilador implements SheetRowHandler {
+        private final TypeInferrer inferencia = new TypeInferrer(tipos, muestra);
+        private SheetProfile perfil;
+        private boolean cabecera;
+        /** Tipos deducidos de la muestra, una vez completa. */
+        private FieldType[] tiposMuestra;
+        private long inicio;
+
+        @Override
+        public void startSheet(int index, String name) {
+            perfil = new SheetProfile(index, name);
+            cabecera = true;
+            inicio = System.nanoTime();
+        }
+
+        @Override
+        public void row(SheetRow fila) {
+            if (cabecera) {
+                inferencia.start(fila);
+                perfil.empezar(fila);
+                cabecera = false;
+                return;
+            }
+            perfil.observar(fila);
+            if (tiposMuestra != null)
+                perfil.validar(fila, tiposMuestra, tipos);
+            else if (!inferencia.observe(fila))
+                tiposMuestra = tiposDeducidos();
+        }
+
+        @Override
+        public void endSheet() {
+            perfil.terminar(tabla(), System.nanoTime() - inicio);
+        }
+
+        private TableModel tabla() {
+            TableModel tabla = new TableModel(perfil.getNombre());
+            if (!cabecera)
+                inferencia.addFields(tabla);
+            return tabla;
+        }
+
+        private FieldType[] tiposDeducidos() {
+            List<FieldModel> campos = tabla().getFields();
+            FieldType[] t = new FieldType[campos.size()];
+            for (int j = 0; j < t.length; j++)
+                t[j] = campos.get(j).getType();
+            return t;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.iesvdc.dam.acceso.perfil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.iesvdc.dam.acceso.excelutil.CellAccessor;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.util.HyperLogLog;
+
+/**
+ * Informe del ensayo de la carga a partir de los {@link SheetProfile} de cada hoja: los campos deducidos con sus estadísticas,
+ * los avisos (valores que no encajan con el tipo de la muestra, celdas con error, campos únicos con valores repetidos)
+ * y una previsión del tamaño de los datos y del tiempo de carga a una velocidad dada en filas por segundo.
+ * Se muestra por consola ({@link #imprimir()}) y se guarda en JSON ({@link #escribir(String)}).
+ */
+public class DryRunReport {
+    /** Velocidad supuesta si no se indica ninguna ni hay una carga anterior medida. */
+    public static final double VELOCIDAD_POR_DEFECTO = 10000;
+    /** Un campo único se da por repetido si sus distintos quedan por debajo de sus valores en más de tres errores típicos. */
+    private static final double MARGEN_UNICOS = 3 * HyperLogLog.ERROR;
+    /** Caracteres de un valor que se muestran por consola. */
+    private static final int MAX_CONSOLA = 40;
+    private static final Pattern VELOCIDAD_MEDIDA = Pattern.compile("\"filasEscritasPorSegundo\":\\s*([0-9.]+)");
+
+    private final List<SheetProfile> hojas;
+    private final double filasPorSegundo;
+
+    /**
+     * @param hojas perfiles de las hojas, con los campos únicos ya declarados en sus tablas
+     * @param filasPorSegundo velocidad de carga con la que se calcula la previsión
+     */
+    public DryRunReport(List<SheetProfile> hojas, double filasPorSegundo) {
+        this.hojas = hojas;
+        this.filasPorSegundo = filasPorSegundo;
+    }
+
+    /**
+     * Velocidad de escritura de la última carga, leída del resumen JSON de sus métricas (metricsFile).
+     * @param metricsFile ruta del resumen, o vacía
+     * @return filas escritas por segundo, o 0 si no hay resumen o no se escribió nada
+     */
+    public static double velocidadMedida(String metricsFile) {
+        if (metricsFile == null || metricsFile.isBlank())
+            return 0;
+        Path ruta = Paths.get(metricsFile);
+        if (!Files.isRegularFile(ruta))
+            return 0;
+        try {
+            Matcher m = VELOCIDAD_MEDIDA.matcher(Files.readString(ruta, StandardCharsets.UTF_8));
+            return m.find() ? Double.parseDouble(m.group(1)) : 0;
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public long getFilas() {
+        long filas = 0;
+        for (SheetProfile h : hojas)
+            filas += h.getFilas();
+        return filas;
+    }
+
+    public long getBytesEstimados() {
+        long bytes = 0;
+        for (SheetProfile h : hojas)
+            bytes += h.getBytesEstimados();
+        return bytes;
+    }
+
+    /**
+     * @return segundos que se prevé que dure la carga de todas las hojas
+     */
+    public double getSegundosPrevistos() {
+        return filasPorSegundo > 0 ? getFilas() / filasPorSegundo : 0;
+    }
+
+    /**
+     * @return número de avisos del informe; 0 si el fichero debería cargarse sin problemas
+     */
+    public int getAvisos() {
+        int avisos = 0;
+        for (SheetProfile h : hojas)
+            for (int j = 0; j < h.getColumnas().size(); j++)
+                avisos += avisos(h, j).size();
+        return avisos;
+    }
+
+    /**
+     * Muestra el informe por consola.
+     */
+    public void imprimir() {
+        System.out.println("---ENSAYO---");
+        for (SheetProfile h : hojas) {
+            System.out.println(String.format(Locale.ROOT, "Hoja '%s': %d filas, %d columnas, leída en %.0f ms; ~%s de datos, carga prevista en %.1f s",
+                h.getNombre(), h.getFilas(), h.getColumnas().size(), h.getMs(), tamano(h.getBytesEstimados()), segundos(h.getFilas())));
+            List<FieldModel> campos = h.getTabla().getFields();
+            for (int j = 0; j < h.getColumnas().size(); j++) {
+                ColumnProfile c = h.getColumnas().get(j);
+                FieldModel campo = campos.get(j);
+                StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "  %s %s(%d)%s: %d vacíos (%.1f %%), ~%d distintos",
+                    c.getNombre(), campo.getType(), campo.getMaxLength(), campo.isNullable() ? "" : " NOT NULL",
+                    c.getNulos(), porcentaje(c.getNulos(), h.getFilas()), c.getDistintos()));
+                String[] extremos = extremos(c, campo.getType());
+                if (extremos != null)
+                    sb.append(", mín ").append(corto(extremos[0])).append(", máx ").append(corto(extremos[1]));
+                if (c.hayTextos()) {
+                    sb.append(String.format(Locale.ROOT, ", longitud media %.1f [", c.getLongitudMedia()));
+                    long[] longitudes = c.getLongitudes();
+                    boolean primero = true;
+                    for (int i = 0; i < longitudes.length; i++) {
+                        if (longitudes[i] == 0)
+                            continue;
+                        sb.append(primero ? "" : ", ").append(ColumnProfile.etiquetaLongitud(i)).append(": ").append(longitudes[i]);
+                        primero = false;
+                    }
+                    sb.append(']');
+                }
+                System.out.println(sb);
+                for (String aviso : avisos(h, j))
+                    System.out.println("    AVISO: " + aviso);
+            }
+            if (h.getFilasNoValidas() > 0)
+                System.out.println("  AVISO: " + h.getFilasNoValidas() + " filas no encajan con los tipos de la muestra; la primera es la fila "
+                    + h.getPrimeraNoValida() + " (con inferenceSample=0 se deducen de todas las filas)");
+        }
+        System.out.println(String.format(Locale.ROOT, "Total: %d filas en %d hojas, ~%s de datos; carga prevista en %.1f s a %.0f filas/s; %d avisos",
+            getFilas(), hojas.size(), tamano(getBytesEstimados()), getSegundosPrevistos(), filasPorSegundo, getAvisos()));
+    }
+
+    /**
+     * Avisos de una columna: valores que no encajan con el tipo, celdas con error y repetidos en un campo único.
+     */
+    private static List<String> avisos(SheetProfile h, int j) {
+        ColumnProfile c = h.getColumnas().get(j);
+        List<String> avisos = new ArrayList<>();
+        if (c.getNoValidos() > 0)
+            avisos.add(c.getNoValidos() + " valores no encajan con el tipo " + h.getTipo(j) + " y harían fallar la carga");
+        if (c.getErrores() > 0)
+            avisos.add(c.getErrores() + " celdas con error (#N/A, #DIV/0!...) se cargarán como NULL");
+        // Como en la carga, los vacíos de un campo único no cuentan como repetidos
+        if (h.getTabla().getUniqueFields().contains(c.getNombre()) && c.getDistintos() < c.getValores() * (1 - MARGEN_UNICOS))
+            avisos.add(String.format(Locale.ROOT, "campo único con valores repetidos: ~%d distintos de %d", c.getDistintos(), c.getValores()));
+        return avisos;
+    }
+
+    /**
+     * Mínimo y máximo de la columna según su tipo: números, fechas o texto (solo si todos sus valores son textos).
+     * @return los dos extremos como texto, o null si la columna no tiene valores comparables
+     */
+    private static String[] extremos(ColumnProfile c, FieldType tipo) {
+        switch (tipo) {
+            case INTEGER:
+                if (!c.hayNumeros())
+                    return null;
+                return new String[] { Long.toString((long) c.getMinNumero()), Long.toString((long) c.getMaxNumero()) };
+            case DECIMAL:
+                if (!c.hayNumeros())
+                    return null;
+                return new String[] { Double.toString(c.getMinNumero()), Double.toString(c.getMaxNumero()) };
+            case DATE:
+                if (!c.hayNumeros())
+                    return null;
+                return new String[] { CellAccessor.getTimestamp(c.getMinNumero()).toString(), CellAccessor.getTimestamp(c.getMaxNumero()).toString() };
+            case STRING:
+                // Con números mezclados, los extremos de los textos no serían los de la columna
+                if (!c.hayTextos() || c.hayNumeros())
+                    return null;
+                return new String[] { c.getMinTexto(), c.getMaxTexto() };
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Resumen del informe en JSON.
+     * @return el JSON
+     */
+    public String getResumen() {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"filas\": ").append(getFilas()).append(",\n");
+        sb.append("  \"bytesEstimados\": ").append(getBytesEstimados()).append(",\n");
+        sb.append("  \"filasPorSegundo\": ").append(numero(filasPorSegundo)).append(",\n");
+        sb.append("  \"segundosPrevistos\": ").append(numero(getSegundosPrevistos())).append(",\n");
+        sb.append("  \"avisos\": ").append(getAvisos()).append(",\n");
+        sb.append("  \"hojas\": [");
+        boolean primeraHoja = true;
+        for (SheetProfile h : hojas) {
+            sb.append(primeraHoja ? "\n" : ",\n");
+            primeraHoja = false;
+            sb.append("    {\"nombre\": ").append(texto(h.getNombre()))
+              .append(", \"filas\": ").append(h.getFilas())
+              .append(", \"ms\": ").append(numero(h.getMs()))
+              .append(", \"bytesEstimados\": ").append(h.getBytesEstimados())
+              .append(", \"segundosPrevistos\": ").append(numero(segundos(h.getFilas())))
+              .append(", \"filasNoValidas\": ").append(h.getFilasNoValidas())
+              .append(", \"primeraNoValida\": ").append(h.getPrimeraNoValida())
+              .append(", \"campos\": [");
+            List<FieldModel> campos = h.getTabla().getFields();
+            for (int j = 0; j < h.getColumnas().size(); j++) {
+                ColumnProfile c = h.getColumnas().get(j);
+                FieldModel campo = campos.get(j);
+                sb.append(j == 0 ? "\n" : ",\n");
+                sb.append("      {\"nombre\": ").append(texto(c.getNombre()))
+                  .append(", \"tipo\": ").append(texto(campo.getType().name()))
+                  .append(", \"longitudMaxima\": ").append(campo.getMaxLength())
+                  .append(", \"anulable\": ").append(campo.isNullable())
+                  .append(", \"valores\": ").append(c.getValores())
+                  .append(", \"vacios\": ").append(c.getNulos())
+                  .append(", \"errores\": ").append(c.getErrores())
+                  .append(", \"noValidos\": ").append(c.getNoValidos())
+                  .append(", \"distintos\": ").append(c.getDistintos());
+                String[] extremos = extremos(c, campo.getType());
+                if (extremos != null)
+                    sb.append(", \"minimo\": ").append(texto(extremos[0])).append(", \"maximo\": ").append(texto(extremos[1]));
+                sb.append(", \"longitudMedia\": ").append(numero(c.getLongitudMedia())).append(", \"longitudes\": {");
+                long[] longitudes = c.getLongitudes();
+                boolean primero = true;
+                for (int i = 0; i < longitudes.length; i++) {
+                    if (longitudes[i] == 0)
+                        continue;
+                    sb.append(primero ? "" : ", ").append(texto(ColumnProfile.etiquetaLongitud(i))).append(": ").append(longitudes[i]);
+                    primero = false;
+                }
+                sb.append("}, \"avisos\": [");
+                List<String> avisos = avisos(h, j);
+                for (int i = 0; i < avisos.size(); i++)
+                    sb.append(i == 0 ? "" : ", ").append(texto(avisos.get(i)));
+                sb.append("]}");
+            }
+            sb.append(campos.isEmpty() ? "]}" : "\n    ]}");
+        }
+        sb.append(primeraHoja ? "]\n" : "\n  ]\n");
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * Escribe el resumen en JSON ({@link #getResumen()}) en un fichero.
+     * @param fichero ruta del fichero, que se sobrescribe
+     * @throws IOException si no se puede escribir
+     */
+    public void escribir(String fichero) throws IOException {
+        Files.write(Paths.get(fichero), getResumen().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private double segundos(long filas) {
+        return filasPorSegundo > 0 ? filas / filasPorSegundo : 0;
+    }
+
+    /** Texto en una línea y sin pasar de {@value #MAX_CONSOLA} caracteres, para la consola. */
+    private static String corto(String valor) {
+        String linea = valor.replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t");
+        return linea.length() <= MAX_CONSOLA ? linea : linea.substring(0, MAX_CONSOLA - 3) + "...";
+    }
+
+    private static double porcentaje(long parte, long total) {
+        return total == 0 ? 0 : 100.0 * parte / total;
+    }
+
+    private static String tamano(long bytes) {
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    private static String numero(double valor) {
+        return String.format(Locale.ROOT, "%.3f", valor);
+    }
+
+    private static String texto(String valor) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,145 @@
+package com.iesvdc.dam.acceso.perfil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.iesvdc.dam.acceso.excelutil.CellValue;
+import com.iesvdc.dam.acceso.excelutil.ExcelReader;
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Perfil de una hoja: sus filas de datos, el {@link TableModel} deducido y un {@link ColumnProfile} por columna.
+ * Si los tipos se deducen de una muestra, las filas posteriores se validan contra ellos y se anota la primera que no encaja.
+ */
+public class SheetProfile {
+    private final int indice;
+    private final String nombre;
+    private final List<ColumnProfile> columnas = new ArrayList<>();
+    private long filas;
+    private long filasNoValidas;
+    private int primeraNoValida = -1;
+    private TableModel tabla;
+    private long nanos;
+
+    /**
+     * @param indice posición de la hoja en el libro
+     * @param nombre nombre de la hoja
+     */
+    public SheetProfile(int indice, String nombre) {
+        this.indice = indice;
+        this.nombre = nombre;
+    }
+
+    /**
+     * Crea una columna por cada cabecera.
+     * @param cabeceras fila de cabeceras
+     */
+    void empezar(SheetRow cabeceras) {
+        for (int j = 0; j < cabeceras.size(); j++)
+            columnas.add(new ColumnProfile(cabeceras.get(j).asString()));
+    }
+
+    /**
+     * Anota una fila de datos en las columnas.
+     * @param fila fila de datos
+     */
+    void observar(SheetRow fila) {
+        filas++;
+        for (int j = 0; j < columnas.size(); j++)
+            columnas.get(j).observar(fila.get(j));
+    }
+
+    /**
+     * Comprueba que los valores de una fila encajan con los tipos deducidos de la muestra, con el mismo criterio que la inferencia:
+     * un valor no encaja si amplía el tipo de su columna (por ejemplo, un texto en una columna INTEGER).
+     * @param fila fila de datos posterior a la muestra
+     * @param tipos tipos deducidos de la muestra
+     * @param lector lector que aporta la deducción de tipo de una celda
+     */
+    void validar(SheetRow fila, FieldType[] tipos, ExcelReader lector) {
+        boolean valida = true;
+        for (int j = 0; j < tipos.length; j++) {
+            CellValue celda = fila.get(j);
+            if (celda.isBlank())
+                continue;
+            FieldType t = lector.getTipoDato(celda);
+            if (tipos[j].widen(t) != tipos[j]) {
+                columnas.get(j).noValido();
+                valida = false;
+            }
+        }
+        if (!valida) {
+            filasNoValidas++;
+            if (primeraNoValida < 0)
+                primeraNoValida = fila.getRowNum() + 1;
+        }
+    }
+
+    /**
+     * Cierra el perfil con el modelo deducido de la hoja.
+     * @param tabla tabla con los campos deducidos
+     * @param nanos tiempo de lectura de la hoja
+     */
+    void terminar(TableModel tabla, long nanos) {
+        this.tabla = tabla;
+        this.nanos = nanos;
+    }
+
+    public int getIndice() {
+        return indice;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public long getFilas() {
+        return filas;
+    }
+
+    public long getFilasNoValidas() {
+        return filasNoValidas;
+    }
+
+    /**
+     * @return número (empezando en 1) de la primera fila que no encaja con los tipos de la muestra, o -1 si no hay
+     */
+    public int getPrimeraNoValida() {
+        return primeraNoValida;
+    }
+
+    public TableModel getTabla() {
+        return tabla;
+    }
+
+    public List<ColumnProfile> getColumnas() {
+        return Collections.unmodifiableList(columnas);
+    }
+
+    public double getMs() {
+        return nanos / 1e6;
+    }
+
+    /**
+     * @param j posición de la columna
+     * @return el tipo deducido de la columna
+     */
+    public FieldType getTipo(int j) {
+        List<FieldModel> campos = tabla.getFields();
+        return j < campos.size() ? campos.get(j).getType() : FieldType.UNKNOWN;
+    }
+
+    /**
+     * @return bytes que ocuparían los datos de la hoja en la tabla, sin índices ({@link ColumnProfile#getBytesEstimados})
+     */
+    public long getBytesEstimados() {
+        long bytes = 0;
+        for (int j = 0; j < columnas.size(); j++)
+            bytes += columnas.get(j).getBytesEstimados(getTipo(j));
+        return bytes;
+    }
+}
@@ -0,0 +1,70 @@
+package com.iesvdc.dam.acceso.util;
+
+/**
+ * Funciones hash de 64 bits para huellas compactas de claves y filas.
+ * Usa FNV-1a sobre los caracteres con un mezclado final (de SplitMix64) para repartir bien los bits.
+ * Con 64 bits la probabilidad de colisión es despreciable para millones de claves (~n²/2^65).
+ */
+public final class Hash64 {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hash64() { }
+
+    /**
+     * Calcula la huella de 64 bits de un texto.
+     * @param texto texto a resumir
+     * @return la huella
+     */
+    public static long hash(CharSequence texto) {
+        return mix(update(FNV_OFFSET, texto));
+    }
+
+    /**
+     * Valor inicial para calcular una huella incremental con {@link #update}.
+     * @return el valor inicial
+     */
+    public static long start() {
+        return FNV_OFFSET;
+    }
+
+    /**
+     * Añade un texto a una huella incremental.
+     * @param h huella acumulada
+     * @param texto texto a añadir
+     * @return la nueva huella acumulada
+     */
+    public static long update(long h, CharSequence texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Añade un valor de 64 bits a una huella incremental.
+     * @param h huella acumulada
+     * @param valor valor a añadir
+     * @return la nueva huella acumulada
+     */
+    public static long update(long h, long valor) {
+        for (int i = 0; i < 8; i++) {
+            h = (h ^ (valor & 0xff)) * FNV_PRIME;
+            valor >>>= 8;
+        }
+        return h;
+    }
+
+    /**
+     * Mezclado final de una huella (finalizador de SplitMix64).
+     * @param h huella acumulada
+     * @return la huella final
+     */
+    public static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
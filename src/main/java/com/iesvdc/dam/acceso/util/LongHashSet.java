@@ -0,0 +1,91 @@
+package com.iesvdc.dam.acceso.util;
+
+/**
+ * Conjunto de valores long con direccionamiento abierto (sondeo lineal) sobre un único array.
+ * Ocupa unos 8-16 bytes por elemento frente a los ~50 de un {@code HashSet<Long>}, y no crea objetos al insertar ni al consultar.
+ * Pensado para guardar huellas de 64 bits ({@link Hash64}) de millones de claves.
+ */
+public class LongHashSet {
+    private static final long VACIO = 0L;
+
+    private long[] tabla;
+    private int size;
+    private boolean contieneCero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * @param capacidad número de elementos esperado
+     */
+    public LongHashSet(int capacidad) {
+        int n = Integer.highestOneBit(Math.max(4, capacidad) * 2 - 1) << 1;
+        tabla = new long[n];
+    }
+
+    public int size() {
+        return size + (contieneCero ? 1 : 0);
+    }
+
+    /**
+     * Añade un valor al conjunto.
+     * @param valor valor a añadir
+     * @return true si no estaba ya en el conjunto
+     */
+    public boolean add(long valor) {
+        if (valor == VACIO) {
+            if (contieneCero)
+                return false;
+            contieneCero = true;
+            return true;
+        }
+        int mascara = tabla.length - 1;
+        int i = indice(valor, mascara);
+        while (tabla[i] != VACIO) {
+            if (tabla[i] == valor)
+                return false;
+            i = (i + 1) & mascara;
+        }
+        tabla[i] = valor;
+        if (++size * 2 > tabla.length)
+            crecer();
+        return true;
+    }
+
+    /**
+     * Indica si el valor está en el conjunto.
+     * @param valor valor a buscar
+     * @return true si está
+     */
+    public boolean contains(long valor) {
+        if (valor == VACIO)
+            return contieneCero;
+        int mascara = tabla.length - 1;
+        int i = indice(valor, mascara);
+        while (tabla[i] != VACIO) {
+            if (tabla[i] == valor)
+                return true;
+            i = (i + 1) & mascara;
+        }
+        return false;
+    }
+
+    private static int indice(long valor, int mascara) {
+        return (int) (valor ^ (valor >>> 32)) & mascara;
+    }
+
+    private void crecer() {
+        long[] anterior = tabla;
+        tabla = new long[anterior.length * 2];
+        int mascara = tabla.length - 1;
+        for (long valor : anterior) {
+            if (valor == VACIO)
+                continue;
+            int i = indice(valor, mascara);
+            while (tabla[i] != VACIO)
+                i = (i + 1) & mascara;
+            tabla[i] = valor;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.iesvdc.dam.acceso.util;
+
+/**
+ * Mapa de long a long con direccionamiento abierto (sondeo lineal) sobre dos arrays paralelos, como {@link LongHashSet}.
+ * Ocupa unos 16-32 bytes por entrada y no crea objetos al insertar ni al consultar.
+ * Pensado para índices de huellas: huella de la clave de una fila → huella de su contenido.
+ */
+public class LongLongHashMap {
+    private static final long VACIO = 0L;
+
+    private long[] claves;
+    private long[] valores;
+    private int size;
+    private boolean contieneCero;
+    private long valorCero;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param capacidad número de entradas esperado
+     */
+    public LongLongHashMap(int capacidad) {
+        int n = Integer.highestOneBit(Math.max(4, capacidad) * 2 - 1) << 1;
+        claves = new long[n];
+        valores = new long[n];
+    }
+
+    public int size() {
+        return size + (contieneCero ? 1 : 0);
+    }
+
+    /**
+     * Asocia un valor a una clave, sustituyendo el anterior si lo había.
+     * @param clave clave
+     * @param valor valor
+     */
+    public void put(long clave, long valor) {
+        if (clave == VACIO) {
+            contieneCero = true;
+            valorCero = valor;
+            return;
+        }
+        int mascara = claves.length - 1;
+        int i = indice(clave, mascara);
+        while (claves[i] != VACIO) {
+            if (claves[i] == clave) {
+                valores[i] = valor;
+                return;
+            }
+            i = (i + 1) & mascara;
+        }
+        claves[i] = clave;
+        valores[i] = valor;
+        if (++size * 2 > claves.length)
+            crecer();
+    }
+
+    /**
+     * Indica si la clave está en el mapa.
+     * @param clave clave a buscar
+     * @return true si está
+     */
+    public boolean containsKey(long clave) {
+        if (clave == VACIO)
+            return contieneCero;
+        return posicion(clave) >= 0;
+    }
+
+    /**
+     * Devuelve el valor de una clave.
+     * @param clave clave a buscar
+     * @param porDefecto valor que se devuelve si la clave no está
+     * @return el valor asociado, o {@code porDefecto}
+     */
+    public long get(long clave, long porDefecto) {
+        if (clave == VACIO)
+            return contieneCero ? valorCero : porDefecto;
+        int i = posicion(clave);
+        return i >= 0 ? valores[i] : porDefecto;
+    }
+
+    private int posicion(long clave) {
+        int mascara = claves.length - 1;
+        int i = indice(clave, mascara);
+        while (claves[i] != VACIO) {
+            if (claves[i] == clave)
+                return i;
+            i = (i + 1) & mascara;
+        }
+        return -1;
+    }
+
+    private static int indice(long valor, int mascara) {
+        return (int) (valor ^ (valor >>> 32)) & mascara;
+    }
+
+    private void crecer() {
+        long[] clavesAnteriores = claves;
+        long[] valoresAnteriores = valores;
+        claves = new long[clavesAnteriores.length * 2];
+        valores = new long[clavesAnteriores.length * 2];
+        int mascara = claves.length - 1;
+        for (int j = 0; j < clavesAnteriores.length; j++) {
+            if (clavesAnteriores[j] == VACIO)
+                continue;
+            int i = indice(clavesAnteriores[j], mascara);
+            while (claves[i] != VACIO)
+                i = (i + 1) & mascara;
+            claves[i] = clavesAnteriores[j];
+            valores[i] = valoresAnteriores[j];
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.iesvdc.dam.acceso.carga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+
+/**
+ * Escritura tolerante con {@link BatchInsertWriter} contra una base de datos H2 en memoria: las filas que el servidor
+ * rechaza se aíslan y se anotan en el fichero de rechazos, y el resto del bloque se inserta.
+ * H2 sigue con el batch tras un error; para probar el reenvío por partes se simulan los drivers que se detienen
+ * en el primer error (como PostgreSQL) o que no dicen qué fila ha fallado.
+ */
+public class BatchInsertWriterTest {
+    /** Cómo informa el driver simulado de un batch con errores. */
+    private enum Driver { SIGUE, PARA_EN_EL_PRIMERO, NO_LO_DICE }
+
+    private Connection conexion;
+    private Path ficheroRechazos;
+    private TableModel tabla;
+
+    @Before
+    public void abrir() throws Exception {
+        conexion = DriverManager.getConnection("jdbc:h2:mem:batch;DATABASE_TO_LOWER=TRUE", "sa", "");
+        conexion.setAutoCommit(false);
+        try (Statement st = conexion.createStatement()) {
+            st.execute("CREATE TABLE \"t\" (\"id\" BIGINT UNIQUE, \"nombre\" VARCHAR(20))");
+        }
+        tabla = new TableModel("t");
+        tabla.addField(new FieldModel("id", FieldType.INTEGER));
+        tabla.addField(new FieldModel("nombre", FieldType.STRING));
+        ficheroRechazos = Files.createTempFile("rechazos", ".csv");
+    }
+
+    @After
+    public void cerrar() throws Exception {
+        conexion.close();
+        Files.deleteIfExists(ficheroRechazos);
+    }
+
+    @Test
+    public void aislaLasFilasDuplicadasSiElDriverSigue() throws Exception {
+        comprobarRechazos(Driver.SIGUE);
+    }
+
+    @Test
+    public void aislaLasFilasDuplicadasSiElDriverParaEnElPrimerError() throws Exception {
+        comprobarRechazos(Driver.PARA_EN_EL_PRIMERO);
+    }
+
+    @Test
+    public void aislaLasFilasDuplicadasPorBiseccion() throws Exception {
+        comprobarRechazos(Driver.NO_LO_DICE);
+    }
+
+    @Test
+    public void rechazaLosValoresQueNoSeConviertenSinEnviarlos() throws Exception {
+        try (RejectsWriter rechazos = new RejectsWriter(ficheroRechazos.toString(), -1);
+             BatchInsertWriter writer = new BatchInsertWriter(conexion, tabla)) {
+            writer.setRechazos(rechazos);
+            writer.write(fila(1, 1, "Ana"));
+            writer.write(fila(2, "uno", "Luis"));
+            writer.flush();
+            assertEquals(1, writer.getRechazadas());
+        }
+        assertEquals(List.of("1=Ana"), contenido());
+        List<String> registros = registrosRechazados();
+        assertEquals(1, registros.size());
+        assertTrue(registros.get(0), registros.get(0).startsWith("t,3,\"valor no válido"));
+        assertTrue(registros.get(0), registros.get(0).endsWith(",uno,Luis"));
+    }
+
+    @Test
+    public void sinFicheroDeRechazosElValorNoValidoCancela() throws Exception {
+        try (BatchInsertWriter writer = new BatchInsertWriter(conexion, tabla)) {
+            writer.write(fila(1, "uno", "Ana"));
+            fail("Sin fichero de rechazos la fila debe cancelar la carga");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("fila 2: valor no válido"));
+        }
+    }
+
+    @Test
+    public void superarElMaximoDeRechazosCancela() throws Exception {
+        try (RejectsWriter rechazos = new RejectsWriter(ficheroRechazos.toString(), 1);
+             BatchInsertWriter writer = new BatchInsertWriter(conexion, tabla)) {
+            writer.setRechazos(rechazos);
+            writer.write(fila(1, "uno", "Ana"));
+            writer.write(fila(2, "dos", "Luis"));
+            fail("El segundo rechazo supera errorBudget=1");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("errorBudget"));
+        }
+    }
+
+    /**
+     * Envía en un solo bloque diez filas, de las que la 4 y la 8 repiten el id de la 1.
+     */
+    private void comprobarRechazos(Driver driver) throws Exception {
+        List<String> esperado = new ArrayList<>();
+        try (RejectsWriter rechazos = new RejectsWriter(ficheroRechazos.toString(), -1);
+             BatchInsertWriter writer = new BatchInsertWriter(simular(conexion, driver), tabla)) {
+            writer.setRechazos(rechazos);
+            for (int i = 1; i <= 10; i++) {
+                int id = i == 4 || i == 8 ? 1 : i;
+                writer.write(fila(i, id, "n" + i));
+                if (id == i)
+                    esperado.add(i + "=n" + i);
+            }
+            writer.flush();
+            assertEquals(2, writer.getRechazadas());
+            assertEquals(2, rechazos.getRechazadas());
+        }
+        assertEquals(esperado, contenido());
+        List<String> registros = registrosRechazados();
+        assertEquals(2, registros.size());
+        assertTrue(registros.get(0), registros.get(0).startsWith("t,5,"));
+        assertTrue(registros.get(1), registros.get(1).startsWith("t,9,"));
+    }
+
+    /**
+     * Primera línea de cada fila del fichero de rechazos (el motivo puede ocupar varias, entre comillas).
+     */
+    private List<String> registrosRechazados() throws Exception {
+        List<String> registros = new ArrayList<>();
+        for (String linea : Files.readAllLines(ficheroRechazos, StandardCharsets.UTF_8))
+            if (linea.startsWith("t,"))
+                registros.add(linea);
+        return registros;
+    }
+
+    /**
+     * Envuelve la conexión para que executeBatch informe de los errores como lo haría otro driver.
+     */
+    private static Connection simular(Connection real, Driver driver) {
+        if (driver == Driver.SIGUE)
+            return real;
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+            (proxy, metodo, args) -> {
+                Object resultado = invocar(real, metodo, args);
+                if (!(resultado instanceof PreparedStatement))
+                    return resultado;
+                PreparedStatement ps = (PreparedStatement) resultado;
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                    (p, m, a) -> {
+                        try {
+                            return invocar(ps, m, a);
+                        } catch (BatchUpdateException e) {
+                            if (!m.getName().equals("executeBatch"))
+                                throw e;
+                            int[] contadores = null;
+                            if (driver == Driver.PARA_EN_EL_PRIMERO) {
+                                // Solo los contadores de las filas anteriores a la que ha fallado
+                                int fallo = 0;
+                                while (e.getUpdateCounts()[fallo] != Statement.EXECUTE_FAILED)
+                                    fallo++;
+                                contadores = Arrays.copyOf(e.getUpdateCounts(), fallo);
+                            }
+                            throw new BatchUpdateException(e.getMessage(), contadores);
+                        }
+                    });
+            });
+    }
+
+    private static Object invocar(Object destino, Method metodo, Object[] args) throws Throwable {
+        try {
+            return metodo.invoke(destino, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static SheetRow fila(int numero, Object id, String nombre) {
+        SheetRow fila = new SheetRow();
+        fila.reset(numero);
+        if (id instanceof Number)
+            fila.cell(0).setNumeric(((Number) id).doubleValue(), false);
+        else
+            fila.cell(0).setString((String) id);
+        fila.cell(1).setString(nombre);
+        return fila;
+    }
+
+    /**
+     * Filas de la tabla como "id=nombre", ordenadas por id.
+     */
+    private List<String> contenido() throws SQLException {
+        List<String> filas = new ArrayList<>();
+        try (Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery("SELECT \"id\", \"nombre\" FROM \"t\" ORDER BY \"id\"")) {
+            while (rs.next())
+                filas.add(rs.getLong(1) + "=" + rs.getString(2));
+        }
+        return filas;
+    }
+}
@@ -0,0 +1,134 @@
+package com.iesvdc.dam.acceso.carga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Carga incremental contra una base de datos H2 en memoria: altas, modificaciones, filas sin cambios y borrados.
+ */
+public class DeltaLoaderTest {
+    private Connection conexion;
+
+    @Before
+    public void abrir() throws SQLException {
+        conexion = DriverManager.getConnection("jdbc:h2:mem:delta;DATABASE_TO_LOWER=TRUE", "sa", "");
+        conexion.setAutoCommit(false);
+    }
+
+    @After
+    public void cerrar() throws SQLException {
+        conexion.close();
+    }
+
+    @Test
+    public void primeraCargaInsertaTodo() throws Exception {
+        DeltaLoader delta = cargar(modelo(FieldType.INTEGER),
+            fila(1, 1, "Ana"), fila(2, 2, "Luis"), fila(3, 3, "Eva"));
+        assertEquals(3, delta.getInsertadas());
+        assertEquals(0, delta.getActualizadas());
+        assertEquals(0, delta.getBorradas());
+        assertEquals(List.of("1=Ana", "2=Luis", "3=Eva"), contenido());
+    }
+
+    @Test
+    public void segundaCargaDetectaCambiosYBorrados() throws Exception {
+        cargar(modelo(FieldType.INTEGER), fila(1, 1, "Ana"), fila(2, 2, "Luis"), fila(3, 3, "Eva"));
+
+        DeltaLoader delta = cargar(modelo(FieldType.INTEGER), fila(1, 1, "Ana"), fila(2, 2, "Luisa"), fila(3, 4, "Pablo"));
+        assertEquals(1, delta.getSinCambios());
+        assertEquals(1, delta.getActualizadas());
+        assertEquals(1, delta.getInsertadas());
+        assertEquals(1, delta.getBorradas());
+        assertEquals(List.of("1=Ana", "2=Luisa", "4=Pablo"), contenido());
+    }
+
+    @Test
+    public void borraClavesDecimales() throws Exception {
+        cargar(modelo(FieldType.DECIMAL), fila(1, 1.5, "Ana"), fila(2, 2.25, "Luis"));
+
+        DeltaLoader delta = cargar(modelo(FieldType.DECIMAL), fila(1, 1.5, "Ana"));
+        assertEquals(1, delta.getBorradas());
+        assertEquals(List.of("1.5=Ana"), contenido());
+    }
+
+    @Test
+    public void claveDemasiadoLargaNoSeCuenta() throws Exception {
+        DeltaLoader delta = new DeltaLoader(conexion, modelo(FieldType.STRING), 100, DeltaLoader.TABLA_HUELLAS);
+        delta.startSheet(0, "t");
+        delta.row(fila(0, "id", "nombre"));
+        try {
+            delta.row(fila(1, "x".repeat(2000), "Ana"));
+            fail("La clave supera la longitud del índice");
+        } catch (Exception e) {
+            assertEquals(0, delta.getInsertadas());
+        }
+    }
+
+    private static WorkbookModel modelo(FieldType tipoClave) {
+        TableModel tabla = new TableModel("t");
+        tabla.addField(new FieldModel("id", tipoClave));
+        tabla.addField(new FieldModel("nombre", FieldType.STRING));
+        tabla.addUniqueField("id");
+        WorkbookModel modelo = new WorkbookModel();
+        modelo.addTable(tabla);
+        return modelo;
+    }
+
+    /**
+     * Aplica una hoja "t" con las filas de datos indicadas (la cabecera se añade sola).
+     */
+    private DeltaLoader cargar(WorkbookModel modelo, SheetRow... filas) throws Exception {
+        DeltaLoader delta = new DeltaLoader(conexion, modelo, 100, DeltaLoader.TABLA_HUELLAS);
+        delta.startSheet(0, "t");
+        delta.row(fila(0, "id", "nombre"));
+        for (SheetRow f : filas)
+            delta.row(f);
+        delta.endSheet();
+        return delta;
+    }
+
+    private static SheetRow fila(int numero, Object... valores) {
+        SheetRow fila = new SheetRow();
+        fila.reset(numero);
+        for (int j = 0; j < valores.length; j++) {
+            if (valores[j] instanceof Number)
+                fila.cell(j).setNumeric(((Number) valores[j]).doubleValue(), false);
+            else
+                fila.cell(j).setString((String) valores[j]);
+        }
+        return fila;
+    }
+
+    /**
+     * Filas de la tabla como "id=nombre", ordenadas por id.
+     */
+    private List<String> contenido() throws SQLException {
+        List<String> filas = new ArrayList<>();
+        try (Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery("SELECT \"id\", \"nombre\" FROM \"t\" ORDER BY \"id\"")) {
+            while (rs.next()) {
+                Object id = rs.getObject(1);
+                filas.add((id instanceof Double ? id.toString() : Long.toString(rs.getLong(1))) + "=" + rs.getString(2));
+            }
+        }
+        return filas;
+    }
+}
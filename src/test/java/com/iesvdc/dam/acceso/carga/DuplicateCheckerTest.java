@@ -0,0 +1,85 @@
+package com.iesvdc.dam.acceso.carga;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iesvdc.dam.acceso.excelutil.SheetRow;
+import com.iesvdc.dam.acceso.modelo.FieldModel;
+import com.iesvdc.dam.acceso.modelo.FieldType;
+import com.iesvdc.dam.acceso.modelo.TableModel;
+import com.iesvdc.dam.acceso.modelo.WorkbookModel;
+
+/**
+ * Comprobación de duplicados en una tabla con dos campos únicos, contra una base de datos H2 en memoria:
+ * una fila rechazada por uno de sus campos no debe dejar anotado el valor del otro.
+ */
+public class DuplicateCheckerTest {
+    private Connection conexion;
+    private TableModel tabla;
+    private WorkbookModel modelo;
+
+    @Before
+    public void abrir() throws SQLException {
+        conexion = DriverManager.getConnection("jdbc:h2:mem:duplicados;DATABASE_TO_LOWER=TRUE", "sa", "");
+        tabla = new TableModel("t");
+        tabla.addField(new FieldModel("id", FieldType.INTEGER));
+        tabla.addField(new FieldModel("email", FieldType.STRING));
+        tabla.addUniqueField("id");
+        tabla.addUniqueField("email");
+        modelo = new WorkbookModel();
+        modelo.addTable(tabla);
+    }
+
+    @After
+    public void cerrar() throws SQLException {
+        conexion.close();
+    }
+
+    @Test
+    public void unaFilaRepetidaNoAnotaSusOtrosValores() throws Exception {
+        DuplicateChecker duplicados = new DuplicateChecker(conexion, modelo);
+        duplicados.startTable(tabla);
+        assertTrue(duplicados.check(fila(1, 1, "ana@x")));
+        // El id está repetido: la fila se rechaza y su email no cuenta como visto
+        assertFalse(duplicados.check(fila(2, 1, "luis@x")));
+        assertTrue(duplicados.check(fila(3, 3, "luis@x")));
+        // El email sí está repetido respecto a una fila aceptada
+        assertFalse(duplicados.check(fila(4, 4, "ana@x")));
+        assertTrue(duplicados.check(fila(5, 4, "eva@x")));
+        assertEquals(2, duplicados.getTotalConflictos());
+    }
+
+    @Test
+    public void unaFilaQueYaExisteNoAnotaSusOtrosValores() throws Exception {
+        try (Statement st = conexion.createStatement()) {
+            st.execute("CREATE TABLE \"t\" (\"id\" BIGINT, \"email\" VARCHAR(50))");
+            st.execute("INSERT INTO \"t\" VALUES (7, 'eva@x')");
+        }
+        DuplicateChecker duplicados = new DuplicateChecker(conexion, modelo);
+        duplicados.startTable(tabla);
+        assertFalse(duplicados.check(fila(1, 7, "ana@x")));
+        assertTrue(duplicados.check(fila(2, 8, "ana@x")));
+        assertFalse(duplicados.check(fila(3, 9, "eva@x")));
+        assertTrue(duplicados.getMotivo(), duplicados.getMotivo().contains("ya existe en la base de datos"));
+        assertTrue(duplicados.check(fila(4, 9, "pablo@x")));
+        assertEquals(2, duplicados.getTotalConflictos());
+    }
+
+    private static SheetRow fila(int numero, long id, String email) {
+        SheetRow fila = new SheetRow();
+        fila.reset(numero);
+        fila.cell(0).setNumeric(id, false);
+        fila.cell(1).setString(email);
+        return fila;
+    }
+}
@@ -0,0 +1,224 @@
+package com.iesvdc.dam.acceso.excelutil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Lectores en streaming de CSV, .xls y .ods: todos deben entregar las mismas filas, con el tipo nativo de cada celda.
+ * Los ficheros se generan en cada prueba: el .xls con POI y el .ods escribiendo a mano su zip y su content.xml.
+ */
+public class RowSourceTest {
+    private static final double FECHA = DateUtil.getExcelDate(LocalDateTime.of(2024, 3, 1, 0, 0));
+    private static final double FECHA_HORA = DateUtil.getExcelDate(LocalDateTime.of(2024, 3, 1, 10, 30));
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    @Test
+    public void csvConvierteCadaCeldaASuTipo() throws Exception {
+        File csv = escribir("datos.csv", "id,nombre,nota,activo,fecha\r\n"
+            + "1,Ana,7.5,true,2024-03-01\r\n"
+            + "2,007,-3,FALSE,2024-03-01 10:30\r\n");
+        Hojas hojas = leer(csv);
+        assertEquals(List.of("0:datos"), hojas.nombres);
+        assertEquals(List.of(
+            List.of("S:id", "S:nombre", "S:nota", "S:activo", "S:fecha"),
+            List.of("N:1.0", "S:Ana", "N:7.5", "B:true", "D:" + FECHA),
+            List.of("N:2.0", "S:007", "N:-3.0", "B:false", "D:" + FECHA_HORA)), hojas.filas);
+    }
+
+    @Test
+    public void csvAdmiteComillasYSaltosDeLineaDentroDeUnCampo() throws Exception {
+        File csv = escribir("citas.csv", "\uFEFFautor;cita;vacia\n"
+            + "\"Pérez; Ana\";\"dice \"\"hola\"\"\ny se va\";\n"
+            + "Luis;\"\";x\n");
+        Hojas hojas = leer(csv);
+        assertEquals(List.of(
+            List.of("S:autor", "S:cita", "S:vacia"),
+            // La última celda vacía no cuenta en el tamaño de la fila
+            List.of("S:Pérez; Ana", "S:dice \"hola\"\ny se va"),
+            List.of("S:Luis", "_", "S:x")), hojas.filas);
+        // El salto de línea dentro de las comillas no parte la fila: la siguiente sigue siendo la tercera
+        assertEquals(List.of(0, 1, 2), hojas.numeros);
+    }
+
+    @Test
+    public void xlsEntregaLosTiposNativosDeCadaHoja() throws Exception {
+        File xls = carpeta.newFile("libro.xls");
+        try (HSSFWorkbook libro = new HSSFWorkbook(); OutputStream out = new FileOutputStream(xls)) {
+            CellStyle fecha = libro.createCellStyle();
+            fecha.setDataFormat(libro.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+            Sheet hoja = libro.createSheet("personas");
+            Row cabecera = hoja.createRow(0);
+            cabecera.createCell(0).setCellValue("id");
+            cabecera.createCell(1).setCellValue("nombre");
+            cabecera.createCell(2).setCellValue("activo");
+            cabecera.createCell(3).setCellValue("alta");
+            Row datos = hoja.createRow(1);
+            datos.createCell(0).setCellValue(1);
+            datos.createCell(1).setCellValue("Ana");
+            datos.createCell(2).setCellValue(true);
+            datos.createCell(3).setCellValue(FECHA_HORA);
+            datos.getCell(3).setCellStyle(fecha);
+            // Fila con un hueco en medio
+            Row hueco = hoja.createRow(2);
+            hueco.createCell(0).setCellValue(2.5);
+            hueco.createCell(3).setCellValue("sin fecha");
+            libro.createSheet("otra").createRow(0).createCell(0).setCellValue("x");
+            libro.write(out);
+        }
+        Hojas hojas = leer(xls);
+        assertEquals(List.of("0:personas", "1:otra"), hojas.nombres);
+        assertEquals(List.of(
+            List.of("S:id", "S:nombre", "S:activo", "S:alta"),
+            List.of("N:1.0", "S:Ana", "B:true", "D:" + FECHA_HORA),
+            List.of("N:2.5", "_", "_", "S:sin fecha"),
+            List.of("S:x")), hojas.filas);
+
+        // Solo la segunda hoja
+        Hojas segunda = new Hojas();
+        RowSource.of(xls.getPath()).process(xls.getPath(), 1, segunda);
+        assertEquals(List.of("1:otra"), segunda.nombres);
+    }
+
+    @Test
+    public void odsEntregaLosTiposNativosYExpandeLasRepeticiones() throws Exception {
+        File ods = escribirOds("libro.ods",
+            "<table:table table:name=\"notas\">"
+            + "<table:table-row>"
+            + celdaTexto("alumno") + celdaTexto("nota") + celdaTexto("aprobado") + celdaTexto("fecha") + celdaTexto("resto")
+            + "</table:table-row>"
+            + "<table:table-row>"
+            + "<table:table-cell office:value-type=\"string\"><text:p>Ana<text:s text:c=\"2\"/>Pérez</text:p></table:table-cell>"
+            + "<table:table-cell office:value-type=\"float\" office:value=\"7.5\"><text:p>7,5</text:p></table:table-cell>"
+            + "<table:table-cell office:value-type=\"boolean\" office:boolean-value=\"true\"><text:p>VERDADERO</text:p></table:table-cell>"
+            + "<table:table-cell office:value-type=\"date\" office:date-value=\"2024-03-01T10:30:00\"><text:p>01/03/24</text:p></table:table-cell>"
+            + "<table:table-cell table:number-columns-repeated=\"1\" office:value-type=\"float\" office:value=\"1\"/>"
+            + "</table:table-row>"
+            + "<table:table-row>"
+            + "<table:table-cell table:number-columns-repeated=\"2\" office:value-type=\"float\" office:value=\"4\"/>"
+            + "<table:table-cell/>"
+            + "<table:table-cell office:value-type=\"date\" office:date-value=\"2024-03-01\"/>"
+            + "</table:table-row>"
+            + "<table:table-row table:number-rows-repeated=\"1000\"><table:table-cell table:number-columns-repeated=\"5\"/></table:table-row>"
+            + "</table:table>");
+        Hojas hojas = leer(ods);
+        assertEquals(List.of("0:notas"), hojas.nombres);
+        assertEquals(List.of(
+            List.of("S:alumno", "S:nota", "S:aprobado", "S:fecha", "S:resto"),
+            List.of("S:Ana  Pérez", "N:7.5", "B:true", "D:" + FECHA_HORA, "N:1.0"),
+            List.of("N:4.0", "N:4.0", "_", "D:" + FECHA)), hojas.filas);
+    }
+
+    @Test
+    public void elFormatoSeDetectaPorElContenido() throws Exception {
+        File csv = escribir("sin_extension", "a,b\n1,2\n");
+        assertEquals(FileFormat.CSV, FileFormat.detectar(csv.getPath()));
+        assertTrue(RowSource.of(csv.getPath()) instanceof MappedCsvReader);
+        File ods = escribirOds("renombrado.xlsx", "<table:table table:name=\"h\"/>");
+        assertEquals(FileFormat.ODS, FileFormat.detectar(ods.getPath()));
+        assertTrue(RowSource.of(ods.getPath()) instanceof StreamingOdsReader);
+    }
+
+    /**
+     * Receptor que guarda el nombre de cada hoja y una copia de sus filas como "tipo:valor" por celda.
+     */
+    private static class Hojas implements SheetRowHandler {
+        final List<String> nombres = new ArrayList<>();
+        final List<List<String>> filas = new ArrayList<>();
+        final List<Integer> numeros = new ArrayList<>();
+
+        @Override
+        public void startSheet(int index, String name) {
+            nombres.add(index + ":" + name);
+        }
+
+        @Override
+        public void row(SheetRow row) {
+            List<String> celdas = new ArrayList<>();
+            for (int j = 0; j < row.size(); j++)
+                celdas.add(describir(row.get(j)));
+            filas.add(celdas);
+            numeros.add(row.getRowNum());
+        }
+    }
+
+    private static String describir(CellValue celda) {
+        switch (celda.getCellType()) {
+            case NUMERIC:
+                return (celda.isDate() ? "D:" : "N:") + celda.getNumericValue();
+            case STRING:
+                return "S:" + celda.getStringValue();
+            case BOOLEAN:
+                return "B:" + celda.getBooleanValue();
+            default:
+                return "_";
+        }
+    }
+
+    private Hojas leer(File fichero) throws Exception {
+        Hojas hojas = new Hojas();
+        RowSource.of(fichero.getPath()).process(fichero.getPath(), hojas);
+        return hojas;
+    }
+
+    private File escribir(String nombre, String contenido) throws Exception {
+        File fichero = carpeta.newFile(nombre);
+        Files.write(fichero.toPath(), contenido.getBytes(StandardCharsets.UTF_8));
+        return fichero;
+    }
+
+    private static String celdaTexto(String texto) {
+        return "<table:table-cell office:value-type=\"string\"><text:p>" + texto + "</text:p></table:table-cell>";
+    }
+
+    /**
+     * Escribe un .ods mínimo: la entrada mimetype sin comprimir al principio (como exige el formato) y el content.xml con las tablas.
+     */
+    private File escribirOds(String nombre, String tablas) throws Exception {
+        File fichero = carpeta.newFile(nombre);
+        byte[] mime = "application/vnd.oasis.opendocument.spreadsheet".getBytes(StandardCharsets.US_ASCII);
+        String contenido = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<office:document-content xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\""
+            + " xmlns:table=\"urn:oasis:names:tc:opendocument:xmlns:table:1.0\""
+            + " xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\">"
+            + "<office:body><office:spreadsheet>" + tablas + "</office:spreadsheet></office:body>"
+            + "</office:document-content>";
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fichero))) {
+            ZipEntry entrada = new ZipEntry("mimetype");
+            entrada.setMethod(ZipEntry.STORED);
+            entrada.setSize(mime.length);
+            CRC32 crc = new CRC32();
+            crc.update(mime);
+            entrada.setCrc(crc.getValue());
+            zip.putNextEntry(entrada);
+            zip.write(mime);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("content.xml"));
+            zip.write(contenido.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return fichero;
+    }
+}
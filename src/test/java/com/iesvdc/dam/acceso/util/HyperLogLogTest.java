@@ -0,0 +1,64 @@
+package com.iesvdc.dam.acceso.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Estimación de valores distintos con {@link HyperLogLog}: con pocos valores el conteo lineal es casi exacto y,
+ * con muchos, el error debe quedar dentro de tres veces el error típico ({@link HyperLogLog#ERROR}).
+ */
+public class HyperLogLogTest {
+
+    @Test
+    public void sinValoresEstimaCero() {
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    public void conPocosValoresLaEstimacionEsExacta() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 1; i <= 20; i++) {
+            hll.add(Hash64.mix(i));
+            assertEquals(i, hll.estimate());
+        }
+    }
+
+    @Test
+    public void elErrorQuedaDentroDelMargenConHuellasNumericas() {
+        for (int n : new int[] { 1_000, 10_000, 100_000 }) {
+            HyperLogLog hll = new HyperLogLog();
+            for (long i = 0; i < n; i++)
+                hll.add(Hash64.mix(i));
+            comprobarError(n, hll.estimate());
+        }
+    }
+
+    @Test
+    public void elErrorQuedaDentroDelMargenConHuellasDeTexto() {
+        for (int n : new int[] { 1_000, 10_000, 100_000 }) {
+            HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < n; i++)
+                hll.add(Hash64.hash("cliente-" + i));
+            comprobarError(n, hll.estimate());
+        }
+    }
+
+    @Test
+    public void losRepetidosNoCambianLaEstimacion() {
+        HyperLogLog unaVez = new HyperLogLog();
+        HyperLogLog repetidos = new HyperLogLog();
+        for (long i = 0; i < 50_000; i++)
+            unaVez.add(Hash64.mix(i));
+        for (int vuelta = 0; vuelta < 5; vuelta++)
+            for (long i = 0; i < 50_000; i++)
+                repetidos.add(Hash64.mix(i));
+        assertEquals(unaVez.estimate(), repetidos.estimate());
+    }
+
+    private static void comprobarError(int real, long estimado) {
+        double error = Math.abs(estimado - real) / (double) real;
+        assertTrue("estimados " + estimado + " de " + real + " (error " + error + ")", error <= 3 * HyperLogLog.ERROR);
+    }
+}
@@ -0,0 +1,79 @@
+package com.iesvdc.dam.acceso.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Conjunto {@link LongHashSet}: repetidos, el valor 0 (que marca los huecos vacíos), crecimiento más allá de la
+ * capacidad inicial y valores que caen en el mismo hueco y obligan a sondear.
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void noAdmiteRepetidos() {
+        LongHashSet conjunto = new LongHashSet();
+        assertTrue(conjunto.add(42));
+        assertFalse(conjunto.add(42));
+        assertTrue(conjunto.add(-42));
+        assertEquals(2, conjunto.size());
+        assertTrue(conjunto.contains(42));
+        assertTrue(conjunto.contains(-42));
+        assertFalse(conjunto.contains(43));
+    }
+
+    @Test
+    public void elCeroSeGuardaAparte() {
+        LongHashSet conjunto = new LongHashSet();
+        assertFalse(conjunto.contains(0));
+        assertTrue(conjunto.add(0));
+        assertFalse(conjunto.add(0));
+        assertTrue(conjunto.contains(0));
+        assertEquals(1, conjunto.size());
+        conjunto.add(1);
+        assertEquals(2, conjunto.size());
+    }
+
+    @Test
+    public void creceMasAllaDeLaCapacidadInicial() {
+        LongHashSet conjunto = new LongHashSet(4);
+        for (long i = 0; i < 100_000; i++)
+            assertTrue(conjunto.add(Hash64.mix(i)));
+        assertEquals(100_000, conjunto.size());
+        for (long i = 0; i < 100_000; i++) {
+            assertTrue(conjunto.contains(Hash64.mix(i)));
+            assertFalse(conjunto.add(Hash64.mix(i)));
+        }
+        assertFalse(conjunto.contains(Hash64.mix(100_000)));
+    }
+
+    @Test
+    public void losValoresQueCaenEnElMismoHuecoSeEncuentran() {
+        // (k << 32) | k tiene a 0 todos los bits que eligen el hueco, sea cual sea el tamaño de la tabla
+        LongHashSet conjunto = new LongHashSet(4);
+        for (long k = 1; k <= 1_000; k++)
+            assertTrue(conjunto.add(k << 32 | k));
+        assertEquals(1_000, conjunto.size());
+        for (long k = 1; k <= 1_000; k++) {
+            assertTrue(conjunto.contains(k << 32 | k));
+            assertFalse(conjunto.add(k << 32 | k));
+            assertFalse(conjunto.contains(k << 32));
+        }
+        assertFalse(conjunto.contains(1_001L << 32 | 1_001));
+    }
+
+    @Test
+    public void elSondeoDaLaVueltaAlFinalDeLaTabla() {
+        // Con capacidad 4 la tabla tiene 8 huecos: 7 y 15 caen en el último y 15 pasa al primero
+        LongHashSet conjunto = new LongHashSet(4);
+        assertTrue(conjunto.add(7));
+        assertTrue(conjunto.add(15));
+        assertTrue(conjunto.contains(7));
+        assertTrue(conjunto.contains(15));
+        assertFalse(conjunto.contains(23));
+        assertFalse(conjunto.add(15));
+        assertEquals(2, conjunto.size());
+    }
+}